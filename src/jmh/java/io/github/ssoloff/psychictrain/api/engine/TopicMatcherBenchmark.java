@@ -0,0 +1,71 @@
+package io.github.ssoloff.psychictrain.api.engine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.reflect.TypeToken;
+
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+public class TopicMatcherBenchmark {
+  private static final TypeToken<Integer> TYPE_TOKEN = TypeToken.of(Integer.class);
+
+  private Topic<Integer> matchingTopic;
+  private TopicMatcher multipleTopicMatcher;
+  private TopicMatcher namePatternTopicMatcher;
+  private Topic<Integer> nonMatchingTopic;
+
+  // the number of topics matched by each matcher
+  @Param({ "1", "10", "100" })
+  public int topicCount;
+
+  @Benchmark
+  public boolean multipleTopicMatcherWithMatchingTopic() {
+    return multipleTopicMatcher.matches(matchingTopic);
+  }
+
+  @Benchmark
+  public boolean multipleTopicMatcherWithNonMatchingTopic() {
+    return multipleTopicMatcher.matches(nonMatchingTopic);
+  }
+
+  @Benchmark
+  public boolean namePatternTopicMatcherWithMatchingTopic() {
+    return namePatternTopicMatcher.matches(matchingTopic);
+  }
+
+  @Benchmark
+  public boolean namePatternTopicMatcherWithNonMatchingTopic() {
+    return namePatternTopicMatcher.matches(nonMatchingTopic);
+  }
+
+  @Setup
+  public void setUp() {
+    final Topic<?>[] topics = IntStream.range(0, topicCount)
+        .mapToObj(index -> Topic.of("world.entity." + index + ".position", TYPE_TOKEN))
+        .toArray(Topic<?>[]::new);
+    multipleTopicMatcher = TopicMatcher.forTopics(topics[0], topics);
+    namePatternTopicMatcher = TopicMatcher.forTopicsMatchingPattern(
+        Pattern.compile("world\\.entity\\.\\d{1," + String.valueOf(topicCount - 1).length() + "}\\.position"),
+        TYPE_TOKEN);
+    matchingTopic = Topic.of("world.entity." + (topicCount - 1) + ".position", TYPE_TOKEN);
+    nonMatchingTopic = Topic.of("world.entity." + topicCount + ".velocity", TYPE_TOKEN);
+  }
+}
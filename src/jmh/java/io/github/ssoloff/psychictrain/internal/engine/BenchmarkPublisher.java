@@ -0,0 +1,21 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import io.github.ssoloff.psychictrain.api.engine.Publisher;
+import io.github.ssoloff.psychictrain.api.engine.PublisherContext;
+import io.github.ssoloff.psychictrain.api.engine.PublisherFactory;
+
+final class BenchmarkPublisher implements Publisher {
+  private final PublisherContext context;
+
+  private BenchmarkPublisher(final PublisherContext context) {
+    this.context = context;
+  }
+
+  PublisherContext getContext() {
+    return context;
+  }
+
+  static PublisherFactory<BenchmarkPublisher> newFactory() {
+    return BenchmarkPublisher::new;
+  }
+}
@@ -0,0 +1,34 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import java.util.Set;
+
+import io.github.ssoloff.psychictrain.api.engine.Subscriber;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberContext;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberFactory;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+
+final class BenchmarkSubscriber implements Subscriber {
+  private final SubscriberContext context;
+  private long notificationCount;
+
+  private BenchmarkSubscriber(final SubscriberContext context) {
+    this.context = context;
+  }
+
+  SubscriberContext getContext() {
+    return context;
+  }
+
+  long getNotificationCount() {
+    return notificationCount;
+  }
+
+  static SubscriberFactory<BenchmarkSubscriber> newFactory() {
+    return BenchmarkSubscriber::new;
+  }
+
+  @Override
+  public void topicsChanged(final Set<Topic<?>> topics) {
+    notificationCount += topics.size();
+  }
+}
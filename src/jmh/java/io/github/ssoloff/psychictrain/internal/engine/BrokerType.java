@@ -0,0 +1,27 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import io.github.ssoloff.psychictrain.api.engine.Broker;
+import io.github.ssoloff.psychictrain.api.engine.BrokerInstrumentation;
+
+// each broker implementation to be benchmarked; benchmarks select them using a
+// "brokerType" parameter
+public enum BrokerType {
+  CONCURRENT {
+    @Override
+    Broker newBroker(final BrokerInstrumentation instrumentation) {
+      return new ConcurrentBroker(instrumentation);
+    }
+  },
+  DEFAULT {
+    @Override
+    Broker newBroker(final BrokerInstrumentation instrumentation) {
+      return new DefaultBroker(instrumentation);
+    }
+  };
+
+  Broker newBroker() {
+    return newBroker(BrokerInstrumentation.noOp());
+  }
+
+  abstract Broker newBroker(BrokerInstrumentation instrumentation);
+}
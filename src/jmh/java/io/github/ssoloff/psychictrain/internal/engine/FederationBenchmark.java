@@ -0,0 +1,108 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableMap;
+
+import io.github.ssoloff.psychictrain.api.codec.ValueCodecRegistry;
+import io.github.ssoloff.psychictrain.api.engine.BrokerInstrumentation;
+import io.github.ssoloff.psychictrain.api.engine.PublisherContext;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+
+// measures the cost of a publication to a topic owned by another node of a
+// federation over loopback: the latency of a single publication until the
+// subscriber on the owner sees it, and the throughput of a batch of
+// publications written with one flush; both nodes are polled on one thread
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+public class FederationBenchmark {
+  private static final int BATCH_SIZE = 1000;
+
+  private FederatedBroker ownerNode;
+
+  private PublisherContext publisherContext;
+
+  private FederatedBroker publisherNode;
+
+  private BenchmarkSubscriber subscriber;
+
+  private Topic<Integer> topic;
+
+  private int value;
+
+  private void pollUntilReceived(final int expectedValue) throws IOException {
+    while (!subscriber.getContext().getValuesForTopic(topic).contains(expectedValue)) {
+      publisherNode.poll();
+      ownerNode.poll();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public void publishBatch() throws IOException {
+    for (int i = 0; i < BATCH_SIZE; ++i) {
+      publisherContext.publishInt(++value);
+    }
+    pollUntilReceived(value);
+  }
+
+  @Benchmark
+  public void publishOne() throws IOException {
+    publisherContext.publishInt(++value);
+    pollUntilReceived(value);
+  }
+
+  @Setup
+  public void setUp() throws IOException {
+    final ValueCodecRegistry codecRegistry = ValueCodecRegistry.defaults();
+    final InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    publisherNode = FederatedBroker.open(
+        "publisher",
+        new DefaultBroker(BrokerInstrumentation.noOp(), false),
+        codecRegistry,
+        address);
+    ownerNode = FederatedBroker.open(
+        "owner",
+        new DefaultBroker(BrokerInstrumentation.noOp(), false),
+        codecRegistry,
+        address);
+    publisherNode.join(ImmutableMap.of("owner", ownerNode.getAddress()));
+    ownerNode.join(ImmutableMap.of("publisher", publisherNode.getAddress()));
+
+    for (int i = 0; (topic == null) || !ownerNode.getOwnerNodeId(topic).equals("owner"); ++i) {
+      topic = Topic.of("topic" + i, Integer.class);
+    }
+    subscriber = ownerNode.registerSubscriber(TopicMatcher.forTopic(topic), BenchmarkSubscriber.newFactory())
+        .getSubscriber();
+    publisherContext = publisherNode.registerPublisher(topic, BenchmarkPublisher.newFactory())
+        .getPublisher()
+        .getContext();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    publisherNode.close();
+    ownerNode.close();
+  }
+}
@@ -0,0 +1,101 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Multimap;
+
+import io.github.ssoloff.psychictrain.api.engine.Broker;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberContext;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+public class GetValuesBenchmark {
+  private static final Topic<Integer> TOPIC = Topic.of("topic", Integer.class);
+
+  @Param
+  public BrokerType brokerType;
+
+  private SubscriberContext patternSubscriberContext;
+
+  // publishers of other topics, each of which publishes a distinct topic
+  @Param({ "1", "100", "10000" })
+  public int publisherCount;
+
+  private SubscriberContext subscriberContext;
+
+  private long sum;
+
+  private final IntConsumer sumConsumer = value -> sum += value;
+
+  @Param({ "1", "4" })
+  public int topicPublisherCount;
+
+  @Benchmark
+  public long forEachIntValueForTopic() {
+    sum = 0;
+    subscriberContext.forEachIntValueForTopic(TOPIC, sumConsumer);
+    return sum;
+  }
+
+  @Benchmark
+  public Multimap<Topic<?>, ?> getValuesForMatchingTopics() {
+    return subscriberContext.getValuesForMatchingTopics();
+  }
+
+  @Benchmark
+  public Multimap<Topic<?>, ?> getValuesForMatchingTopicsByPattern() {
+    return patternSubscriberContext.getValuesForMatchingTopics();
+  }
+
+  @Benchmark
+  public Collection<Integer> getValuesForTopic() {
+    return subscriberContext.getValuesForTopic(TOPIC);
+  }
+
+  @Setup
+  public void setUp() {
+    final Broker broker = brokerType.newBroker();
+    for (int i = 0; i < publisherCount; ++i) {
+      broker.registerPublisher(Topic.of("otherTopic" + i, Integer.class), BenchmarkPublisher.newFactory())
+          .getPublisher()
+          .getContext()
+          .publish(i);
+    }
+    for (int i = 0; i < topicPublisherCount; ++i) {
+      broker.registerPublisher(TOPIC, BenchmarkPublisher.newFactory())
+          .getPublisher()
+          .getContext()
+          .publish(i);
+    }
+    subscriberContext = broker.registerSubscriber(TopicMatcher.forTopic(TOPIC), BenchmarkSubscriber.newFactory())
+        .getSubscriber()
+        .getContext();
+    patternSubscriberContext = broker
+        .registerSubscriber(
+            TopicMatcher.forTopicsMatchingPattern(Pattern.compile("top.c"), TOPIC.getTypeToken()),
+            BenchmarkSubscriber.newFactory())
+        .getSubscriber()
+        .getContext();
+  }
+}
@@ -0,0 +1,86 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.ssoloff.psychictrain.api.codec.ValueCodecRegistry;
+import io.github.ssoloff.psychictrain.api.engine.BrokerInstrumentation;
+import io.github.ssoloff.psychictrain.api.engine.PublisherContext;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+
+// compares the cost of a publication to a DefaultBroker with and without a
+// journal; the journal is synced at its default interval on another thread
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+public class JournaledPublishBenchmark {
+  private static final Topic<Integer> TOPIC = Topic.of("topic", Integer.class);
+
+  private Path directory;
+
+  private PublicationJournal journal;
+
+  @Param({ "false", "true" })
+  public boolean journaled;
+
+  private PublisherContext publisherContext;
+
+  private ScheduledExecutorService syncExecutor;
+
+  private int value;
+
+  @Benchmark
+  public void publishInt() {
+    publisherContext.publishInt(value++);
+  }
+
+  @Setup
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("journal");
+    syncExecutor = Executors.newSingleThreadScheduledExecutor();
+    journal = PublicationJournal.open(
+        directory,
+        ValueCodecRegistry.defaults(),
+        64 * 1024 * 1024,
+        Duration.ofSeconds(1L),
+        syncExecutor);
+    final DefaultBroker broker = new DefaultBroker(BrokerInstrumentation.noOp(), false, journaled ? journal : null);
+    publisherContext = broker.registerPublisher(TOPIC, BenchmarkPublisher.newFactory()).getPublisher().getContext();
+    broker.registerSubscriber(TopicMatcher.forTopic(TOPIC), BenchmarkSubscriber.newFactory());
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    journal.close();
+    syncExecutor.shutdown();
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (final Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    }
+  }
+}
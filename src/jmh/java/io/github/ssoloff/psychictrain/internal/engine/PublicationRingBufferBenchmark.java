@@ -0,0 +1,83 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.ssoloff.psychictrain.api.engine.BrokerInstrumentation;
+import io.github.ssoloff.psychictrain.api.engine.PublisherContext;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+
+// measures the throughput of three producer threads publishing to a
+// DefaultBroker through a publication ring buffer while a fourth thread, which
+// owns the broker, drains it; the score of publish is the ingestion
+// throughput, while that of drain counts drains, including empty ones
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Group)
+@Warmup(iterations = 5, time = 1)
+public class PublicationRingBufferBenchmark {
+  private static final int CAPACITY = 4096;
+  private static final int PRODUCER_COUNT = 3;
+
+  private final AtomicInteger nextProducerIndex = new AtomicInteger();
+
+  private PublisherContext[] publisherContexts;
+
+  private PublicationRingBuffer ring;
+
+  @Benchmark
+  @Group("ingest")
+  @GroupThreads(1)
+  public int drain() {
+    return ring.drain();
+  }
+
+  @Benchmark
+  @Group("ingest")
+  @GroupThreads(PRODUCER_COUNT)
+  public void publish(final ProducerState producerState) {
+    producerState.publisherContext.publishInt(producerState.value++);
+  }
+
+  @Setup
+  public void setUp() {
+    final DefaultBroker broker = new DefaultBroker(BrokerInstrumentation.noOp(), false);
+    ring = new PublicationRingBuffer(broker, CAPACITY);
+    publisherContexts = new PublisherContext[PRODUCER_COUNT];
+    for (int i = 0; i < PRODUCER_COUNT; ++i) {
+      final Topic<Integer> topic = Topic.of("topic" + i, Integer.class);
+      publisherContexts[i] = ring.registerPublisher(topic, BenchmarkPublisher.newFactory())
+          .getPublisher()
+          .getContext();
+      broker.registerSubscriber(TopicMatcher.forTopic(topic), BenchmarkSubscriber.newFactory());
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class ProducerState {
+    PublisherContext publisherContext;
+
+    int value;
+
+    @Setup
+    public void setUp(final PublicationRingBufferBenchmark benchmark) {
+      publisherContext = benchmark.publisherContexts[benchmark.nextProducerIndex.getAndIncrement() % PRODUCER_COUNT];
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.ssoloff.psychictrain.api.engine.Broker;
+import io.github.ssoloff.psychictrain.api.engine.PublisherContext;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+import io.github.ssoloff.psychictrain.api.metrics.MetricsRecorder;
+
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+public class PublishBenchmark {
+  private static final Topic<Integer> OTHER_TOPIC = Topic.of("otherTopic", Integer.class);
+  private static final Topic<Integer> TOPIC = Topic.of("topic", Integer.class);
+  // publish a small set of preboxed values so boxing does not skew the results
+  private static final Integer[] VALUES = { 0, 1, 2, 3, 4, 5, 6, 7 };
+
+  @Param
+  public BrokerType brokerType;
+
+  // whether the broker reports to a metrics recorder or uses no instrumentation
+  @Param({ "false", "true" })
+  public boolean instrumented;
+
+  // additional subscribers matching a different topic, which should not affect
+  // the cost of a publication
+  @Param({ "0", "1000" })
+  public int nonMatchingSubscriberCount;
+
+  private PublisherContext publisherContext;
+
+  @Param({ "1", "10", "100", "1000", "10000" })
+  public int subscriberCount;
+
+  private int valueIndex;
+
+  @Benchmark
+  public void publish() {
+    publisherContext.publish(VALUES[valueIndex++ & (VALUES.length - 1)]);
+  }
+
+  @Benchmark
+  public void publishInt() {
+    publisherContext.publishInt(valueIndex++);
+  }
+
+  @Setup
+  public void setUp() {
+    final Broker broker = instrumented ? brokerType.newBroker(new MetricsRecorder()) : brokerType.newBroker();
+    publisherContext = broker.registerPublisher(TOPIC, BenchmarkPublisher.newFactory()).getPublisher().getContext();
+    for (int i = 0; i < subscriberCount; ++i) {
+      broker.registerSubscriber(TopicMatcher.forTopic(TOPIC), BenchmarkSubscriber.newFactory());
+    }
+    for (int i = 0; i < nonMatchingSubscriberCount; ++i) {
+      broker.registerSubscriber(TopicMatcher.forTopic(OTHER_TOPIC), BenchmarkSubscriber.newFactory());
+    }
+  }
+}
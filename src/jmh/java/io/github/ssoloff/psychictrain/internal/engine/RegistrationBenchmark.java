@@ -0,0 +1,61 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.ssoloff.psychictrain.api.engine.Broker;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+public class RegistrationBenchmark {
+  private static final Topic<Integer> TOPIC = Topic.of("topic", Integer.class);
+
+  private Broker broker;
+
+  @Param
+  public BrokerType brokerType;
+
+  // publishers and subscribers that remain registered for the duration of the
+  // benchmark, each using a distinct topic
+  @Param({ "0", "100", "10000" })
+  public int registeredCount;
+
+  @Benchmark
+  public void registerAndUnregisterPublisher() {
+    broker.registerPublisher(TOPIC, BenchmarkPublisher.newFactory()).unregister();
+  }
+
+  @Benchmark
+  public void registerAndUnregisterSubscriber() {
+    broker.registerSubscriber(TopicMatcher.forTopic(TOPIC), BenchmarkSubscriber.newFactory()).unregister();
+  }
+
+  @Setup
+  public void setUp() {
+    broker = brokerType.newBroker();
+    for (int i = 0; i < registeredCount; ++i) {
+      final Topic<Integer> topic = Topic.of("otherTopic" + i, Integer.class);
+      broker.registerPublisher(topic, BenchmarkPublisher.newFactory()).getPublisher().getContext().publish(i);
+      broker.registerSubscriber(TopicMatcher.forTopic(topic), BenchmarkSubscriber.newFactory());
+    }
+    // ensure the routing of every topic has been computed
+    broker.registerPublisher(TOPIC, BenchmarkPublisher.newFactory()).getPublisher().getContext().publish(0);
+  }
+}
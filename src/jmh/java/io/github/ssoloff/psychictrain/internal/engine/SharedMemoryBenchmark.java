@@ -0,0 +1,80 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableList;
+
+import io.github.ssoloff.psychictrain.api.codec.ValueCodecRegistry;
+import io.github.ssoloff.psychictrain.api.engine.BrokerInstrumentation;
+import io.github.ssoloff.psychictrain.api.engine.PublisherContext;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+
+// measures the cost of passing a publication from one broker to another
+// through a shared memory ring: the publication to the exporting broker, the
+// write to the ring, the poll of the importing broker and the notification of
+// its subscriber, all on one thread, so the time taken to transfer the slot
+// between cores is not included
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+public class SharedMemoryBenchmark {
+  private static final Topic<Integer> TOPIC = Topic.of("topic", Integer.class);
+
+  private SharedMemoryExporter exporter;
+
+  private Path file;
+
+  private SharedMemoryImporter importer;
+
+  private PublisherContext publisherContext;
+
+  private int value;
+
+  @Benchmark
+  public int publishAndPoll() {
+    publisherContext.publishInt(value++);
+    return importer.poll();
+  }
+
+  @Setup
+  public void setUp() throws IOException {
+    file = Files.isDirectory(SharedMemoryRing.DEFAULT_DIRECTORY)
+        ? Files.createTempFile(SharedMemoryRing.DEFAULT_DIRECTORY, "ring", ".shm")
+        : Files.createTempFile("ring", ".shm");
+    final ValueCodecRegistry codecRegistry = ValueCodecRegistry.defaults();
+    final DefaultBroker exportingBroker = new DefaultBroker(BrokerInstrumentation.noOp(), false);
+    publisherContext = exportingBroker.registerPublisher(TOPIC, BenchmarkPublisher.newFactory())
+        .getPublisher()
+        .getContext();
+    exporter = SharedMemoryExporter.open(exportingBroker, file, ImmutableList.of(TOPIC), codecRegistry, 1024, 64);
+    final DefaultBroker importingBroker = new DefaultBroker(BrokerInstrumentation.noOp(), false);
+    importingBroker.registerSubscriber(TopicMatcher.forTopic(TOPIC), BenchmarkSubscriber.newFactory());
+    importer = SharedMemoryImporter.open(importingBroker, file, ImmutableList.of(TOPIC), codecRegistry);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    importer.close();
+    exporter.close();
+    Files.delete(file);
+  }
+}
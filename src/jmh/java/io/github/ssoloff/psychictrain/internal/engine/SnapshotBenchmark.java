@@ -0,0 +1,104 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.ssoloff.psychictrain.api.codec.ValueCodecRegistry;
+import io.github.ssoloff.psychictrain.api.engine.PublisherToken;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+
+// measures the time taken to write a snapshot of a broker holding the
+// specified number of integer values, each published to its own topic, to a
+// channel that discards what is written, and to restore such a snapshot from
+// memory into an empty broker
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+public class SnapshotBenchmark {
+  private static final WritableByteChannel NULL_CHANNEL = new WritableByteChannel() {
+    @Override
+    public void close() {
+      // do nothing
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public int write(final ByteBuffer buffer) {
+      final int byteCount = buffer.remaining();
+      buffer.position(buffer.limit());
+      return byteCount;
+    }
+  };
+
+  private InternalBroker broker;
+
+  @Param
+  public BrokerType brokerType;
+
+  private final ValueCodecRegistry codecRegistry = ValueCodecRegistry.defaults();
+  // the broker into which the snapshot is restored; empty before each restore
+  private InternalBroker restoredBroker;
+  private byte[] snapshot;
+
+  @Param({ "1000", "100000", "1000000" })
+  public int valueCount;
+
+  @Setup
+  public void setUp() throws IOException {
+    broker = (InternalBroker) brokerType.newBroker();
+    for (int i = 0; i < valueCount; ++i) {
+      broker.registerPublisher(Topic.of("topic" + i, Integer.class), BenchmarkPublisher.newFactory())
+          .getPublisher()
+          .getContext()
+          .publishInt(i);
+    }
+
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    BrokerSnapshots.write(broker, codecRegistry, Channels.newChannel(outputStream));
+    snapshot = outputStream.toByteArray();
+  }
+
+  @Setup(Level.Invocation)
+  public void setUpRestoredBroker() {
+    restoredBroker = (InternalBroker) brokerType.newBroker();
+  }
+
+  @Benchmark
+  public List<PublisherToken<RestoredPublisher>> restore() throws IOException {
+    return BrokerSnapshots.restore(
+        restoredBroker,
+        codecRegistry,
+        Channels.newChannel(new ByteArrayInputStream(snapshot)));
+  }
+
+  @Benchmark
+  public void write() throws IOException {
+    BrokerSnapshots.write(broker, codecRegistry, NULL_CHANNEL);
+  }
+}
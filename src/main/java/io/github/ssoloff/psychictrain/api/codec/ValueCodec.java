@@ -0,0 +1,24 @@
+package io.github.ssoloff.psychictrain.api.codec;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.jdt.annotation.NonNull;
+
+import com.google.common.reflect.TypeToken;
+
+// encodes values of a topic type to and from binary form; codecs are persisted
+// by name, so the name and encoding of a codec must not change once data has
+// been written with it
+public interface ValueCodec<@NonNull T> {
+  // reads a value written by encode, starting at the position of the buffer
+  T decode(ByteBuffer buffer);
+
+  // writes the value starting at the position of the buffer; throws a
+  // BufferOverflowException if the buffer has insufficient space remaining, in
+  // which case the caller may retry with a larger buffer
+  void encode(T value, ByteBuffer buffer);
+
+  String getName();
+
+  TypeToken<T> getTypeToken();
+}
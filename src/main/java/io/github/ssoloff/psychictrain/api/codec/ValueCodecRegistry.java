@@ -0,0 +1,89 @@
+package io.github.ssoloff.psychictrain.api.codec;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Map;
+import java.util.Optional;
+
+import javax.annotation.concurrent.Immutable;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.reflect.TypeToken;
+
+// the codecs available for encoding topic values, looked up by the type of the
+// topic when encoding and by the persisted codec name when decoding
+@Immutable
+public final class ValueCodecRegistry {
+  private static final ValueCodecRegistry DEFAULTS = new ValueCodecRegistry(ImmutableMap.of(), ImmutableMap.of())
+      .withCodec(ValueCodecs.booleanCodec())
+      .withCodec(ValueCodecs.doubleCodec())
+      .withCodec(ValueCodecs.intCodec())
+      .withCodec(ValueCodecs.longCodec())
+      .withCodec(ValueCodecs.stringCodec());
+
+  private final ImmutableMap<String, ValueCodec<?>> codecsByName;
+  private final ImmutableMap<TypeToken<?>, ValueCodec<?>> codecsByTypeToken;
+
+  private ValueCodecRegistry(
+      final ImmutableMap<String, ValueCodec<?>> codecsByName,
+      final ImmutableMap<TypeToken<?>, ValueCodec<?>> codecsByTypeToken) {
+    this.codecsByName = codecsByName;
+    this.codecsByTypeToken = codecsByTypeToken;
+  }
+
+  // a registry containing the codecs provided by ValueCodecs
+  public static ValueCodecRegistry defaults() {
+    return DEFAULTS;
+  }
+
+  public static ValueCodecRegistry empty() {
+    return new ValueCodecRegistry(ImmutableMap.of(), ImmutableMap.of());
+  }
+
+  public Optional<ValueCodec<?>> getCodec(final String name) {
+    return Optional.ofNullable(codecsByName.get(name));
+  }
+
+  public <@NonNull T> Optional<ValueCodec<T>> getCodec(final TypeToken<T> typeToken) {
+    @SuppressWarnings("unchecked")
+    final @Nullable ValueCodec<T> codec = (ValueCodec<T>) codecsByTypeToken.get(typeToken);
+    return Optional.ofNullable(codec);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("codecs", codecsByName.keySet())
+        .toString();
+  }
+
+  // replaces any codec registered for the same type
+  public ValueCodecRegistry withCodec(final ValueCodec<?> codec) {
+    final @Nullable ValueCodec<?> codecWithSameName = codecsByName.get(codec.getName());
+    checkArgument(
+        (codecWithSameName == null) || codecWithSameName.getTypeToken().equals(codec.getTypeToken()),
+        "codec name '%s' is already registered for another type",
+        codec.getName());
+
+    final @Nullable ValueCodec<?> replacedCodec = codecsByTypeToken.get(codec.getTypeToken());
+    return new ValueCodecRegistry(
+        ImmutableMap.<String, ValueCodec<?>>builder()
+            .putAll(withoutKey(codecsByName, (replacedCodec != null) ? replacedCodec.getName() : codec.getName()))
+            .put(codec.getName(), codec)
+            .build(),
+        ImmutableMap.<TypeToken<?>, ValueCodec<?>>builder()
+            .putAll(withoutKey(codecsByTypeToken, codec.getTypeToken()))
+            .put(codec.getTypeToken(), codec)
+            .build());
+  }
+
+  private static <@NonNull K, @NonNull V> Map<K, V> withoutKey(final Map<K, V> map, final Object key) {
+    return map.entrySet().stream()
+        .filter(entry -> !entry.getKey().equals(key))
+        .collect(ImmutableMap.toImmutableMap(Map.Entry::getKey, Map.Entry::getValue));
+  }
+}
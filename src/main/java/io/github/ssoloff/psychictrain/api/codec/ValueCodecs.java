@@ -0,0 +1,164 @@
+package io.github.ssoloff.psychictrain.api.codec;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.reflect.TypeToken;
+
+// codecs for common value types; numeric values are written in the byte order
+// of the buffer
+public final class ValueCodecs {
+  private static final ValueCodec<Boolean> BOOLEAN_CODEC = new BooleanCodec();
+  private static final ValueCodec<Double> DOUBLE_CODEC = new DoubleCodec();
+  private static final ValueCodec<Integer> INT_CODEC = new IntCodec();
+  private static final ValueCodec<Long> LONG_CODEC = new LongCodec();
+  private static final ValueCodec<String> STRING_CODEC = new StringCodec();
+
+  private ValueCodecs() {
+  }
+
+  public static ValueCodec<Boolean> booleanCodec() {
+    return BOOLEAN_CODEC;
+  }
+
+  public static ValueCodec<Double> doubleCodec() {
+    return DOUBLE_CODEC;
+  }
+
+  public static ValueCodec<Integer> intCodec() {
+    return INT_CODEC;
+  }
+
+  public static ValueCodec<Long> longCodec() {
+    return LONG_CODEC;
+  }
+
+  public static ValueCodec<String> stringCodec() {
+    return STRING_CODEC;
+  }
+
+  @Immutable
+  private static final class BooleanCodec implements ValueCodec<Boolean> {
+    @Override
+    public Boolean decode(final ByteBuffer buffer) {
+      return buffer.get() != 0;
+    }
+
+    @Override
+    public void encode(final Boolean value, final ByteBuffer buffer) {
+      buffer.put(value ? (byte) 1 : (byte) 0);
+    }
+
+    @Override
+    public String getName() {
+      return "boolean";
+    }
+
+    @Override
+    public TypeToken<Boolean> getTypeToken() {
+      return TypeToken.of(Boolean.class);
+    }
+  }
+
+  @Immutable
+  private static final class DoubleCodec implements ValueCodec<Double> {
+    @Override
+    public Double decode(final ByteBuffer buffer) {
+      return buffer.getDouble();
+    }
+
+    @Override
+    public void encode(final Double value, final ByteBuffer buffer) {
+      buffer.putDouble(value);
+    }
+
+    @Override
+    public String getName() {
+      return "double";
+    }
+
+    @Override
+    public TypeToken<Double> getTypeToken() {
+      return TypeToken.of(Double.class);
+    }
+  }
+
+  @Immutable
+  private static final class IntCodec implements ValueCodec<Integer> {
+    @Override
+    public Integer decode(final ByteBuffer buffer) {
+      return buffer.getInt();
+    }
+
+    @Override
+    public void encode(final Integer value, final ByteBuffer buffer) {
+      buffer.putInt(value);
+    }
+
+    @Override
+    public String getName() {
+      return "int";
+    }
+
+    @Override
+    public TypeToken<Integer> getTypeToken() {
+      return TypeToken.of(Integer.class);
+    }
+  }
+
+  @Immutable
+  private static final class LongCodec implements ValueCodec<Long> {
+    @Override
+    public Long decode(final ByteBuffer buffer) {
+      return buffer.getLong();
+    }
+
+    @Override
+    public void encode(final Long value, final ByteBuffer buffer) {
+      buffer.putLong(value);
+    }
+
+    @Override
+    public String getName() {
+      return "long";
+    }
+
+    @Override
+    public TypeToken<Long> getTypeToken() {
+      return TypeToken.of(Long.class);
+    }
+  }
+
+  // a length-prefixed UTF-8 encoding
+  @Immutable
+  private static final class StringCodec implements ValueCodec<String> {
+    @Override
+    public String decode(final ByteBuffer buffer) {
+      final byte[] bytes = new byte[buffer.getInt()];
+      buffer.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void encode(final String value, final ByteBuffer buffer) {
+      final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      if (buffer.remaining() < Integer.BYTES + bytes.length) {
+        throw new BufferOverflowException();
+      }
+      buffer.putInt(bytes.length).put(bytes);
+    }
+
+    @Override
+    public String getName() {
+      return "string";
+    }
+
+    @Override
+    public TypeToken<String> getTypeToken() {
+      return TypeToken.of(String.class);
+    }
+  }
+}
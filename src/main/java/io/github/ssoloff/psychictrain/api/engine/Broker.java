@@ -3,11 +3,44 @@ package io.github.ssoloff.psychictrain.api.engine;
 import org.eclipse.jdt.annotation.NonNull;
 
 public interface Broker {
+  // registers a topic whose value is computed by the function from the values
+  // of the topics matched by the input topic matcher. the value is computed
+  // lazily: a publication to an input topic only marks the derived topic dirty
+  // and notifies its subscribers, and the function is called when the value is
+  // next read, after which it is memoized until an input topic changes again.
+  // a derived topic that is never read is never computed.
+  // as its values are not published, a derived topic has no history; a topic
+  // whose history is retained cannot be derived, nor can the history of a
+  // derived topic be retained (see PublisherOptions.withHistory).
+  <@NonNull T> DerivedTopicToken registerDerivedTopic(
+      Topic<T> topic,
+      TopicMatcher inputTopicMatcher,
+      DerivedTopicFunction<T> function);
+
+  default <@NonNull P extends Publisher> PublisherToken<P> registerPublisher(
+      final Topic<?> topic,
+      final PublisherFactory<P> publisherFactory) {
+    return registerPublisher(topic, publisherFactory, PublisherOptions.defaults());
+  }
+
   <@NonNull P extends Publisher> PublisherToken<P> registerPublisher(
       Topic<?> topic,
-      PublisherFactory<P> publisherFactory);
+      PublisherFactory<P> publisherFactory,
+      PublisherOptions publisherOptions);
+
+  default <@NonNull S extends Subscriber> SubscriberToken<S> registerSubscriber(
+      final TopicMatcher topicMatcher,
+      final SubscriberFactory<S> subscriberFactory) {
+    return registerSubscriber(topicMatcher, subscriberFactory, SubscriberOptions.defaults());
+  }
 
   <@NonNull S extends Subscriber> SubscriberToken<S> registerSubscriber(
       TopicMatcher topicMatcher,
-      SubscriberFactory<S> subscriberFactory);
+      SubscriberFactory<S> subscriberFactory,
+      SubscriberOptions subscriberOptions);
+
+  // subscriber notifications caused by publications made while running the
+  // action are deferred until the outermost batch completes; each affected
+  // subscriber is then notified once of all topics that changed
+  void runInBatch(Runnable action);
 }
@@ -0,0 +1,37 @@
+package io.github.ssoloff.psychictrain.api.engine;
+
+import java.util.Set;
+
+// receives callbacks from the hot paths of a broker; implementations must be
+// thread-safe if used with a thread-safe broker
+public interface BrokerInstrumentation {
+  static BrokerInstrumentation noOp() {
+    return NoOpBrokerInstrumentation.INSTANCE;
+  }
+
+  void notificationCompleted(Subscriber subscriber, Set<Topic<?>> topics, long startTime);
+
+  // a notification of a subscriber with a bounded notification queue was
+  // discarded, or collapsed into another, because the queue was full
+  void notificationDropped(Subscriber subscriber, Set<Topic<?>> topics);
+
+  // a notification of a subscriber notified on an executor was queued;
+  // queueDepth includes the queued notification
+  void notificationEnqueued(Subscriber subscriber, int queueDepth);
+
+  // the returned value is passed back to notificationCompleted() and would
+  // typically be the current time
+  long notificationStarted(Subscriber subscriber);
+
+  void publisherRegistered(Topic<?> topic);
+
+  void publisherUnregistered(Topic<?> topic);
+
+  void subscriberRegistered(Subscriber subscriber);
+
+  void subscriberUnregistered(Subscriber subscriber);
+
+  // cascadeDepth is 1 for a publication that is not made in response to a
+  // notification, 2 for a publication made in response to that publication, etc.
+  void topicPublished(Topic<?> topic, int cascadeDepth);
+}
@@ -0,0 +1,11 @@
+package io.github.ssoloff.psychictrain.api.engine;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+// A pure function of the values of the input topics of a derived topic, which
+// it reads from the context; returns null if the derived topic has no value.
+@FunctionalInterface
+public interface DerivedTopicFunction<@NonNull T> {
+  @Nullable T computeValue(SubscriberContext inputContext);
+}
@@ -0,0 +1,5 @@
+package io.github.ssoloff.psychictrain.api.engine;
+
+public interface DerivedTopicToken {
+  void unregister();
+}
@@ -0,0 +1,52 @@
+package io.github.ssoloff.psychictrain.api.engine;
+
+import java.util.Set;
+
+enum NoOpBrokerInstrumentation implements BrokerInstrumentation {
+  INSTANCE;
+
+  @Override
+  public void notificationCompleted(final Subscriber subscriber, final Set<Topic<?>> topics, final long startTime) {
+    // do nothing
+  }
+
+  @Override
+  public void notificationDropped(final Subscriber subscriber, final Set<Topic<?>> topics) {
+    // do nothing
+  }
+
+  @Override
+  public void notificationEnqueued(final Subscriber subscriber, final int queueDepth) {
+    // do nothing
+  }
+
+  @Override
+  public long notificationStarted(final Subscriber subscriber) {
+    return 0L;
+  }
+
+  @Override
+  public void publisherRegistered(final Topic<?> topic) {
+    // do nothing
+  }
+
+  @Override
+  public void publisherUnregistered(final Topic<?> topic) {
+    // do nothing
+  }
+
+  @Override
+  public void subscriberRegistered(final Subscriber subscriber) {
+    // do nothing
+  }
+
+  @Override
+  public void subscriberUnregistered(final Subscriber subscriber) {
+    // do nothing
+  }
+
+  @Override
+  public void topicPublished(final Topic<?> topic, final int cascadeDepth) {
+    // do nothing
+  }
+}
@@ -0,0 +1,23 @@
+package io.github.ssoloff.psychictrain.api.engine;
+
+// what a bounded notification queue does with a notification that arrives
+// while the queue is full
+public enum OverflowPolicy {
+  // the publishing thread waits until the subscriber has taken a notification
+  // from the queue; the subscriber must not publish to topics it subscribes to,
+  // and the executor must not be the publishing thread, or the publisher may
+  // wait forever
+  BLOCK,
+
+  // all queued notifications and the arriving one are collapsed into a single
+  // notification of the union of their topics, so the subscriber still learns
+  // of every changed topic and reads the latest values
+  COLLAPSE,
+
+  // the arriving notification is discarded
+  DROP_NEWEST,
+
+  // the oldest queued notification is discarded to make room for the arriving
+  // one
+  DROP_OLDEST
+}
@@ -2,4 +2,22 @@ package io.github.ssoloff.psychictrain.api.engine;
 
 public interface PublisherContext {
   void publish(Object value);
+
+  // publishes a value to a topic of type Double (or a supertype); the contexts
+  // provided by the brokers do so without boxing
+  default void publishDouble(final double value) {
+    publish(value);
+  }
+
+  // publishes a value to a topic of type Integer (or a supertype); the contexts
+  // provided by the brokers do so without boxing
+  default void publishInt(final int value) {
+    publish(value);
+  }
+
+  // publishes a value to a topic of type Long (or a supertype); the contexts
+  // provided by the brokers do so without boxing
+  default void publishLong(final long value) {
+    publish(value);
+  }
 }
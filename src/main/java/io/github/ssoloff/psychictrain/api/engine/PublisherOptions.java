@@ -0,0 +1,41 @@
+package io.github.ssoloff.psychictrain.api.engine;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.base.MoreObjects;
+
+@Immutable
+public final class PublisherOptions {
+  private static final PublisherOptions DEFAULTS = new PublisherOptions(TopicHistory.none());
+
+  private final TopicHistory history;
+
+  private PublisherOptions(final TopicHistory history) {
+    this.history = history;
+  }
+
+  public static PublisherOptions defaults() {
+    return DEFAULTS;
+  }
+
+  public TopicHistory getHistory() {
+    return history;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("history", history)
+        .toString();
+  }
+
+  // the broker retains the specified history of the topic (see TopicHistory)
+  // from the registration of the publisher until the last publisher of the
+  // topic is unregistered. the history is configured by the broker rather than
+  // by the topic, so each broker may retain a different history of the same
+  // topic, but all publishers of a topic registered with the same broker that
+  // specify a history must specify the same history.
+  public PublisherOptions withHistory(final TopicHistory history) {
+    return new PublisherOptions(history);
+  }
+}
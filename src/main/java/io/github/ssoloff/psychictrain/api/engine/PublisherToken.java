@@ -5,5 +5,7 @@ import org.eclipse.jdt.annotation.NonNull;
 public interface PublisherToken<@NonNull P extends Publisher> {
   P getPublisher();
 
+  // the history retained for the topic (see PublisherOptions.withHistory) is
+  // discarded when its last publisher is unregistered
   void unregister();
 }
@@ -1,12 +1,52 @@
 package io.github.ssoloff.psychictrain.api.engine;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
 
 import org.eclipse.jdt.annotation.NonNull;
 
 import com.google.common.collect.Multimap;
 
 public interface SubscriberContext {
+  // passes each value of the topic to the consumer; the contexts provided by
+  // the brokers do so without boxing or allocating a collection; likewise for
+  // forEachIntValueForTopic() and forEachLongValueForTopic()
+  default void forEachDoubleValueForTopic(final Topic<Double> topic, final DoubleConsumer consumer) {
+    for (final Double value : getValuesForTopic(topic)) {
+      consumer.accept(value);
+    }
+  }
+
+  default void forEachIntValueForTopic(final Topic<Integer> topic, final IntConsumer consumer) {
+    for (final Integer value : getValuesForTopic(topic)) {
+      consumer.accept(value);
+    }
+  }
+
+  default void forEachLongValueForTopic(final Topic<Long> topic, final LongConsumer consumer) {
+    for (final Long value : getValuesForTopic(topic)) {
+      consumer.accept(value);
+    }
+  }
+
+  // returns the values of matching topics published since the previous call to
+  // this method (the first call returns all values, like
+  // getValuesForMatchingTopics()); only the latest value of each publisher is
+  // returned, and values of unregistered publishers are omitted
+  Multimap<Topic<?>, ?> getChangedValuesForMatchingTopics();
+
+  // returns the count, sum, min, max and mean of the values in the history of
+  // the topic without iterating them; returns an empty aggregate if the broker
+  // retains no history of the topic (see PublisherOptions.withHistory)
+  WindowAggregate getHistoryAggregateForTopic(Topic<? extends Number> topic);
+
+  // returns the values in the history of the topic, oldest first; returns an
+  // empty list if the broker retains no history of the topic
+  <@NonNull T> List<T> getHistoryForTopic(Topic<T> topic);
+
   Multimap<Topic<?>, ?> getValuesForMatchingTopics();
 
   <@NonNull T> Collection<T> getValuesForTopic(Topic<T> topic);
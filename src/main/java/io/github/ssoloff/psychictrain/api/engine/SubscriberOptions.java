@@ -0,0 +1,166 @@
+package io.github.ssoloff.psychictrain.api.engine;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.annotation.concurrent.Immutable;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Ticker;
+
+@Immutable
+public final class SubscriberOptions {
+  private static final SubscriberOptions DEFAULTS = new SubscriberOptions(
+      null,
+      null,
+      null,
+      OverflowPolicy.BLOCK,
+      null,
+      Ticker.systemTicker());
+
+  private final @Nullable Duration conflationInterval;
+  private final @Nullable ScheduledExecutorService conflationScheduler;
+  private final @Nullable Executor executor;
+  private final OverflowPolicy overflowPolicy;
+  private final @Nullable Integer queueCapacity;
+  private final Ticker ticker;
+
+  private SubscriberOptions(
+      final @Nullable Duration conflationInterval,
+      final @Nullable ScheduledExecutorService conflationScheduler,
+      final @Nullable Executor executor,
+      final OverflowPolicy overflowPolicy,
+      final @Nullable Integer queueCapacity,
+      final Ticker ticker) {
+    this.conflationInterval = conflationInterval;
+    this.conflationScheduler = conflationScheduler;
+    this.executor = executor;
+    this.overflowPolicy = overflowPolicy;
+    this.queueCapacity = queueCapacity;
+    this.ticker = ticker;
+  }
+
+  public static SubscriberOptions defaults() {
+    return DEFAULTS;
+  }
+
+  public Optional<Duration> getConflationInterval() {
+    return Optional.ofNullable(conflationInterval);
+  }
+
+  public Optional<ScheduledExecutorService> getConflationScheduler() {
+    return Optional.ofNullable(conflationScheduler);
+  }
+
+  public Optional<Executor> getExecutor() {
+    return Optional.ofNullable(executor);
+  }
+
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  public Optional<Integer> getQueueCapacity() {
+    return Optional.ofNullable(queueCapacity);
+  }
+
+  public Ticker getTicker() {
+    return ticker;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("conflationInterval", conflationInterval)
+        .add("conflationScheduler", conflationScheduler)
+        .add("executor", executor)
+        .add("overflowPolicy", overflowPolicy)
+        .add("queueCapacity", queueCapacity)
+        .add("ticker", ticker)
+        .toString();
+  }
+
+  // notifications are conflated: changes made within the specified interval of
+  // the previous notification are collected into a single pending notification
+  // rather than delivered, so the subscriber is notified at most once per
+  // interval regardless of the publication rate. the pending notification is
+  // delivered only with the first change made after the interval has elapsed or
+  // when the subscriber token is flushed, so once publications stop, the
+  // subscriber observes stale values until it is flushed. the subscriber
+  // observes only the latest values of the changed topics.
+  public SubscriberOptions withConflationInterval(final Duration conflationInterval) {
+    checkArgument(
+        !conflationInterval.isNegative() && !conflationInterval.isZero(),
+        "conflation interval must be positive");
+    return new SubscriberOptions(conflationInterval, null, executor, overflowPolicy, queueCapacity, ticker);
+  }
+
+  // notifications are conflated as above, except that the pending notification
+  // is also delivered once the interval has elapsed without a further change:
+  // the subscriber is flushed by a task scheduled on the specified scheduler.
+  // the flush runs in a batch on a thread of the scheduler, so the scheduler
+  // must only run tasks on threads on which the broker may be used (e.g. a task
+  // queue drained by the owning thread for a single-threaded broker).
+  public SubscriberOptions withConflationInterval(
+      final Duration conflationInterval,
+      final ScheduledExecutorService conflationScheduler) {
+    checkArgument(
+        !conflationInterval.isNegative() && !conflationInterval.isZero(),
+        "conflation interval must be positive");
+    return new SubscriberOptions(
+        conflationInterval,
+        conflationScheduler,
+        executor,
+        overflowPolicy,
+        queueCapacity,
+        ticker);
+  }
+
+  // notifications are delivered to the subscriber by tasks run on the specified
+  // executor rather than on the publishing thread; they are delivered in order
+  // and never concurrently, regardless of how many threads the executor uses.
+  // the subscriber may only use its context on threads on which the broker may
+  // be used (e.g. any thread for a thread-safe broker, or a task queue drained
+  // by the owning thread for a single-threaded broker).
+  public SubscriberOptions withExecutor(final Executor executor) {
+    return new SubscriberOptions(
+        conflationInterval,
+        conflationScheduler,
+        executor,
+        overflowPolicy,
+        queueCapacity,
+        ticker);
+  }
+
+  // the queue of notifications awaiting delivery on the executor holds at most
+  // the specified number of notifications; a notification that arrives while
+  // the queue is full is handled according to the overflow policy. the queue
+  // is unbounded by default. has no effect unless an executor is specified.
+  public SubscriberOptions withQueueCapacity(final int queueCapacity, final OverflowPolicy overflowPolicy) {
+    checkArgument(queueCapacity > 0, "queue capacity must be positive");
+    return new SubscriberOptions(
+        conflationInterval,
+        conflationScheduler,
+        executor,
+        overflowPolicy,
+        queueCapacity,
+        ticker);
+  }
+
+  // the time source used to measure the conflation interval
+  public SubscriberOptions withTicker(final Ticker ticker) {
+    return new SubscriberOptions(
+        conflationInterval,
+        conflationScheduler,
+        executor,
+        overflowPolicy,
+        queueCapacity,
+        ticker);
+  }
+}
@@ -3,6 +3,11 @@ package io.github.ssoloff.psychictrain.api.engine;
 import org.eclipse.jdt.annotation.NonNull;
 
 public interface SubscriberToken<@NonNull S extends Subscriber> {
+  // delivers the pending notification of a subscriber whose notifications are
+  // conflated without waiting for the conflation interval to elapse; does
+  // nothing if no notification is pending
+  void flush();
+
   S getSubscriber();
 
   void unregister();
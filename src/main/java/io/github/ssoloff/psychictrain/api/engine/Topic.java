@@ -1,6 +1,14 @@
 package io.github.ssoloff.psychictrain.api.engine;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.concurrent.Immutable;
 
@@ -10,14 +18,48 @@ import org.eclipse.jdt.annotation.Nullable;
 import com.google.common.base.MoreObjects;
 import com.google.common.reflect.TypeToken;
 
+// Topics are interned: Topic.of returns the same instance for equal names and
+// type tokens, so equal topics are almost always identical, and each interned
+// topic has a small id that brokers may use to index topics without hashing or
+// comparing them.
+//
+// The intern table refers to its topics weakly, so a topic that is no longer
+// referenced (e.g. that of an entity that no longer exists) is released, and
+// its id is reassigned to a topic interned later. As a result, ids remain
+// dense among the topics in use, and a structure keyed by id must refer to its
+// topics so that their ids are not reassigned while they are in it.
 @Immutable
 public final class Topic<@NonNull T> {
+  // the id of a topic that is only used to look up the interned topic
+  private static final int UNINTERNED_ID = -1;
+
+  private static final ConcurrentMap<Topic<?>, InternedTopicReference> internedTopics = new ConcurrentHashMap<>();
+  private static final AtomicInteger nextId = new AtomicInteger();
+  // the ids of released topics, which are reassigned before new ids
+  private static final Queue<Integer> releasedIds = new ConcurrentLinkedQueue<>();
+  private static final ReferenceQueue<Topic<?>> releasedTopics = new ReferenceQueue<>();
+
+  // topics are used as hash keys on the publish path, so the hash code is
+  // computed once rather than on every lookup
+  private final int cachedHashCode;
+  private final int id;
   private final String name;
   private final TypeToken<T> typeToken;
 
-  private Topic(final String name, final TypeToken<T> typeToken) {
+  private Topic(final String name, final TypeToken<T> typeToken, final int id) {
+    this.id = id;
     this.name = name;
     this.typeToken = typeToken;
+    this.cachedHashCode = computeHashCode();
+  }
+
+  private static int allocateId() {
+    final @Nullable Integer releasedId = releasedIds.poll();
+    return (releasedId != null) ? releasedId : nextId.getAndIncrement();
+  }
+
+  private int computeHashCode() {
+    return Objects.hash(name, typeToken);
   }
 
   @Override
@@ -32,6 +74,12 @@ public final class Topic<@NonNull T> {
     return Objects.equals(name, other.name) && Objects.equals(typeToken, other.typeToken);
   }
 
+  // ids are unique among the topics in use; the id of a released topic is
+  // reassigned before a new id is assigned
+  public int getId() {
+    return id;
+  }
+
   public String getName() {
     return name;
   }
@@ -42,17 +90,52 @@ public final class Topic<@NonNull T> {
 
   @Override
   public int hashCode() {
-    return Objects.hash(name, typeToken);
+    return cachedHashCode;
   }
 
   public static <@NonNull T> Topic<T> of(final String name, final TypeToken<T> typeToken) {
-    return new Topic<>(name, typeToken);
+    removeReleasedTopics();
+
+    final Topic<T> key = new Topic<>(name, typeToken, UNINTERNED_ID);
+    while (true) {
+      final @Nullable InternedTopicReference reference = internedTopics.get(key);
+      if (reference != null) {
+        @SuppressWarnings("unchecked")
+        final @Nullable Topic<T> topic = (Topic<T>) reference.get();
+        if (topic != null) {
+          return topic;
+        }
+        // the topic has been released, but its reference has not yet been
+        // removed from the queue; its id is released when it is
+        internedTopics.remove(key, reference);
+      } else {
+        final Topic<T> topic = new Topic<>(name, typeToken, allocateId());
+        final InternedTopicReference newReference = new InternedTopicReference(key, topic);
+        if (internedTopics.putIfAbsent(key, newReference) == null) {
+          return topic;
+        }
+        // another thread interned an equal topic first; a cleared reference is
+        // never enqueued, so the id is released here
+        newReference.clear();
+        releasedIds.add(topic.id);
+      }
+    }
   }
 
   public static <@NonNull T> Topic<T> of(final String name, final Class<T> type) {
     return of(name, TypeToken.of(type));
   }
 
+  private static void removeReleasedTopics() {
+    for (@Nullable Reference<? extends Topic<?>> reference = releasedTopics.poll();
+        reference != null;
+        reference = releasedTopics.poll()) {
+      final InternedTopicReference internedTopicReference = (InternedTopicReference) reference;
+      internedTopics.remove(internedTopicReference.key, internedTopicReference);
+      releasedIds.add(internedTopicReference.id);
+    }
+  }
+
   @Override
   public String toString() {
     return MoreObjects.toStringHelper(this)
@@ -60,4 +143,15 @@ public final class Topic<@NonNull T> {
         .add("typeToken", typeToken)
         .toString();
   }
+
+  private static final class InternedTopicReference extends WeakReference<Topic<?>> {
+    final int id;
+    final Topic<?> key;
+
+    InternedTopicReference(final Topic<?> key, final Topic<?> topic) {
+      super(topic, releasedTopics);
+      this.id = topic.id;
+      this.key = key;
+    }
+  }
 }
@@ -0,0 +1,106 @@
+package io.github.ssoloff.psychictrain.api.engine;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+
+import javax.annotation.concurrent.Immutable;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Ticker;
+
+// The history of published values a broker retains for a topic. The history
+// of a topic holds the values published to it by all of its publishers, in the
+// order in which they were published (committed, in tick mode), in a buffer
+// preallocated to the capacity of the history; once full, each publication
+// evicts the oldest value. A history with a duration additionally evicts the
+// values published more than that duration ago. A broker retains the history
+// specified by the options with which a publisher of the topic is registered
+// (see PublisherOptions.withHistory) and discards it when the last publisher of
+// the topic is unregistered.
+@Immutable
+public final class TopicHistory {
+  private static final TopicHistory NONE = new TopicHistory(0, null, Ticker.systemTicker());
+
+  private final int capacity;
+  private final @Nullable Duration duration;
+  private final Ticker ticker;
+
+  private TopicHistory(final int capacity, final @Nullable Duration duration, final Ticker ticker) {
+    this.capacity = capacity;
+    this.duration = duration;
+    this.ticker = ticker;
+  }
+
+  @Override
+  public boolean equals(final @Nullable Object obj) {
+    if (obj == this) {
+      return true;
+    } else if (!(obj instanceof TopicHistory)) {
+      return false;
+    }
+
+    final TopicHistory other = (TopicHistory) obj;
+    return (capacity == other.capacity)
+        && Objects.equals(duration, other.duration)
+        && Objects.equals(ticker, other.ticker);
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public Optional<Duration> getDuration() {
+    return Optional.ofNullable(duration);
+  }
+
+  public Ticker getTicker() {
+    return ticker;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(capacity, duration, ticker);
+  }
+
+  public boolean isRetained() {
+    return capacity > 0;
+  }
+
+  // no history is retained; the default
+  public static TopicHistory none() {
+    return NONE;
+  }
+
+  // the values published within the specified duration, up to the specified
+  // number of the latest values
+  public static TopicHistory ofLastDuration(final Duration duration, final int capacity) {
+    checkArgument(!duration.isNegative() && !duration.isZero(), "duration must be positive");
+    checkArgument(capacity > 0, "capacity must be positive");
+    return new TopicHistory(capacity, duration, Ticker.systemTicker());
+  }
+
+  // the specified number of the latest values
+  public static TopicHistory ofLastValues(final int capacity) {
+    checkArgument(capacity > 0, "capacity must be positive");
+    return new TopicHistory(capacity, null, Ticker.systemTicker());
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("capacity", capacity)
+        .add("duration", duration)
+        .add("ticker", ticker)
+        .toString();
+  }
+
+  // the time source used to timestamp and expire values
+  public TopicHistory withTicker(final Ticker ticker) {
+    return new TopicHistory(capacity, duration, ticker);
+  }
+}
@@ -1,5 +1,10 @@
 package io.github.ssoloff.psychictrain.api.engine;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.regex.Pattern;
 
@@ -7,11 +12,21 @@ import javax.annotation.concurrent.Immutable;
 
 import org.eclipse.jdt.annotation.NonNull;
 
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.reflect.TypeToken;
 
 @Immutable
 public abstract class TopicMatcher {
+  // matches any number of trailing segments, including none
+  public static final String MULTI_LEVEL_WILDCARD = "#";
+  // topic names are hierarchical, with segments separated by this character
+  public static final char NAME_SEGMENT_SEPARATOR = '.';
+  // matches exactly one segment
+  public static final String SINGLE_LEVEL_WILDCARD = "+";
+
+  private static final Splitter NAME_SEGMENT_SPLITTER = Splitter.on(NAME_SEGMENT_SEPARATOR);
+
   TopicMatcher() {
   }
 
@@ -26,23 +41,98 @@ public abstract class TopicMatcher {
         .build());
   }
 
+  // the name filter is a topic name whose segments may be single-level
+  // wildcards or, in the last segment only, a multi-level wildcard (e.g.
+  // "world.+.position" or "world.entity.#")
+  public static TopicMatcher forTopicsMatchingFilter(final String nameFilter, final TypeToken<?> typeToken) {
+    final List<String> nameFilterSegments = splitName(nameFilter);
+    for (int i = 0, size = nameFilterSegments.size(); i < size; ++i) {
+      final String segment = nameFilterSegments.get(i);
+      checkArgument(
+          !segment.equals(MULTI_LEVEL_WILDCARD) || (i == size - 1),
+          "multi-level wildcard must be the last segment of name filter '%s'",
+          nameFilter);
+      checkArgument(
+          segment.equals(MULTI_LEVEL_WILDCARD)
+              || segment.equals(SINGLE_LEVEL_WILDCARD)
+              || ((segment.indexOf(MULTI_LEVEL_WILDCARD) < 0) && (segment.indexOf(SINGLE_LEVEL_WILDCARD) < 0)),
+          "wildcard must occupy an entire segment of name filter '%s'",
+          nameFilter);
+    }
+    return new NameFilterTopicMatcher(nameFilter, nameFilterSegments, typeToken);
+  }
+
   public static TopicMatcher forTopicsMatchingPattern(final Pattern namePattern, final TypeToken<?> typeToken) {
     return new NamePatternTopicMatcher(namePattern, typeToken);
   }
 
+  private static List<String> splitName(final String name) {
+    return NAME_SEGMENT_SPLITTER.splitToList(name);
+  }
+
+  // the name filters that together match the names of all topics matched by
+  // this matcher, if they are known; brokers use them to index subscribers
+  public abstract Optional<Set<String>> getNameFilters();
+
   public abstract boolean matches(Topic<?> topic);
 
   @Immutable
   private static final class MultipleTopicMatcher extends TopicMatcher {
+    // topics are interned, so a topic is matched by its id alone; the ids are
+    // sorted so that they can be binary searched
+    private final int[] topicIds;
     private final Set<Topic<?>> topics;
 
     MultipleTopicMatcher(final Set<Topic<?>> topics) {
+      this.topicIds = topics.stream().mapToInt(Topic::getId).sorted().toArray();
       this.topics = topics;
     }
 
+    @Override
+    public Optional<Set<String>> getNameFilters() {
+      return Optional.of(topics.stream().map(Topic::getName).collect(ImmutableSet.toImmutableSet()));
+    }
+
     @Override
     public boolean matches(final Topic<?> topic) {
-      return topics.contains(topic);
+      return Arrays.binarySearch(topicIds, topic.getId()) >= 0;
+    }
+  }
+
+  @Immutable
+  private static final class NameFilterTopicMatcher extends TopicMatcher {
+    private final String nameFilter;
+    private final List<String> nameFilterSegments;
+    private final TypeToken<?> typeToken;
+
+    NameFilterTopicMatcher(final String nameFilter, final List<String> nameFilterSegments, final TypeToken<?> typeToken) {
+      this.nameFilter = nameFilter;
+      this.nameFilterSegments = nameFilterSegments;
+      this.typeToken = typeToken;
+    }
+
+    @Override
+    public Optional<Set<String>> getNameFilters() {
+      return Optional.of(ImmutableSet.of(nameFilter));
+    }
+
+    @Override
+    public boolean matches(final Topic<?> topic) {
+      return typeToken.equals(topic.getTypeToken()) && matchesName(splitName(topic.getName()));
+    }
+
+    private boolean matchesName(final List<String> nameSegments) {
+      final int nameSegmentCount = nameSegments.size();
+      for (int i = 0, size = nameFilterSegments.size(); i < size; ++i) {
+        final String nameFilterSegment = nameFilterSegments.get(i);
+        if (nameFilterSegment.equals(MULTI_LEVEL_WILDCARD)) {
+          return true;
+        } else if ((i == nameSegmentCount)
+            || (!nameFilterSegment.equals(SINGLE_LEVEL_WILDCARD) && !nameFilterSegment.equals(nameSegments.get(i)))) {
+          return false;
+        }
+      }
+      return nameFilterSegments.size() == nameSegmentCount;
     }
   }
 
@@ -56,6 +146,11 @@ public abstract class TopicMatcher {
       this.typeToken = typeToken;
     }
 
+    @Override
+    public Optional<Set<String>> getNameFilters() {
+      return Optional.empty();
+    }
+
     @Override
     public boolean matches(final Topic<?> topic) {
       return namePattern.matcher(topic.getName()).matches() && typeToken.equals(topic.getTypeToken());
@@ -0,0 +1,86 @@
+package io.github.ssoloff.psychictrain.api.engine;
+
+import java.util.Objects;
+
+import javax.annotation.concurrent.Immutable;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.common.base.MoreObjects;
+
+// Aggregates of the values of a numeric topic held in its history. The min,
+// max and mean of an empty window are NaN.
+@Immutable
+public final class WindowAggregate {
+  private static final WindowAggregate EMPTY = new WindowAggregate(0, 0.0, Double.NaN, Double.NaN);
+
+  private final int count;
+  private final double max;
+  private final double min;
+  private final double sum;
+
+  private WindowAggregate(final int count, final double sum, final double min, final double max) {
+    this.count = count;
+    this.max = max;
+    this.min = min;
+    this.sum = sum;
+  }
+
+  public static WindowAggregate empty() {
+    return EMPTY;
+  }
+
+  @Override
+  public boolean equals(final @Nullable Object obj) {
+    if (obj == this) {
+      return true;
+    } else if (!(obj instanceof WindowAggregate)) {
+      return false;
+    }
+
+    final WindowAggregate other = (WindowAggregate) obj;
+    return (count == other.count)
+        && (Double.compare(max, other.max) == 0)
+        && (Double.compare(min, other.min) == 0)
+        && (Double.compare(sum, other.sum) == 0);
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  public double getMax() {
+    return max;
+  }
+
+  public double getMean() {
+    return (count > 0) ? (sum / count) : Double.NaN;
+  }
+
+  public double getMin() {
+    return min;
+  }
+
+  public double getSum() {
+    return sum;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(count, max, min, sum);
+  }
+
+  public static WindowAggregate of(final int count, final double sum, final double min, final double max) {
+    return (count > 0) ? new WindowAggregate(count, sum, min, max) : EMPTY;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("count", count)
+        .add("sum", sum)
+        .add("min", min)
+        .add("max", max)
+        .toString();
+  }
+}
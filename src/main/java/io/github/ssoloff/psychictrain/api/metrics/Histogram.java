@@ -0,0 +1,71 @@
+package io.github.ssoloff.psychictrain.api.metrics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+// a log-linear histogram in the style of HdrHistogram: values below 2^PRECISION_BITS
+// are counted exactly and larger values are counted in buckets whose width is at
+// most 1/2^(PRECISION_BITS - 1) of their lower bound (about 6%); recording is
+// wait-free and allocation-free
+@ThreadSafe
+public final class Histogram {
+  static final int PRECISION_BITS = 5;
+  // values larger than 2^MAX_VALUE_BITS - 1 (about 18 minutes in nanoseconds)
+  // are counted in the last bucket
+  static final int MAX_VALUE_BITS = 40;
+  static final long MAX_TRACKABLE_VALUE = (1L << MAX_VALUE_BITS) - 1L;
+
+  private static final int SUB_BUCKET_COUNT = 1 << PRECISION_BITS;
+  private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT >> 1;
+  static final int BUCKET_COUNT = getBucketIndex(MAX_TRACKABLE_VALUE) + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final LongAccumulator maxValue = new LongAccumulator(Math::max, 0L);
+  private final LongAdder totalValue = new LongAdder();
+
+  static int getBucketIndex(final long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+
+    final int shift = (63 - Long.numberOfLeadingZeros(value)) - PRECISION_BITS + 1;
+    return SUB_BUCKET_COUNT
+        + ((shift - 1) * HALF_SUB_BUCKET_COUNT)
+        + (int) ((value >>> shift) - HALF_SUB_BUCKET_COUNT);
+  }
+
+  // returns the largest value counted in the specified bucket
+  static long getBucketUpperBound(final int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+
+    final int shift = ((index - SUB_BUCKET_COUNT) / HALF_SUB_BUCKET_COUNT) + 1;
+    final long subBucket = ((index - SUB_BUCKET_COUNT) % HALF_SUB_BUCKET_COUNT) + HALF_SUB_BUCKET_COUNT;
+    return ((subBucket + 1L) << shift) - 1L;
+  }
+
+  public void record(final long value) {
+    checkArgument(value >= 0L, "value must not be negative");
+
+    final long trackableValue = Math.min(value, MAX_TRACKABLE_VALUE);
+    counts.incrementAndGet(getBucketIndex(trackableValue));
+    maxValue.accumulate(trackableValue);
+    totalValue.add(trackableValue);
+  }
+
+  // the snapshot is not atomic with respect to concurrent recording, but each
+  // recorded value is either fully included or excluded from the bucket counts
+  public HistogramSnapshot snapshot() {
+    final long[] countsCopy = new long[BUCKET_COUNT];
+    for (int index = 0; index < BUCKET_COUNT; ++index) {
+      countsCopy[index] = counts.get(index);
+    }
+    return new HistogramSnapshot(countsCopy, maxValue.get(), totalValue.sum());
+  }
+}
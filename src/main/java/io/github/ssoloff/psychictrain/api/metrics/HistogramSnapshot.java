@@ -0,0 +1,63 @@
+package io.github.ssoloff.psychictrain.api.metrics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.base.MoreObjects;
+
+@Immutable
+public final class HistogramSnapshot {
+  private final long[] counts;
+  private final long maxValue;
+  private final long totalCount;
+  private final long totalValue;
+
+  HistogramSnapshot(final long[] counts, final long maxValue, final long totalValue) {
+    this.counts = counts;
+    this.maxValue = maxValue;
+    this.totalCount = Arrays.stream(counts).sum();
+    this.totalValue = totalValue;
+  }
+
+  public long getCount() {
+    return totalCount;
+  }
+
+  public long getMaxValue() {
+    return maxValue;
+  }
+
+  public double getMean() {
+    return (totalCount > 0L) ? ((double) totalValue / totalCount) : 0.0;
+  }
+
+  // returns a value that is greater than or equal to the specified percentage of
+  // all recorded values, within the precision of the histogram
+  public long getValueAtPercentile(final double percentile) {
+    checkArgument((percentile >= 0.0) && (percentile <= 100.0), "percentile must be in the range [0, 100]");
+
+    final long targetCount = Math.max(1L, (long) Math.ceil((percentile / 100.0) * totalCount));
+    long count = 0L;
+    for (int index = 0; index < counts.length; ++index) {
+      count += counts[index];
+      if (count >= targetCount) {
+        return Math.min(Histogram.getBucketUpperBound(index), maxValue);
+      }
+    }
+    return 0L;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("count", totalCount)
+        .add("mean", getMean())
+        .add("p50", getValueAtPercentile(50.0))
+        .add("p99", getValueAtPercentile(99.0))
+        .add("max", maxValue)
+        .toString();
+  }
+}
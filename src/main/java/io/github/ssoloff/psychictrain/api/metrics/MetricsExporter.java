@@ -0,0 +1,6 @@
+package io.github.ssoloff.psychictrain.api.metrics;
+
+@FunctionalInterface
+public interface MetricsExporter {
+  void export(MetricsSnapshot metricsSnapshot);
+}
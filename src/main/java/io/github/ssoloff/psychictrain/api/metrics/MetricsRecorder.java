@@ -0,0 +1,171 @@
+package io.github.ssoloff.psychictrain.api.metrics;
+
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+
+import io.github.ssoloff.psychictrain.api.engine.BrokerInstrumentation;
+import io.github.ssoloff.psychictrain.api.engine.Subscriber;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+
+// aggregates broker instrumentation callbacks into metrics that may be
+// periodically exported; metrics of a topic are discarded when its last
+// publisher is unregistered, and metrics of a subscriber are discarded when it
+// is unregistered
+@ThreadSafe
+public final class MetricsRecorder implements BrokerInstrumentation {
+  private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+  private final Histogram cascadeDepths = new Histogram();
+  @GuardedBy("this")
+  private Map<Topic<?>, Long> previousPublicationCounts = new HashMap<>();
+  @GuardedBy("this")
+  private long previousSnapshotTime;
+  private final ConcurrentMap<Topic<?>, LongAdder> publicationCounts = new ConcurrentHashMap<>();
+  private final AtomicInteger publisherCount = new AtomicInteger();
+  private final ConcurrentMap<Topic<?>, Integer> publisherCountsByTopic = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Subscriber, LongAdder> subscriberDroppedNotificationCounts = new ConcurrentHashMap<>();
+  // the greatest depth of the notification queue since the previous snapshot
+  private final ConcurrentMap<Subscriber, AtomicInteger> subscriberMaxQueueDepths = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Subscriber, Histogram> subscriberNotificationLatencies = new ConcurrentHashMap<>();
+  private final Ticker ticker;
+
+  public MetricsRecorder() {
+    this(Ticker.systemTicker());
+  }
+
+  public MetricsRecorder(final Ticker ticker) {
+    this.previousSnapshotTime = ticker.read();
+    this.ticker = ticker;
+  }
+
+  public void export(final MetricsExporter metricsExporter) {
+    metricsExporter.export(snapshot());
+  }
+
+  private int getAndResetMaxQueueDepth(final Subscriber subscriber) {
+    final @Nullable AtomicInteger maxQueueDepth = subscriberMaxQueueDepths.get(subscriber);
+    return (maxQueueDepth != null) ? maxQueueDepth.getAndSet(0) : 0;
+  }
+
+  private long getDroppedNotificationCount(final Subscriber subscriber) {
+    final @Nullable LongAdder droppedNotificationCount = subscriberDroppedNotificationCounts.get(subscriber);
+    return (droppedNotificationCount != null) ? droppedNotificationCount.sum() : 0L;
+  }
+
+  @Override
+  public void notificationCompleted(final Subscriber subscriber, final Set<Topic<?>> topics, final long startTime) {
+    final @Nullable Histogram notificationLatencies = subscriberNotificationLatencies.get(subscriber);
+    if (notificationLatencies != null) {
+      notificationLatencies.record(Math.max(0L, ticker.read() - startTime));
+    }
+  }
+
+  @Override
+  public void notificationDropped(final Subscriber subscriber, final Set<Topic<?>> topics) {
+    final @Nullable LongAdder droppedNotificationCount = subscriberDroppedNotificationCounts.get(subscriber);
+    if (droppedNotificationCount != null) {
+      droppedNotificationCount.increment();
+    }
+  }
+
+  @Override
+  public void notificationEnqueued(final Subscriber subscriber, final int queueDepth) {
+    final @Nullable AtomicInteger maxQueueDepth = subscriberMaxQueueDepths.get(subscriber);
+    if (maxQueueDepth != null) {
+      maxQueueDepth.accumulateAndGet(queueDepth, Math::max);
+    }
+  }
+
+  @Override
+  public long notificationStarted(final Subscriber subscriber) {
+    return ticker.read();
+  }
+
+  @Override
+  public void publisherRegistered(final Topic<?> topic) {
+    publisherCount.incrementAndGet();
+    publisherCountsByTopic.merge(topic, 1, Integer::sum);
+  }
+
+  @Override
+  public void publisherUnregistered(final Topic<?> topic) {
+    publisherCount.decrementAndGet();
+    publisherCountsByTopic.computeIfPresent(topic, (otherTopic, count) -> {
+      if (count > 1) {
+        return count - 1;
+      }
+
+      publicationCounts.remove(topic);
+      return null;
+    });
+  }
+
+  public synchronized MetricsSnapshot snapshot() {
+    final long snapshotTime = ticker.read();
+    final long elapsedNanos = snapshotTime - previousSnapshotTime;
+    final Map<Topic<?>, Long> publicationCounts = this.publicationCounts.entrySet().stream()
+        .collect(toImmutableMap(Map.Entry::getKey, entry -> entry.getValue().sum()));
+    final ImmutableMap<Topic<?>, TopicMetrics> topicMetrics = publicationCounts.entrySet().stream()
+        .collect(toImmutableMap(Map.Entry::getKey, entry -> {
+          final long publicationCount = entry.getValue();
+          final long previousPublicationCount = previousPublicationCounts.getOrDefault(entry.getKey(), 0L);
+          final double publicationRate = (elapsedNanos > 0L)
+              ? (((publicationCount - previousPublicationCount) * NANOS_PER_SECOND) / elapsedNanos)
+              : 0.0;
+          return new TopicMetrics(publicationCount, publicationRate);
+        }));
+    previousPublicationCounts = publicationCounts;
+    previousSnapshotTime = snapshotTime;
+
+    return new MetricsSnapshot(
+        elapsedNanos,
+        publisherCount.get(),
+        publisherCountsByTopic.size(),
+        cascadeDepths.snapshot(),
+        topicMetrics,
+        subscriberNotificationLatencies.entrySet().stream()
+            .collect(toImmutableMap(Map.Entry::getKey, entry -> new SubscriberMetrics(
+                entry.getValue().snapshot(),
+                getDroppedNotificationCount(entry.getKey()),
+                getAndResetMaxQueueDepth(entry.getKey())))));
+  }
+
+  @Override
+  public void subscriberRegistered(final Subscriber subscriber) {
+    subscriberDroppedNotificationCounts.putIfAbsent(subscriber, new LongAdder());
+    subscriberMaxQueueDepths.putIfAbsent(subscriber, new AtomicInteger());
+    subscriberNotificationLatencies.putIfAbsent(subscriber, new Histogram());
+  }
+
+  @Override
+  public void subscriberUnregistered(final Subscriber subscriber) {
+    subscriberDroppedNotificationCounts.remove(subscriber);
+    subscriberMaxQueueDepths.remove(subscriber);
+    subscriberNotificationLatencies.remove(subscriber);
+  }
+
+  @Override
+  public void topicPublished(final Topic<?> topic, final int cascadeDepth) {
+    @Nullable LongAdder publicationCount = publicationCounts.get(topic);
+    if (publicationCount == null) {
+      publicationCount = publicationCounts.computeIfAbsent(topic, otherTopic -> new LongAdder());
+    }
+    publicationCount.increment();
+    cascadeDepths.record(cascadeDepth);
+  }
+}
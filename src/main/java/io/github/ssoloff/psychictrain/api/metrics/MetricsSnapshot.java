@@ -0,0 +1,108 @@
+package io.github.ssoloff.psychictrain.api.metrics;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+
+import io.github.ssoloff.psychictrain.api.engine.Subscriber;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+
+@Immutable
+public final class MetricsSnapshot {
+  private final HistogramSnapshot cascadeDepths;
+  private final long elapsedNanos;
+  private final int publisherCount;
+  private final ImmutableMap<Subscriber, SubscriberMetrics> subscriberMetrics;
+  private final int topicCount;
+  private final ImmutableMap<Topic<?>, TopicMetrics> topicMetrics;
+
+  MetricsSnapshot(
+      final long elapsedNanos,
+      final int publisherCount,
+      final int topicCount,
+      final HistogramSnapshot cascadeDepths,
+      final ImmutableMap<Topic<?>, TopicMetrics> topicMetrics,
+      final ImmutableMap<Subscriber, SubscriberMetrics> subscriberMetrics) {
+    this.cascadeDepths = cascadeDepths;
+    this.elapsedNanos = elapsedNanos;
+    this.publisherCount = publisherCount;
+    this.subscriberMetrics = subscriberMetrics;
+    this.topicCount = topicCount;
+    this.topicMetrics = topicMetrics;
+  }
+
+  // the cascade depth of every publication since the recorder was created
+  public HistogramSnapshot getCascadeDepths() {
+    return cascadeDepths;
+  }
+
+  // the time elapsed since the previous snapshot, over which rates are computed
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  // returns at most the specified number of topics, ordered from the highest
+  // publication rate to the lowest
+  public List<Topic<?>> getHottestTopics(final int limit) {
+    return topicMetrics.entrySet().stream()
+        .sorted(Comparator.comparingDouble(
+            (Map.Entry<Topic<?>, TopicMetrics> entry) -> entry.getValue().getPublicationRate()).reversed())
+        .limit(limit)
+        .map(Map.Entry::getKey)
+        .collect(toImmutableList());
+  }
+
+  public int getPublisherCount() {
+    return publisherCount;
+  }
+
+  public int getSubscriberCount() {
+    return subscriberMetrics.size();
+  }
+
+  public Map<Subscriber, SubscriberMetrics> getSubscriberMetrics() {
+    return subscriberMetrics;
+  }
+
+  // returns at most the specified number of subscribers, ordered from the highest
+  // 99th percentile notification latency to the lowest
+  public List<Subscriber> getSlowestSubscribers(final int limit) {
+    return subscriberMetrics.entrySet().stream()
+        .sorted(Comparator.comparingLong(
+            (Map.Entry<Subscriber, SubscriberMetrics> entry) -> entry.getValue()
+                .getNotificationLatencies()
+                .getValueAtPercentile(99.0))
+            .reversed())
+        .limit(limit)
+        .map(Map.Entry::getKey)
+        .collect(toImmutableList());
+  }
+
+  public int getTopicCount() {
+    return topicCount;
+  }
+
+  public Map<Topic<?>, TopicMetrics> getTopicMetrics() {
+    return topicMetrics;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("elapsedNanos", elapsedNanos)
+        .add("publisherCount", publisherCount)
+        .add("subscriberCount", getSubscriberCount())
+        .add("topicCount", topicCount)
+        .add("cascadeDepths", cascadeDepths)
+        .add("topicMetrics", topicMetrics)
+        .add("subscriberMetrics", subscriberMetrics)
+        .toString();
+  }
+}
@@ -0,0 +1,51 @@
+package io.github.ssoloff.psychictrain.api.metrics;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.base.MoreObjects;
+
+@Immutable
+public final class SubscriberMetrics {
+  private final long droppedNotificationCount;
+  private final int maxQueueDepth;
+  private final HistogramSnapshot notificationLatencies;
+
+  SubscriberMetrics(
+      final HistogramSnapshot notificationLatencies,
+      final long droppedNotificationCount,
+      final int maxQueueDepth) {
+    this.droppedNotificationCount = droppedNotificationCount;
+    this.maxQueueDepth = maxQueueDepth;
+    this.notificationLatencies = notificationLatencies;
+  }
+
+  // the number of notifications discarded or collapsed because the bounded
+  // notification queue of the subscriber was full, since it was registered
+  public long getDroppedNotificationCount() {
+    return droppedNotificationCount;
+  }
+
+  // the greatest number of notifications awaiting delivery on the executor of
+  // the subscriber since the previous snapshot
+  public int getMaxQueueDepth() {
+    return maxQueueDepth;
+  }
+
+  public long getNotificationCount() {
+    return notificationLatencies.getCount();
+  }
+
+  // the time, in nanoseconds, spent in each call to Subscriber#topicsChanged()
+  public HistogramSnapshot getNotificationLatencies() {
+    return notificationLatencies;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("droppedNotificationCount", droppedNotificationCount)
+        .add("maxQueueDepth", maxQueueDepth)
+        .add("notificationLatencies", notificationLatencies)
+        .toString();
+  }
+}
@@ -0,0 +1,34 @@
+package io.github.ssoloff.psychictrain.api.metrics;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.base.MoreObjects;
+
+@Immutable
+public final class TopicMetrics {
+  private final long publicationCount;
+  private final double publicationRate;
+
+  TopicMetrics(final long publicationCount, final double publicationRate) {
+    this.publicationCount = publicationCount;
+    this.publicationRate = publicationRate;
+  }
+
+  // the total number of publications since the topic was first published
+  public long getPublicationCount() {
+    return publicationCount;
+  }
+
+  // the number of publications per second since the previous snapshot
+  public double getPublicationRate() {
+    return publicationRate;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("publicationCount", publicationCount)
+        .add("publicationRate", publicationRate)
+        .toString();
+  }
+}
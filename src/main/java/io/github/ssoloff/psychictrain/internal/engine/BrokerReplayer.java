@@ -0,0 +1,411 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.common.base.Ticker;
+import com.google.common.reflect.TypeToken;
+
+import io.github.ssoloff.psychictrain.api.codec.ValueCodec;
+import io.github.ssoloff.psychictrain.api.codec.ValueCodecRegistry;
+import io.github.ssoloff.psychictrain.api.engine.Broker;
+import io.github.ssoloff.psychictrain.api.engine.Publisher;
+import io.github.ssoloff.psychictrain.api.engine.PublisherContext;
+import io.github.ssoloff.psychictrain.api.engine.PublisherToken;
+import io.github.ssoloff.psychictrain.api.engine.Subscriber;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberContext;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberToken;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+import io.github.ssoloff.psychictrain.api.metrics.Histogram;
+
+// Replays a recording made by RecordingBroker against a broker, either at the
+// recorded speed, at a multiple of it, or as fast as possible, and measures
+// the throughput of the replay and the latency of each publication.
+//
+// The recording is decoded in full when it is loaded, so decoding does not
+// contribute to the measurements. Each replayed subscriber matches the topics
+// the recorded subscriber matched and reads the changed values of those topics
+// whenever it is notified. Publishers and subscribers that remain registered
+// at the end of the recording are unregistered after the replay completes.
+@NotThreadSafe
+final class BrokerReplayer {
+  static final double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+  static final double RECORDED_SPEED = 1.0;
+
+  // matches no topic, for subscribers that matched no recorded topic
+  private static final TopicMatcher NO_TOPICS_MATCHER = TopicMatcher.forTopicsMatchingPattern(
+      Pattern.compile("(?!)"),
+      TypeToken.of(Object.class));
+  // the replayer parks until this long before an event is due and then spins,
+  // as parking is not precise enough to pace events closer together
+  private static final long SPIN_THRESHOLD_NANOS = 100_000L;
+
+  private final List<Event> events;
+  private final int publisherCount;
+  private final int subscriberCount;
+  private final Ticker ticker;
+  // indexed by subscriber id
+  private final List<TopicMatcher> topicMatchers;
+  // indexed by topic id
+  private final List<@Nullable Topic<?>> topics;
+
+  private BrokerReplayer(
+      final List<@Nullable Topic<?>> topics,
+      final List<TopicMatcher> topicMatchers,
+      final int publisherCount,
+      final List<Event> events,
+      final Ticker ticker) {
+    this.events = events;
+    this.publisherCount = publisherCount;
+    this.subscriberCount = topicMatchers.size();
+    this.ticker = ticker;
+    this.topicMatchers = topicMatchers;
+    this.topics = topics;
+  }
+
+  private void awaitEvent(final long dueTime) {
+    for (long now = ticker.read(); now < dueTime; now = ticker.read()) {
+      final long remainingNanos = dueTime - now;
+      if (remainingNanos > SPIN_THRESHOLD_NANOS) {
+        LockSupport.parkNanos(remainingNanos - SPIN_THRESHOLD_NANOS);
+      } else {
+        Thread.onSpinWait();
+      }
+    }
+  }
+
+  private static <T> T getById(final List<@Nullable T> values, final int id) throws IOException {
+    final @Nullable T value = ((id >= 0) && (id < values.size())) ? values.get(id) : null;
+    if (value == null) {
+      throw new IOException("undefined id (" + id + ") in recording");
+    }
+    return value;
+  }
+
+  static BrokerReplayer load(final Path file, final ValueCodecRegistry codecRegistry) throws IOException {
+    return load(file, codecRegistry, Ticker.systemTicker());
+  }
+
+  static BrokerReplayer load(final Path file, final ValueCodecRegistry codecRegistry, final Ticker ticker)
+      throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("recording is too large (" + channel.size() + " bytes)");
+      }
+
+      final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+      return load(buffer, codecRegistry, ticker);
+    } catch (final BufferUnderflowException e) {
+      throw new IOException("unexpected end of recording", e);
+    }
+  }
+
+  private static BrokerReplayer load(
+      final ByteBuffer buffer,
+      final ValueCodecRegistry codecRegistry,
+      final Ticker ticker) throws IOException {
+    if ((buffer.remaining() < Integer.BYTES + Short.BYTES) || (buffer.getInt() != RecordingBroker.MAGIC_NUMBER)) {
+      throw new IOException("not a recording");
+    }
+    final short formatVersion = buffer.getShort();
+    if (formatVersion != RecordingBroker.FORMAT_VERSION) {
+      throw new IOException("unsupported recording format version (" + formatVersion + ")");
+    }
+
+    final List<@Nullable ValueCodec<?>> codecs = new ArrayList<>();
+    final List<Event> events = new ArrayList<>();
+    final List<@Nullable Set<Topic<?>>> matchedTopicsBySubscriberId = new ArrayList<>();
+    final List<@Nullable Topic<?>> topics = new ArrayList<>();
+    // publishers of topics that were not recorded leave gaps in the ids
+    final List<@Nullable ValueCodec<?>> topicCodecsByPublisherId = new ArrayList<>();
+    long time = 0L;
+    while (buffer.hasRemaining()) {
+      final byte eventType = buffer.get();
+      time += RecordingBroker.getVarLong(buffer);
+      switch (eventType) {
+        case RecordingBroker.DEFINE_TOPIC_EVENT_TYPE: {
+          final int topicId = RecordingBroker.getVarInt(buffer);
+          final String topicName = RecordingBroker.getString(buffer);
+          final String codecName = RecordingBroker.getString(buffer);
+          final ValueCodec<?> codec = codecRegistry.getCodec(codecName)
+              .orElseThrow(() -> new IOException("no codec named '" + codecName + "' for topic '" + topicName + "'"));
+          if (topicId != topics.size()) {
+            throw new IOException("topic '" + topicName + "' defined out of order in recording");
+          }
+          codecs.add(codec);
+          topics.add(Topic.of(topicName, codec.getTypeToken()));
+          break;
+        }
+
+        case RecordingBroker.MATCH_EVENT_TYPE: {
+          final int subscriberId = RecordingBroker.getVarInt(buffer);
+          final Topic<?> topic = getById(topics, RecordingBroker.getVarInt(buffer));
+          @Nullable Set<Topic<?>> matchedTopics = getOrNull(matchedTopicsBySubscriberId, subscriberId);
+          if (matchedTopics == null) {
+            matchedTopics = new LinkedHashSet<>();
+            setById(matchedTopicsBySubscriberId, subscriberId, matchedTopics);
+          }
+          matchedTopics.add(topic);
+          break;
+        }
+
+        case RecordingBroker.PUBLISH_EVENT_TYPE: {
+          final int publisherId = RecordingBroker.getVarInt(buffer);
+          final ValueCodec<?> codec = getById(topicCodecsByPublisherId, publisherId);
+          final int valueLength = buffer.getInt();
+          final ByteBuffer valueBuffer = buffer.slice();
+          valueBuffer.limit(valueLength);
+          buffer.position(buffer.position() + valueLength);
+          events.add(Event.newObjectEvent(eventType, time, publisherId, codec.decode(valueBuffer)));
+          break;
+        }
+
+        case RecordingBroker.PUBLISH_DOUBLE_EVENT_TYPE:
+          events.add(Event.newPrimitiveEvent(
+              eventType,
+              time,
+              RecordingBroker.getVarInt(buffer),
+              Double.doubleToRawLongBits(buffer.getDouble())));
+          break;
+
+        case RecordingBroker.PUBLISH_INT_EVENT_TYPE:
+          events.add(Event.newPrimitiveEvent(eventType, time, RecordingBroker.getVarInt(buffer), buffer.getInt()));
+          break;
+
+        case RecordingBroker.PUBLISH_LONG_EVENT_TYPE:
+          events.add(Event.newPrimitiveEvent(eventType, time, RecordingBroker.getVarInt(buffer), buffer.getLong()));
+          break;
+
+        case RecordingBroker.REGISTER_PUBLISHER_EVENT_TYPE: {
+          final int publisherId = RecordingBroker.getVarInt(buffer);
+          final int topicId = RecordingBroker.getVarInt(buffer);
+          final ValueCodec<?> codec = getById(codecs, topicId);
+          setById(topicCodecsByPublisherId, publisherId, codec);
+          events.add(Event.newPrimitiveEvent(eventType, time, publisherId, topicId));
+          break;
+        }
+
+        case RecordingBroker.REGISTER_SUBSCRIBER_EVENT_TYPE:
+        case RecordingBroker.UNREGISTER_PUBLISHER_EVENT_TYPE:
+        case RecordingBroker.UNREGISTER_SUBSCRIBER_EVENT_TYPE:
+          events.add(Event.newPrimitiveEvent(eventType, time, RecordingBroker.getVarInt(buffer), 0L));
+          break;
+
+        default:
+          throw new IOException("unknown event type (" + eventType + ") in recording");
+      }
+    }
+
+    final int subscriberCount = events.stream()
+        .filter(event -> event.type == RecordingBroker.REGISTER_SUBSCRIBER_EVENT_TYPE)
+        .mapToInt(event -> event.id + 1)
+        .max()
+        .orElse(0);
+    final List<TopicMatcher> topicMatchers = new ArrayList<>(subscriberCount);
+    for (int subscriberId = 0; subscriberId < subscriberCount; ++subscriberId) {
+      topicMatchers.add(newTopicMatcher(getOrNull(matchedTopicsBySubscriberId, subscriberId)));
+    }
+    return new BrokerReplayer(topics, topicMatchers, topicCodecsByPublisherId.size(), events, ticker);
+  }
+
+  private static <T> @Nullable T getOrNull(final List<@Nullable T> values, final int id) {
+    return (id < values.size()) ? values.get(id) : null;
+  }
+
+  private static TopicMatcher newTopicMatcher(final @Nullable Set<Topic<?>> topics) {
+    if ((topics == null) || topics.isEmpty()) {
+      return NO_TOPICS_MATCHER;
+    }
+
+    final Topic<?>[] topicArray = topics.toArray(new Topic<?>[0]);
+    return TopicMatcher.forTopics(topicArray[0], Arrays.copyOfRange(topicArray, 1, topicArray.length));
+  }
+
+  // a speed factor of 1.0 (RECORDED_SPEED) replays events at the times they
+  // were recorded, a factor of 2.0 replays them twice as fast, and so on
+  ReplayResult replay(final Broker broker, final double speedFactor) {
+    checkArgument(speedFactor > 0.0, "speed factor must be positive");
+
+    final Histogram publishLatency = new Histogram();
+    final List<@Nullable PublisherToken<ReplayedPublisher>> publisherTokens = newTokenList(publisherCount);
+    final List<@Nullable SubscriberToken<ReplayedSubscriber>> subscriberTokens = newTokenList(subscriberCount);
+    final long startTime = ticker.read();
+    for (int i = 0, size = events.size(); i < size; ++i) {
+      final Event event = events.get(i);
+      awaitEvent(startTime + (long) (event.time / speedFactor));
+      switch (event.type) {
+        case RecordingBroker.PUBLISH_EVENT_TYPE:
+        case RecordingBroker.PUBLISH_DOUBLE_EVENT_TYPE:
+        case RecordingBroker.PUBLISH_INT_EVENT_TYPE:
+        case RecordingBroker.PUBLISH_LONG_EVENT_TYPE: {
+          // a publication recorded after its publisher was unregistered was
+          // ignored by the recorded broker
+          final @Nullable PublisherToken<ReplayedPublisher> publisherToken = publisherTokens.get(event.id);
+          if (publisherToken != null) {
+            final long publishStartTime = ticker.read();
+            publish(publisherToken.getPublisher().context, event);
+            publishLatency.record(ticker.read() - publishStartTime);
+          }
+          break;
+        }
+
+        case RecordingBroker.REGISTER_PUBLISHER_EVENT_TYPE: {
+          final @Nullable Topic<?> topic = topics.get((int) event.primitiveValue);
+          assert topic != null;
+          publisherTokens.set(event.id, broker.registerPublisher(topic, ReplayedPublisher::new));
+          break;
+        }
+
+        case RecordingBroker.REGISTER_SUBSCRIBER_EVENT_TYPE:
+          subscriberTokens.set(
+              event.id,
+              broker.registerSubscriber(topicMatchers.get(event.id), ReplayedSubscriber::new));
+          break;
+
+        case RecordingBroker.UNREGISTER_PUBLISHER_EVENT_TYPE:
+          unregister(publisherTokens, event.id, PublisherToken::unregister);
+          break;
+
+        case RecordingBroker.UNREGISTER_SUBSCRIBER_EVENT_TYPE:
+          unregister(subscriberTokens, event.id, SubscriberToken::unregister);
+          break;
+
+        default:
+          throw new AssertionError("unexpected event type (" + event.type + ")");
+      }
+    }
+    final long elapsedNanos = ticker.read() - startTime;
+
+    for (int id = 0; id < publisherCount; ++id) {
+      unregister(publisherTokens, id, PublisherToken::unregister);
+    }
+    for (int id = 0; id < subscriberCount; ++id) {
+      unregister(subscriberTokens, id, SubscriberToken::unregister);
+    }
+    return new ReplayResult(events.size(), elapsedNanos, publishLatency.snapshot());
+  }
+
+  private static <T> List<@Nullable T> newTokenList(final int size) {
+    final List<@Nullable T> tokens = new ArrayList<>(size);
+    for (int i = 0; i < size; ++i) {
+      tokens.add(null);
+    }
+    return tokens;
+  }
+
+  private static void publish(final PublisherContext publisherContext, final Event event) {
+    switch (event.type) {
+      case RecordingBroker.PUBLISH_EVENT_TYPE: {
+        final @Nullable Object value = event.value;
+        assert value != null;
+        publisherContext.publish(value);
+        break;
+      }
+
+      case RecordingBroker.PUBLISH_DOUBLE_EVENT_TYPE:
+        publisherContext.publishDouble(Double.longBitsToDouble(event.primitiveValue));
+        break;
+
+      case RecordingBroker.PUBLISH_INT_EVENT_TYPE:
+        publisherContext.publishInt((int) event.primitiveValue);
+        break;
+
+      case RecordingBroker.PUBLISH_LONG_EVENT_TYPE:
+        publisherContext.publishLong(event.primitiveValue);
+        break;
+
+      default:
+        throw new AssertionError("unexpected event type (" + event.type + ")");
+    }
+  }
+
+  private static <T> void setById(final List<@Nullable T> values, final int id, final T value) {
+    while (id >= values.size()) {
+      values.add(null);
+    }
+    values.set(id, value);
+  }
+
+  private static <T> void unregister(final List<@Nullable T> tokens, final int id, final Consumer<T> unregistration) {
+    final @Nullable T token = tokens.get(id);
+    if (token != null) {
+      tokens.set(id, null);
+      unregistration.accept(token);
+    }
+  }
+
+  private static final class Event {
+    // the publisher or subscriber id
+    final int id;
+    // the topic id of a publisher registration or the value of a primitive
+    // publication (the raw bits of a double)
+    final long primitiveValue;
+    // nanoseconds since the recording started
+    final long time;
+    final byte type;
+    // the value of an object publication
+    final @Nullable Object value;
+
+    private Event(
+        final byte type,
+        final long time,
+        final int id,
+        final long primitiveValue,
+        final @Nullable Object value) {
+      this.id = id;
+      this.primitiveValue = primitiveValue;
+      this.time = time;
+      this.type = type;
+      this.value = value;
+    }
+
+    static Event newObjectEvent(final byte type, final long time, final int id, final Object value) {
+      return new Event(type, time, id, 0L, value);
+    }
+
+    static Event newPrimitiveEvent(final byte type, final long time, final int id, final long primitiveValue) {
+      return new Event(type, time, id, primitiveValue, null);
+    }
+  }
+
+  private static final class ReplayedPublisher implements Publisher {
+    final PublisherContext context;
+
+    ReplayedPublisher(final PublisherContext context) {
+      this.context = context;
+    }
+  }
+
+  private static final class ReplayedSubscriber implements Subscriber {
+    private final SubscriberContext context;
+
+    ReplayedSubscriber(final SubscriberContext context) {
+      this.context = context;
+    }
+
+    @Override
+    public void topicsChanged(final Set<Topic<?>> topics) {
+      context.getChangedValuesForMatchingTopics();
+    }
+  }
+}
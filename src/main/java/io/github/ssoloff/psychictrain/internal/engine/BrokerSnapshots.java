@@ -0,0 +1,266 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+import com.google.common.collect.ImmutableList;
+
+import io.github.ssoloff.psychictrain.api.codec.ValueCodec;
+import io.github.ssoloff.psychictrain.api.codec.ValueCodecRegistry;
+import io.github.ssoloff.psychictrain.api.engine.PublisherToken;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+
+// Writes the values published to a broker to a binary snapshot and restores
+// them into another broker.
+//
+// A snapshot is
+//
+//   int    magic number
+//   short  format version
+//   ...    value records
+//   int    0, marking the end of the snapshot
+//
+// where each value record is
+//
+//   int    length of the remainder of the record
+//   short  length of the topic name, followed by the UTF-8 topic name
+//   short  length of the codec name, followed by the UTF-8 codec name
+//   ...    the value as written by the codec
+//
+// Snapshots are written and read through a buffer of fixed size, which only
+// grows to hold a single record larger than itself, so neither writing nor
+// reading a snapshot holds a copy of the encoded state in memory. Values of
+// topics whose type has no codec are not written.
+final class BrokerSnapshots {
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final short FORMAT_VERSION = 1;
+  private static final int MAGIC_NUMBER = 0x50545331;
+  // names are prefixed with an unsigned short length
+  private static final int MAX_NAME_LENGTH = 0xFFFF;
+
+  private static final Logger logger = Logger.getLogger(BrokerSnapshots.class.getName());
+
+  private BrokerSnapshots() {
+  }
+
+  // writes the buffer to the channel and prepares it to be filled again
+  private static void drain(final ByteBuffer buffer, final WritableByteChannel channel) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  // reads from the channel until the buffer contains at least the specified
+  // number of bytes; the buffer is in read mode before and after the call
+  private static ByteBuffer fill(final ByteBuffer buffer, final ReadableByteChannel channel, final int byteCount)
+      throws IOException {
+    ByteBuffer filledBuffer = buffer;
+    if (filledBuffer.remaining() < byteCount) {
+      if (filledBuffer.capacity() < byteCount) {
+        filledBuffer = ByteBuffer.allocate(byteCount).put(buffer);
+      } else {
+        filledBuffer.compact();
+      }
+      while (filledBuffer.position() < byteCount) {
+        if (channel.read(filledBuffer) < 0) {
+          throw new IOException("unexpected end of snapshot");
+        }
+      }
+      filledBuffer.flip();
+    }
+    return filledBuffer;
+  }
+
+  private static String getString(final ByteBuffer buffer) {
+    final byte[] bytes = new byte[buffer.getShort() & MAX_NAME_LENGTH];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void putString(final ByteBuffer buffer, final String value) {
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    checkArgument(bytes.length <= MAX_NAME_LENGTH, "name '%s' is too long", value);
+    if (buffer.remaining() < Short.BYTES + bytes.length) {
+      throw new BufferOverflowException();
+    }
+    buffer.putShort((short) bytes.length).put(bytes);
+  }
+
+  // registers a publisher for each value in the snapshot and publishes the
+  // value; subscribers are notified once of all restored topics when the
+  // restore completes. values whose codec is not registered are skipped.
+  // returns the tokens of the registered publishers. the restore is all or
+  // nothing: if it fails, the publishers registered so far are unregistered
+  // within the same batch, so subscribers never observe a partial restore.
+  static List<PublisherToken<RestoredPublisher>> restore(
+      final InternalBroker broker,
+      final ValueCodecRegistry codecRegistry,
+      final ReadableByteChannel channel) throws IOException {
+    final List<PublisherToken<RestoredPublisher>> publisherTokens = new ArrayList<>();
+    try {
+      broker.runInBatch(() -> {
+        boolean restored = false;
+        try {
+          restore(broker, codecRegistry, channel, publisherTokens);
+          restored = true;
+        } catch (final IOException e) {
+          throw new UncheckedIOException(e);
+        } finally {
+          if (!restored) {
+            publisherTokens.forEach(PublisherToken::unregister);
+          }
+        }
+      });
+    } catch (final UncheckedIOException e) {
+      throw e.getCause();
+    }
+    return ImmutableList.copyOf(publisherTokens);
+  }
+
+  private static void restore(
+      final InternalBroker broker,
+      final ValueCodecRegistry codecRegistry,
+      final ReadableByteChannel channel,
+      final List<PublisherToken<RestoredPublisher>> publisherTokens) throws IOException {
+    ByteBuffer buffer = fill(ByteBuffer.allocate(BUFFER_SIZE).flip(), channel, Integer.BYTES + Short.BYTES);
+    final int magicNumber = buffer.getInt();
+    final short formatVersion = buffer.getShort();
+    if (magicNumber != MAGIC_NUMBER) {
+      throw new IOException("not a snapshot");
+    } else if (formatVersion != FORMAT_VERSION) {
+      throw new IOException("unsupported snapshot format version (" + formatVersion + ")");
+    }
+
+    while (true) {
+      buffer = fill(buffer, channel, Integer.BYTES);
+      final int recordLength = buffer.getInt();
+      if (recordLength == 0) {
+        return;
+      }
+
+      buffer = fill(buffer, channel, recordLength);
+      final ByteBuffer record = buffer.slice().limit(recordLength);
+      buffer.position(buffer.position() + recordLength);
+      final String topicName = getString(record);
+      final String codecName = getString(record);
+      final Optional<ValueCodec<?>> codec = codecRegistry.getCodec(codecName);
+      if (codec.isPresent()) {
+        final Topic<?> topic = Topic.of(topicName, codec.get().getTypeToken());
+        final PublisherToken<RestoredPublisher> publisherToken = broker.registerPublisher(
+            topic,
+            RestoredPublisher.newFactory());
+        publisherTokens.add(publisherToken);
+        publisherToken.getPublisher().getContext().publish(codec.get().decode(record));
+      } else {
+        logger.warning("skipping snapshot value of topic '" + topicName + "' (no codec named '" + codecName + "')");
+      }
+    }
+  }
+
+  // writes a snapshot of the values currently published to the broker; the
+  // broker must not be modified while the snapshot is written
+  static void write(
+      final InternalBroker broker,
+      final ValueCodecRegistry codecRegistry,
+      final WritableByteChannel channel) throws IOException {
+    final SnapshotWriter snapshotWriter = new SnapshotWriter(codecRegistry, channel);
+    snapshotWriter.writeHeader();
+    try {
+      broker.forEachValue(snapshotWriter::writeValue);
+    } catch (final UncheckedIOException e) {
+      throw e.getCause();
+    }
+    snapshotWriter.writeTrailer();
+  }
+
+  private static final class SnapshotWriter {
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final WritableByteChannel channel;
+    private final ValueCodecRegistry codecRegistry;
+    // the codec of each topic written so far, or empty if its values are not written
+    private final TopicTable<Optional<ValueCodec<Object>>> codecsByTopic = new TopicTable<>();
+
+    SnapshotWriter(final ValueCodecRegistry codecRegistry, final WritableByteChannel channel) {
+      this.channel = channel;
+      this.codecRegistry = codecRegistry;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Optional<ValueCodec<Object>> getCodec(final Topic<?> topic) {
+      return codecsByTopic.computeIfAbsent(topic, unused -> {
+        final Optional<ValueCodec<Object>> codec = codecRegistry.getCodec(topic.getTypeToken())
+            .map(otherCodec -> (ValueCodec<Object>) otherCodec);
+        if (!codec.isPresent()) {
+          logger.warning("values of topic '" + topic.getName() + "' will not be written (no codec for "
+              + topic.getTypeToken() + ")");
+        }
+        return codec;
+      });
+    }
+
+    private boolean tryPutRecord(final Topic<?> topic, final ValueCodec<Object> codec, final Object value) {
+      final int recordPosition = buffer.position();
+      if (buffer.remaining() < Integer.BYTES) {
+        return false;
+      }
+
+      try {
+        buffer.position(recordPosition + Integer.BYTES);
+        putString(buffer, topic.getName());
+        putString(buffer, codec.getName());
+        codec.encode(value, buffer);
+        buffer.putInt(recordPosition, buffer.position() - recordPosition - Integer.BYTES);
+        return true;
+      } catch (final BufferOverflowException e) {
+        buffer.position(recordPosition);
+        return false;
+      }
+    }
+
+    void writeHeader() {
+      buffer.putInt(MAGIC_NUMBER).putShort(FORMAT_VERSION);
+    }
+
+    void writeTrailer() throws IOException {
+      if (buffer.remaining() < Integer.BYTES) {
+        drain(buffer, channel);
+      }
+      buffer.putInt(0);
+      drain(buffer, channel);
+    }
+
+    void writeValue(final Topic<?> topic, final Object value) {
+      getCodec(topic).ifPresent(codec -> {
+        try {
+          if (!tryPutRecord(topic, codec, value)) {
+            drain(buffer, channel);
+            // a record larger than the buffer is written through a buffer of
+            // its own
+            while (!tryPutRecord(topic, codec, value)) {
+              buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+          }
+          if (buffer.capacity() > BUFFER_SIZE) {
+            drain(buffer, channel);
+            buffer = ByteBuffer.allocate(BUFFER_SIZE);
+          }
+        } catch (final IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,509 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimap;
+
+import io.github.ssoloff.psychictrain.api.engine.BrokerInstrumentation;
+import io.github.ssoloff.psychictrain.api.engine.DerivedTopicFunction;
+import io.github.ssoloff.psychictrain.api.engine.DerivedTopicToken;
+import io.github.ssoloff.psychictrain.api.engine.Publisher;
+import io.github.ssoloff.psychictrain.api.engine.PublisherContext;
+import io.github.ssoloff.psychictrain.api.engine.PublisherFactory;
+import io.github.ssoloff.psychictrain.api.engine.PublisherOptions;
+import io.github.ssoloff.psychictrain.api.engine.PublisherToken;
+import io.github.ssoloff.psychictrain.api.engine.Subscriber;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberContext;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberFactory;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberOptions;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberToken;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicHistory;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+import io.github.ssoloff.psychictrain.api.engine.WindowAggregate;
+
+// publications to different topics never contend with each other; a subscriber
+// matching several topics may be notified concurrently by different publishing
+// threads and must therefore be thread-safe
+@ThreadSafe
+final class ConcurrentBroker implements InternalBroker {
+  private static final Logger logger = Logger.getLogger(ConcurrentBroker.class.getName());
+
+  private final BrokerInstrumentation instrumentation;
+  private final ConcurrentMap<PublisherId, PublisherEntry> publisherEntriesById = new ConcurrentHashMap<>();
+  private final ConcurrentMap<SubscriberId, SubscriberEntry> subscriberEntriesById = new ConcurrentHashMap<>();
+  private final SubscriberIndex subscriberIndex = new SubscriberIndex();
+  private final ThreadLocal<ThreadState> threadState = ThreadLocal.withInitial(ThreadState::new);
+  private final ConcurrentMap<Topic<?>, ConcurrentTopicEntry> topicEntriesByTopic = new ConcurrentHashMap<>();
+
+  ConcurrentBroker() {
+    this(BrokerInstrumentation.noOp());
+  }
+
+  ConcurrentBroker(final BrokerInstrumentation instrumentation) {
+    this.instrumentation = instrumentation;
+  }
+
+  private List<Topic<?>> beginPublication(final PublisherEntry publisherEntry) {
+    final Topic<?> topic = publisherEntry.getTopic();
+    final List<Topic<?>> inFlightTopics = threadState.get().inFlightTopics;
+    checkState(!inFlightTopics.contains(topic), "cycle detected during publication of topic '%s'", topic);
+
+    inFlightTopics.add(topic);
+    instrumentation.topicPublished(topic, inFlightTopics.size());
+    return inFlightTopics;
+  }
+
+  private static void endPublication(final List<Topic<?>> inFlightTopics) {
+    inFlightTopics.remove(inFlightTopics.size() - 1);
+  }
+
+  @Override
+  public void flushSubscriber(final SubscriberId subscriberId) {
+    // publications made by the subscriber while being notified are propagated
+    // once it returns
+    Optional.ofNullable(subscriberEntriesById.get(subscriberId)).ifPresentOrElse(
+        subscriberEntry -> runInBatch(subscriberEntry::flush),
+        () -> logger.warning("attempt to flush unregistered subscriber (" + subscriberId + ")"));
+  }
+
+  private void forEachDoubleValueForTopic(final Topic<Double> topic, final DoubleConsumer consumer) {
+    final @Nullable ConcurrentTopicEntry topicEntry = topicEntriesByTopic.get(topic);
+    if (topicEntry != null) {
+      final List<PublisherEntry> publisherEntries = topicEntry.getPublisherEntries();
+      for (int i = 0, size = publisherEntries.size(); i < size; ++i) {
+        final PublisherEntry publisherEntry = publisherEntries.get(i);
+        if (publisherEntry.hasValue()) {
+          consumer.accept(publisherEntry.getDoubleValue());
+        }
+      }
+    }
+  }
+
+  private void forEachIntValueForTopic(final Topic<Integer> topic, final IntConsumer consumer) {
+    final @Nullable ConcurrentTopicEntry topicEntry = topicEntriesByTopic.get(topic);
+    if (topicEntry != null) {
+      final List<PublisherEntry> publisherEntries = topicEntry.getPublisherEntries();
+      for (int i = 0, size = publisherEntries.size(); i < size; ++i) {
+        final PublisherEntry publisherEntry = publisherEntries.get(i);
+        if (publisherEntry.hasValue()) {
+          consumer.accept(publisherEntry.getIntValue());
+        }
+      }
+    }
+  }
+
+  private void forEachLongValueForTopic(final Topic<Long> topic, final LongConsumer consumer) {
+    final @Nullable ConcurrentTopicEntry topicEntry = topicEntriesByTopic.get(topic);
+    if (topicEntry != null) {
+      final List<PublisherEntry> publisherEntries = topicEntry.getPublisherEntries();
+      for (int i = 0, size = publisherEntries.size(); i < size; ++i) {
+        final PublisherEntry publisherEntry = publisherEntries.get(i);
+        if (publisherEntry.hasValue()) {
+          consumer.accept(publisherEntry.getLongValue());
+        }
+      }
+    }
+  }
+
+  @Override
+  public void forEachValue(final BiConsumer<Topic<?>, Object> consumer) {
+    // derived values are computed from the values of their inputs, so they are
+    // neither computed nor passed to the consumer
+    topicEntriesByTopic.values().forEach(topicEntry -> topicEntry.getPublisherEntries().stream()
+        .filter(publisherEntry -> !publisherEntry.isDerived() && publisherEntry.hasValue())
+        .forEach(publisherEntry -> consumer.accept(publisherEntry.getTopic(), publisherEntry.getValue())));
+  }
+
+  private Multimap<Topic<?>, ?> getChangedValuesForMatchingTopics(final SubscriberId subscriberId) {
+    return Optional.ofNullable(subscriberEntriesById.get(subscriberId))
+        .flatMap(SubscriberEntry::drainChangedPublisherEntries)
+        .<Multimap<Topic<?>, ?>>map(changedPublisherEntries -> {
+          final ImmutableMultimap.Builder<Topic<?>, Object> valuesByTopicBuilder = ImmutableMultimap.builder();
+          // entries of publishers unregistered since the last read no longer
+          // contribute a value, nor do derived topics whose value is now absent
+          changedPublisherEntries.stream()
+              .filter(publisherEntry -> publisherEntry.isRegistered() && publisherEntry.hasValue())
+              .forEach(publisherEntry -> valuesByTopicBuilder.put(publisherEntry.getTopic(), publisherEntry.getValue()));
+          return valuesByTopicBuilder.build();
+        })
+        .orElseGet(() -> getValuesForMatchingTopics(subscriberId));
+  }
+
+  private WindowAggregate getHistoryAggregateForTopic(final Topic<? extends Number> topic) {
+    return getHistoryBuffer(topic)
+        .map(TopicHistoryBuffer::getAggregate)
+        .orElseGet(WindowAggregate::empty);
+  }
+
+  private Optional<TopicHistoryBuffer> getHistoryBuffer(final Topic<?> topic) {
+    return Optional.ofNullable(topicEntriesByTopic.get(topic)).map(ConcurrentTopicEntry::getHistoryBuffer);
+  }
+
+  private <@NonNull T> List<T> getHistoryForTopic(final Topic<T> topic) {
+    return getHistoryBuffer(topic)
+        .map(TopicHistoryBuffer::<T>getValues)
+        .orElseGet(ImmutableList::of);
+  }
+
+  private @Nullable PublisherEntry getPublisherEntryForPublication(final PublisherId publisherId) {
+    final @Nullable PublisherEntry publisherEntry = publisherEntriesById.get(publisherId);
+    if (publisherEntry == null) {
+      logger.warning("attempt to publish value by unregistered publisher (" + publisherId + ")");
+    }
+    return publisherEntry;
+  }
+
+  private Multimap<Topic<?>, ?> getValuesForMatchingTopics(final SubscriberId subscriberId) {
+    final ImmutableMultimap.Builder<Topic<?>, Object> valuesByTopicBuilder = ImmutableMultimap.builder();
+    Optional.ofNullable(subscriberEntriesById.get(subscriberId)).ifPresentOrElse(
+        subscriberEntry -> topicEntriesByTopic.values().stream()
+            .filter(topicEntry -> subscriberEntry.matches(topicEntry.getTopic()))
+            .flatMap(topicEntry -> topicEntry.getPublisherEntries().stream())
+            .filter(PublisherEntry::hasValue)
+            .forEach(publisherEntry -> valuesByTopicBuilder.put(publisherEntry.getTopic(), publisherEntry.getValue())),
+        () -> logger.warning("attempt to retrieve values by unregistered subscriber (" + subscriberId + ")"));
+    return valuesByTopicBuilder.build();
+  }
+
+  private <@NonNull T> Collection<T> getValuesForTopic(final Topic<T> topic) {
+    return Optional.ofNullable(topicEntriesByTopic.get(topic))
+        .map(topicEntry -> ImmutableList.copyOf(topicEntry.getPublisherEntries().stream()
+            .filter(PublisherEntry::hasValue)
+            .map(PublisherEntry::<T>getValue)
+            .collect(Collectors.toList())))
+        .orElseGet(ImmutableList::of);
+  }
+
+  // marks the value of a derived topic stale and notifies its subscribers as
+  // if it had been published
+  private void invalidate(final PublisherId publisherId) {
+    final @Nullable PublisherEntry publisherEntry = getPublisherEntryForPublication(publisherId);
+    if (publisherEntry != null) {
+      final List<Topic<?>> inFlightTopics = beginPublication(publisherEntry);
+      try {
+        publisherEntry.invalidateValue();
+        notifySubscribersForPublication(publisherEntry);
+      } finally {
+        endPublication(inFlightTopics);
+      }
+    }
+  }
+
+  private PublisherContext newPublisherContext(final PublisherId publisherId) {
+    return new PublisherContext() {
+      @Override
+      public void publish(final Object value) {
+        ConcurrentBroker.this.publish(publisherId, value);
+      }
+
+      @Override
+      public void publishDouble(final double value) {
+        ConcurrentBroker.this.publishDouble(publisherId, value);
+      }
+
+      @Override
+      public void publishInt(final int value) {
+        ConcurrentBroker.this.publishInt(publisherId, value);
+      }
+
+      @Override
+      public void publishLong(final long value) {
+        ConcurrentBroker.this.publishLong(publisherId, value);
+      }
+    };
+  }
+
+  private SubscriberContext newSubscriberContext(final SubscriberId subscriberId) {
+    return new SubscriberContext() {
+      @Override
+      public void forEachDoubleValueForTopic(final Topic<Double> topic, final DoubleConsumer consumer) {
+        ConcurrentBroker.this.forEachDoubleValueForTopic(topic, consumer);
+      }
+
+      @Override
+      public void forEachIntValueForTopic(final Topic<Integer> topic, final IntConsumer consumer) {
+        ConcurrentBroker.this.forEachIntValueForTopic(topic, consumer);
+      }
+
+      @Override
+      public void forEachLongValueForTopic(final Topic<Long> topic, final LongConsumer consumer) {
+        ConcurrentBroker.this.forEachLongValueForTopic(topic, consumer);
+      }
+
+      @Override
+      public Multimap<Topic<?>, ?> getChangedValuesForMatchingTopics() {
+        return ConcurrentBroker.this.getChangedValuesForMatchingTopics(subscriberId);
+      }
+
+      @Override
+      public WindowAggregate getHistoryAggregateForTopic(final Topic<? extends Number> topic) {
+        return ConcurrentBroker.this.getHistoryAggregateForTopic(topic);
+      }
+
+      @Override
+      public <@NonNull T> List<T> getHistoryForTopic(final Topic<T> topic) {
+        return ConcurrentBroker.this.getHistoryForTopic(topic);
+      }
+
+      @Override
+      public Multimap<Topic<?>, ?> getValuesForMatchingTopics() {
+        return ConcurrentBroker.this.getValuesForMatchingTopics(subscriberId);
+      }
+
+      @Override
+      public <@NonNull T> Collection<T> getValuesForTopic(final Topic<T> topic) {
+        return ConcurrentBroker.this.getValuesForTopic(topic);
+      }
+    };
+  }
+
+  private void notifySubscriberForAllMatchingTopics(final SubscriberEntry subscriberEntry) {
+    final Set<Topic<?>> topics = ImmutableSet.copyOf(topicEntriesByTopic.keySet().stream()
+        .filter(subscriberEntry::matches)
+        .collect(Collectors.toSet()));
+    if (!topics.isEmpty()) {
+      subscriberEntry.notifySubscriberTopicsChanged(topics);
+    }
+  }
+
+  // the publish path uses indexed loops and no lambdas so that it does not
+  // allocate in the steady state
+  private void notifySubscribersForPublication(final PublisherEntry publisherEntry) {
+    // the topic entry may have been concurrently removed if the publisher was
+    // unregistered by another thread, in which case there is no one to notify
+    final @Nullable ConcurrentTopicEntry topicEntry = topicEntriesByTopic.get(publisherEntry.getTopic());
+    if (topicEntry != null) {
+      final @Nullable TopicHistoryBuffer historyBuffer = topicEntry.getHistoryBuffer();
+      if (historyBuffer != null) {
+        historyBuffer.record(publisherEntry);
+      }
+      final List<SubscriberEntry> subscriberEntries = topicEntry.getSubscriberEntries(subscriberIndex);
+      for (int i = 0, size = subscriberEntries.size(); i < size; ++i) {
+        subscriberEntries.get(i).publisherEntryChanged(publisherEntry);
+      }
+      notifySubscribersForTopic(topicEntry);
+    }
+  }
+
+  private void notifySubscribersForTopic(final ConcurrentTopicEntry topicEntry) {
+    final List<SubscriberEntry> subscriberEntries = topicEntry.getSubscriberEntries(subscriberIndex);
+    final PendingNotifications pendingNotifications = threadState.get().pendingNotifications;
+    if (pendingNotifications.isBatching()) {
+      final Topic<?> topic = topicEntry.getTopic();
+      for (int i = 0, size = subscriberEntries.size(); i < size; ++i) {
+        pendingNotifications.add(subscriberEntries.get(i), topic);
+      }
+    } else {
+      final Set<Topic<?>> topics = topicEntry.getTopics();
+      for (int i = 0, size = subscriberEntries.size(); i < size; ++i) {
+        subscriberEntries.get(i).notifySubscriberTopicsChanged(topics);
+      }
+    }
+  }
+
+  void publish(final PublisherId publisherId, final Object value) {
+    final @Nullable PublisherEntry publisherEntry = getPublisherEntryForPublication(publisherId);
+    if (publisherEntry != null) {
+      final List<Topic<?>> inFlightTopics = beginPublication(publisherEntry);
+      try {
+        publisherEntry.setValue(value);
+        notifySubscribersForPublication(publisherEntry);
+      } finally {
+        endPublication(inFlightTopics);
+      }
+    }
+  }
+
+  void publishDouble(final PublisherId publisherId, final double value) {
+    final @Nullable PublisherEntry publisherEntry = getPublisherEntryForPublication(publisherId);
+    if (publisherEntry != null) {
+      final List<Topic<?>> inFlightTopics = beginPublication(publisherEntry);
+      try {
+        publisherEntry.setDoubleValue(value);
+        notifySubscribersForPublication(publisherEntry);
+      } finally {
+        endPublication(inFlightTopics);
+      }
+    }
+  }
+
+  void publishInt(final PublisherId publisherId, final int value) {
+    final @Nullable PublisherEntry publisherEntry = getPublisherEntryForPublication(publisherId);
+    if (publisherEntry != null) {
+      final List<Topic<?>> inFlightTopics = beginPublication(publisherEntry);
+      try {
+        publisherEntry.setIntValue(value);
+        notifySubscribersForPublication(publisherEntry);
+      } finally {
+        endPublication(inFlightTopics);
+      }
+    }
+  }
+
+  void publishLong(final PublisherId publisherId, final long value) {
+    final @Nullable PublisherEntry publisherEntry = getPublisherEntryForPublication(publisherId);
+    if (publisherEntry != null) {
+      final List<Topic<?>> inFlightTopics = beginPublication(publisherEntry);
+      try {
+        publisherEntry.setLongValue(value);
+        notifySubscribersForPublication(publisherEntry);
+      } finally {
+        endPublication(inFlightTopics);
+      }
+    }
+  }
+
+  @Override
+  public <@NonNull T> DerivedTopicToken registerDerivedTopic(
+      final Topic<T> topic,
+      final TopicMatcher inputTopicMatcher,
+      final DerivedTopicFunction<T> function) {
+    final PublisherId publisherId = PublisherId.newInstance();
+    final DerivedTopicInputs<T> derivedTopicInputs = new DerivedTopicInputs<>(function, () -> invalidate(publisherId));
+    final PublisherEntry publisherEntry = new PublisherEntry(topic, derivedTopicInputs);
+    registerPublisherEntry(publisherId, publisherEntry, TopicHistory.none());
+    final SubscriberToken<DerivedTopicInputs<T>> inputsToken = registerSubscriber(
+        inputTopicMatcher,
+        derivedTopicInputs.newFactory());
+    // the value may have been read before the inputs were subscribed to
+    invalidate(publisherId);
+    return () -> {
+      inputsToken.unregister();
+      unregisterPublisher(publisherId);
+    };
+  }
+
+  @Override
+  public <@NonNull P extends Publisher> PublisherToken<P> registerPublisher(
+      final Topic<?> topic,
+      final PublisherFactory<P> publisherFactory,
+      final PublisherOptions publisherOptions) {
+    final TopicHistory history = publisherOptions.getHistory();
+    // the history is checked before the publisher is created; it is checked
+    // again when the publisher entry is added
+    final @Nullable ConcurrentTopicEntry topicEntry = topicEntriesByTopic.get(topic);
+    if (topicEntry != null) {
+      topicEntry.checkCanRetainHistory(history);
+    }
+
+    final PublisherId publisherId = PublisherId.newInstance();
+    final P publisher = publisherFactory.newPublisher(newPublisherContext(publisherId));
+    registerPublisherEntry(publisherId, new PublisherEntry(topic), history);
+    return new DefaultPublisherToken<>(this, publisherId, publisher);
+  }
+
+  // a publisher registered concurrently may have made the topic unable to retain
+  // the specified history since it was checked, in which case the registration
+  // is rejected without changing the topic entry
+  private void registerPublisherEntry(
+      final PublisherId publisherId,
+      final PublisherEntry publisherEntry,
+      final TopicHistory history) {
+    final Topic<?> topic = publisherEntry.getTopic();
+    topicEntriesByTopic.compute(topic, (otherTopic, topicEntry) -> {
+      final ConcurrentTopicEntry nonNullTopicEntry = (topicEntry != null) ? topicEntry : new ConcurrentTopicEntry(topic);
+      nonNullTopicEntry.retainHistory(history);
+      nonNullTopicEntry.addPublisherEntry(publisherEntry);
+      return nonNullTopicEntry;
+    });
+    publisherEntriesById.put(publisherId, publisherEntry);
+    instrumentation.publisherRegistered(topic);
+  }
+
+  @Override
+  public <@NonNull S extends Subscriber> SubscriberToken<S> registerSubscriber(
+      final TopicMatcher topicMatcher,
+      final SubscriberFactory<S> subscriberFactory,
+      final SubscriberOptions subscriberOptions) {
+    final SubscriberId subscriberId = SubscriberId.newInstance();
+    final S subscriber = subscriberFactory.newSubscriber(newSubscriberContext(subscriberId));
+    final SubscriberEntry subscriberEntry = new SubscriberEntry(
+        subscriber,
+        topicMatcher,
+        subscriberOptions,
+        instrumentation,
+        this);
+    subscriberEntriesById.put(subscriberId, subscriberEntry);
+    subscriberIndex.addSubscriberEntry(subscriberEntry);
+    topicEntriesByTopic.values().forEach(topicEntry -> topicEntry.addSubscriberEntryIfMatches(subscriberEntry));
+    instrumentation.subscriberRegistered(subscriber);
+    notifySubscriberForAllMatchingTopics(subscriberEntry);
+    return new DefaultSubscriberToken<>(this, subscriberId, subscriber);
+  }
+
+  @Override
+  public void runInBatch(final Runnable action) {
+    final PendingNotifications pendingNotifications = threadState.get().pendingNotifications;
+    pendingNotifications.beginBatch();
+    try {
+      action.run();
+    } finally {
+      if (pendingNotifications.endBatch()) {
+        pendingNotifications.flush();
+      }
+    }
+  }
+
+  @Override
+  public void unregisterPublisher(final PublisherId publisherId) {
+    Optional.ofNullable(publisherEntriesById.remove(publisherId)).ifPresentOrElse(
+        this::unregisterPublisher,
+        () -> logger.warning("attempt to unregister unregistered publisher (" + publisherId + ")"));
+  }
+
+  private void unregisterPublisher(final PublisherEntry publisherEntry) {
+    publisherEntry.unregister();
+    instrumentation.publisherUnregistered(publisherEntry.getTopic());
+    Optional.ofNullable(topicEntriesByTopic.get(publisherEntry.getTopic())).ifPresent(topicEntry -> {
+      // the history of the topic, if any, is discarded with its entry
+      topicEntriesByTopic.computeIfPresent(topicEntry.getTopic(), (topic, otherTopicEntry) -> {
+        otherTopicEntry.removePublisherEntry(publisherEntry);
+        return otherTopicEntry.hasPublisherEntries() ? otherTopicEntry : null;
+      });
+      notifySubscribersForTopic(topicEntry);
+    });
+  }
+
+  @Override
+  public void unregisterSubscriber(final SubscriberId subscriberId) {
+    Optional.ofNullable(subscriberEntriesById.remove(subscriberId)).ifPresentOrElse(
+        subscriberEntry -> {
+          subscriberEntry.unregister();
+          subscriberIndex.removeSubscriberEntry(subscriberEntry);
+          topicEntriesByTopic.values().forEach(topicEntry -> topicEntry.removeSubscriberEntry(subscriberEntry));
+        },
+        () -> logger.warning("attempt to unregister unregistered subscriber (" + subscriberId + ")"));
+  }
+
+  // cycles are detected and batches are scoped per thread, as a cascade of
+  // notifications always runs on the thread that started it
+  private static final class ThreadState {
+    // a stack rather than a set; cascades are shallow, so a linear search is
+    // cheap, and pushing and popping does not allocate
+    final List<Topic<?>> inFlightTopics = new ArrayList<>();
+    final PendingNotifications pendingNotifications = new PendingNotifications();
+  }
+}
@@ -0,0 +1,52 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import javax.annotation.concurrent.Immutable;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+// assigns each name to one of a set of nodes by consistent hashing, so that
+// adding or removing a node only reassigns the names of that node; each node
+// is placed at several points on the ring to even out the assignment
+@Immutable
+final class ConsistentHashRing {
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_32();
+  private static final int POINTS_PER_NODE = 128;
+
+  private final NavigableMap<Integer, String> nodeIdsByPoint = new TreeMap<>();
+
+  ConsistentHashRing(final Collection<String> nodeIds) {
+    checkArgument(!nodeIds.isEmpty(), "node ids must not be empty");
+
+    for (final String nodeId : nodeIds) {
+      for (int i = 0; i < POINTS_PER_NODE; ++i) {
+        // a collision is resolved in favor of the lesser node id, so the ring
+        // does not depend on the order of the node ids
+        nodeIdsByPoint.merge(hash(nodeId + "#" + i), nodeId, (nodeId1, nodeId2) -> min(nodeId1, nodeId2));
+      }
+    }
+  }
+
+  String getNodeId(final String name) {
+    final Map.@Nullable Entry<Integer, String> entry = nodeIdsByPoint.ceilingEntry(hash(name));
+    return ((entry != null) ? entry : nodeIdsByPoint.firstEntry()).getValue();
+  }
+
+  private static int hash(final String value) {
+    return HASH_FUNCTION.hashString(value, StandardCharsets.UTF_8).asInt();
+  }
+
+  private static String min(final String value1, final String value2) {
+    return (value1.compareTo(value2) <= 0) ? value1 : value2;
+  }
+}
@@ -2,45 +2,224 @@ package io.github.ssoloff.psychictrain.internal.engine;
 
 import static com.google.common.base.Preconditions.checkState;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiConsumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multimap;
 
-import io.github.ssoloff.psychictrain.api.engine.Broker;
+import io.github.ssoloff.psychictrain.api.engine.BrokerInstrumentation;
+import io.github.ssoloff.psychictrain.api.engine.DerivedTopicFunction;
+import io.github.ssoloff.psychictrain.api.engine.DerivedTopicToken;
 import io.github.ssoloff.psychictrain.api.engine.Publisher;
+import io.github.ssoloff.psychictrain.api.engine.PublisherContext;
 import io.github.ssoloff.psychictrain.api.engine.PublisherFactory;
+import io.github.ssoloff.psychictrain.api.engine.PublisherOptions;
 import io.github.ssoloff.psychictrain.api.engine.PublisherToken;
 import io.github.ssoloff.psychictrain.api.engine.Subscriber;
 import io.github.ssoloff.psychictrain.api.engine.SubscriberContext;
 import io.github.ssoloff.psychictrain.api.engine.SubscriberFactory;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberOptions;
 import io.github.ssoloff.psychictrain.api.engine.SubscriberToken;
 import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicHistory;
 import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+import io.github.ssoloff.psychictrain.api.engine.WindowAggregate;
 
-final class DefaultBroker implements Broker {
+// In tick mode, values published between two ticks are written to the back
+// buffers of their publisher entries, and subscribers continue to read the
+// values committed by the previous tick. Each tick commits the back buffers and
+// then notifies the affected subscribers in a single wave; values published
+// during that wave belong to the next tick. As a publication never becomes
+// visible during the wave in which it is made, subscribers may publish topics
+// they depend on without forming a cycle. A derived topic is not buffered: it
+// is invalidated, and its subscribers notified, in the wave of the tick that
+// commits the values of its inputs. Registering and unregistering
+// publishers and subscribers is not deferred. Other threads may hand actions to
+// the thread that owns the broker, which runs them at the start of its next
+// tick.
+final class DefaultBroker implements InternalBroker {
   private static final Logger logger = Logger.getLogger(DefaultBroker.class.getName());
 
-  private final Set<Topic<?>> inFlightTopics = new HashSet<>();
+  // the actions handed to the thread that owns the broker by other threads
+  private final ConcurrentLinkedQueue<Runnable> deferredActions = new ConcurrentLinkedQueue<>();
+  private final BrokerInstrumentation instrumentation;
+  // null if publications are not journaled
+  private final @Nullable PublicationJournal journal;
+  private final PropagationScheduler propagationScheduler = new PropagationScheduler(this::getSubscriberEntries);
   private final Map<PublisherId, PublisherEntry> publisherEntriesById = new IdentityHashMap<>();
   private final Map<SubscriberId, SubscriberEntry> subscriberEntriesById = new IdentityHashMap<>();
+  private final SubscriberIndex subscriberIndex = new SubscriberIndex();
+  private final boolean tickMode;
+  private final TopicTable<TopicEntry> topicEntriesByTopic = new TopicTable<>();
+  // the publisher entries with a value in their back buffer, in the order in
+  // which they were first published since the previous tick
+  private final List<PublisherEntry> uncommittedPublisherEntries = new ArrayList<>();
+
+  DefaultBroker() {
+    this(BrokerInstrumentation.noOp());
+  }
+
+  DefaultBroker(final BrokerInstrumentation instrumentation) {
+    this(instrumentation, false);
+  }
+
+  DefaultBroker(final BrokerInstrumentation instrumentation, final boolean tickMode) {
+    this(instrumentation, tickMode, null);
+  }
+
+  // the journal is owned by the caller, which must close it once the broker is
+  // no longer used
+  DefaultBroker(
+      final BrokerInstrumentation instrumentation,
+      final boolean tickMode,
+      final @Nullable PublicationJournal journal) {
+    this.instrumentation = instrumentation;
+    this.journal = journal;
+    this.tickMode = tickMode;
+  }
+
+  // called before the value of the publisher entry is changed so that a cycle
+  // is detected before any state changes
+  private TopicEntry beginPublication(final PublisherEntry publisherEntry) {
+    final Topic<?> topic = publisherEntry.getTopic();
+    final TopicEntry topicEntry = getTopicEntry(topic);
+    if (isDeferred(publisherEntry)) {
+      if (!publisherEntry.hasBufferedValue()) {
+        uncommittedPublisherEntries.add(publisherEntry);
+      }
+    } else {
+      propagationScheduler.learnPublication(topic, topicEntry.getSubscriberEntries(subscriberIndex));
+    }
+    instrumentation.topicPublished(topic, propagationScheduler.getCascadeDepth());
+    return topicEntry;
+  }
+
+  private void endPublication(final TopicEntry topicEntry, final PublisherEntry publisherEntry) {
+    if (!isDeferred(publisherEntry)) {
+      publisherEntryChanged(topicEntry, publisherEntry);
+    }
+  }
+
+  @Override
+  public void flushSubscriber(final SubscriberId subscriberId) {
+    // publications made by the subscriber while being notified are propagated
+    // once it returns
+    Optional.ofNullable(subscriberEntriesById.get(subscriberId)).ifPresentOrElse(
+        subscriberEntry -> runInBatch(subscriberEntry::flush),
+        () -> logger.warning("attempt to flush unregistered subscriber (" + subscriberId + ")"));
+  }
+
+  private void forEachDoubleValueForTopic(final Topic<Double> topic, final DoubleConsumer consumer) {
+    final @Nullable TopicEntry topicEntry = topicEntriesByTopic.get(topic);
+    if (topicEntry != null) {
+      final List<PublisherEntry> publisherEntries = topicEntry.getPublisherEntries();
+      for (int i = 0, size = publisherEntries.size(); i < size; ++i) {
+        final PublisherEntry publisherEntry = publisherEntries.get(i);
+        if (publisherEntry.hasValue()) {
+          consumer.accept(publisherEntry.getDoubleValue());
+        }
+      }
+    }
+  }
+
+  private void forEachIntValueForTopic(final Topic<Integer> topic, final IntConsumer consumer) {
+    final @Nullable TopicEntry topicEntry = topicEntriesByTopic.get(topic);
+    if (topicEntry != null) {
+      final List<PublisherEntry> publisherEntries = topicEntry.getPublisherEntries();
+      for (int i = 0, size = publisherEntries.size(); i < size; ++i) {
+        final PublisherEntry publisherEntry = publisherEntries.get(i);
+        if (publisherEntry.hasValue()) {
+          consumer.accept(publisherEntry.getIntValue());
+        }
+      }
+    }
+  }
+
+  private void forEachLongValueForTopic(final Topic<Long> topic, final LongConsumer consumer) {
+    final @Nullable TopicEntry topicEntry = topicEntriesByTopic.get(topic);
+    if (topicEntry != null) {
+      final List<PublisherEntry> publisherEntries = topicEntry.getPublisherEntries();
+      for (int i = 0, size = publisherEntries.size(); i < size; ++i) {
+        final PublisherEntry publisherEntry = publisherEntries.get(i);
+        if (publisherEntry.hasValue()) {
+          consumer.accept(publisherEntry.getLongValue());
+        }
+      }
+    }
+  }
+
+  @Override
+  public void forEachValue(final BiConsumer<Topic<?>, Object> consumer) {
+    // derived values are computed from the values of their inputs, so they are
+    // neither computed nor passed to the consumer
+    topicEntriesByTopic.values().forEach(topicEntry -> topicEntry.getPublisherEntries().stream()
+        .filter(publisherEntry -> !publisherEntry.isDerived() && publisherEntry.hasValue())
+        .forEach(publisherEntry -> consumer.accept(publisherEntry.getTopic(), publisherEntry.getValue())));
+  }
+
+  private Multimap<Topic<?>, ?> getChangedValuesForMatchingTopics(final SubscriberId subscriberId) {
+    return Optional.ofNullable(subscriberEntriesById.get(subscriberId))
+        .flatMap(SubscriberEntry::drainChangedPublisherEntries)
+        .<Multimap<Topic<?>, ?>>map(changedPublisherEntries -> {
+          final ImmutableMultimap.Builder<Topic<?>, Object> valuesByTopicBuilder = ImmutableMultimap.builder();
+          // entries of publishers unregistered since the last read no longer
+          // contribute a value, nor do derived topics whose value is now absent
+          changedPublisherEntries.stream()
+              .filter(publisherEntry -> publisherEntry.isRegistered() && publisherEntry.hasValue())
+              .forEach(publisherEntry -> valuesByTopicBuilder.put(publisherEntry.getTopic(), publisherEntry.getValue()));
+          return valuesByTopicBuilder.build();
+        })
+        .orElseGet(() -> getValuesForMatchingTopics(subscriberId));
+  }
+
+  private WindowAggregate getHistoryAggregateForTopic(final Topic<? extends Number> topic) {
+    return getHistoryBuffer(topic)
+        .map(TopicHistoryBuffer::getAggregate)
+        .orElseGet(WindowAggregate::empty);
+  }
+
+  private Optional<TopicHistoryBuffer> getHistoryBuffer(final Topic<?> topic) {
+    return Optional.ofNullable(topicEntriesByTopic.get(topic)).map(TopicEntry::getHistoryBuffer);
+  }
+
+  private <@NonNull T> List<T> getHistoryForTopic(final Topic<T> topic) {
+    return getHistoryBuffer(topic)
+        .map(TopicHistoryBuffer::<T>getValues)
+        .orElseGet(ImmutableList::of);
+  }
+
+  private @Nullable PublisherEntry getPublisherEntryForPublication(final PublisherId publisherId) {
+    final @Nullable PublisherEntry publisherEntry = publisherEntriesById.get(publisherId);
+    if (publisherEntry == null) {
+      logger.warning("attempt to publish value by unregistered publisher (" + publisherId + ")");
+    }
+    return publisherEntry;
+  }
 
   private Multimap<Topic<?>, ?> getValuesForMatchingTopics(final SubscriberId subscriberId) {
     final ImmutableMultimap.Builder<Topic<?>, Object> valuesByTopicBuilder = ImmutableMultimap.builder();
     Optional.ofNullable(subscriberEntriesById.get(subscriberId)).ifPresentOrElse(
-        subscriberEntry -> publisherEntriesById.values().stream()
-            .filter(publisherEntry -> subscriberEntry.matches(publisherEntry.getTopic()))
+        subscriberEntry -> topicEntriesByTopic.values().stream()
+            .filter(topicEntry -> subscriberEntry.matches(topicEntry.getTopic()))
+            .flatMap(topicEntry -> topicEntry.getPublisherEntries().stream())
             .filter(PublisherEntry::hasValue)
             .forEach(publisherEntry -> valuesByTopicBuilder.put(publisherEntry.getTopic(), publisherEntry.getValue())),
         () -> logger.warning("attempt to retrieve values by unregistered subscriber (" + subscriberId + ")"));
@@ -48,15 +227,101 @@ final class DefaultBroker implements Broker {
   }
 
   private <@NonNull T> Collection<T> getValuesForTopic(final Topic<T> topic) {
-    return ImmutableList.copyOf(publisherEntriesById.values().stream()
-        .filter(publisherEntry -> publisherEntry.matches(topic))
-        .filter(PublisherEntry::hasValue)
-        .map(PublisherEntry::<T>getValue)
-        .collect(Collectors.toList()));
+    return Optional.ofNullable(topicEntriesByTopic.get(topic))
+        .map(topicEntry -> ImmutableList.copyOf(topicEntry.getPublisherEntries().stream()
+            .filter(PublisherEntry::hasValue)
+            .map(PublisherEntry::<T>getValue)
+            .collect(Collectors.toList())))
+        .orElseGet(ImmutableList::of);
+  }
+
+  private List<SubscriberEntry> getSubscriberEntries(final Topic<?> topic) {
+    final @Nullable TopicEntry topicEntry = topicEntriesByTopic.get(topic);
+    return (topicEntry != null) ? topicEntry.getSubscriberEntries(subscriberIndex) : ImmutableList.of();
+  }
+
+  private TopicEntry getTopicEntry(final Topic<?> topic) {
+    final @Nullable TopicEntry topicEntry = topicEntriesByTopic.get(topic);
+    assert topicEntry != null;
+    return topicEntry;
+  }
+
+  // marks the value of a derived topic stale and notifies its subscribers as
+  // if it had been published
+  private void invalidate(final PublisherId publisherId) {
+    final @Nullable PublisherEntry publisherEntry = getPublisherEntryForPublication(publisherId);
+    if (publisherEntry != null) {
+      final TopicEntry topicEntry = beginPublication(publisherEntry);
+      publisherEntry.invalidateValue();
+      endPublication(topicEntry, publisherEntry);
+    }
+  }
+
+  // the values of a topic are journaled together, so that a change to the
+  // values of one publisher of the topic journals those of all of them
+  private void journalValues(final TopicEntry topicEntry, final PublisherEntry publisherEntry) {
+    final @Nullable PublicationJournal journal = this.journal;
+    if ((journal != null) && !publisherEntry.isDerived()) {
+      journal.appendValues(topicEntry.getTopic(), topicEntry.getPublisherEntries());
+    }
+  }
+
+  private PublisherContext newPublisherContext(final PublisherId publisherId) {
+    return new PublisherContext() {
+      @Override
+      public void publish(final Object value) {
+        DefaultBroker.this.publish(publisherId, value);
+      }
+
+      @Override
+      public void publishDouble(final double value) {
+        DefaultBroker.this.publishDouble(publisherId, value);
+      }
+
+      @Override
+      public void publishInt(final int value) {
+        DefaultBroker.this.publishInt(publisherId, value);
+      }
+
+      @Override
+      public void publishLong(final long value) {
+        DefaultBroker.this.publishLong(publisherId, value);
+      }
+    };
   }
 
   private SubscriberContext newSubscriberContext(final SubscriberId subscriberId) {
     return new SubscriberContext() {
+      @Override
+      public void forEachDoubleValueForTopic(final Topic<Double> topic, final DoubleConsumer consumer) {
+        DefaultBroker.this.forEachDoubleValueForTopic(topic, consumer);
+      }
+
+      @Override
+      public void forEachIntValueForTopic(final Topic<Integer> topic, final IntConsumer consumer) {
+        DefaultBroker.this.forEachIntValueForTopic(topic, consumer);
+      }
+
+      @Override
+      public void forEachLongValueForTopic(final Topic<Long> topic, final LongConsumer consumer) {
+        DefaultBroker.this.forEachLongValueForTopic(topic, consumer);
+      }
+
+      @Override
+      public Multimap<Topic<?>, ?> getChangedValuesForMatchingTopics() {
+        return DefaultBroker.this.getChangedValuesForMatchingTopics(subscriberId);
+      }
+
+      @Override
+      public WindowAggregate getHistoryAggregateForTopic(final Topic<? extends Number> topic) {
+        return DefaultBroker.this.getHistoryAggregateForTopic(topic);
+      }
+
+      @Override
+      public <@NonNull T> List<T> getHistoryForTopic(final Topic<T> topic) {
+        return DefaultBroker.this.getHistoryForTopic(topic);
+      }
+
       @Override
       public Multimap<Topic<?>, ?> getValuesForMatchingTopics() {
         return DefaultBroker.this.getValuesForMatchingTopics(subscriberId);
@@ -70,72 +335,227 @@ final class DefaultBroker implements Broker {
   }
 
   private void notifySubscriberForAllMatchingTopics(final SubscriberEntry subscriberEntry) {
-    final Set<Topic<?>> topics = ImmutableSet.copyOf(publisherEntriesById.values().stream()
-        .filter(publisherEntry -> subscriberEntry.matches(publisherEntry.getTopic()))
-        .map(PublisherEntry::getTopic)
+    final Set<Topic<?>> topics = ImmutableSet.copyOf(topicEntriesByTopic.values().stream()
+        .map(TopicEntry::getTopic)
+        .filter(subscriberEntry::matches)
         .collect(Collectors.toSet()));
-    if (!topics.isEmpty()) {
-      subscriberEntry.notifySubscriberTopicsChanged(topics);
-    }
+    propagationScheduler.subscriberEntryAdded(subscriberEntry, topics);
   }
 
-  private void notifySubscribersForTopic(final Topic<?> topic) {
-    final Set<Topic<?>> topics = ImmutableSet.of(topic);
-    subscriberEntriesById.values().stream()
-        .filter(subscriberEntry -> subscriberEntry.matches(topic))
-        .forEach(subscriberEntry -> subscriberEntry.notifySubscriberTopicsChanged(topics));
+  private void notifySubscribersForTopic(final TopicEntry topicEntry) {
+    propagationScheduler.topicChanged(
+        topicEntry.getTopic(),
+        topicEntry.getTopics(),
+        topicEntry.getSubscriberEntries(subscriberIndex));
   }
 
   void publish(final PublisherId publisherId, final Object value) {
-    Optional.ofNullable(publisherEntriesById.get(publisherId)).ifPresentOrElse(
-        publisherEntry -> publish(publisherEntry, value),
-        () -> logger.warning("attempt to publish value by unregistered publisher (" + publisherId + ")"));
+    final @Nullable PublisherEntry publisherEntry = getPublisherEntryForPublication(publisherId);
+    if (publisherEntry != null) {
+      final TopicEntry topicEntry = beginPublication(publisherEntry);
+      publisherEntry.setValue(value);
+      endPublication(topicEntry, publisherEntry);
+    }
   }
 
-  private void publish(final PublisherEntry publisherEntry, final Object value) {
-    final Topic<?> topic = publisherEntry.getTopic();
-    checkState(!inFlightTopics.contains(topic), "cycle detected during publication of topic '" + topic + "'");
+  void publishDouble(final PublisherId publisherId, final double value) {
+    final @Nullable PublisherEntry publisherEntry = getPublisherEntryForPublication(publisherId);
+    if (publisherEntry != null) {
+      final TopicEntry topicEntry = beginPublication(publisherEntry);
+      publisherEntry.setDoubleValue(value);
+      endPublication(topicEntry, publisherEntry);
+    }
+  }
+
+  void publishInt(final PublisherId publisherId, final int value) {
+    final @Nullable PublisherEntry publisherEntry = getPublisherEntryForPublication(publisherId);
+    if (publisherEntry != null) {
+      final TopicEntry topicEntry = beginPublication(publisherEntry);
+      publisherEntry.setIntValue(value);
+      endPublication(topicEntry, publisherEntry);
+    }
+  }
+
+  void publishLong(final PublisherId publisherId, final long value) {
+    final @Nullable PublisherEntry publisherEntry = getPublisherEntryForPublication(publisherId);
+    if (publisherEntry != null) {
+      final TopicEntry topicEntry = beginPublication(publisherEntry);
+      publisherEntry.setLongValue(value);
+      endPublication(topicEntry, publisherEntry);
+    }
+  }
 
-    inFlightTopics.add(topic);
-    publisherEntry.setValue(value);
-    notifySubscribersForTopic(topic);
-    inFlightTopics.remove(topic);
+  // the publish path uses indexed loops and no lambdas so that it does not
+  // allocate in the steady state
+  private void publisherEntryChanged(final TopicEntry topicEntry, final PublisherEntry publisherEntry) {
+    final @Nullable TopicHistoryBuffer historyBuffer = topicEntry.getHistoryBuffer();
+    if (historyBuffer != null) {
+      historyBuffer.record(publisherEntry);
+    }
+    journalValues(topicEntry, publisherEntry);
+    final List<SubscriberEntry> subscriberEntries = topicEntry.getSubscriberEntries(subscriberIndex);
+    for (int i = 0, size = subscriberEntries.size(); i < size; ++i) {
+      subscriberEntries.get(i).publisherEntryChanged(publisherEntry);
+    }
+    notifySubscribersForTopic(topicEntry);
+  }
+
+  @Override
+  public <@NonNull T> DerivedTopicToken registerDerivedTopic(
+      final Topic<T> topic,
+      final TopicMatcher inputTopicMatcher,
+      final DerivedTopicFunction<T> function) {
+    final PublisherId publisherId = PublisherId.newInstance();
+    final DerivedTopicInputs<T> derivedTopicInputs = new DerivedTopicInputs<>(function, () -> invalidate(publisherId));
+    final PublisherEntry publisherEntry = new PublisherEntry(topic, derivedTopicInputs);
+    registerPublisherEntry(publisherId, publisherEntry, TopicHistory.none());
+    final SubscriberToken<DerivedTopicInputs<T>> inputsToken = registerSubscriber(
+        inputTopicMatcher,
+        derivedTopicInputs.newFactory());
+    // the value may have been read before the inputs were subscribed to
+    invalidate(publisherId);
+    return () -> {
+      inputsToken.unregister();
+      unregisterPublisher(publisherId);
+    };
   }
 
   @Override
   public <@NonNull P extends Publisher> PublisherToken<P> registerPublisher(
       final Topic<?> topic,
-      final PublisherFactory<P> publisherFactory) {
+      final PublisherFactory<P> publisherFactory,
+      final PublisherOptions publisherOptions) {
+    final TopicHistory history = publisherOptions.getHistory();
+    // the history is checked before the publisher is created; it is checked
+    // again when the publisher entry is added
+    final @Nullable TopicEntry topicEntry = topicEntriesByTopic.get(topic);
+    if (topicEntry != null) {
+      topicEntry.checkCanRetainHistory(history);
+    }
+
     final PublisherId publisherId = PublisherId.newInstance();
-    final P publisher = publisherFactory.newPublisher(value -> publish(publisherId, value));
-    publisherEntriesById.put(publisherId, new PublisherEntry(topic));
+    final P publisher = publisherFactory.newPublisher(newPublisherContext(publisherId));
+    registerPublisherEntry(publisherId, new PublisherEntry(topic, tickMode), history);
     return new DefaultPublisherToken<>(this, publisherId, publisher);
   }
 
+  private void registerPublisherEntry(
+      final PublisherId publisherId,
+      final PublisherEntry publisherEntry,
+      final TopicHistory history) {
+    final Topic<?> topic = publisherEntry.getTopic();
+    final TopicEntry topicEntry = topicEntriesByTopic.computeIfAbsent(topic, TopicEntry::new);
+    topicEntry.retainHistory(history);
+    topicEntry.addPublisherEntry(publisherEntry);
+    publisherEntriesById.put(publisherId, publisherEntry);
+    instrumentation.publisherRegistered(topic);
+  }
+
   @Override
   public <@NonNull S extends Subscriber> SubscriberToken<S> registerSubscriber(
       final TopicMatcher topicMatcher,
-      final SubscriberFactory<S> subscriberFactory) {
+      final SubscriberFactory<S> subscriberFactory,
+      final SubscriberOptions subscriberOptions) {
     final SubscriberId subscriberId = SubscriberId.newInstance();
     final S subscriber = subscriberFactory.newSubscriber(newSubscriberContext(subscriberId));
-    final SubscriberEntry subscriberEntry = new SubscriberEntry(subscriber, topicMatcher);
+    final SubscriberEntry subscriberEntry = new SubscriberEntry(
+        subscriber,
+        topicMatcher,
+        subscriberOptions,
+        instrumentation,
+        this);
     subscriberEntriesById.put(subscriberId, subscriberEntry);
+    subscriberIndex.addSubscriberEntry(subscriberEntry);
+    topicEntriesByTopic.values().forEach(topicEntry -> topicEntry.addSubscriberEntryIfMatches(subscriberEntry));
     // TODO: requires further investigation... we're firing an event before
     // the caller has had a chance to do anything with the token. that may
     // prevent the ultimate destination from receiving the event...?
+    instrumentation.subscriberRegistered(subscriber);
     notifySubscriberForAllMatchingTopics(subscriberEntry);
     return new DefaultSubscriberToken<>(this, subscriberId, subscriber);
   }
 
-  void unregisterPublisher(final PublisherId publisherId) {
+  @Override
+  public void runInBatch(final Runnable action) {
+    propagationScheduler.beginBatch();
+    try {
+      action.run();
+    } finally {
+      propagationScheduler.endBatch();
+    }
+  }
+
+  // returns true if publications of the entry are committed by the next tick
+  // rather than propagated immediately
+  private boolean isDeferred(final PublisherEntry publisherEntry) {
+    return tickMode && !publisherEntry.isDerived();
+  }
+
+  boolean isTickMode() {
+    return tickMode;
+  }
+
+  // runs the action at the start of the next tick; may be called from any
+  // thread
+  void runOnNextTick(final Runnable action) {
+    checkState(tickMode, "broker is not in tick mode");
+
+    deferredActions.add(action);
+  }
+
+  // runs the actions handed to the broker since the previous tick, then commits
+  // the values published since the previous tick and notifies the affected
+  // subscribers
+  void tick() {
+    checkState(tickMode, "broker is not in tick mode");
+
+    propagationScheduler.beginBatch();
+    try {
+      for (Runnable action = deferredActions.poll(); action != null; action = deferredActions.poll()) {
+        action.run();
+      }
+      for (int i = 0, size = uncommittedPublisherEntries.size(); i < size; ++i) {
+        final PublisherEntry publisherEntry = uncommittedPublisherEntries.get(i);
+        // the entry of a publisher unregistered since it published is discarded
+        if (publisherEntry.commitBufferedValue() && publisherEntry.isRegistered()) {
+          publisherEntryChanged(getTopicEntry(publisherEntry.getTopic()), publisherEntry);
+        }
+      }
+    } finally {
+      uncommittedPublisherEntries.clear();
+      propagationScheduler.endBatch();
+    }
+  }
+
+  @Override
+  public void unregisterPublisher(final PublisherId publisherId) {
     Optional.ofNullable(publisherEntriesById.remove(publisherId)).ifPresentOrElse(
-        publisherEntry -> notifySubscribersForTopic(publisherEntry.getTopic()),
+        this::unregisterPublisher,
         () -> logger.warning("attempt to unregister unregistered publisher (" + publisherId + ")"));
   }
 
-  void unregisterSubscriber(final SubscriberId subscriberId) {
-    if (!Optional.ofNullable(subscriberEntriesById.remove(subscriberId)).isPresent()) {
-      logger.warning("attempt to unregister unregistered subscriber (" + subscriberId + ")");
+  private void unregisterPublisher(final PublisherEntry publisherEntry) {
+    publisherEntry.unregister();
+    instrumentation.publisherUnregistered(publisherEntry.getTopic());
+    final TopicEntry topicEntry = getTopicEntry(publisherEntry.getTopic());
+    topicEntry.removePublisherEntry(publisherEntry);
+    // the history of the topic, if any, is discarded with its entry
+    if (!topicEntry.hasPublisherEntries()) {
+      topicEntriesByTopic.remove(topicEntry.getTopic());
     }
+    journalValues(topicEntry, publisherEntry);
+    notifySubscribersForTopic(topicEntry);
+  }
+
+  @Override
+  public void unregisterSubscriber(final SubscriberId subscriberId) {
+    Optional.ofNullable(subscriberEntriesById.remove(subscriberId)).ifPresentOrElse(
+        subscriberEntry -> {
+          subscriberEntry.unregister();
+          subscriberIndex.removeSubscriberEntry(subscriberEntry);
+          topicEntriesByTopic.values().forEach(topicEntry -> topicEntry.removeSubscriberEntry(subscriberEntry));
+          propagationScheduler.removeSubscriberEntry(subscriberEntry);
+        },
+        () -> logger.warning("attempt to unregister unregistered subscriber (" + subscriberId + ")"));
   }
 }
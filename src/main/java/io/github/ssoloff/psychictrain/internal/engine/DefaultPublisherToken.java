@@ -9,11 +9,11 @@ import io.github.ssoloff.psychictrain.api.engine.PublisherToken;
 
 @Immutable
 final class DefaultPublisherToken<@NonNull P extends Publisher> implements PublisherToken<P> {
-  private final DefaultBroker broker;
+  private final InternalBroker broker;
   private final P publisher;
   private final PublisherId publisherId;
 
-  DefaultPublisherToken(final DefaultBroker broker, final PublisherId publisherId, final P publisher) {
+  DefaultPublisherToken(final InternalBroker broker, final PublisherId publisherId, final P publisher) {
     this.broker = broker;
     this.publisher = publisher;
     this.publisherId = publisherId;
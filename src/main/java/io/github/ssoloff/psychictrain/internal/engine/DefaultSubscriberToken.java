@@ -9,16 +9,21 @@ import io.github.ssoloff.psychictrain.api.engine.SubscriberToken;
 
 @Immutable
 final class DefaultSubscriberToken<@NonNull S extends Subscriber> implements SubscriberToken<S> {
-  private final DefaultBroker broker;
+  private final InternalBroker broker;
   private final S subscriber;
   private final SubscriberId subscriberId;
 
-  DefaultSubscriberToken(final DefaultBroker broker, final SubscriberId subscriberId, final S subscriber) {
+  DefaultSubscriberToken(final InternalBroker broker, final SubscriberId subscriberId, final S subscriber) {
     this.broker = broker;
     this.subscriber = subscriber;
     this.subscriberId = subscriberId;
   }
 
+  @Override
+  public void flush() {
+    broker.flushSubscriber(subscriberId);
+  }
+
   @Override
   public S getSubscriber() {
     return subscriber;
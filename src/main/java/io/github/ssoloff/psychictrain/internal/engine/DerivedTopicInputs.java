@@ -0,0 +1,50 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import java.util.Set;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+import io.github.ssoloff.psychictrain.api.engine.DerivedTopicFunction;
+import io.github.ssoloff.psychictrain.api.engine.Subscriber;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberContext;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberFactory;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+
+// The subscriber to the input topics of a derived topic. A change to an input
+// topic runs the invalidate action, which marks the publisher entry of the
+// derived topic stale through the publish path of the broker, so that the
+// subscribers of the derived topic are notified without computing its value.
+// The entry computes the value through computeValue() when it is next read.
+@ThreadSafe
+final class DerivedTopicInputs<@NonNull T> implements Subscriber {
+  private final DerivedTopicFunction<T> function;
+  // null until the subscriber is registered
+  private volatile @Nullable SubscriberContext inputContext;
+  private final Runnable invalidateAction;
+
+  DerivedTopicInputs(final DerivedTopicFunction<T> function, final Runnable invalidateAction) {
+    this.function = function;
+    this.invalidateAction = invalidateAction;
+  }
+
+  // returns null if the derived topic has no value
+  @Nullable Object computeValue() {
+    final @Nullable SubscriberContext inputContext = this.inputContext;
+    return (inputContext != null) ? function.computeValue(inputContext) : null;
+  }
+
+  SubscriberFactory<DerivedTopicInputs<T>> newFactory() {
+    return subscriberContext -> {
+      inputContext = subscriberContext;
+      return this;
+    };
+  }
+
+  @Override
+  public void topicsChanged(final Set<Topic<?>> topics) {
+    invalidateAction.run();
+  }
+}
@@ -0,0 +1,756 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import io.github.ssoloff.psychictrain.api.codec.ValueCodec;
+import io.github.ssoloff.psychictrain.api.codec.ValueCodecRegistry;
+import io.github.ssoloff.psychictrain.api.engine.Broker;
+import io.github.ssoloff.psychictrain.api.engine.DerivedTopicFunction;
+import io.github.ssoloff.psychictrain.api.engine.DerivedTopicToken;
+import io.github.ssoloff.psychictrain.api.engine.Publisher;
+import io.github.ssoloff.psychictrain.api.engine.PublisherContext;
+import io.github.ssoloff.psychictrain.api.engine.PublisherFactory;
+import io.github.ssoloff.psychictrain.api.engine.PublisherOptions;
+import io.github.ssoloff.psychictrain.api.engine.PublisherToken;
+import io.github.ssoloff.psychictrain.api.engine.Subscriber;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberContext;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberFactory;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberOptions;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberToken;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+
+// A broker that federates a local broker with the brokers of other nodes, so
+// that publishers and subscribers on any node share the same topics.
+//
+// Each topic is owned by one node, chosen by consistent hashing of its name,
+// and all values of a topic are held by the broker of its owner. A publisher
+// registered on another node publishes through a mirror publisher registered
+// on the owner. The owner announces each topic to every node when it is first
+// published; a node that has a local subscriber matching the topic registers
+// its interest with the owner, which then sends the values of the topic to the
+// node whenever they change. The node publishes the values through mirror
+// publishers of its own, so its local subscribers are notified, and read the
+// values, as if the topic were local.
+//
+// Each node writes to every other node over one connection and reads from
+// every other node over another (see FederationConnection). Messages are
+// batched and sent without waiting for replies. The federated broker has no
+// thread of its own: poll() accepts connections, handles all messages
+// received since the previous poll in a single batch of the local broker, and
+// writes all messages sent since then. It must be called on the thread that
+// owns the local broker, typically once per frame.
+//
+// Interest in a topic lasts as long as the connection to its owner. When the
+// connection from a node is closed or fails, the mirror publishers registered
+// on its behalf, and those of the topics it owns, are unregistered. When the
+// connection to a node fails, it is reconnected, the mirror publishers of the
+// topics that node owns are unregistered, and everything the node learned over
+// the connection (the topics defined by this node, interest in the topics it
+// owns, the publishers registered with it and their latest values, and the
+// values of the topics in which it has registered interest) is sent again.
+@NotThreadSafe
+final class FederatedBroker implements Broker, Closeable {
+  // string node id
+  private static final byte HELLO_MESSAGE_TYPE = 1;
+  // string topic name, string codec name
+  private static final byte DEFINE_TOPIC_MESSAGE_TYPE = 2;
+  // string topic name, string codec name
+  private static final byte INTEREST_MESSAGE_TYPE = 3;
+  // int publisher id, string topic name, string codec name
+  private static final byte REGISTER_PUBLISHER_MESSAGE_TYPE = 4;
+  // int publisher id
+  private static final byte UNREGISTER_PUBLISHER_MESSAGE_TYPE = 5;
+  // int publisher id, value as written by the codec of the topic
+  private static final byte PUBLISH_MESSAGE_TYPE = 6;
+  // string topic name, string codec name, int value count, then for each value
+  // int length, value as written by the codec of the topic
+  private static final byte VALUES_MESSAGE_TYPE = 7;
+
+  // names are prefixed with an unsigned short length
+  private static final int MAX_NAME_LENGTH = 0xFFFF;
+
+  private static final Logger logger = Logger.getLogger(FederatedBroker.class.getName());
+
+  private final ValueCodecRegistry codecRegistry;
+  private final Broker delegate;
+  // the topics owned by this node that have been announced to the other nodes,
+  // and the codecs with which they were announced
+  private final Map<Topic<?>, ValueCodec<?>> definedTopics = new LinkedHashMap<>();
+  private final List<IncomingConnection> incomingConnections = new ArrayList<>();
+  // the topics owned by other nodes in which this node has registered interest
+  private final Set<Topic<?>> interestingTopics = new HashSet<>();
+  private final String nodeId;
+  private int nextPublisherId;
+  private final Map<String, FederationConnection> outgoingConnectionsByNodeId = new LinkedHashMap<>();
+  // the topics announced by other nodes
+  // the contexts of the registered publishers of topics owned by other nodes
+  private final Map<Integer, RemotePublisherContext> remotePublisherContextsById = new LinkedHashMap<>();
+  private final Set<Topic<?>> remoteTopics = new HashSet<>();
+  private @Nullable ConsistentHashRing ring;
+  private final ServerSocketChannel serverChannel;
+  private final Map<TopicMatcher, Integer> subscriberCountsByTopicMatcher = new HashMap<>();
+  // the mirror publishers of the values of topics owned by other nodes
+  private final Map<Topic<?>, List<PublisherToken<MirrorPublisher>>> valueMirrorsByTopic = new HashMap<>();
+
+  private FederatedBroker(
+      final String nodeId,
+      final Broker delegate,
+      final ValueCodecRegistry codecRegistry,
+      final ServerSocketChannel serverChannel) {
+    this.codecRegistry = codecRegistry;
+    this.delegate = delegate;
+    this.nodeId = nodeId;
+    this.serverChannel = serverChannel;
+  }
+
+  private void acceptConnections() throws IOException {
+    for (@Nullable SocketChannel channel = serverChannel.accept(); channel != null; channel = serverChannel.accept()) {
+      incomingConnections.add(new IncomingConnection(FederationConnection.accept(channel)));
+    }
+  }
+
+  private void broadcast(final byte messageType, final FederationConnection.MessageWriter messageWriter) {
+    outgoingConnectionsByNodeId.values().forEach(connection -> connection.append(messageType, messageWriter));
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (final IncomingConnection incomingConnection : incomingConnections) {
+      incomingConnection.close();
+    }
+    incomingConnections.clear();
+    for (final FederationConnection outgoingConnection : outgoingConnectionsByNodeId.values()) {
+      outgoingConnection.close();
+    }
+    outgoingConnectionsByNodeId.clear();
+    serverChannel.close();
+  }
+
+  // announces the topic to the other nodes the first time it is published
+  private void defineTopic(final Topic<?> topic, final ValueCodec<?> codec) {
+    if (definedTopics.putIfAbsent(topic, codec) == null) {
+      broadcast(DEFINE_TOPIC_MESSAGE_TYPE, buffer -> putTopic(buffer, topic, codec));
+    }
+  }
+
+  InetSocketAddress getAddress() throws IOException {
+    return (InetSocketAddress) serverChannel.getLocalAddress();
+  }
+
+  @SuppressWarnings("unchecked")
+  private Optional<ValueCodec<Object>> getCodec(final Topic<?> topic) {
+    return codecRegistry.getCodec(topic.getTypeToken()).map(codec -> (ValueCodec<Object>) codec);
+  }
+
+  @SuppressWarnings("unchecked")
+  private ValueCodec<Object> getCodec(final String codecName) throws IOException {
+    final Optional<ValueCodec<?>> codec = codecRegistry.getCodec(codecName);
+    if (!codec.isPresent()) {
+      throw new IOException("no codec named '" + codecName + "'");
+    }
+    return (ValueCodec<Object>) codec.get();
+  }
+
+  private FederationConnection getOutgoingConnection(final String nodeId) throws IOException {
+    final @Nullable FederationConnection connection = outgoingConnectionsByNodeId.get(nodeId);
+    if (connection == null) {
+      throw new IOException("unknown node '" + nodeId + "'");
+    }
+    return connection;
+  }
+
+  String getOwnerNodeId(final Topic<?> topic) {
+    final @Nullable ConsistentHashRing ring = this.ring;
+    checkState(ring != null, "broker has not joined a federation");
+    return ring.getNodeId(topic.getName());
+  }
+
+  private static String getString(final ByteBuffer buffer) {
+    final byte[] bytes = new byte[buffer.getShort() & MAX_NAME_LENGTH];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private void handleMessage(
+      final IncomingConnection incomingConnection,
+      final byte messageType,
+      final ByteBuffer message) throws IOException {
+    if (messageType == HELLO_MESSAGE_TYPE) {
+      incomingConnection.nodeId = getString(message);
+      return;
+    }
+
+    final @Nullable String senderNodeId = incomingConnection.nodeId;
+    if (senderNodeId == null) {
+      throw new IOException("message received before hello");
+    }
+
+    switch (messageType) {
+      case DEFINE_TOPIC_MESSAGE_TYPE: {
+        final String topicName = getString(message);
+        final ValueCodec<Object> codec = getCodec(getString(message));
+        final Topic<?> topic = Topic.of(topicName, codec.getTypeToken());
+        if (remoteTopics.add(topic) && isMatchedBySubscriber(topic)) {
+          registerInterest(topic);
+        }
+        break;
+      }
+
+      case INTEREST_MESSAGE_TYPE: {
+        final String topicName = getString(message);
+        final ValueCodec<Object> codec = getCodec(getString(message));
+        final Topic<?> topic = Topic.of(topicName, codec.getTypeToken());
+        if (!incomingConnection.forwardingSubscriberTokensByTopic.containsKey(topic)) {
+          final FederationConnection outgoingConnection = getOutgoingConnection(senderNodeId);
+          incomingConnection.forwardingSubscriberTokensByTopic.put(topic, delegate.registerSubscriber(
+              TopicMatcher.forTopic(topic),
+              subscriberContext -> new ForwardingSubscriber(subscriberContext, topic, codec, outgoingConnection)));
+        }
+        break;
+      }
+
+      case PUBLISH_MESSAGE_TYPE: {
+        final @Nullable PublisherMirror publisherMirror = incomingConnection.publisherMirrorsById.get(message.getInt());
+        if (publisherMirror == null) {
+          throw new IOException("publication by unknown publisher");
+        }
+        publisherMirror.publisherToken.getPublisher().context.publish(publisherMirror.codec.decode(message));
+        break;
+      }
+
+      case REGISTER_PUBLISHER_MESSAGE_TYPE: {
+        final int publisherId = message.getInt();
+        final String topicName = getString(message);
+        final ValueCodec<Object> codec = getCodec(getString(message));
+        final Topic<?> topic = Topic.of(topicName, codec.getTypeToken());
+        defineTopic(topic, codec);
+        incomingConnection.publisherMirrorsById.put(
+            publisherId,
+            new PublisherMirror(delegate.registerPublisher(topic, MirrorPublisher::new), codec));
+        break;
+      }
+
+      case UNREGISTER_PUBLISHER_MESSAGE_TYPE: {
+        final @Nullable PublisherMirror publisherMirror = incomingConnection.publisherMirrorsById
+            .remove(message.getInt());
+        if (publisherMirror != null) {
+          publisherMirror.publisherToken.unregister();
+        }
+        break;
+      }
+
+      case VALUES_MESSAGE_TYPE: {
+        final String topicName = getString(message);
+        final ValueCodec<Object> codec = getCodec(getString(message));
+        final int valueCount = message.getInt();
+        final List<Object> values = new ArrayList<>(valueCount);
+        for (int i = 0; i < valueCount; ++i) {
+          final int valueLength = message.getInt();
+          final ByteBuffer value = message.slice();
+          value.limit(valueLength);
+          message.position(message.position() + valueLength);
+          values.add(codec.decode(value));
+        }
+        mirrorValues(Topic.of(topicName, codec.getTypeToken()), values);
+        break;
+      }
+
+      default:
+        throw new IOException("unknown message type (" + messageType + ")");
+    }
+  }
+
+  private boolean isMatchedBySubscriber(final Topic<?> topic) {
+    return subscriberCountsByTopicMatcher.keySet().stream().anyMatch(topicMatcher -> topicMatcher.matches(topic));
+  }
+
+  // joins the federation of this node and the specified other nodes; all nodes
+  // of a federation must join with the same node ids
+  void join(final Map<String, InetSocketAddress> addressesByNodeId) throws IOException {
+    checkState(ring == null, "broker has already joined a federation");
+    checkArgument(!addressesByNodeId.containsKey(nodeId), "node ids must not include the id of this node");
+
+    for (final Map.Entry<String, InetSocketAddress> entry : addressesByNodeId.entrySet()) {
+      final FederationConnection connection = FederationConnection.connect(entry.getValue());
+      connection.append(HELLO_MESSAGE_TYPE, buffer -> putString(buffer, nodeId));
+      outgoingConnectionsByNodeId.put(entry.getKey(), connection);
+    }
+    ring = new ConsistentHashRing(ImmutableSet.<String>builder()
+        .add(nodeId)
+        .addAll(addressesByNodeId.keySet())
+        .build());
+  }
+
+  // publishes the values of a topic owned by another node through one mirror
+  // publisher per value
+  private void mirrorValues(final Topic<?> topic, final List<Object> values) {
+    final List<PublisherToken<MirrorPublisher>> valueMirrors = valueMirrorsByTopic
+        .computeIfAbsent(topic, unused -> new ArrayList<>());
+    while (valueMirrors.size() < values.size()) {
+      valueMirrors.add(delegate.registerPublisher(topic, MirrorPublisher::new));
+    }
+    while (valueMirrors.size() > values.size()) {
+      valueMirrors.remove(valueMirrors.size() - 1).unregister();
+    }
+    for (int i = 0, size = values.size(); i < size; ++i) {
+      valueMirrors.get(i).getPublisher().context.publish(values.get(i));
+    }
+  }
+
+  // listens for connections from the other nodes of its federation on the
+  // specified address, which may specify port 0 to listen on any free port
+  static FederatedBroker open(
+      final String nodeId,
+      final Broker delegate,
+      final ValueCodecRegistry codecRegistry,
+      final InetSocketAddress address) throws IOException {
+    final ServerSocketChannel serverChannel = ServerSocketChannel.open();
+    try {
+      serverChannel.configureBlocking(false);
+      serverChannel.bind(address);
+      return new FederatedBroker(nodeId, delegate, codecRegistry, serverChannel);
+    } catch (final IOException e) {
+      serverChannel.close();
+      throw e;
+    }
+  }
+
+  // handles the messages received since the previous poll and writes the
+  // messages sent since then; returns the number of messages handled
+  int poll() throws IOException {
+    acceptConnections();
+
+    final int[] messageCount = new int[1];
+    try {
+      delegate.runInBatch(() -> {
+        try {
+          messageCount[0] = readMessages();
+        } catch (final IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (final UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    for (final Map.Entry<String, FederationConnection> entry : outgoingConnectionsByNodeId.entrySet()) {
+      try {
+        entry.getValue().flush();
+      } catch (final IOException e) {
+        logger.warning("connection to node '" + entry.getKey() + "' failed (" + e.getMessage() + "); reconnecting");
+        reconnect(entry.getKey(), entry.getValue());
+      }
+    }
+    return messageCount[0];
+  }
+
+  private static void putString(final ByteBuffer buffer, final String value) {
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    checkArgument(bytes.length <= MAX_NAME_LENGTH, "name '%s' is too long", value);
+    buffer.putShort((short) bytes.length).put(bytes);
+  }
+
+  private static void putTopic(final ByteBuffer buffer, final Topic<?> topic, final ValueCodec<?> codec) {
+    putString(buffer, topic.getName());
+    putString(buffer, codec.getName());
+  }
+
+  // a connection that fails is closed as if by its peer
+  private int readMessages() throws IOException {
+    int messageCount = 0;
+    for (int i = 0; i < incomingConnections.size();) {
+      final IncomingConnection incomingConnection = incomingConnections.get(i);
+      int readCount;
+      try {
+        readCount = incomingConnection.connection.read(
+            (messageType, message) -> handleMessage(incomingConnection, messageType, message));
+      } catch (final IOException e) {
+        logger.warning("connection from node '" + incomingConnection.nodeId + "' failed (" + e.getMessage() + ")");
+        readCount = -1;
+      }
+      if (readCount < 0) {
+        incomingConnections.remove(i);
+        unregisterMirrors(incomingConnection);
+        incomingConnection.close();
+      } else {
+        messageCount += readCount;
+        ++i;
+      }
+    }
+    return messageCount;
+  }
+
+  // reconnects the failed connection to the specified node and sends the node
+  // everything it learned over the connection, which it discarded when the
+  // connection was closed
+  private void reconnect(final String nodeId, final FederationConnection connection) throws IOException {
+    connection.reconnect();
+    unregisterValueMirrors(nodeId);
+
+    connection.append(HELLO_MESSAGE_TYPE, buffer -> putString(buffer, this.nodeId));
+    definedTopics.forEach((topic, codec) -> connection.append(
+        DEFINE_TOPIC_MESSAGE_TYPE,
+        buffer -> putTopic(buffer, topic, codec)));
+    for (final Topic<?> topic : interestingTopics) {
+      if (getOwnerNodeId(topic).equals(nodeId)) {
+        sendInterest(connection, topic);
+      }
+    }
+    for (final RemotePublisherContext remotePublisherContext : remotePublisherContextsById.values()) {
+      if (remotePublisherContext.connection == connection) {
+        remotePublisherContext.register();
+      }
+    }
+    for (final IncomingConnection incomingConnection : incomingConnections) {
+      if (nodeId.equals(incomingConnection.nodeId)) {
+        incomingConnection.forwardingSubscriberTokensByTopic.values()
+            .forEach(forwardingSubscriberToken -> forwardingSubscriberToken.getSubscriber().sendValues());
+      }
+    }
+  }
+
+  private void registerInterest(final Topic<?> topic) {
+    if (interestingTopics.add(topic)) {
+      try {
+        sendInterest(getOutgoingConnection(getOwnerNodeId(topic)), topic);
+      } catch (final IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  // a derived topic is not federated: it is computed by the local broker, and
+  // only its local subscribers observe it, but interest is registered in the
+  // remote topics matched by its inputs as for a local subscriber
+  @Override
+  public <@NonNull T> DerivedTopicToken registerDerivedTopic(
+      final Topic<T> topic,
+      final TopicMatcher inputTopicMatcher,
+      final DerivedTopicFunction<T> function) {
+    checkState(ring != null, "broker has not joined a federation");
+
+    subscriberCountsByTopicMatcher.merge(inputTopicMatcher, 1, Integer::sum);
+    remoteTopics.stream()
+        .filter(inputTopicMatcher::matches)
+        .collect(ImmutableList.toImmutableList())
+        .forEach(this::registerInterest);
+    final DerivedTopicToken derivedTopicToken = delegate.registerDerivedTopic(topic, inputTopicMatcher, function);
+    return () -> {
+      subscriberCountsByTopicMatcher.computeIfPresent(
+          inputTopicMatcher,
+          (unused, count) -> (count > 1) ? count - 1 : null);
+      derivedTopicToken.unregister();
+    };
+  }
+
+  // a publisher of a topic owned by another node must have a codec for its
+  // values and must not specify a history, as the history of a topic is only
+  // retained by the broker of its owner
+  @Override
+  public <@NonNull P extends Publisher> PublisherToken<P> registerPublisher(
+      final Topic<?> topic,
+      final PublisherFactory<P> publisherFactory,
+      final PublisherOptions publisherOptions) {
+    final String ownerNodeId = getOwnerNodeId(topic);
+    final Optional<ValueCodec<Object>> codec = getCodec(topic);
+    if (ownerNodeId.equals(nodeId)) {
+      if (codec.isPresent()) {
+        defineTopic(topic, codec.get());
+      } else {
+        logger.warning("topic '" + topic.getName() + "' will not be federated (no codec for "
+            + topic.getTypeToken() + ")");
+      }
+      return delegate.registerPublisher(topic, publisherFactory, publisherOptions);
+    }
+
+    checkArgument(codec.isPresent(), "topic '%s' is owned by another node but has no codec", topic.getName());
+    checkArgument(
+        !publisherOptions.getHistory().isRetained(),
+        "topic '%s' is owned by another node, which retains its history",
+        topic.getName());
+    final FederationConnection connection;
+    try {
+      connection = getOutgoingConnection(ownerNodeId);
+    } catch (final IOException e) {
+      throw new AssertionError(e);
+    }
+    final int publisherId = nextPublisherId++;
+    final RemotePublisherContext remotePublisherContext = new RemotePublisherContext(
+        connection,
+        publisherId,
+        topic,
+        codec.get());
+    remotePublisherContext.register();
+    remotePublisherContextsById.put(publisherId, remotePublisherContext);
+    final P publisher = publisherFactory.newPublisher(remotePublisherContext);
+    return new PublisherToken<P>() {
+      @Override
+      public P getPublisher() {
+        return publisher;
+      }
+
+      @Override
+      public void unregister() {
+        if (remotePublisherContextsById.remove(publisherId) != null) {
+          remotePublisherContext.unregister();
+        }
+      }
+    };
+  }
+
+  @Override
+  public <@NonNull S extends Subscriber> SubscriberToken<S> registerSubscriber(
+      final TopicMatcher topicMatcher,
+      final SubscriberFactory<S> subscriberFactory,
+      final SubscriberOptions subscriberOptions) {
+    checkState(ring != null, "broker has not joined a federation");
+
+    subscriberCountsByTopicMatcher.merge(topicMatcher, 1, Integer::sum);
+    remoteTopics.stream()
+        .filter(topicMatcher::matches)
+        .collect(ImmutableList.toImmutableList())
+        .forEach(this::registerInterest);
+    final SubscriberToken<S> subscriberToken = delegate.registerSubscriber(
+        topicMatcher,
+        subscriberFactory,
+        subscriberOptions);
+    return new SubscriberToken<S>() {
+      @Override
+      public void flush() {
+        subscriberToken.flush();
+      }
+
+      @Override
+      public S getSubscriber() {
+        return subscriberToken.getSubscriber();
+      }
+
+      @Override
+      public void unregister() {
+        subscriberCountsByTopicMatcher.computeIfPresent(topicMatcher, (unused, count) -> (count > 1) ? count - 1 : null);
+        subscriberToken.unregister();
+      }
+    };
+  }
+
+  @Override
+  public void runInBatch(final Runnable action) {
+    delegate.runInBatch(action);
+  }
+
+  private void sendInterest(final FederationConnection connection, final Topic<?> topic) {
+    final ValueCodec<Object> codec = getCodec(topic).orElseThrow(AssertionError::new);
+    connection.append(INTEREST_MESSAGE_TYPE, buffer -> putTopic(buffer, topic, codec));
+  }
+
+  private void unregisterMirrors(final IncomingConnection incomingConnection) {
+    incomingConnection.forwardingSubscriberTokensByTopic.values().forEach(SubscriberToken::unregister);
+    incomingConnection.forwardingSubscriberTokensByTopic.clear();
+    incomingConnection.publisherMirrorsById.values().forEach(publisherMirror -> publisherMirror.publisherToken
+        .unregister());
+    incomingConnection.publisherMirrorsById.clear();
+
+    final @Nullable String senderNodeId = incomingConnection.nodeId;
+    if (senderNodeId != null) {
+      unregisterValueMirrors(senderNodeId);
+    }
+  }
+
+  // unregisters the mirror publishers of the values of the topics owned by the
+  // specified node
+  private void unregisterValueMirrors(final String ownerNodeId) {
+    valueMirrorsByTopic.entrySet().removeIf(entry -> {
+      if (getOwnerNodeId(entry.getKey()).equals(ownerNodeId)) {
+        entry.getValue().forEach(PublisherToken::unregister);
+        return true;
+      }
+      return false;
+    });
+  }
+
+  // sends the values of a topic owned by this node to another node whenever
+  // they change
+  private static final class ForwardingSubscriber implements Subscriber {
+    private final ValueCodec<Object> codec;
+    private final FederationConnection connection;
+    private final SubscriberContext context;
+    private final Topic<?> topic;
+
+    ForwardingSubscriber(
+        final SubscriberContext context,
+        final Topic<?> topic,
+        final ValueCodec<Object> codec,
+        final FederationConnection connection) {
+      this.codec = codec;
+      this.connection = connection;
+      this.context = context;
+      this.topic = topic;
+    }
+
+    void sendValues() {
+      final List<?> values = ImmutableList.copyOf(context.getValuesForTopic(topic));
+      connection.append(VALUES_MESSAGE_TYPE, buffer -> {
+        putTopic(buffer, topic, codec);
+        buffer.putInt(values.size());
+        for (final Object value : values) {
+          final int lengthPosition = buffer.position();
+          if (buffer.remaining() < Integer.BYTES) {
+            throw new BufferOverflowException();
+          }
+          buffer.position(lengthPosition + Integer.BYTES);
+          codec.encode(value, buffer);
+          buffer.putInt(lengthPosition, buffer.position() - lengthPosition - Integer.BYTES);
+        }
+      });
+    }
+
+    @Override
+    public void topicsChanged(final Set<Topic<?>> topics) {
+      sendValues();
+    }
+  }
+
+  private static final class IncomingConnection implements Closeable {
+    final FederationConnection connection;
+    // the subscribers that forward the values of topics owned by this node to
+    // the sender
+    final Map<Topic<?>, SubscriberToken<ForwardingSubscriber>> forwardingSubscriberTokensByTopic = new HashMap<>();
+    // null until the sender identifies itself
+    @Nullable String nodeId;
+    // the mirrors of publishers registered on the sender, by the id assigned by
+    // the sender
+    final Map<Integer, PublisherMirror> publisherMirrorsById = new HashMap<>();
+
+    IncomingConnection(final FederationConnection connection) {
+      this.connection = connection;
+    }
+
+    @Override
+    public void close() throws IOException {
+      connection.close();
+    }
+  }
+
+  private static final class MirrorPublisher implements Publisher {
+    final PublisherContext context;
+
+    MirrorPublisher(final PublisherContext context) {
+      this.context = context;
+    }
+  }
+
+  private static final class PublisherMirror {
+    final ValueCodec<Object> codec;
+    final PublisherToken<MirrorPublisher> publisherToken;
+
+    PublisherMirror(final PublisherToken<MirrorPublisher> publisherToken, final ValueCodec<Object> codec) {
+      this.codec = codec;
+      this.publisherToken = publisherToken;
+    }
+  }
+
+  // forwards publications to the mirror publisher on the node that owns the
+  // topic; the latest value is retained so that it can be published again if
+  // the connection to the owner is reconnected, and publications after the
+  // publisher is unregistered are discarded
+  private static final class RemotePublisherContext implements PublisherContext {
+    private final ValueCodec<Object> codec;
+    final FederationConnection connection;
+    private final int publisherId;
+    private final Topic<?> topic;
+    private boolean unregistered;
+    // null until the first publication
+    private @Nullable Object value;
+
+    RemotePublisherContext(
+        final FederationConnection connection,
+        final int publisherId,
+        final Topic<?> topic,
+        final ValueCodec<Object> codec) {
+      this.codec = codec;
+      this.connection = connection;
+      this.publisherId = publisherId;
+      this.topic = topic;
+    }
+
+    @Override
+    public void publish(final Object value) {
+      if (unregistered) {
+        return;
+      }
+
+      this.value = value;
+      sendValue(value);
+    }
+
+    @Override
+    public void publishDouble(final double value) {
+      publish(value);
+    }
+
+    @Override
+    public void publishInt(final int value) {
+      publish(value);
+    }
+
+    @Override
+    public void publishLong(final long value) {
+      publish(value);
+    }
+
+    // registers the mirror publisher on the owner and publishes the latest
+    // value through it
+    void register() {
+      connection.append(REGISTER_PUBLISHER_MESSAGE_TYPE, buffer -> {
+        buffer.putInt(publisherId);
+        putTopic(buffer, topic, codec);
+      });
+      final @Nullable Object value = this.value;
+      if (value != null) {
+        sendValue(value);
+      }
+    }
+
+    private void sendValue(final Object value) {
+      connection.append(PUBLISH_MESSAGE_TYPE, buffer -> {
+        buffer.putInt(publisherId);
+        codec.encode(value, buffer);
+      });
+    }
+
+    void unregister() {
+      unregistered = true;
+      value = null;
+      connection.append(UNREGISTER_PUBLISHER_MESSAGE_TYPE, buffer -> buffer.putInt(publisherId));
+    }
+  }
+}
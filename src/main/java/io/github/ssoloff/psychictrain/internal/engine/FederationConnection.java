@@ -0,0 +1,228 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+// A TCP connection between two federated brokers over which messages are
+// written and read without blocking. Each message is
+//
+//   int    length of the remainder of the message
+//   byte   message type
+//   ...    the fields of the message type
+//
+// Messages are appended to an output buffer and written when the connection
+// is flushed, so many messages are written with each system call, and a
+// sender never waits for a reply before sending the next message. An outgoing
+// connection retries until the peer accepts it; messages appended in the
+// meantime are written once it does.
+//
+// The output buffer grows to at most MAX_BUFFER_SIZE while the peer is slow or
+// down. Once it would grow beyond that, messages are discarded and the next
+// flush fails, as it does when the peer closes the connection or a write
+// fails. The owner of a failed outgoing connection reconnects it and appends
+// the messages that restore the state of the peer.
+@NotThreadSafe
+final class FederationConnection implements Closeable {
+  private static final int BUFFER_SIZE = 64 * 1024;
+  static final int MAX_BUFFER_SIZE = 16 * 1024 * 1024;
+
+  // null for an incoming connection
+  private final @Nullable InetSocketAddress address;
+  private SocketChannel channel;
+  private boolean connected;
+  // in write mode
+  private ByteBuffer inputBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+  // in write mode
+  private ByteBuffer outputBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+  // true if messages were discarded since the connection was last reconnected
+  private boolean overflowed;
+
+  private FederationConnection(
+      final SocketChannel channel,
+      final @Nullable InetSocketAddress address,
+      final boolean connected) {
+    this.address = address;
+    this.channel = channel;
+    this.connected = connected;
+  }
+
+  static FederationConnection accept(final SocketChannel channel) throws IOException {
+    configure(channel);
+    return new FederationConnection(channel, null, true);
+  }
+
+  // discards the message if the output buffer cannot grow to hold it
+  void append(final byte messageType, final MessageWriter messageWriter) {
+    if (overflowed) {
+      return;
+    }
+
+    while (!tryAppend(messageType, messageWriter)) {
+      if (outputBuffer.capacity() >= MAX_BUFFER_SIZE) {
+        overflowed = true;
+        outputBuffer.clear();
+        return;
+      }
+      outputBuffer = ByteBuffer.allocate(Math.min(outputBuffer.capacity() * 2, MAX_BUFFER_SIZE))
+          .put(outputBuffer.flip());
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private static void configure(final SocketChannel channel) throws IOException {
+    channel.configureBlocking(false);
+    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+  }
+
+  static FederationConnection connect(final InetSocketAddress address) throws IOException {
+    return new FederationConnection(openChannel(address), address, false);
+  }
+
+  // writes as much of the output buffer as the connection accepts without
+  // blocking; throws an IOException if messages were discarded, the peer closed
+  // the connection or the write failed, after which the connection must be
+  // reconnected
+  void flush() throws IOException {
+    if (overflowed) {
+      throw new IOException("output buffer overflowed");
+    } else if (!connected && !finishConnect()) {
+      return;
+    }
+
+    // the peer never writes to an outgoing connection, so a read only detects
+    // that it closed the connection
+    if (channel.read(inputBuffer) < 0) {
+      throw new IOException("connection closed by peer");
+    }
+    inputBuffer.clear();
+
+    if (outputBuffer.position() > 0) {
+      outputBuffer.flip();
+      channel.write(outputBuffer);
+      outputBuffer.compact();
+    }
+  }
+
+  private boolean finishConnect() throws IOException {
+    final @Nullable InetSocketAddress address = this.address;
+    assert address != null;
+    try {
+      connected = channel.finishConnect();
+    } catch (final IOException e) {
+      // the peer is not yet accepting connections
+      channel.close();
+      channel = openChannel(address);
+    }
+    return connected;
+  }
+
+  private static SocketChannel openChannel(final InetSocketAddress address) throws IOException {
+    final SocketChannel channel = SocketChannel.open();
+    try {
+      configure(channel);
+      channel.connect(address);
+      return channel;
+    } catch (final IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  // passes each message received since the previous call to the handler and
+  // returns the number of messages passed, or -1 if the peer closed the
+  // connection
+  int read(final MessageHandler messageHandler) throws IOException {
+    if (channel.read(inputBuffer) < 0) {
+      return -1;
+    }
+
+    int messageCount = 0;
+    inputBuffer.flip();
+    while (inputBuffer.remaining() >= Integer.BYTES) {
+      final int messageLength = inputBuffer.getInt(inputBuffer.position());
+      if (messageLength < 1) {
+        throw new IOException("malformed message (length " + messageLength + ")");
+      } else if (inputBuffer.remaining() < Integer.BYTES + messageLength) {
+        break;
+      }
+
+      final int messagePosition = inputBuffer.position() + Integer.BYTES;
+      final ByteBuffer message = inputBuffer.duplicate();
+      message.limit(messagePosition + messageLength).position(messagePosition + 1);
+      inputBuffer.position(messagePosition + messageLength);
+      messageHandler.handle(inputBuffer.get(messagePosition), message);
+      ++messageCount;
+    }
+    inputBuffer.compact();
+
+    // a message larger than the buffer is read through a buffer of its own
+    if (!inputBuffer.hasRemaining()) {
+      inputBuffer = ByteBuffer.allocate(inputBuffer.capacity() * 2).put(inputBuffer.flip());
+    }
+    return messageCount;
+  }
+
+  // connects an outgoing connection again, then closes the old channel and
+  // discards the messages that were not written; the connection is left
+  // unchanged if it cannot connect, so that it can be reconnected later
+  void reconnect() throws IOException {
+    final @Nullable InetSocketAddress address = this.address;
+    assert address != null;
+    final SocketChannel newChannel = openChannel(address);
+    channel.close();
+    channel = newChannel;
+    connected = false;
+    outputBuffer.clear();
+    overflowed = false;
+  }
+
+  // returns false if the message does not fit in the remainder of the output
+  // buffer; the buffer is left unchanged if the message is not appended for any
+  // reason
+  private boolean tryAppend(final byte messageType, final MessageWriter messageWriter) {
+    final int messagePosition = outputBuffer.position();
+    if (outputBuffer.remaining() < Integer.BYTES + 1) {
+      return false;
+    }
+
+    try {
+      outputBuffer.position(messagePosition + Integer.BYTES);
+      outputBuffer.put(messageType);
+      messageWriter.write(outputBuffer);
+      outputBuffer.putInt(messagePosition, outputBuffer.position() - messagePosition - Integer.BYTES);
+      return true;
+    } catch (final BufferOverflowException e) {
+      outputBuffer.position(messagePosition);
+      return false;
+    } catch (final RuntimeException e) {
+      outputBuffer.position(messagePosition);
+      throw e;
+    }
+  }
+
+  @FunctionalInterface
+  interface MessageHandler {
+    // the buffer contains the fields of the message
+    void handle(byte messageType, ByteBuffer message) throws IOException;
+  }
+
+  @FunctionalInterface
+  interface MessageWriter {
+    // throws a BufferOverflowException if the buffer has insufficient space
+    // remaining
+    void write(ByteBuffer buffer);
+  }
+}
@@ -0,0 +1,18 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import java.util.function.BiConsumer;
+
+import io.github.ssoloff.psychictrain.api.engine.Broker;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+
+interface InternalBroker extends Broker {
+  void flushSubscriber(SubscriberId subscriberId);
+
+  // passes each published value of each topic to the consumer without copying
+  // the values
+  void forEachValue(BiConsumer<Topic<?>, Object> consumer);
+
+  void unregisterPublisher(PublisherId publisherId);
+
+  void unregisterSubscriber(SubscriberId subscriberId);
+}
@@ -0,0 +1,117 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableSet;
+
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+
+// collapses the notifications of a single subscriber into one pending set of
+// changed topics that is released at most once per interval
+//
+// If a scheduler is specified, the deadline action is scheduled to run when
+// the interval elapses whenever topics become pending, so that they are
+// released even if no further change is made. At most one deadline action is
+// scheduled at a time; one that runs early (e.g. because the topics it was
+// scheduled for were released by a later change) is rescheduled.
+@ThreadSafe
+final class NotificationConflator {
+  // runs flushIfIntervalElapsed()
+  private final Runnable deadlineAction;
+  @GuardedBy("this")
+  private boolean deadlineActionScheduled;
+  private final long intervalNanos;
+  // the time at which topics were last released; only meaningful once released
+  @GuardedBy("this")
+  private long lastReleaseTime;
+  // null when no topics are pending
+  @GuardedBy("this")
+  private @Nullable Set<Topic<?>> pendingTopics;
+  @GuardedBy("this")
+  private boolean released;
+  // null if pending topics are only released by a change or a flush
+  private final @Nullable ScheduledExecutorService scheduler;
+  private final Ticker ticker;
+
+  NotificationConflator(
+      final Duration interval,
+      final Ticker ticker,
+      final @Nullable ScheduledExecutorService scheduler,
+      final Runnable deadlineAction) {
+    this.deadlineAction = deadlineAction;
+    this.intervalNanos = interval.toNanos();
+    this.scheduler = scheduler;
+    this.ticker = ticker;
+  }
+
+  // adds the specified topics to the pending topics and returns all pending
+  // topics if the interval has elapsed since they were last released, or null
+  // if they remain pending
+  synchronized @Nullable Set<Topic<?>> conflate(final Set<Topic<?>> topics) {
+    Set<Topic<?>> pendingTopics = this.pendingTopics;
+    if (pendingTopics == null) {
+      pendingTopics = new LinkedHashSet<>();
+      this.pendingTopics = pendingTopics;
+    }
+    pendingTopics.addAll(topics);
+
+    final long now = ticker.read();
+    if (!released || ((now - lastReleaseTime) >= intervalNanos)) {
+      return release(now);
+    }
+    scheduleDeadlineAction(now);
+    return null;
+  }
+
+  // returns all pending topics regardless of the interval, or null if none are
+  // pending
+  synchronized @Nullable Set<Topic<?>> flush() {
+    return (pendingTopics != null) ? release(ticker.read()) : null;
+  }
+
+  // returns all pending topics if the interval has elapsed since they were last
+  // released, or null if none are pending or they remain pending
+  synchronized @Nullable Set<Topic<?>> flushIfIntervalElapsed() {
+    deadlineActionScheduled = false;
+    if (pendingTopics == null) {
+      return null;
+    }
+
+    final long now = ticker.read();
+    if ((now - lastReleaseTime) >= intervalNanos) {
+      return release(now);
+    }
+    scheduleDeadlineAction(now);
+    return null;
+  }
+
+  @GuardedBy("this")
+  private Set<Topic<?>> release(final long now) {
+    final Set<Topic<?>> pendingTopics = this.pendingTopics;
+    assert pendingTopics != null;
+
+    this.pendingTopics = null;
+    lastReleaseTime = now;
+    released = true;
+    return ImmutableSet.copyOf(pendingTopics);
+  }
+
+  @GuardedBy("this")
+  private void scheduleDeadlineAction(final long now) {
+    final @Nullable ScheduledExecutorService scheduler = this.scheduler;
+    if ((scheduler != null) && !deadlineActionScheduled) {
+      scheduler.schedule(deadlineAction, intervalNanos - (now - lastReleaseTime), TimeUnit.NANOSECONDS);
+      deadlineActionScheduled = true;
+    }
+  }
+}
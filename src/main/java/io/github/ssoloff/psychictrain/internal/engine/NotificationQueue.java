@@ -0,0 +1,167 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import io.github.ssoloff.psychictrain.api.engine.BrokerInstrumentation;
+import io.github.ssoloff.psychictrain.api.engine.OverflowPolicy;
+import io.github.ssoloff.psychictrain.api.engine.Subscriber;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+
+// delivers notifications to a single subscriber on an executor, in the order in
+// which they were enqueued; at most one drain task is scheduled at any time, so
+// the subscriber is never notified concurrently with itself. the queue holds at
+// most capacity notifications, and a notification that arrives while it is full
+// is handled according to the overflow policy, so a subscriber that cannot keep
+// up shows up in the instrumentation rather than exhausting the heap
+@ThreadSafe
+final class NotificationQueue {
+  private static final Logger logger = Logger.getLogger(NotificationQueue.class.getName());
+
+  private final int capacity;
+  private final Consumer<Set<Topic<?>>> deliverer;
+  private final AtomicBoolean drainScheduled = new AtomicBoolean();
+  private final Executor executor;
+  private final BrokerInstrumentation instrumentation;
+  private final OverflowPolicy overflowPolicy;
+  @GuardedBy("this")
+  private final Deque<Set<Topic<?>>> pendingTopics = new ArrayDeque<>();
+  private final Subscriber subscriber;
+
+  NotificationQueue(
+      final Executor executor,
+      final int capacity,
+      final OverflowPolicy overflowPolicy,
+      final Consumer<Set<Topic<?>>> deliverer,
+      final Subscriber subscriber,
+      final BrokerInstrumentation instrumentation) {
+    this.capacity = capacity;
+    this.deliverer = deliverer;
+    this.executor = executor;
+    this.instrumentation = instrumentation;
+    this.overflowPolicy = overflowPolicy;
+    this.subscriber = subscriber;
+  }
+
+  // returns false if the thread was interrupted while waiting
+  @GuardedBy("this")
+  private boolean awaitCapacity() {
+    while (pendingTopics.size() >= capacity) {
+      try {
+        wait();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void drain() {
+    try {
+      for (@Nullable Set<Topic<?>> topics = poll(); topics != null; topics = poll()) {
+        try {
+          deliverer.accept(topics);
+        } catch (final RuntimeException e) {
+          logger.log(Level.WARNING, "subscriber failed to process notification", e);
+        }
+      }
+    } finally {
+      drainScheduled.set(false);
+    }
+
+    // a notification may have been enqueued after the queue was found empty but
+    // before the drain was marked as no longer scheduled
+    if (!isEmpty()) {
+      scheduleDrain();
+    }
+  }
+
+  void enqueue(final Set<Topic<?>> topics) {
+    @Nullable Set<Topic<?>> enqueuedTopics = topics;
+    Collection<Set<Topic<?>>> droppedTopics = ImmutableList.of();
+    final int queueDepth;
+    synchronized (this) {
+      if (pendingTopics.size() >= capacity) {
+        switch (overflowPolicy) {
+          case BLOCK:
+            // an interrupted publisher gives up on the notification
+            if (!awaitCapacity()) {
+              droppedTopics = ImmutableList.of(topics);
+              enqueuedTopics = null;
+            }
+            break;
+
+          case COLLAPSE:
+            droppedTopics = ImmutableList.copyOf(pendingTopics);
+            enqueuedTopics = ImmutableSet.<Topic<?>>builder()
+                .addAll(pendingTopics.stream().flatMap(Set::stream).iterator())
+                .addAll(topics)
+                .build();
+            pendingTopics.clear();
+            break;
+
+          case DROP_NEWEST:
+            droppedTopics = ImmutableList.of(topics);
+            enqueuedTopics = null;
+            break;
+
+          case DROP_OLDEST:
+            droppedTopics = ImmutableList.of(pendingTopics.removeFirst());
+            break;
+
+          default:
+            throw new AssertionError("unknown overflow policy " + overflowPolicy);
+        }
+      }
+      if (enqueuedTopics != null) {
+        pendingTopics.addLast(enqueuedTopics);
+      }
+      queueDepth = pendingTopics.size();
+    }
+
+    droppedTopics.forEach(dropped -> instrumentation.notificationDropped(subscriber, dropped));
+    if (enqueuedTopics != null) {
+      instrumentation.notificationEnqueued(subscriber, queueDepth);
+      scheduleDrain();
+    }
+  }
+
+  private synchronized boolean isEmpty() {
+    return pendingTopics.isEmpty();
+  }
+
+  private synchronized @Nullable Set<Topic<?>> poll() {
+    final @Nullable Set<Topic<?>> topics = pendingTopics.pollFirst();
+    if ((topics != null) && (overflowPolicy == OverflowPolicy.BLOCK)) {
+      notifyAll();
+    }
+    return topics;
+  }
+
+  private void scheduleDrain() {
+    if (drainScheduled.compareAndSet(false, true)) {
+      try {
+        executor.execute(this::drain);
+      } catch (final RuntimeException e) {
+        drainScheduled.set(false);
+        throw e;
+      }
+    }
+  }
+}
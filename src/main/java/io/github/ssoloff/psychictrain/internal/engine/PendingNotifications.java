@@ -0,0 +1,60 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.google.common.collect.ImmutableSet;
+
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+
+@NotThreadSafe
+final class PendingNotifications {
+  private int batchDepth;
+  private final Map<SubscriberEntry, Set<Topic<?>>> topicsBySubscriberEntry = new LinkedHashMap<>();
+
+  void add(final SubscriberEntry subscriberEntry, final Topic<?> topic) {
+    assert isBatching();
+
+    topicsBySubscriberEntry.computeIfAbsent(subscriberEntry, key -> new LinkedHashSet<>()).add(topic);
+  }
+
+  void beginBatch() {
+    ++batchDepth;
+  }
+
+  // returns true if the outermost batch has ended
+  boolean endBatch() {
+    assert isBatching();
+
+    return --batchDepth == 0;
+  }
+
+  // subscribers may publish while being notified, so entries are removed one at
+  // a time rather than iterating over the map
+  void flush() {
+    try {
+      while (!topicsBySubscriberEntry.isEmpty()) {
+        final Iterator<Map.Entry<SubscriberEntry, Set<Topic<?>>>> iterator =
+            topicsBySubscriberEntry.entrySet().iterator();
+        final Map.Entry<SubscriberEntry, Set<Topic<?>>> entry = iterator.next();
+        final SubscriberEntry subscriberEntry = entry.getKey();
+        final Set<Topic<?>> topics = ImmutableSet.copyOf(entry.getValue());
+        iterator.remove();
+        subscriberEntry.notifySubscriberTopicsChanged(topics);
+      }
+    } finally {
+      // if a subscriber failed, the remaining notifications are abandoned rather
+      // than delivered as part of an unrelated batch
+      topicsBySubscriberEntry.clear();
+    }
+  }
+
+  boolean isBatching() {
+    return batchDepth > 0;
+  }
+}
@@ -0,0 +1,272 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.function.Function;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.common.collect.ImmutableSet;
+
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+
+// Propagates topic changes in waves. A wave starts with a publication outside
+// of any notification (or with the end of the outermost batch) and ends when
+// no subscriber remains to be notified; publications made by subscribers while
+// being notified join the current wave rather than being delivered
+// depth-first.
+//
+// Each subscriber has a rank that is learned from the publications it makes
+// while being notified: a subscriber is always ranked above every subscriber
+// that publishes a topic it matches. Pending subscribers are notified in rank
+// order, so once the ranks have been learned, each subscriber is notified at
+// most once per wave, after all of its upstream subscribers have settled. A
+// subscriber may be notified more than once during the first wave that
+// traverses a new dependency.
+//
+// Ranks are never lowered, but the topics published by a subscriber are only
+// remembered for the wave in which it published them, so raising the rank of a
+// subscriber only raises the ranks downstream of it along the dependencies of
+// the current wave. A dependency that would require a subscriber to be ranked
+// above itself within a wave is a cycle; a subscriber that publishes a topic
+// only under some condition does not complete a cycle in a later wave in which
+// it does not publish it.
+//
+// As ranks are never lowered, a subscriber whose dependencies alternate from
+// wave to wave (e.g. one that publishes a topic matched by another subscriber
+// in one wave, and matches a topic that subscriber publishes in the next) is
+// raised in every wave. Only the order of the ranks matters, so once they span
+// more than twice as many levels as there are subscribers, they are renumbered
+// densely from 0 in the same order between waves, which bounds the number of
+// levels for which pending subscribers are queued.
+@NotThreadSafe
+final class PropagationScheduler {
+  private int batchDepth;
+  private final Set<Node> nodes = new HashSet<>();
+  // null when no subscriber is being notified
+  private @Nullable Node notifyingNode;
+  // the number of the current (or most recent) wave
+  private long wave;
+  // the lowest rank that may have a pending node
+  private int pendingNodeMinimumRank;
+  // pending nodes are queued by rank and, within a rank, in the order in which
+  // they were scheduled
+  private final List<Queue<Node>> pendingNodesByRank = new ArrayList<>();
+  private boolean propagating;
+  private final Function<Topic<?>, List<SubscriberEntry>> subscriberEntriesByTopic;
+
+  PropagationScheduler(final Function<Topic<?>, List<SubscriberEntry>> subscriberEntriesByTopic) {
+    this.subscriberEntriesByTopic = subscriberEntriesByTopic;
+  }
+
+  void beginBatch() {
+    ++batchDepth;
+  }
+
+  void endBatch() {
+    assert batchDepth > 0;
+
+    if ((--batchDepth == 0) && !propagating) {
+      propagate();
+    }
+  }
+
+  // renumbers the ranks densely from 0, preserving their order, if they span
+  // more than twice as many levels as there are nodes; no node may be pending
+  private void compactRanks() {
+    if (pendingNodesByRank.size() <= 2 * nodes.size()) {
+      return;
+    }
+
+    final int[] ranks = nodes.stream().mapToInt(node -> node.rank).sorted().distinct().toArray();
+    for (final Node node : nodes) {
+      node.rank = Arrays.binarySearch(ranks, node.rank);
+    }
+    pendingNodesByRank.subList(ranks.length, pendingNodesByRank.size()).clear();
+  }
+
+  // the cascade depth of a change made now: 1 outside of any notification, or
+  // one more than the depth of the change that caused the current notification
+  int getCascadeDepth() {
+    final @Nullable Node notifyingNode = this.notifyingNode;
+    return (notifyingNode != null) ? notifyingNode.cascadeDepth + 1 : 1;
+  }
+
+  private Node getNode(final SubscriberEntry subscriberEntry) {
+    final @Nullable Node node = subscriberEntry.getPropagationNode();
+    assert node != null;
+    return node;
+  }
+
+  // learns the dependencies implied by the current subscriber publishing the
+  // specified topic; throws an exception if the publication completes a cycle
+  void learnPublication(final Topic<?> topic, final List<SubscriberEntry> subscriberEntries) {
+    final @Nullable Node notifyingNode = this.notifyingNode;
+    if (notifyingNode != null) {
+      if (notifyingNode.publishedTopicsWave != wave) {
+        notifyingNode.publishedTopics.clear();
+        notifyingNode.publishedTopicsWave = wave;
+      }
+      notifyingNode.publishedTopics.add(topic);
+      for (int i = 0, size = subscriberEntries.size(); i < size; ++i) {
+        raiseRank(getNode(subscriberEntries.get(i)), notifyingNode.rank + 1, notifyingNode, topic);
+      }
+    }
+  }
+
+  private void offerPendingNode(final Node node) {
+    final int rank = node.rank;
+    while (pendingNodesByRank.size() <= rank) {
+      pendingNodesByRank.add(new ArrayDeque<>());
+    }
+    pendingNodesByRank.get(rank).add(node);
+    pendingNodeMinimumRank = Math.min(pendingNodeMinimumRank, rank);
+  }
+
+  // the number of levels for which pending nodes are queued
+  int getRankCount() {
+    return pendingNodesByRank.size();
+  }
+
+  private @Nullable Node pollPendingNode() {
+    for (final int size = pendingNodesByRank.size(); pendingNodeMinimumRank < size; ++pendingNodeMinimumRank) {
+      final @Nullable Node node = pendingNodesByRank.get(pendingNodeMinimumRank).poll();
+      if (node != null) {
+        return node;
+      }
+    }
+    pendingNodeMinimumRank = 0;
+    return null;
+  }
+
+  private void propagate() {
+    ++wave;
+    propagating = true;
+    try {
+      for (@Nullable Node node = pollPendingNode(); node != null; node = pollPendingNode()) {
+        final Set<Topic<?>> pendingTopics = node.pendingTopics;
+        assert pendingTopics != null;
+        // a singleton set is shared and immutable; larger sets are accumulated
+        // by this scheduler and must not be exposed
+        final Set<Topic<?>> topics = (pendingTopics.size() == 1) ? pendingTopics : ImmutableSet.copyOf(pendingTopics);
+        node.pendingTopics = null;
+        notifyingNode = node;
+        node.subscriberEntry.notifySubscriberTopicsChanged(topics);
+      }
+    } finally {
+      notifyingNode = null;
+      propagating = false;
+      // if a subscriber failed, the remainder of the wave is abandoned
+      for (@Nullable Node node = pollPendingNode(); node != null; node = pollPendingNode()) {
+        node.pendingTopics = null;
+      }
+      compactRanks();
+    }
+  }
+
+  // raises the rank of the specified node and of all nodes downstream of it so
+  // that it is ranked no lower than the specified minimum
+  private void raiseRank(final Node node, final int minimumRank, final Node originNode, final Topic<?> topic) {
+    checkState(node != originNode, "cycle detected during publication of topic '%s'", topic);
+
+    if (node.rank < minimumRank) {
+      final boolean pending = removePendingNode(node);
+      node.rank = minimumRank;
+      if (pending) {
+        offerPendingNode(node);
+      }
+
+      if (node.publishedTopicsWave == wave) {
+        for (final Topic<?> publishedTopic : node.publishedTopics) {
+          for (final SubscriberEntry subscriberEntry : subscriberEntriesByTopic.apply(publishedTopic)) {
+            raiseRank(getNode(subscriberEntry), minimumRank + 1, originNode, topic);
+          }
+        }
+      }
+    }
+  }
+
+  void removeSubscriberEntry(final SubscriberEntry subscriberEntry) {
+    final Node node = getNode(subscriberEntry);
+    removePendingNode(node);
+    nodes.remove(node);
+  }
+
+  private boolean removePendingNode(final Node node) {
+    return (node.pendingTopics != null) && pendingNodesByRank.get(node.rank).remove(node);
+  }
+
+  private void schedule(final Node node, final Topic<?> topic, final Set<Topic<?>> topics, final int cascadeDepth) {
+    final @Nullable Set<Topic<?>> pendingTopics = node.pendingTopics;
+    if (pendingTopics == null) {
+      node.cascadeDepth = cascadeDepth;
+      node.pendingTopics = topics;
+      offerPendingNode(node);
+    } else {
+      node.cascadeDepth = Math.max(node.cascadeDepth, cascadeDepth);
+      if (!pendingTopics.contains(topic)) {
+        final Set<Topic<?>> accumulatedTopics = (pendingTopics.size() == 1)
+            ? new LinkedHashSet<>(pendingTopics)
+            : pendingTopics;
+        accumulatedTopics.add(topic);
+        node.pendingTopics = accumulatedTopics;
+      }
+    }
+  }
+
+  // schedules a newly registered subscriber to be notified of the topics it
+  // matches and, if no wave is in progress, notifies it
+  void subscriberEntryAdded(final SubscriberEntry subscriberEntry, final Set<Topic<?>> topics) {
+    final Node node = new Node(subscriberEntry);
+    subscriberEntry.setPropagationNode(node);
+    nodes.add(node);
+    if (!topics.isEmpty()) {
+      final int cascadeDepth = getCascadeDepth();
+      for (final Topic<?> topic : topics) {
+        schedule(node, topic, ImmutableSet.of(topic), cascadeDepth);
+      }
+      if ((batchDepth == 0) && !propagating) {
+        propagate();
+      }
+    }
+  }
+
+  // schedules the subscribers of the specified topic to be notified and, if no
+  // wave is in progress, propagates the change
+  void topicChanged(final Topic<?> topic, final Set<Topic<?>> topics, final List<SubscriberEntry> subscriberEntries) {
+    final int cascadeDepth = getCascadeDepth();
+    for (int i = 0, size = subscriberEntries.size(); i < size; ++i) {
+      schedule(getNode(subscriberEntries.get(i)), topic, topics, cascadeDepth);
+    }
+    if ((batchDepth == 0) && !propagating) {
+      propagate();
+    }
+  }
+
+  static final class Node {
+    // the cascade depth of the change that caused this node to be scheduled
+    int cascadeDepth;
+    // null when this node is not scheduled to be notified
+    @Nullable Set<Topic<?>> pendingTopics;
+    // the topics published by the subscriber while being notified during the
+    // wave numbered publishedTopicsWave
+    final Set<Topic<?>> publishedTopics = new LinkedHashSet<>();
+    long publishedTopicsWave;
+    int rank;
+    final SubscriberEntry subscriberEntry;
+
+    Node(final SubscriberEntry subscriberEntry) {
+      this.subscriberEntry = subscriberEntry;
+    }
+  }
+}
@@ -0,0 +1,581 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ListMultimap;
+
+import io.github.ssoloff.psychictrain.api.codec.ValueCodec;
+import io.github.ssoloff.psychictrain.api.codec.ValueCodecRegistry;
+import io.github.ssoloff.psychictrain.api.codec.ValueCodecs;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+
+// An append-only journal of the values published to a broker, from which the
+// values of each topic may be recovered after a restart.
+//
+// Each record holds the values of all the publishers of a topic, so it
+// supersedes the earlier records of the topic; a topic whose publishers have
+// no values, such as one whose last publisher was unregistered, is recorded
+// with no values. A topic with several publishers thus has the values of all
+// of them journaled whenever one of them publishes or is unregistered.
+//
+// The journal is a sequence of fixed-size segment files that are memory-mapped
+// and filled in order; a new segment is started when a record does not fit in
+// the remainder of the current one. Each record is
+//
+//   int    length of the remainder of the record (0 marks the end of a segment)
+//   int    CRC-32C of the remainder of the record following this field
+//   short  length of the topic name, followed by the UTF-8 topic name
+//   short  length of the codec name, followed by the UTF-8 codec name
+//   int    number of values
+//   ...    each value as written by the codec
+//
+// The length of a record is written after the rest of the record, so a record
+// that was not completely written is never recovered, and a record whose
+// checksum does not match, such as one that was only partly forced to storage,
+// is skipped. The values of topics whose codec is the default codec of Double,
+// Integer or Long are written without being boxed.
+//
+// The journal keeps a copy of the latest record of each topic. When a segment
+// is started after at least as many bytes have been appended since the latest
+// checkpoint as the latest records hold, the latest records are copied to the
+// new segment as a checkpoint, which supersedes the preceding segments; the
+// cost of a checkpoint is thus amortized over the appends that preceded it.
+// Opening a journal likewise compacts its existing segments into a checkpoint.
+//
+// Appending a record only copies bytes into the mapped segment. The segments
+// are forced to storage, and the segments superseded by a checkpoint that has
+// been forced to storage are deleted, by a task run on the sync executor at
+// the sync interval and when the journal is closed. Values of topics whose
+// type has no codec are not journaled.
+@NotThreadSafe
+final class PublicationJournal implements Closeable {
+  private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+  private static final Duration DEFAULT_SYNC_INTERVAL = Duration.ofSeconds(1L);
+  private static final byte DOUBLE_VALUE_KIND = 1;
+  private static final byte INT_VALUE_KIND = 2;
+  private static final byte LONG_VALUE_KIND = 3;
+  // names are prefixed with an unsigned short length
+  private static final int MAX_NAME_LENGTH = 0xFFFF;
+  private static final byte OBJECT_VALUE_KIND = 4;
+  // the length and checksum that precede the remainder of a record
+  private static final int RECORD_PREFIX_SIZE = 2 * Integer.BYTES;
+  private static final String SEGMENT_FILE_NAME_FORMAT = "journal-%020d.seg";
+  private static final Pattern SEGMENT_FILE_NAME_PATTERN = Pattern.compile("journal-(\\d{20})\\.seg");
+
+  private static final Logger logger = Logger.getLogger(PublicationJournal.class.getName());
+
+  // the number of bytes appended since the latest checkpoint
+  private long appendedByteCount;
+  // the latest records of the topics recovered when the journal was opened that
+  // have not since been journaled, keyed by the bytes that identify their topic
+  private final Map<ByteBuffer, byte[]> carriedRecordsByKey;
+  // the sequence of the first segment of the latest checkpoint
+  private volatile long checkpointSegmentSequence;
+  private final ValueCodecRegistry codecRegistry;
+  // the segments completed since the journal was last synced
+  private final Queue<Segment> completedSegments = new ConcurrentLinkedQueue<>();
+  private final CRC32C crc = new CRC32C();
+  private final Path directory;
+  // the sequence of the first segment that may not have been deleted
+  @GuardedBy("this")
+  private long firstSegmentSequence;
+  // the total length of the latest records of the topics
+  private long latestRecordsLength;
+  private volatile Segment segment;
+  private final int segmentSize;
+  // null until the journal is opened
+  private @Nullable ScheduledFuture<?> syncFuture;
+  private final TopicTable<TopicHeader> topicHeadersByTopic = new TopicTable<>();
+
+  private PublicationJournal(
+      final Path directory,
+      final ValueCodecRegistry codecRegistry,
+      final int segmentSize,
+      final List<Path> segmentFiles) throws IOException {
+    final long nextSegmentSequence = segmentFiles.isEmpty()
+        ? 0L
+        : (getSegmentSequence(segmentFiles.get(segmentFiles.size() - 1)) + 1L);
+
+    this.carriedRecordsByKey = recoverLatestRecords(segmentFiles);
+    this.checkpointSegmentSequence = nextSegmentSequence;
+    this.codecRegistry = codecRegistry;
+    this.directory = directory;
+    this.firstSegmentSequence = segmentFiles.isEmpty() ? nextSegmentSequence : getSegmentSequence(segmentFiles.get(0));
+    this.latestRecordsLength = carriedRecordsByKey.values().stream().mapToLong(record -> record.length).sum();
+    this.segmentSize = segmentSize;
+    this.segment = openSegment(nextSegmentSequence);
+  }
+
+  // appends to the journal in the specified directory after compacting any
+  // existing segments; the journal is synced on the specified executor
+  static PublicationJournal open(
+      final Path directory,
+      final ValueCodecRegistry codecRegistry,
+      final ScheduledExecutorService syncExecutor) throws IOException {
+    return open(directory, codecRegistry, DEFAULT_SEGMENT_SIZE, DEFAULT_SYNC_INTERVAL, syncExecutor);
+  }
+
+  static PublicationJournal open(
+      final Path directory,
+      final ValueCodecRegistry codecRegistry,
+      final int segmentSize,
+      final Duration syncInterval,
+      final ScheduledExecutorService syncExecutor) throws IOException {
+    checkArgument(segmentSize > RECORD_PREFIX_SIZE, "segment size must be greater than %s", RECORD_PREFIX_SIZE);
+    checkArgument(!syncInterval.isNegative() && !syncInterval.isZero(), "sync interval must be positive");
+
+    Files.createDirectories(directory);
+    final PublicationJournal journal = new PublicationJournal(
+        directory,
+        codecRegistry,
+        segmentSize,
+        getSegmentFiles(directory));
+    journal.writeCheckpoint();
+    journal.sync();
+    journal.syncFuture = syncExecutor.scheduleWithFixedDelay(
+        journal::syncQuietly,
+        syncInterval.toNanos(),
+        syncInterval.toNanos(),
+        TimeUnit.NANOSECONDS);
+    return journal;
+  }
+
+  // appends the bytes of a record that has already been checksummed
+  private void appendRecordBytes(final byte[] record, final int length) {
+    checkArgument(length <= segmentSize, "record is larger than a journal segment");
+
+    if (segment.buffer.remaining() < length) {
+      startNextSegment();
+    }
+    segment.buffer.put(record, 0, length);
+  }
+
+  // records the values of the publishers of the topic, which replace the values
+  // previously journaled for it; the values of derived topics are not journaled
+  void appendValues(final Topic<?> topic, final List<PublisherEntry> publisherEntries) {
+    final TopicHeader topicHeader = getTopicHeader(topic);
+    if (topicHeader.codec == null) {
+      return;
+    }
+
+    if (!tryAppendRecord(topicHeader, publisherEntries)) {
+      startNextSegment();
+      if (appendedByteCount >= latestRecordsLength) {
+        writeCheckpoint();
+      }
+      if (!tryAppendRecord(topicHeader, publisherEntries)) {
+        startNextSegment();
+        checkArgument(
+            tryAppendRecord(topicHeader, publisherEntries),
+            "values of topic '%s' are larger than a journal segment",
+            topic.getName());
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    final @Nullable ScheduledFuture<?> syncFuture = this.syncFuture;
+    if (syncFuture != null) {
+      syncFuture.cancel(false);
+    }
+    try {
+      sync();
+    } catch (final UncheckedIOException e) {
+      throw e.getCause();
+    }
+    segment.channel.close();
+  }
+
+  @GuardedBy("this")
+  private void deleteSegmentsBefore(final long segmentSequence) {
+    for (; firstSegmentSequence < segmentSequence; ++firstSegmentSequence) {
+      try {
+        Files.deleteIfExists(getSegmentFile(directory, firstSegmentSequence));
+      } catch (final IOException e) {
+        logger.log(Level.WARNING, "failed to delete journal segment " + firstSegmentSequence, e);
+      }
+    }
+  }
+
+  // passes each record of the segment file whose checksum matches to the
+  // action, positioned after the checksum; the record may be rewound to obtain
+  // all of its bytes
+  private static void forEachRecord(final Path segmentFile, final Consumer<ByteBuffer> action) throws IOException {
+    try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.READ)) {
+      final ByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+      final CRC32C crc = new CRC32C();
+      while (segment.remaining() >= Integer.BYTES) {
+        final int recordLength = Integer.BYTES + segment.getInt(segment.position());
+        if ((recordLength < RECORD_PREFIX_SIZE) || (recordLength > segment.remaining())) {
+          return;
+        }
+
+        final ByteBuffer record = segment.slice().limit(recordLength);
+        segment.position(segment.position() + recordLength);
+        crc.reset();
+        crc.update(record.duplicate().position(RECORD_PREFIX_SIZE));
+        if ((int) crc.getValue() != record.getInt(Integer.BYTES)) {
+          logger.warning("skipping journal record whose checksum does not match in " + segmentFile);
+          continue;
+        }
+        try {
+          action.accept(record.position(RECORD_PREFIX_SIZE));
+        } catch (final BufferUnderflowException | IllegalArgumentException e) {
+          logger.warning("skipping corrupt journal record (" + e + ")");
+        }
+      }
+    }
+  }
+
+  private static Path getSegmentFile(final Path directory, final long segmentSequence) {
+    return directory.resolve(String.format(SEGMENT_FILE_NAME_FORMAT, segmentSequence));
+  }
+
+  private static List<Path> getSegmentFiles(final Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files
+          .filter(file -> SEGMENT_FILE_NAME_PATTERN.matcher(file.getFileName().toString()).matches())
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static long getSegmentSequence(final Path segmentFile) {
+    final Matcher matcher = SEGMENT_FILE_NAME_PATTERN.matcher(segmentFile.getFileName().toString());
+    if (!matcher.matches()) {
+      throw new AssertionError("not a segment file: " + segmentFile);
+    }
+    return Long.parseLong(matcher.group(1));
+  }
+
+  private TopicHeader getTopicHeader(final Topic<?> topic) {
+    // looked up before computing so that the method reference is not allocated
+    // for each record
+    final @Nullable TopicHeader topicHeader = topicHeadersByTopic.get(topic);
+    return (topicHeader != null) ? topicHeader : topicHeadersByTopic.computeIfAbsent(topic, this::newTopicHeader);
+  }
+
+  private TopicHeader newTopicHeader(final Topic<?> topic) {
+    final Optional<? extends ValueCodec<?>> codec = codecRegistry.getCodec(topic.getTypeToken());
+    if (!codec.isPresent()) {
+      logger.warning("values of topic '" + topic.getName() + "' will not be journaled (no codec for "
+          + topic.getTypeToken() + ")");
+    }
+    final TopicHeader topicHeader = new TopicHeader(topic, codec.orElse(null));
+    // the topic takes over its record carried from before the journal was
+    // opened, so that the record is not lost from a checkpoint
+    final byte @Nullable [] carriedRecord = carriedRecordsByKey.remove(ByteBuffer.wrap(topicHeader.bytes));
+    if (carriedRecord != null) {
+      topicHeader.latestRecord = carriedRecord;
+      topicHeader.latestRecordLength = carriedRecord.length;
+    }
+    return topicHeader;
+  }
+
+  private Segment openSegment(final long segmentSequence) {
+    try {
+      final FileChannel channel = FileChannel.open(
+          getSegmentFile(directory, segmentSequence),
+          StandardOpenOption.CREATE_NEW,
+          StandardOpenOption.READ,
+          StandardOpenOption.WRITE);
+      return new Segment(channel, channel.map(FileChannel.MapMode.READ_WRITE, 0L, segmentSize), segmentSequence);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void putValue(
+      final TopicHeader topicHeader,
+      final PublisherEntry publisherEntry,
+      final ByteBuffer buffer) {
+    switch (topicHeader.valueKind) {
+      case DOUBLE_VALUE_KIND:
+        buffer.putDouble(publisherEntry.getDoubleValue());
+        break;
+
+      case INT_VALUE_KIND:
+        buffer.putInt(publisherEntry.getIntValue());
+        break;
+
+      case LONG_VALUE_KIND:
+        buffer.putLong(publisherEntry.getLongValue());
+        break;
+
+      default:
+        final @Nullable ValueCodec<Object> codec = topicHeader.codec;
+        assert codec != null;
+        codec.encode(publisherEntry.getValue(), buffer);
+        break;
+    }
+  }
+
+  private static String readString(final ByteBuffer buffer) {
+    final byte[] bytes = new byte[buffer.getShort() & MAX_NAME_LENGTH];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  // returns the bytes that identify the topic and codec of the record
+  private static ByteBuffer readTopicKey(final ByteBuffer record) {
+    final int position = record.position();
+    readString(record);
+    readString(record);
+    final byte[] key = new byte[record.position() - position];
+    record.position(position);
+    record.get(key);
+    return ByteBuffer.wrap(key);
+  }
+
+  // returns the values of each topic in the journal in the specified directory,
+  // in the order in which the topics were first journaled; records whose codec
+  // is not registered are skipped
+  static ListMultimap<Topic<?>, Object> recover(final Path directory, final ValueCodecRegistry codecRegistry)
+      throws IOException {
+    final Map<Topic<?>, List<Object>> valuesByTopic = new LinkedHashMap<>();
+    if (Files.isDirectory(directory)) {
+      for (final Path segmentFile : getSegmentFiles(directory)) {
+        forEachRecord(segmentFile, record -> recoverRecord(record, codecRegistry, valuesByTopic));
+      }
+    }
+    final ImmutableListMultimap.Builder<Topic<?>, Object> valuesByTopicBuilder = ImmutableListMultimap.builder();
+    valuesByTopic.forEach(valuesByTopicBuilder::putAll);
+    return valuesByTopicBuilder.build();
+  }
+
+  // returns the latest record of each topic with values, keyed by the bytes
+  // that identify its topic
+  private static Map<ByteBuffer, byte[]> recoverLatestRecords(final List<Path> segmentFiles) throws IOException {
+    final Map<ByteBuffer, byte[]> latestRecordsByKey = new LinkedHashMap<>();
+    for (final Path segmentFile : segmentFiles) {
+      forEachRecord(segmentFile, record -> {
+        final ByteBuffer key = readTopicKey(record);
+        if (record.getInt() == 0) {
+          latestRecordsByKey.remove(key);
+        } else {
+          final byte[] bytes = new byte[record.limit()];
+          record.rewind().get(bytes);
+          latestRecordsByKey.put(key, bytes);
+        }
+      });
+    }
+    return latestRecordsByKey;
+  }
+
+  private static void recoverRecord(
+      final ByteBuffer record,
+      final ValueCodecRegistry codecRegistry,
+      final Map<Topic<?>, List<Object>> valuesByTopic) {
+    final String topicName = readString(record);
+    final String codecName = readString(record);
+    codecRegistry.getCodec(codecName).ifPresentOrElse(
+        codec -> {
+          final Topic<?> topic = Topic.of(topicName, codec.getTypeToken());
+          final int valueCount = record.getInt();
+          checkArgument(valueCount >= 0, "negative value count");
+          if (valueCount == 0) {
+            valuesByTopic.remove(topic);
+          } else {
+            final List<Object> values = new ArrayList<>();
+            for (int i = 0; i < valueCount; ++i) {
+              values.add(codec.decode(record));
+            }
+            valuesByTopic.put(topic, values);
+          }
+        },
+        () -> logger.warning("skipping journal record for topic '" + topicName + "' (no codec named '"
+            + codecName + "')"));
+  }
+
+  private void startNextSegment() {
+    final Segment segment = this.segment;
+    completedSegments.add(segment);
+    this.segment = openSegment(segment.sequence + 1L);
+  }
+
+  // forces the journal to storage and deletes the segments that precede the
+  // latest checkpoint
+  synchronized void sync() {
+    // the checkpoint was written to the current segment and to segments that
+    // were completed before it
+    final long checkpointSegmentSequence = this.checkpointSegmentSequence;
+    final Segment segment = this.segment;
+    segment.buffer.force();
+    for (@Nullable Segment completedSegment = completedSegments.poll();
+        completedSegment != null;
+        completedSegment = completedSegments.poll()) {
+      completedSegment.buffer.force();
+      try {
+        completedSegment.channel.close();
+      } catch (final IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    deleteSegmentsBefore(checkpointSegmentSequence);
+  }
+
+  // an exception thrown by a periodic task would cancel its later runs
+  private void syncQuietly() {
+    try {
+      sync();
+    } catch (final RuntimeException e) {
+      logger.log(Level.WARNING, "failed to sync journal", e);
+    }
+  }
+
+  private boolean tryAppendRecord(final TopicHeader topicHeader, final List<PublisherEntry> publisherEntries) {
+    final MappedByteBuffer buffer = segment.buffer;
+    final int recordPosition = buffer.position();
+    if (buffer.remaining() < RECORD_PREFIX_SIZE + topicHeader.bytes.length + Integer.BYTES) {
+      return false;
+    }
+
+    buffer.position(recordPosition + RECORD_PREFIX_SIZE);
+    buffer.put(topicHeader.bytes);
+    final int valueCountPosition = buffer.position();
+    buffer.position(valueCountPosition + Integer.BYTES);
+    int valueCount = 0;
+    try {
+      for (int i = 0, size = publisherEntries.size(); i < size; ++i) {
+        final PublisherEntry publisherEntry = publisherEntries.get(i);
+        if (!publisherEntry.isDerived() && publisherEntry.hasValue()) {
+          putValue(topicHeader, publisherEntry, buffer);
+          ++valueCount;
+        }
+      }
+    } catch (final BufferOverflowException e) {
+      buffer.position(recordPosition);
+      return false;
+    }
+    buffer.putInt(valueCountPosition, valueCount);
+
+    final int recordEnd = buffer.position();
+    crc.reset();
+    crc.update(buffer.position(recordPosition + RECORD_PREFIX_SIZE).limit(recordEnd));
+    buffer.limit(buffer.capacity());
+    buffer.putInt(recordPosition + Integer.BYTES, (int) crc.getValue());
+    buffer.putInt(recordPosition, recordEnd - recordPosition - Integer.BYTES);
+
+    // the copy of the latest record only allocates when the record outgrows it
+    final int recordLength = recordEnd - recordPosition;
+    latestRecordsLength -= topicHeader.latestRecordLength;
+    if (valueCount == 0) {
+      topicHeader.latestRecordLength = 0;
+    } else {
+      if (topicHeader.latestRecord.length < recordLength) {
+        topicHeader.latestRecord = new byte[recordLength];
+      }
+      buffer.position(recordPosition);
+      buffer.get(topicHeader.latestRecord, 0, recordLength);
+      topicHeader.latestRecordLength = recordLength;
+      latestRecordsLength += recordLength;
+    }
+    appendedByteCount += recordLength;
+    return true;
+  }
+
+  // copies the latest record of each topic to the journal, after which the
+  // preceding segments are no longer needed
+  private void writeCheckpoint() {
+    final long checkpointSegmentSequence = segment.sequence;
+    for (final byte[] record : carriedRecordsByKey.values()) {
+      appendRecordBytes(record, record.length);
+    }
+    for (final TopicHeader topicHeader : topicHeadersByTopic.values()) {
+      if (topicHeader.latestRecordLength > 0) {
+        appendRecordBytes(topicHeader.latestRecord, topicHeader.latestRecordLength);
+      }
+    }
+    appendedByteCount = 0L;
+    this.checkpointSegmentSequence = checkpointSegmentSequence;
+  }
+
+  private static final class Segment {
+    final MappedByteBuffer buffer;
+    final FileChannel channel;
+    final long sequence;
+
+    Segment(final FileChannel channel, final MappedByteBuffer buffer, final long sequence) {
+      this.buffer = buffer;
+      this.channel = channel;
+      this.sequence = sequence;
+    }
+  }
+
+  private static final class TopicHeader {
+    // the record bytes that identify the topic and its codec
+    final byte[] bytes;
+    // null if values of the topic are not journaled
+    final @Nullable ValueCodec<Object> codec;
+    // the latest record of the topic occupies the first latestRecordLength
+    // bytes; the length is 0 if the topic has no values
+    byte[] latestRecord = new byte[0];
+    int latestRecordLength;
+    final byte valueKind;
+
+    @SuppressWarnings("unchecked")
+    TopicHeader(final Topic<?> topic, final @Nullable ValueCodec<?> codec) {
+      final byte[] topicName = topic.getName().getBytes(StandardCharsets.UTF_8);
+      final byte[] codecName = ((codec != null) ? codec.getName() : "").getBytes(StandardCharsets.UTF_8);
+      checkArgument(topicName.length <= MAX_NAME_LENGTH, "name of topic '%s' is too long", topic.getName());
+      checkArgument(codecName.length <= MAX_NAME_LENGTH, "name of codec for topic '%s' is too long", topic.getName());
+      this.bytes = ByteBuffer.allocate(2 * Short.BYTES + topicName.length + codecName.length)
+          .putShort((short) topicName.length)
+          .put(topicName)
+          .putShort((short) codecName.length)
+          .put(codecName)
+          .array();
+      this.codec = (ValueCodec<Object>) codec;
+      // the default codecs of the primitive wrapper types are known to write
+      // the primitive value
+      if (codec == ValueCodecs.doubleCodec()) {
+        this.valueKind = DOUBLE_VALUE_KIND;
+      } else if (codec == ValueCodecs.intCodec()) {
+        this.valueKind = INT_VALUE_KIND;
+      } else if (codec == ValueCodecs.longCodec()) {
+        this.valueKind = LONG_VALUE_KIND;
+      } else {
+        this.valueKind = OBJECT_VALUE_KIND;
+      }
+    }
+  }
+}
@@ -0,0 +1,243 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+import io.github.ssoloff.psychictrain.api.engine.Broker;
+import io.github.ssoloff.psychictrain.api.engine.Publisher;
+import io.github.ssoloff.psychictrain.api.engine.PublisherContext;
+import io.github.ssoloff.psychictrain.api.engine.PublisherFactory;
+import io.github.ssoloff.psychictrain.api.engine.PublisherToken;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+
+// A preallocated ring buffer through which any number of threads publish to a
+// broker that is owned by a single thread, such as a DefaultBroker.
+//
+// A publisher registered through the ring buffer publishes by claiming the
+// next sequence with a compare-and-set, writing the publication to the slot of
+// the sequence and marking the slot available with release semantics, so
+// producers never take a lock. The owning thread calls drain(), which publishes
+// every available publication, in sequence order, through the mirror publisher
+// of its publisher in a single batch of the broker.
+//
+// Slots are parallel arrays indexed by sequence & (capacity - 1). A slot is
+// available when its entry in availableLaps holds the lap of the sequence
+// written to it (sequence >>> log2(capacity)), so a slot written in a previous
+// lap is never mistaken for the current one. A producer that finds the ring
+// full spins, then yields, until the owning thread drains it; publishers must
+// therefore not be used on the owning thread while the ring may be full.
+@ThreadSafe
+final class PublicationRingBuffer {
+  private static final byte DOUBLE_VALUE_KIND = 1;
+  private static final byte INT_VALUE_KIND = 2;
+  private static final byte LONG_VALUE_KIND = 3;
+  private static final byte OBJECT_VALUE_KIND = 4;
+
+  // a producer spins this many times while the ring is full before yielding
+  private static final int SPIN_COUNT = 1_000;
+
+  private static final VarHandle AVAILABLE_LAPS = MethodHandles.arrayElementVarHandle(int[].class);
+  private static final VarHandle CONSUMED_SEQUENCE;
+
+  static {
+    try {
+      CONSUMED_SEQUENCE = MethodHandles.lookup()
+          .findVarHandle(PublicationRingBuffer.class, "consumedSequence", long.class);
+    } catch (final ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private final int[] availableLaps;
+  private final Broker broker;
+  private final AtomicLong claimedSequence = new AtomicLong();
+  // the number of publications drained; written only by the owning thread
+  @SuppressWarnings("unused")
+  private long consumedSequence;
+  // retained so that draining does not allocate
+  private final Runnable drainAction = this::drainAvailablePublications;
+  // the number of publications published by the latest drain
+  private int drainedCount;
+  private final int indexMask;
+  private final int indexShift;
+  private final long[] primitiveValues;
+  private final @Nullable PublisherContext[] targets;
+  private final byte[] valueKinds;
+  private final @Nullable Object[] values;
+
+  // the capacity must be a power of two
+  PublicationRingBuffer(final Broker broker, final int capacity) {
+    checkArgument((capacity > 0) && (Integer.bitCount(capacity) == 1), "capacity must be a power of two");
+
+    this.availableLaps = new int[capacity];
+    Arrays.fill(availableLaps, -1);
+    this.broker = broker;
+    this.indexMask = capacity - 1;
+    this.indexShift = Integer.numberOfTrailingZeros(capacity);
+    this.primitiveValues = new long[capacity];
+    this.targets = new PublisherContext[capacity];
+    this.valueKinds = new byte[capacity];
+    this.values = new Object[capacity];
+  }
+
+  // waits until the ring has room for the publication and returns its sequence
+  private long claim() {
+    int spinCount = 0;
+    while (true) {
+      final long sequence = claimedSequence.get();
+      if ((sequence - (long) CONSUMED_SEQUENCE.getAcquire(this)) >= availableLaps.length) {
+        if (spinCount < SPIN_COUNT) {
+          ++spinCount;
+          Thread.onSpinWait();
+        } else {
+          Thread.yield();
+        }
+      } else if (claimedSequence.compareAndSet(sequence, sequence + 1L)) {
+        return sequence;
+      }
+    }
+  }
+
+  // must be called on the thread that owns the broker; publishes the
+  // publications made since the previous drain in a single batch and returns
+  // the number of publications published
+  int drain() {
+    if (!isAvailable((long) CONSUMED_SEQUENCE.getAcquire(this))) {
+      return 0;
+    }
+
+    broker.runInBatch(drainAction);
+    return drainedCount;
+  }
+
+  // a publication made while draining is drained by the next drain, so a
+  // subscriber that publishes through the ring cannot starve the owning thread
+  private void drainAvailablePublications() {
+    final long firstSequence = (long) CONSUMED_SEQUENCE.getAcquire(this);
+    final long lastSequence = firstSequence + availableLaps.length;
+    long sequence = firstSequence;
+    try {
+      while ((sequence < lastSequence) && isAvailable(sequence)) {
+        final int index = (int) sequence & indexMask;
+        final @Nullable PublisherContext target = targets[index];
+        assert target != null;
+        final @Nullable Object value = values[index];
+        targets[index] = null;
+        values[index] = null;
+        ++sequence;
+        switch (valueKinds[index]) {
+          case DOUBLE_VALUE_KIND:
+            target.publishDouble(Double.longBitsToDouble(primitiveValues[index]));
+            break;
+
+          case INT_VALUE_KIND:
+            target.publishInt((int) primitiveValues[index]);
+            break;
+
+          case LONG_VALUE_KIND:
+            target.publishLong(primitiveValues[index]);
+            break;
+
+          default:
+            assert value != null;
+            target.publish(value);
+            break;
+        }
+      }
+    } finally {
+      drainedCount = (int) (sequence - firstSequence);
+      CONSUMED_SEQUENCE.setRelease(this, sequence);
+    }
+  }
+
+  private boolean isAvailable(final long sequence) {
+    return (int) AVAILABLE_LAPS.getAcquire(availableLaps, (int) sequence & indexMask) == (int) (sequence >>> indexShift);
+  }
+
+  private void makeAvailable(final long sequence) {
+    AVAILABLE_LAPS.setRelease(availableLaps, (int) sequence & indexMask, (int) (sequence >>> indexShift));
+  }
+
+  private void offer(final PublisherContext target, final byte valueKind, final long primitiveValue) {
+    final long sequence = claim();
+    final int index = (int) sequence & indexMask;
+    primitiveValues[index] = primitiveValue;
+    targets[index] = target;
+    valueKinds[index] = valueKind;
+    makeAvailable(sequence);
+  }
+
+  private void offer(final PublisherContext target, final Object value) {
+    final long sequence = claim();
+    final int index = (int) sequence & indexMask;
+    targets[index] = target;
+    values[index] = value;
+    valueKinds[index] = OBJECT_VALUE_KIND;
+    makeAvailable(sequence);
+  }
+
+  // must be called on the thread that owns the broker, as must unregistering
+  // the publisher, but the publisher may publish from any thread
+  <@NonNull P extends Publisher> PublisherToken<P> registerPublisher(
+      final Topic<?> topic,
+      final PublisherFactory<P> publisherFactory) {
+    final PublisherToken<MirrorPublisher> mirrorToken = broker.registerPublisher(topic, MirrorPublisher::new);
+    final P publisher = publisherFactory.newPublisher(new RingPublisherContext(mirrorToken.getPublisher().context));
+    return new PublisherToken<P>() {
+      @Override
+      public P getPublisher() {
+        return publisher;
+      }
+
+      @Override
+      public void unregister() {
+        mirrorToken.unregister();
+      }
+    };
+  }
+
+  private static final class MirrorPublisher implements Publisher {
+    final PublisherContext context;
+
+    MirrorPublisher(final PublisherContext context) {
+      this.context = context;
+    }
+  }
+
+  private final class RingPublisherContext implements PublisherContext {
+    private final PublisherContext target;
+
+    RingPublisherContext(final PublisherContext target) {
+      this.target = target;
+    }
+
+    @Override
+    public void publish(final Object value) {
+      offer(target, value);
+    }
+
+    @Override
+    public void publishDouble(final double value) {
+      offer(target, DOUBLE_VALUE_KIND, Double.doubleToRawLongBits(value));
+    }
+
+    @Override
+    public void publishInt(final int value) {
+      offer(target, INT_VALUE_KIND, value);
+    }
+
+    @Override
+    public void publishLong(final long value) {
+      offer(target, LONG_VALUE_KIND, value);
+    }
+  }
+}
@@ -1,41 +1,271 @@
 package io.github.ssoloff.psychictrain.internal.engine;
 
+import javax.annotation.concurrent.GuardedBy;
+
 import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
 
 import io.github.ssoloff.psychictrain.api.engine.Topic;
 
 final class PublisherEntry {
+  // value sentinels indicating the current value is held in primitiveValue
+  private static final Object DOUBLE_VALUE = new Object();
+  private static final Object INT_VALUE = new Object();
+  private static final Object LONG_VALUE = new Object();
   private static final Object NO_VALUE = new Object();
+  // value sentinel indicating the value of a derived topic must be computed
+  private static final Object STALE_VALUE = new Object();
 
+  // when buffered, published values are held in the back buffer until they are
+  // committed; the back buffer is confined to the thread of the broker
+  private final boolean buffered;
+  private long bufferedPrimitiveValue;
+  private Object bufferedValue = NO_VALUE;
+  // null unless the entry holds the value of a derived topic
+  private final @Nullable DerivedTopicInputs<?> derivedTopicInputs;
+  // incremented each time the value of a derived topic is made stale, so that
+  // a value computed from inputs that have since changed is not memoized
+  @GuardedBy("this")
+  private int invalidationCount;
+  // the bits of the latest primitive value; only meaningful while value is the
+  // matching sentinel (see valueVersion)
+  private volatile long primitiveValue;
+  private volatile boolean registered = true;
   private final Topic<?> topic;
-  private Object value = NO_VALUE;
+  // resolved once so that type checking a published value does no reflective work
+  private final Class<?> type;
+  private volatile Object value;
+  // a seqlock over value and primitiveValue: odd while a write of the pair is in
+  // progress, and incremented before and after each write, which is made while
+  // holding the monitor of this entry. a reader that observes the same even
+  // version before and after reading both fields has read the pair of a single
+  // publication, rather than a sentinel of one and the bits of another
+  private volatile int valueVersion;
 
   PublisherEntry(final Topic<?> topic) {
+    this(topic, false);
+  }
+
+  PublisherEntry(final Topic<?> topic, final boolean buffered) {
+    this(topic, buffered, null);
+  }
+
+  private PublisherEntry(
+      final Topic<?> topic,
+      final boolean buffered,
+      final @Nullable DerivedTopicInputs<?> derivedTopicInputs) {
+    this.buffered = buffered;
+    this.derivedTopicInputs = derivedTopicInputs;
     this.topic = topic;
+    this.type = topic.getTypeToken().getRawType();
+    this.value = (derivedTopicInputs != null) ? STALE_VALUE : NO_VALUE;
+  }
+
+  // the value of a derived topic is stale until first read; it is never
+  // buffered, as it is invalidated only once the values of its inputs have been
+  // committed
+  PublisherEntry(final Topic<?> topic, final DerivedTopicInputs<?> derivedTopicInputs) {
+    this(topic, false, derivedTopicInputs);
+  }
+
+  private void checkPrimitiveType(final Class<?> primitiveWrapperType) {
+    if (!type.isAssignableFrom(primitiveWrapperType)) {
+      throw new ClassCastException("Cannot cast " + primitiveWrapperType.getName() + " to " + type.getName());
+    }
+  }
+
+  // makes the value in the back buffer, if any, the current value; returns
+  // true if a value was committed
+  boolean commitBufferedValue() {
+    final Object bufferedValue = this.bufferedValue;
+    if (bufferedValue == NO_VALUE) {
+      return false;
+    }
+
+    setCurrentValue(bufferedValue, bufferedPrimitiveValue);
+    this.bufferedValue = NO_VALUE;
+    return true;
+  }
+
+  // the value is computed outside the lock, so concurrent readers may each
+  // compute it; the function of a derived topic is pure, so they compute the
+  // same value
+  private Object computeDerivedValue() {
+    final @Nullable DerivedTopicInputs<?> derivedTopicInputs = this.derivedTopicInputs;
+    assert derivedTopicInputs != null;
+
+    final int invalidationCount;
+    synchronized (this) {
+      invalidationCount = this.invalidationCount;
+    }
+    final @Nullable Object computedValue = derivedTopicInputs.computeValue();
+    final Object value = (computedValue != null) ? type.cast(computedValue) : NO_VALUE;
+    synchronized (this) {
+      if (invalidationCount == this.invalidationCount) {
+        setCurrentValue(value, 0L);
+      }
+    }
+    return value;
+  }
+
+  // computes the value of a derived topic if it is stale
+  private Object getCurrentValue() {
+    final Object value = this.value;
+    return (value == STALE_VALUE) ? computeDerivedValue() : value;
+  }
+
+  double getDoubleValue() {
+    while (true) {
+      final int valueVersion = this.valueVersion;
+      final Object value = getCurrentValue();
+      final long primitiveValue = this.primitiveValue;
+      if (isUnchangedSince(valueVersion)) {
+        assert value != NO_VALUE;
+
+        return (value == DOUBLE_VALUE) ? Double.longBitsToDouble(primitiveValue) : ((Double) value).doubleValue();
+      }
+    }
+  }
+
+  int getIntValue() {
+    while (true) {
+      final int valueVersion = this.valueVersion;
+      final Object value = getCurrentValue();
+      final long primitiveValue = this.primitiveValue;
+      if (isUnchangedSince(valueVersion)) {
+        assert value != NO_VALUE;
+
+        return (value == INT_VALUE) ? (int) primitiveValue : ((Integer) value).intValue();
+      }
+    }
+  }
+
+  long getLongValue() {
+    while (true) {
+      final int valueVersion = this.valueVersion;
+      final Object value = getCurrentValue();
+      final long primitiveValue = this.primitiveValue;
+      if (isUnchangedSince(valueVersion)) {
+        assert value != NO_VALUE;
+
+        return (value == LONG_VALUE) ? primitiveValue : ((Long) value).longValue();
+      }
+    }
   }
 
   Topic<?> getTopic() {
     return topic;
   }
 
+  // primitive values are boxed on demand
   <@NonNull T> T getValue() {
+    int valueVersion;
+    Object value;
+    long primitiveValue;
+    do {
+      valueVersion = this.valueVersion;
+      value = getCurrentValue();
+      primitiveValue = this.primitiveValue;
+    } while (!isUnchangedSince(valueVersion));
     assert value != NO_VALUE;
 
+    final Object boxedValue;
+    if (value == DOUBLE_VALUE) {
+      boxedValue = Double.longBitsToDouble(primitiveValue);
+    } else if (value == INT_VALUE) {
+      boxedValue = (int) primitiveValue;
+    } else if (value == LONG_VALUE) {
+      boxedValue = primitiveValue;
+    } else {
+      boxedValue = value;
+    }
+
     @SuppressWarnings("unchecked")
-    final T typedValue = (T) value;
+    final T typedValue = (T) boxedValue;
     return typedValue;
   }
 
+  boolean hasBufferedValue() {
+    return bufferedValue != NO_VALUE;
+  }
+
   boolean hasValue() {
-    return value != NO_VALUE;
+    return getCurrentValue() != NO_VALUE;
+  }
+
+  // marks the value of a derived topic stale, so that it is computed when next
+  // read
+  synchronized void invalidateValue() {
+    assert derivedTopicInputs != null;
+
+    ++invalidationCount;
+    setCurrentValue(STALE_VALUE, 0L);
+  }
+
+  boolean isDerived() {
+    return derivedTopicInputs != null;
+  }
+
+  // returns true if no write of the current value began since the specified
+  // version was read, and none was then in progress
+  private boolean isUnchangedSince(final int valueVersion) {
+    if (((valueVersion & 1) == 0) && (valueVersion == this.valueVersion)) {
+      return true;
+    }
+
+    Thread.onSpinWait();
+    return false;
+  }
+
+  boolean isRegistered() {
+    return registered;
   }
 
   boolean matches(final Topic<?> otherTopic) {
     return this.topic.equals(otherTopic);
   }
 
-  void setValue(final Object value) {
-    topic.getTypeToken().getRawType().cast(value);
+  private synchronized void setCurrentValue(final Object value, final long primitiveValue) {
+    ++valueVersion;
+    this.primitiveValue = primitiveValue;
     this.value = value;
+    ++valueVersion;
+  }
+
+  void setDoubleValue(final double value) {
+    checkPrimitiveType(Double.class);
+    setPrimitiveValue(Double.doubleToRawLongBits(value), DOUBLE_VALUE);
+  }
+
+  void setIntValue(final int value) {
+    checkPrimitiveType(Integer.class);
+    setPrimitiveValue(value, INT_VALUE);
+  }
+
+  void setLongValue(final long value) {
+    checkPrimitiveType(Long.class);
+    setPrimitiveValue(value, LONG_VALUE);
+  }
+
+  private void setPrimitiveValue(final long primitiveValue, final Object sentinel) {
+    if (buffered) {
+      bufferedPrimitiveValue = primitiveValue;
+      bufferedValue = sentinel;
+    } else {
+      setCurrentValue(sentinel, primitiveValue);
+    }
+  }
+
+  void setValue(final Object value) {
+    type.cast(value);
+    if (buffered) {
+      bufferedValue = value;
+    } else {
+      setCurrentValue(value, 0L);
+    }
+  }
+
+  void unregister() {
+    registered = false;
   }
 }
@@ -0,0 +1,500 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.common.base.Ticker;
+
+import io.github.ssoloff.psychictrain.api.codec.ValueCodec;
+import io.github.ssoloff.psychictrain.api.codec.ValueCodecRegistry;
+import io.github.ssoloff.psychictrain.api.engine.Broker;
+import io.github.ssoloff.psychictrain.api.engine.DerivedTopicFunction;
+import io.github.ssoloff.psychictrain.api.engine.DerivedTopicToken;
+import io.github.ssoloff.psychictrain.api.engine.Publisher;
+import io.github.ssoloff.psychictrain.api.engine.PublisherContext;
+import io.github.ssoloff.psychictrain.api.engine.PublisherFactory;
+import io.github.ssoloff.psychictrain.api.engine.PublisherOptions;
+import io.github.ssoloff.psychictrain.api.engine.PublisherToken;
+import io.github.ssoloff.psychictrain.api.engine.Subscriber;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberFactory;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberOptions;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberToken;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+
+// A broker that records the registrations, unregistrations and publications
+// made through it to a file, with nanosecond timestamps, and forwards them to
+// another broker. BrokerReplayer replays the recording against any broker.
+//
+// A recording is
+//
+//   int      magic number
+//   short    format version
+//   ...      events
+//
+// where each event is
+//
+//   byte     event type
+//   varlong  nanoseconds elapsed since the previous event (or since recording
+//            started)
+//   ...      the fields of the event type
+//
+// and varint/varlong are unsigned LEB128. Publishers, subscribers and topics
+// are identified by dense ids assigned by the recording. A topic is defined
+// the first time a publisher is registered for it, together with the codec of
+// its values. Topic matchers cannot be written, so a MATCH event is written
+// instead for each pair of subscriber and defined topic that match, before the
+// registration of whichever of the two came later.
+//
+// Publishers of topics whose type has no codec are not recorded, nor are their
+// publications. Subscriber options and batches are not recorded, so replayed
+// subscribers are notified of each publication individually.
+//
+// An event is recorded under the lock of the recording and forwarded to the
+// other broker after the lock is released, as a subscriber notified by the
+// other broker may publish through this broker on a thread other than the one
+// forwarding an event. The recording thus preserves the order of the events
+// of each publisher and of each subscriber, but events made concurrently on
+// different threads may be replayed in a different order than the one in
+// which the other broker received them.
+@ThreadSafe
+final class RecordingBroker implements Broker, Closeable {
+  private static final int BUFFER_SIZE = 64 * 1024;
+  static final short FORMAT_VERSION = 1;
+  static final int MAGIC_NUMBER = 0x50545231;
+  // names are prefixed with an unsigned short length
+  static final int MAX_NAME_LENGTH = 0xFFFF;
+
+  // varint topic id, name, codec name
+  static final byte DEFINE_TOPIC_EVENT_TYPE = 1;
+  // varint subscriber id, varint topic id
+  static final byte MATCH_EVENT_TYPE = 2;
+  // varint publisher id, int length, value as written by the codec of the topic
+  static final byte PUBLISH_EVENT_TYPE = 3;
+  // varint publisher id, double
+  static final byte PUBLISH_DOUBLE_EVENT_TYPE = 4;
+  // varint publisher id, int
+  static final byte PUBLISH_INT_EVENT_TYPE = 5;
+  // varint publisher id, long
+  static final byte PUBLISH_LONG_EVENT_TYPE = 6;
+  // varint publisher id, varint topic id
+  static final byte REGISTER_PUBLISHER_EVENT_TYPE = 7;
+  // varint subscriber id
+  static final byte REGISTER_SUBSCRIBER_EVENT_TYPE = 8;
+  // varint publisher id
+  static final byte UNREGISTER_PUBLISHER_EVENT_TYPE = 9;
+  // varint subscriber id
+  static final byte UNREGISTER_SUBSCRIBER_EVENT_TYPE = 10;
+
+  private static final Logger logger = Logger.getLogger(RecordingBroker.class.getName());
+
+  @GuardedBy("this")
+  private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+  private final FileChannel channel;
+  @GuardedBy("this")
+  private boolean closed;
+  private final ValueCodecRegistry codecRegistry;
+  private final Broker delegate;
+  @GuardedBy("this")
+  private long lastEventTime;
+  // the topic matchers of registered subscribers, by subscriber id
+  @GuardedBy("this")
+  private final Map<Integer, TopicMatcher> matchersBySubscriberId = new LinkedHashMap<>();
+  private final AtomicInteger nextPublisherId = new AtomicInteger();
+  private final AtomicInteger nextSubscriberId = new AtomicInteger();
+  private final Ticker ticker;
+  // topics whose type has no codec are not defined
+  @GuardedBy("this")
+  private final TopicTable<TopicDefinition> topicDefinitionsByTopic = new TopicTable<>();
+  @GuardedBy("this")
+  private final List<TopicDefinition> topicDefinitions = new ArrayList<>();
+
+  private RecordingBroker(
+      final Broker delegate,
+      final ValueCodecRegistry codecRegistry,
+      final FileChannel channel,
+      final Ticker ticker) {
+    this.channel = channel;
+    this.codecRegistry = codecRegistry;
+    this.delegate = delegate;
+    this.lastEventTime = ticker.read();
+    this.ticker = ticker;
+    buffer.putInt(MAGIC_NUMBER).putShort(FORMAT_VERSION);
+  }
+
+  // records to the specified file, replacing any existing file
+  static RecordingBroker open(final Broker delegate, final ValueCodecRegistry codecRegistry, final Path file)
+      throws IOException {
+    return open(delegate, codecRegistry, file, Ticker.systemTicker());
+  }
+
+  static RecordingBroker open(
+      final Broker delegate,
+      final ValueCodecRegistry codecRegistry,
+      final Path file,
+      final Ticker ticker) throws IOException {
+    final FileChannel channel = FileChannel.open(
+        file,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE);
+    return new RecordingBroker(delegate, codecRegistry, channel, ticker);
+  }
+
+  // events that occur after the recording is closed are forwarded but not
+  // recorded
+  @Override
+  public synchronized void close() throws IOException {
+    if (!closed) {
+      closed = true;
+      try {
+        drain();
+      } finally {
+        channel.close();
+      }
+    }
+  }
+
+  @GuardedBy("this")
+  private void drain() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  static String getString(final ByteBuffer buffer) {
+    final byte[] bytes = new byte[buffer.getShort() & MAX_NAME_LENGTH];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  @GuardedBy("this")
+  private Optional<TopicDefinition> getTopicDefinition(final Topic<?> topic) {
+    final TopicDefinition topicDefinition = topicDefinitionsByTopic.computeIfAbsent(topic, this::newTopicDefinition);
+    return topicDefinition.isRecorded() ? Optional.of(topicDefinition) : Optional.empty();
+  }
+
+  static int getVarInt(final ByteBuffer buffer) {
+    return Math.toIntExact(getVarLong(buffer));
+  }
+
+  static long getVarLong(final ByteBuffer buffer) {
+    long value = 0L;
+    for (int shift = 0;; shift += 7) {
+      final byte b = buffer.get();
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+  }
+
+  @GuardedBy("this")
+  private TopicDefinition newTopicDefinition(final Topic<?> topic) {
+    @SuppressWarnings("unchecked")
+    final Optional<ValueCodec<Object>> codec = codecRegistry.getCodec(topic.getTypeToken())
+        .map(otherCodec -> (ValueCodec<Object>) otherCodec);
+    if (!codec.isPresent()) {
+      logger.warning("publishers of topic '" + topic.getName() + "' will not be recorded (no codec for "
+          + topic.getTypeToken() + ")");
+      return new TopicDefinition(topic, -1, null);
+    }
+
+    final TopicDefinition topicDefinition = new TopicDefinition(topic, topicDefinitions.size(), codec.get());
+    topicDefinitions.add(topicDefinition);
+    recordEvent(DEFINE_TOPIC_EVENT_TYPE, buffer -> {
+      putVarLong(buffer, topicDefinition.id);
+      putString(buffer, topic.getName());
+      putString(buffer, codec.get().getName());
+    });
+    matchersBySubscriberId.forEach((subscriberId, topicMatcher) -> {
+      if (topicMatcher.matches(topic)) {
+        recordMatch(subscriberId, topicDefinition.id);
+      }
+    });
+    return topicDefinition;
+  }
+
+  private static void putString(final ByteBuffer buffer, final String value) {
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    checkArgument(bytes.length <= MAX_NAME_LENGTH, "name '%s' is too long", value);
+    buffer.putShort((short) bytes.length).put(bytes);
+  }
+
+  private static void putVarLong(final ByteBuffer buffer, final long value) {
+    long remainingValue = value;
+    while ((remainingValue & ~0x7FL) != 0L) {
+      buffer.put((byte) ((remainingValue & 0x7FL) | 0x80L));
+      remainingValue >>>= 7;
+    }
+    buffer.put((byte) remainingValue);
+  }
+
+  @GuardedBy("this")
+  private void recordEvent(final byte eventType, final EventWriter eventWriter) {
+    if (closed) {
+      return;
+    }
+
+    final long now = ticker.read();
+    try {
+      if (!tryPutEvent(eventType, now - lastEventTime, eventWriter)) {
+        drain();
+        // an event larger than the buffer is written through a buffer of its
+        // own
+        while (!tryPutEvent(eventType, now - lastEventTime, eventWriter)) {
+          buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+        }
+        if (buffer.capacity() > BUFFER_SIZE) {
+          drain();
+          buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+      }
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    lastEventTime = now;
+  }
+
+  @GuardedBy("this")
+  private void recordMatch(final int subscriberId, final int topicId) {
+    recordEvent(MATCH_EVENT_TYPE, buffer -> {
+      putVarLong(buffer, subscriberId);
+      putVarLong(buffer, topicId);
+    });
+  }
+
+  private synchronized void recordPublication(
+      final int publisherId,
+      final byte eventType,
+      final EventWriter valueWriter) {
+    recordEvent(eventType, buffer -> {
+      putVarLong(buffer, publisherId);
+      valueWriter.write(buffer);
+    });
+  }
+
+  // returns the topic definition if the publisher is recorded
+  private synchronized Optional<TopicDefinition> recordPublisherRegistration(
+      final int publisherId,
+      final Topic<?> topic) {
+    final Optional<TopicDefinition> topicDefinition = getTopicDefinition(topic);
+    topicDefinition.ifPresent(definition -> recordEvent(REGISTER_PUBLISHER_EVENT_TYPE, buffer -> {
+      putVarLong(buffer, publisherId);
+      putVarLong(buffer, definition.id);
+    }));
+    return topicDefinition;
+  }
+
+  private synchronized void recordPublisherUnregistration(final int publisherId) {
+    recordEvent(UNREGISTER_PUBLISHER_EVENT_TYPE, buffer -> putVarLong(buffer, publisherId));
+  }
+
+  private synchronized void recordSubscriberRegistration(final int subscriberId, final TopicMatcher topicMatcher) {
+    for (int i = 0, size = topicDefinitions.size(); i < size; ++i) {
+      final TopicDefinition topicDefinition = topicDefinitions.get(i);
+      if (topicMatcher.matches(topicDefinition.topic)) {
+        recordMatch(subscriberId, topicDefinition.id);
+      }
+    }
+    recordEvent(REGISTER_SUBSCRIBER_EVENT_TYPE, buffer -> putVarLong(buffer, subscriberId));
+    matchersBySubscriberId.put(subscriberId, topicMatcher);
+  }
+
+  private synchronized void recordSubscriberUnregistration(final int subscriberId) {
+    recordEvent(UNREGISTER_SUBSCRIBER_EVENT_TYPE, buffer -> putVarLong(buffer, subscriberId));
+    matchersBySubscriberId.remove(subscriberId);
+  }
+
+  // derived topics are not recorded; a replay computes them from the recorded
+  // publications of their inputs if they are registered with the replay broker
+  @Override
+  public <@NonNull T> DerivedTopicToken registerDerivedTopic(
+      final Topic<T> topic,
+      final TopicMatcher inputTopicMatcher,
+      final DerivedTopicFunction<T> function) {
+    return delegate.registerDerivedTopic(topic, inputTopicMatcher, function);
+  }
+
+  @Override
+  public <@NonNull P extends Publisher> PublisherToken<P> registerPublisher(
+      final Topic<?> topic,
+      final PublisherFactory<P> publisherFactory,
+      final PublisherOptions publisherOptions) {
+    final int publisherId = nextPublisherId.getAndIncrement();
+    final Optional<TopicDefinition> topicDefinition = recordPublisherRegistration(publisherId, topic);
+    if (!topicDefinition.isPresent()) {
+      return delegate.registerPublisher(topic, publisherFactory, publisherOptions);
+    }
+
+    final @Nullable ValueCodec<Object> codec = topicDefinition.get().codec;
+    assert codec != null;
+    final PublisherToken<P> publisherToken = delegate.registerPublisher(
+        topic,
+        publisherContext -> publisherFactory.newPublisher(new RecordingPublisherContext(
+            publisherContext,
+            publisherId,
+            codec)),
+        publisherOptions);
+    return new PublisherToken<P>() {
+      @Override
+      public P getPublisher() {
+        return publisherToken.getPublisher();
+      }
+
+      @Override
+      public void unregister() {
+        recordPublisherUnregistration(publisherId);
+        publisherToken.unregister();
+      }
+    };
+  }
+
+  @Override
+  public <@NonNull S extends Subscriber> SubscriberToken<S> registerSubscriber(
+      final TopicMatcher topicMatcher,
+      final SubscriberFactory<S> subscriberFactory,
+      final SubscriberOptions subscriberOptions) {
+    final int subscriberId = nextSubscriberId.getAndIncrement();
+    recordSubscriberRegistration(subscriberId, topicMatcher);
+    final SubscriberToken<S> subscriberToken = delegate.registerSubscriber(
+        topicMatcher,
+        subscriberFactory,
+        subscriberOptions);
+    return new SubscriberToken<S>() {
+      @Override
+      public void flush() {
+        subscriberToken.flush();
+      }
+
+      @Override
+      public S getSubscriber() {
+        return subscriberToken.getSubscriber();
+      }
+
+      @Override
+      public void unregister() {
+        recordSubscriberUnregistration(subscriberId);
+        subscriberToken.unregister();
+      }
+    };
+  }
+
+  @Override
+  public void runInBatch(final Runnable action) {
+    delegate.runInBatch(action);
+  }
+
+  // returns false if the event does not fit in the remainder of the buffer;
+  // the buffer is left unchanged if the event is not written for any reason
+  @GuardedBy("this")
+  private boolean tryPutEvent(final byte eventType, final long elapsedNanos, final EventWriter eventWriter) {
+    final int eventPosition = buffer.position();
+    try {
+      buffer.put(eventType);
+      putVarLong(buffer, elapsedNanos);
+      eventWriter.write(buffer);
+      return true;
+    } catch (final BufferOverflowException e) {
+      buffer.position(eventPosition);
+      return false;
+    } catch (final RuntimeException e) {
+      buffer.position(eventPosition);
+      throw e;
+    }
+  }
+
+  @FunctionalInterface
+  private interface EventWriter {
+    // throws a BufferOverflowException if the buffer has insufficient space
+    // remaining
+    void write(ByteBuffer buffer);
+  }
+
+  // each publication is forwarded after the lock of the recording is released,
+  // so only its order relative to the other events of this publisher is preserved
+  private final class RecordingPublisherContext implements PublisherContext {
+    private final ValueCodec<Object> codec;
+    private final PublisherContext delegate;
+    private final int publisherId;
+
+    RecordingPublisherContext(final PublisherContext delegate, final int publisherId, final ValueCodec<Object> codec) {
+      this.codec = codec;
+      this.delegate = delegate;
+      this.publisherId = publisherId;
+    }
+
+    @Override
+    public void publish(final Object value) {
+      recordPublication(publisherId, PUBLISH_EVENT_TYPE, buffer -> {
+        final int lengthPosition = buffer.position();
+        if (buffer.remaining() < Integer.BYTES) {
+          throw new BufferOverflowException();
+        }
+        buffer.position(lengthPosition + Integer.BYTES);
+        codec.encode(value, buffer);
+        buffer.putInt(lengthPosition, buffer.position() - lengthPosition - Integer.BYTES);
+      });
+      delegate.publish(value);
+    }
+
+    @Override
+    public void publishDouble(final double value) {
+      recordPublication(publisherId, PUBLISH_DOUBLE_EVENT_TYPE, buffer -> buffer.putDouble(value));
+      delegate.publishDouble(value);
+    }
+
+    @Override
+    public void publishInt(final int value) {
+      recordPublication(publisherId, PUBLISH_INT_EVENT_TYPE, buffer -> buffer.putInt(value));
+      delegate.publishInt(value);
+    }
+
+    @Override
+    public void publishLong(final long value) {
+      recordPublication(publisherId, PUBLISH_LONG_EVENT_TYPE, buffer -> buffer.putLong(value));
+      delegate.publishLong(value);
+    }
+  }
+
+  private static final class TopicDefinition {
+    // null if the topic is not recorded
+    final @Nullable ValueCodec<Object> codec;
+    final int id;
+    final Topic<?> topic;
+
+    TopicDefinition(final Topic<?> topic, final int id, final @Nullable ValueCodec<Object> codec) {
+      this.codec = codec;
+      this.id = id;
+      this.topic = topic;
+    }
+
+    boolean isRecorded() {
+      return codec != null;
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.base.MoreObjects;
+
+import io.github.ssoloff.psychictrain.api.metrics.HistogramSnapshot;
+
+// the measurements of a replay; latencies are in nanoseconds
+@Immutable
+final class ReplayResult {
+  private final long elapsedNanos;
+  private final int eventCount;
+  private final HistogramSnapshot publishLatency;
+
+  ReplayResult(final int eventCount, final long elapsedNanos, final HistogramSnapshot publishLatency) {
+    this.elapsedNanos = elapsedNanos;
+    this.eventCount = eventCount;
+    this.publishLatency = publishLatency;
+  }
+
+  Duration getElapsedTime() {
+    return Duration.ofNanos(elapsedNanos);
+  }
+
+  int getEventCount() {
+    return eventCount;
+  }
+
+  HistogramSnapshot getPublishLatency() {
+    return publishLatency;
+  }
+
+  // events per second
+  double getThroughput() {
+    return (elapsedNanos > 0L) ? ((double) eventCount * TimeUnit.SECONDS.toNanos(1L) / elapsedNanos) : 0.0;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("eventCount", eventCount)
+        .add("elapsedTime", getElapsedTime())
+        .add("throughput", getThroughput())
+        .add("publishLatency", publishLatency)
+        .toString();
+  }
+}
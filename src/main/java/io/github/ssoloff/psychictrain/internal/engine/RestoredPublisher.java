@@ -0,0 +1,23 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import io.github.ssoloff.psychictrain.api.engine.Publisher;
+import io.github.ssoloff.psychictrain.api.engine.PublisherContext;
+import io.github.ssoloff.psychictrain.api.engine.PublisherFactory;
+
+// a publisher registered to publish a value restored from a snapshot; its
+// context may be used to continue publishing the topic
+final class RestoredPublisher implements Publisher {
+  private final PublisherContext context;
+
+  private RestoredPublisher(final PublisherContext context) {
+    this.context = context;
+  }
+
+  PublisherContext getContext() {
+    return context;
+  }
+
+  static PublisherFactory<RestoredPublisher> newFactory() {
+    return RestoredPublisher::new;
+  }
+}
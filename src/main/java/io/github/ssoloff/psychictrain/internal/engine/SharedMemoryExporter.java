@@ -0,0 +1,97 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.common.collect.ImmutableMap;
+
+import io.github.ssoloff.psychictrain.api.codec.ValueCodecRegistry;
+import io.github.ssoloff.psychictrain.api.engine.Broker;
+import io.github.ssoloff.psychictrain.api.engine.Subscriber;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberContext;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberToken;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+
+// mirrors the values published to the specified topics of a broker through a
+// shared memory ring, from which a SharedMemoryImporter in another process
+// publishes them to its own broker; there may be only one exporter per ring.
+// Whenever a topic changes, all of its values are exported together, so that
+// the importer publishes as many values as the topic has publishers with
+// values, and no values once its last publisher is unregistered.
+@ThreadSafe
+final class SharedMemoryExporter implements Closeable {
+  private static final Logger logger = Logger.getLogger(SharedMemoryExporter.class.getName());
+
+  private final SharedMemoryRing ring;
+  private final SubscriberToken<ExportingSubscriber> subscriberToken;
+
+  private SharedMemoryExporter(final Broker broker, final List<Topic<?>> topics, final SharedMemoryRing ring) {
+    this.ring = ring;
+    this.subscriberToken = broker.registerSubscriber(
+        TopicMatcher.forTopics(topics.get(0), topics.subList(1, topics.size()).toArray(new Topic<?>[0])),
+        subscriberContext -> new ExportingSubscriber(subscriberContext, topics));
+  }
+
+  @Override
+  public void close() throws IOException {
+    subscriberToken.unregister();
+    ring.close();
+  }
+
+  // creates the ring in the specified file (see SharedMemoryRing.create) and
+  // exports the current values of the topics to it
+  static SharedMemoryExporter open(
+      final Broker broker,
+      final Path file,
+      final List<Topic<?>> topics,
+      final ValueCodecRegistry codecRegistry,
+      final int slotCount,
+      final int slotSize) throws IOException {
+    checkArgument(!topics.isEmpty(), "topics must not be empty");
+
+    final SharedMemoryRing ring = SharedMemoryRing.create(file, topics, codecRegistry, slotCount, slotSize);
+    try {
+      return new SharedMemoryExporter(broker, topics, ring);
+    } catch (final RuntimeException e) {
+      ring.close();
+      throw e;
+    }
+  }
+
+  private final class ExportingSubscriber implements Subscriber {
+    private final SubscriberContext context;
+    private final Map<Topic<?>, Integer> topicIndexesByTopic;
+
+    ExportingSubscriber(final SubscriberContext context, final List<Topic<?>> topics) {
+      this.context = context;
+      final ImmutableMap.Builder<Topic<?>, Integer> topicIndexesByTopic = ImmutableMap.builder();
+      for (int i = 0, size = topics.size(); i < size; ++i) {
+        topicIndexesByTopic.put(topics.get(i), i);
+      }
+      this.topicIndexesByTopic = topicIndexesByTopic.build();
+    }
+
+    @Override
+    public void topicsChanged(final Set<Topic<?>> topics) {
+      for (final Topic<?> topic : topics) {
+        final @Nullable Integer topicIndex = topicIndexesByTopic.get(topic);
+        assert topicIndex != null;
+        if (!ring.write(topicIndex, context.getValuesForTopic(topic))) {
+          logger.warning("values of topic '" + topic.getName() + "' are too large for a shared memory ring slot");
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,194 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import com.google.common.collect.ImmutableList;
+
+import io.github.ssoloff.psychictrain.api.codec.ValueCodecRegistry;
+import io.github.ssoloff.psychictrain.api.engine.Broker;
+import io.github.ssoloff.psychictrain.api.engine.Publisher;
+import io.github.ssoloff.psychictrain.api.engine.PublisherContext;
+import io.github.ssoloff.psychictrain.api.engine.PublisherToken;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+
+// publishes the values written to a shared memory ring by a
+// SharedMemoryExporter, typically in another process, to a broker through one
+// mirror publisher per value of each topic. Values are published by poll(),
+// either on the thread that owns the broker (e.g. once per frame) or, if the
+// broker is thread-safe, on a dedicated thread running pollUntilClosed().
+// An importer that is opened after the exporter has lapped the ring, or that
+// polls too seldom to keep up with it, publishes the latest values of each
+// topic in place of those it missed (see SharedMemoryRing), so it converges
+// on the values exported, although it does not publish every one of them.
+//
+// When the ring is replaced by one created in the same file, such as by an
+// exporter that was restarted, the next poll opens the new ring and replaces
+// the values published from the old ring with those of the new ring in a
+// single batch.
+final class SharedMemoryImporter implements Closeable {
+  // pollUntilClosed() spins between polls that find no values for this many
+  // polls, then yields for this many more, and then parks, so a value written
+  // shortly after the previous one is published within microseconds
+  private static final int SPIN_POLL_COUNT = 10_000;
+  private static final int YIELD_POLL_COUNT = 1_000;
+  private static final long PARK_NANOS = 10_000L;
+
+  private final Broker broker;
+  private volatile boolean closed;
+  private final ValueCodecRegistry codecRegistry;
+  @GuardedBy("this")
+  private SharedMemoryRing.Cursor cursor;
+  private final Path file;
+  // retained, like reattachAction and valuePublisher, so that polling does not
+  // allocate
+  private final Runnable pollAction;
+  // the number of sets of topic values published by the latest poll
+  @GuardedBy("this")
+  private int polledValueCount;
+  // indexed by topic index; a topic has as many mirror publishers as values
+  @GuardedBy("this")
+  private final List<List<PublisherToken<MirrorPublisher>>> publisherTokens;
+  private final Runnable reattachAction;
+  @GuardedBy("this")
+  private SharedMemoryRing ring;
+  private final List<Topic<?>> topics;
+  private final SharedMemoryRing.ValueConsumer valuePublisher = this::publish;
+
+  private SharedMemoryImporter(
+      final Broker broker,
+      final Path file,
+      final List<Topic<?>> topics,
+      final ValueCodecRegistry codecRegistry,
+      final SharedMemoryRing ring) {
+    this.broker = broker;
+    this.codecRegistry = codecRegistry;
+    this.cursor = ring.newCursor();
+    this.file = file;
+    this.pollAction = () -> polledValueCount = cursor.read(valuePublisher);
+    this.publisherTokens = topics.stream()
+        .map(topic -> new ArrayList<PublisherToken<MirrorPublisher>>())
+        .collect(ImmutableList.toImmutableList());
+    this.reattachAction = this::reattach;
+    this.ring = ring;
+    this.topics = ImmutableList.copyOf(topics);
+  }
+
+  // the mirror publishers are unregistered, so their values are removed from
+  // the broker
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    unregisterMirrorPublishers();
+    ring.close();
+  }
+
+  // opens the ring in the specified file, which must have been created for
+  // the same topics
+  static SharedMemoryImporter open(
+      final Broker broker,
+      final Path file,
+      final List<Topic<?>> topics,
+      final ValueCodecRegistry codecRegistry) throws IOException {
+    final SharedMemoryRing ring = SharedMemoryRing.open(file, topics, codecRegistry);
+    try {
+      return new SharedMemoryImporter(broker, file, topics, codecRegistry, ring);
+    } catch (final RuntimeException e) {
+      ring.close();
+      throw e;
+    }
+  }
+
+  // publishes the values written to the ring since the previous poll in a
+  // single batch and returns the number of sets of topic values published;
+  // throws UncheckedIOException if the ring was replaced by one that cannot be
+  // opened
+  synchronized int poll() {
+    if (closed) {
+      return 0;
+    } else if (ring.isReplaced()) {
+      broker.runInBatch(reattachAction);
+    } else if (cursor.hasUnreadValues()) {
+      broker.runInBatch(pollAction);
+    } else {
+      return 0;
+    }
+    return polledValueCount;
+  }
+
+  void pollUntilClosed() {
+    int idlePollCount = 0;
+    while (!closed) {
+      if (poll() > 0) {
+        idlePollCount = 0;
+      } else if (idlePollCount < SPIN_POLL_COUNT) {
+        ++idlePollCount;
+        Thread.onSpinWait();
+      } else if (idlePollCount < SPIN_POLL_COUNT + YIELD_POLL_COUNT) {
+        ++idlePollCount;
+        Thread.yield();
+      } else {
+        LockSupport.parkNanos(PARK_NANOS);
+      }
+    }
+  }
+
+  // publishes each value through a mirror publisher of its own, registering or
+  // unregistering mirror publishers so that the topic has one per value
+  @GuardedBy("this")
+  private void publish(final int topicIndex, final List<Object> values) {
+    final List<PublisherToken<MirrorPublisher>> topicPublisherTokens = publisherTokens.get(topicIndex);
+    while (topicPublisherTokens.size() > values.size()) {
+      topicPublisherTokens.remove(topicPublisherTokens.size() - 1).unregister();
+    }
+    for (int i = 0, size = values.size(); i < size; ++i) {
+      if (i == topicPublisherTokens.size()) {
+        topicPublisherTokens.add(broker.registerPublisher(topics.get(topicIndex), MirrorPublisher::new));
+      }
+      topicPublisherTokens.get(i).getPublisher().context.publish(values.get(i));
+    }
+  }
+
+  // replaces the values published from the current ring with those of the ring
+  // that replaced it; topics that the new ring has no values for are removed
+  @GuardedBy("this")
+  private void reattach() {
+    final SharedMemoryRing replacedRing = ring;
+    try {
+      ring = SharedMemoryRing.open(file, topics, codecRegistry);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    cursor = ring.newCursor();
+    try {
+      replacedRing.close();
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    unregisterMirrorPublishers();
+    polledValueCount = cursor.read(valuePublisher);
+  }
+
+  @GuardedBy("this")
+  private void unregisterMirrorPublishers() {
+    for (final List<PublisherToken<MirrorPublisher>> topicPublisherTokens : publisherTokens) {
+      topicPublisherTokens.forEach(PublisherToken::unregister);
+      topicPublisherTokens.clear();
+    }
+  }
+
+  private static final class MirrorPublisher implements Publisher {
+    final PublisherContext context;
+
+    MirrorPublisher(final PublisherContext context) {
+      this.context = context;
+    }
+  }
+}
@@ -0,0 +1,444 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import io.github.ssoloff.psychictrain.api.codec.ValueCodec;
+import io.github.ssoloff.psychictrain.api.codec.ValueCodecRegistry;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+
+// A ring buffer of fixed-size slots in a memory-mapped file, through which a
+// single writer passes the values of topics to any number of readers,
+// typically in other processes on the same host.
+//
+// The file is
+//
+//   int    magic number
+//   int    format version
+//   int    slot count
+//   int    slot size
+//   long   fingerprint of the topics and their codecs
+//   long   generation
+//   ...    padding to offset 64
+//   long   number of values written (the writer sequence)
+//   ...    padding to offset 128
+//   ...    ring slots
+//   ...    latest value slots, one per topic
+//
+// where each slot is
+//
+//   long   one more than the sequence of the value in the slot, or
+//          IN_PROGRESS while the value is being written
+//   int    index of the topic in the list of topics
+//   int    length of the remainder of the slot that is used
+//   int    number of values
+//   ...    each value as written by the codec of the topic
+//
+// Both ends must be opened with the same topics, in the same order, and with
+// the same codecs; the fingerprint in the header guards against a mismatch.
+// The value with sequence n is written to slot n % slotCount. The writer marks
+// the slot in progress, writes the values, publishes the slot sequence and then
+// the writer sequence, each with release semantics. A reader reads the slot
+// sequence, the value and the slot sequence again, and discards the value if
+// the two differ, which happens only when the writer has lapped the reader.
+// Readers never write to the file, so they do not slow the writer down.
+//
+// The writer also copies the values of each topic to the latest value slot of
+// the topic, in the same way, before it publishes the writer sequence. A
+// reader that falls more than a ring behind, or that opens the ring once the
+// writer has lapped it, has missed values that are no longer in the ring; it
+// reads the latest value slot of every topic instead and then resumes reading
+// the ring from the writer sequence it observed before doing so, skipping any
+// value older than one it already read for the same topic. As each slot holds
+// all of the values of its topic, the reader then holds the same values as
+// the writer, although it misses the intermediate values that were
+// overwritten.
+//
+// Creating a ring where one exists does not modify the existing file, which
+// readers may still have mapped; the new ring is created under a temporary
+// name and renamed over the existing one. The generation in the header of the
+// existing ring is then set to that of the new ring, which is one greater, so
+// that its readers can detect that it was replaced and reopen the file.
+@ThreadSafe
+final class SharedMemoryRing implements Closeable {
+  static final Path DEFAULT_DIRECTORY = Paths.get("/dev/shm");
+
+  private static final int FORMAT_VERSION = 3;
+  private static final int GENERATION_OFFSET = 24;
+  private static final int HEADER_SIZE = 128;
+  private static final long IN_PROGRESS = -1L;
+  private static final int MAGIC_NUMBER = 0x5054534D;
+  private static final int SLOT_HEADER_SIZE = Long.BYTES + Integer.BYTES + Integer.BYTES;
+  private static final int WRITER_SEQUENCE_OFFSET = 64;
+
+  private static final VarHandle LONG_VIEW = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+  private final MappedByteBuffer buffer;
+  private final FileChannel channel;
+  private final List<ValueCodec<Object>> codecs;
+  // the generation of the ring when it was opened
+  private final long generation;
+  private final int latestSlotsOffset;
+  private final int slotCount;
+  private final int slotSize;
+  // a view of the buffer through which values are written; it is only used by
+  // the writer, so writing a value does not allocate a view of its own
+  @GuardedBy("this")
+  private final ByteBuffer valueBuffer;
+  // a view of the buffer through which values are copied to the latest value
+  // slots; likewise only used by the writer
+  @GuardedBy("this")
+  private final ByteBuffer latestValueBuffer;
+  @GuardedBy("this")
+  private long writerSequence;
+
+  private SharedMemoryRing(
+      final FileChannel channel,
+      final MappedByteBuffer buffer,
+      final List<ValueCodec<Object>> codecs,
+      final int slotCount,
+      final int slotSize) {
+    this.buffer = buffer;
+    this.channel = channel;
+    this.codecs = codecs;
+    this.generation = (long) LONG_VIEW.getAcquire(buffer, GENERATION_OFFSET);
+    this.latestSlotsOffset = HEADER_SIZE + (slotCount * slotSize);
+    this.slotCount = slotCount;
+    this.slotSize = slotSize;
+    this.latestValueBuffer = buffer.duplicate().order(buffer.order());
+    this.valueBuffer = buffer.duplicate().order(buffer.order());
+    this.writerSequence = (long) LONG_VIEW.getAcquire(buffer, WRITER_SEQUENCE_OFFSET);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  // creates the ring in the specified file, replacing any existing ring; the
+  // slot size includes a 16-byte slot header and must be a multiple of 8
+  static SharedMemoryRing create(
+      final Path file,
+      final List<Topic<?>> topics,
+      final ValueCodecRegistry codecRegistry,
+      final int slotCount,
+      final int slotSize) throws IOException {
+    checkArgument(slotCount > 0, "slot count must be positive");
+    checkArgument(
+        (slotSize > SLOT_HEADER_SIZE) && ((slotSize % Long.BYTES) == 0),
+        "slot size must be a multiple of %s greater than %s",
+        Long.BYTES,
+        SLOT_HEADER_SIZE);
+
+    final List<ValueCodec<Object>> codecs = getCodecs(topics, codecRegistry);
+    final @Nullable MappedByteBuffer replacedHeader = mapHeader(file);
+    final long generation = (replacedHeader != null)
+        ? ((long) LONG_VIEW.getAcquire(replacedHeader, GENERATION_OFFSET) + 1L)
+        : 0L;
+    final Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+    final FileChannel channel = FileChannel.open(
+        temporaryFile,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.READ,
+        StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE);
+    try {
+      final MappedByteBuffer buffer = map(
+          channel,
+          FileChannel.MapMode.READ_WRITE,
+          getSize(topics.size(), slotCount, slotSize));
+      buffer.putInt(0, MAGIC_NUMBER)
+          .putInt(4, FORMAT_VERSION)
+          .putInt(8, slotCount)
+          .putInt(12, slotSize)
+          .putLong(16, getFingerprint(topics, codecs))
+          .putLong(GENERATION_OFFSET, generation);
+      Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      if (replacedHeader != null) {
+        LONG_VIEW.setRelease(replacedHeader, GENERATION_OFFSET, generation);
+      }
+      return new SharedMemoryRing(channel, buffer, codecs, slotCount, slotSize);
+    } catch (final IOException | RuntimeException e) {
+      channel.close();
+      Files.deleteIfExists(temporaryFile);
+      throw e;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<ValueCodec<Object>> getCodecs(final List<Topic<?>> topics, final ValueCodecRegistry codecRegistry) {
+    final ImmutableList.Builder<ValueCodec<Object>> codecs = ImmutableList.builderWithExpectedSize(topics.size());
+    for (final Topic<?> topic : topics) {
+      final Optional<? extends ValueCodec<?>> codec = codecRegistry.getCodec(topic.getTypeToken());
+      checkArgument(codec.isPresent(), "no codec for topic '%s'", topic);
+      codecs.add((ValueCodec<Object>) codec.get());
+    }
+    return codecs.build();
+  }
+
+  private static long getFingerprint(final List<Topic<?>> topics, final List<ValueCodec<Object>> codecs) {
+    final Hasher hasher = Hashing.murmur3_128().newHasher();
+    for (int i = 0, size = topics.size(); i < size; ++i) {
+      hasher.putString(topics.get(i).getName(), StandardCharsets.UTF_8)
+          .putByte((byte) 0)
+          .putString(codecs.get(i).getName(), StandardCharsets.UTF_8)
+          .putByte((byte) 0);
+    }
+    return hasher.hash().asLong();
+  }
+
+  private int getLatestSlotOffset(final int topicIndex) {
+    return latestSlotsOffset + (topicIndex * slotSize);
+  }
+
+  private static long getSize(final int topicCount, final int slotCount, final int slotSize) {
+    return HEADER_SIZE + (((long) slotCount + topicCount) * slotSize);
+  }
+
+  private int getSlotOffset(final long sequence) {
+    return HEADER_SIZE + ((int) (sequence % slotCount) * slotSize);
+  }
+
+  // returns true if the ring was replaced by another ring created in the same
+  // file since it was opened, in which case no more values will be written to it
+  boolean isReplaced() {
+    return (long) LONG_VIEW.getAcquire(buffer, GENERATION_OFFSET) != generation;
+  }
+
+  private static MappedByteBuffer map(final FileChannel channel, final FileChannel.MapMode mode, final long size)
+      throws IOException {
+    checkArgument(size <= Integer.MAX_VALUE, "ring is too large (%s bytes)", size);
+    final MappedByteBuffer buffer = channel.map(mode, 0L, size);
+    buffer.order(ByteOrder.nativeOrder());
+    return buffer;
+  }
+
+  // maps the header of the ring in the specified file for writing; returns
+  // null if the file does not hold a ring of the current format version
+  private static @Nullable MappedByteBuffer mapHeader(final Path file) throws IOException {
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      if (channel.size() < HEADER_SIZE) {
+        return null;
+      }
+      final MappedByteBuffer header = map(channel, FileChannel.MapMode.READ_WRITE, HEADER_SIZE);
+      return ((header.getInt(0) == MAGIC_NUMBER) && (header.getInt(4) == FORMAT_VERSION)) ? header : null;
+    }
+  }
+
+  Cursor newCursor() {
+    return new Cursor();
+  }
+
+  // opens an existing ring for reading only
+  static SharedMemoryRing open(final Path file, final List<Topic<?>> topics, final ValueCodecRegistry codecRegistry)
+      throws IOException {
+    final List<ValueCodec<Object>> codecs = getCodecs(topics, codecRegistry);
+    final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      if (channel.size() < HEADER_SIZE) {
+        throw new IOException("not a shared memory ring");
+      }
+      final MappedByteBuffer buffer = map(channel, FileChannel.MapMode.READ_ONLY, channel.size());
+      if (buffer.getInt(0) != MAGIC_NUMBER) {
+        throw new IOException("not a shared memory ring");
+      } else if (buffer.getInt(4) != FORMAT_VERSION) {
+        throw new IOException("unsupported shared memory ring format version (" + buffer.getInt(4) + ")");
+      } else if (buffer.getLong(16) != getFingerprint(topics, codecs)) {
+        throw new IOException("shared memory ring was created for different topics or codecs");
+      }
+
+      final int slotCount = buffer.getInt(8);
+      final int slotSize = buffer.getInt(12);
+      if (channel.size() != getSize(topics.size(), slotCount, slotSize)) {
+        throw new IOException("shared memory ring is truncated");
+      }
+      return new SharedMemoryRing(channel, buffer, codecs, slotCount, slotSize);
+    } catch (final IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  // writes the values of a topic, which replace those previously written for
+  // it; only one thread in one process may write to a ring. Returns false if
+  // the values do not fit in a slot, in which case they are not written.
+  synchronized boolean write(final int topicIndex, final Collection<?> values) {
+    final int slotOffset = getSlotOffset(writerSequence);
+    LONG_VIEW.setOpaque(buffer, slotOffset, IN_PROGRESS);
+    VarHandle.storeStoreFence();
+
+    final int valueOffset = slotOffset + SLOT_HEADER_SIZE;
+    valueBuffer.limit(slotOffset + slotSize).position(valueOffset);
+    try {
+      final ValueCodec<Object> codec = codecs.get(topicIndex);
+      valueBuffer.putInt(values.size());
+      for (final Object value : values) {
+        codec.encode(value, valueBuffer);
+      }
+    } catch (final BufferOverflowException e) {
+      // the slot is left in progress, so readers skip it
+      return false;
+    }
+    buffer.putInt(slotOffset + Long.BYTES, topicIndex)
+        .putInt(slotOffset + Long.BYTES + Integer.BYTES, valueBuffer.position() - valueOffset);
+    ++writerSequence;
+    LONG_VIEW.setRelease(buffer, slotOffset, writerSequence);
+
+    // the slot, less its sequence, is copied to the latest value slot of the
+    // topic through a second view, so that copying does not allocate either
+    final int latestSlotOffset = getLatestSlotOffset(topicIndex);
+    LONG_VIEW.setOpaque(buffer, latestSlotOffset, IN_PROGRESS);
+    VarHandle.storeStoreFence();
+    valueBuffer.limit(valueBuffer.position()).position(slotOffset + Long.BYTES);
+    latestValueBuffer.limit(latestSlotOffset + slotSize).position(latestSlotOffset + Long.BYTES);
+    latestValueBuffer.put(valueBuffer);
+    LONG_VIEW.setRelease(buffer, latestSlotOffset, writerSequence);
+
+    LONG_VIEW.setRelease(buffer, WRITER_SEQUENCE_OFFSET, writerSequence);
+    return true;
+  }
+
+  @FunctionalInterface
+  interface ValueConsumer {
+    void accept(int topicIndex, List<Object> values);
+  }
+
+  // reads the values written to a ring, starting with the oldest value if it is
+  // still in the ring, or with the latest values of each topic otherwise
+  @NotThreadSafe
+  final class Cursor {
+    // the number of times the cursor read the latest values of each topic
+    // because values it had not read were overwritten
+    private int gapCount;
+    // one more than the sequence of the latest values passed for each topic
+    private final long[] passedSlotSequences = new long[codecs.size()];
+    private long sequence;
+    // a view of the buffer through which values are read
+    private final ByteBuffer valueBuffer = buffer.duplicate().order(buffer.order());
+
+    int getGapCount() {
+      return gapCount;
+    }
+
+    boolean hasUnreadValues() {
+      return sequence < (long) LONG_VIEW.getAcquire(buffer, WRITER_SEQUENCE_OFFSET);
+    }
+
+    // passes the values of each slot written since the previous call to the
+    // consumer and returns the number of slots passed; if values were
+    // overwritten before they were read, the latest values of each topic are
+    // passed in their place (see the class comment)
+    int read(final ValueConsumer consumer) {
+      int readCount = 0;
+      long writerSequence = (long) LONG_VIEW.getAcquire(buffer, WRITER_SEQUENCE_OFFSET);
+      while (sequence < writerSequence) {
+        final int slotReadCount = ((writerSequence - sequence) <= slotCount)
+            ? readSlot(getSlotOffset(sequence), sequence + 1L, consumer)
+            : -1;
+        if (slotReadCount >= 0) {
+          readCount += slotReadCount;
+          ++sequence;
+        } else {
+          ++gapCount;
+          sequence = writerSequence;
+          readCount += readLatestSlots(consumer);
+          writerSequence = (long) LONG_VIEW.getAcquire(buffer, WRITER_SEQUENCE_OFFSET);
+        }
+      }
+      return readCount;
+    }
+
+    // the writer copies values to the latest value slot of their topic before
+    // it publishes the writer sequence, so the slots hold values at least as
+    // recent as any the ring held before the observed writer sequence. a slot
+    // that is being written when it is read holds later values, which the
+    // reader reads from the ring after the observed writer sequence instead.
+    private int readLatestSlots(final ValueConsumer consumer) {
+      int readCount = 0;
+      for (int topicIndex = 0, topicCount = codecs.size(); topicIndex < topicCount; ++topicIndex) {
+        final int slotOffset = getLatestSlotOffset(topicIndex);
+        final long slotSequence = (long) LONG_VIEW.getAcquire(buffer, slotOffset);
+        // a slot sequence of 0 means no values of the topic were ever written
+        if ((slotSequence != 0L) && (slotSequence != IN_PROGRESS)) {
+          readCount += Math.max(readSlot(slotOffset, slotSequence, consumer), 0);
+        }
+      }
+      return readCount;
+    }
+
+    // passes the values in the slot to the consumer, unless values as recent
+    // were already passed for the topic, and returns the number of slots passed;
+    // returns -1 if the slot does not hold the specified slot sequence or was
+    // overwritten while it was read
+    private int readSlot(final int slotOffset, final long slotSequence, final ValueConsumer consumer) {
+      if ((long) LONG_VIEW.getAcquire(buffer, slotOffset) != slotSequence) {
+        return -1;
+      }
+
+      final int topicIndex;
+      final List<Object> values;
+      try {
+        topicIndex = buffer.getInt(slotOffset + Long.BYTES);
+        final int valueLength = buffer.getInt(slotOffset + Long.BYTES + Integer.BYTES);
+        final int valueOffset = slotOffset + SLOT_HEADER_SIZE;
+        valueBuffer.limit(valueOffset + valueLength).position(valueOffset);
+        values = readValues(codecs.get(topicIndex));
+      } catch (final RuntimeException e) {
+        // the slot was overwritten while it was being read
+        return -1;
+      }
+      VarHandle.loadLoadFence();
+      if ((long) LONG_VIEW.getAcquire(buffer, slotOffset) != slotSequence) {
+        return -1;
+      } else if (slotSequence <= passedSlotSequences[topicIndex]) {
+        return 0;
+      }
+
+      passedSlotSequences[topicIndex] = slotSequence;
+      consumer.accept(topicIndex, values);
+      return 1;
+    }
+
+    private List<Object> readValues(final ValueCodec<Object> codec) {
+      final int valueCount = valueBuffer.getInt();
+      checkArgument(valueCount >= 0, "negative value count");
+      final ImmutableList.Builder<Object> values = ImmutableList.builder();
+      for (int i = 0; i < valueCount; ++i) {
+        values.add(codec.decode(valueBuffer));
+      }
+      return values.build();
+    }
+  }
+}
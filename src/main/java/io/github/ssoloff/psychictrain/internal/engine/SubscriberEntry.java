@@ -1,28 +1,160 @@
 package io.github.ssoloff.psychictrain.internal.engine;
 
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Optional;
 import java.util.Set;
 
-import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
 
+import org.eclipse.jdt.annotation.Nullable;
+
+import io.github.ssoloff.psychictrain.api.engine.Broker;
+import io.github.ssoloff.psychictrain.api.engine.BrokerInstrumentation;
 import io.github.ssoloff.psychictrain.api.engine.Subscriber;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberOptions;
 import io.github.ssoloff.psychictrain.api.engine.Topic;
 import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
 
-@Immutable
+@ThreadSafe
 final class SubscriberEntry {
+  // publisher entries whose value changed since the subscriber last read the
+  // changed values; null until the subscriber first reads the changed values
+  @GuardedBy("this")
+  private volatile @Nullable Set<PublisherEntry> changedPublisherEntries;
+  // null if notifications are not conflated
+  private final @Nullable NotificationConflator conflator;
+  private final BrokerInstrumentation instrumentation;
+  // null if notifications are delivered synchronously on the publishing thread
+  private final @Nullable NotificationQueue notificationQueue;
+  // the state of the subscriber in the propagation scheduler of a DefaultBroker,
+  // which confines it to the thread of that broker; null for other brokers
+  private PropagationScheduler.@Nullable Node propagationNode;
+  // notifications may already be pending (e.g. in a batch, in a routing
+  // snapshot, or in the notification queue) when the subscriber is
+  // unregistered; they are discarded
+  private volatile boolean registered = true;
   private final Subscriber subscriber;
   private final TopicMatcher topicMatcher;
 
-  SubscriberEntry(final Subscriber subscriber, final TopicMatcher topicMatcher) {
+  // a pending conflated notification whose interval elapses without a further
+  // change is delivered in a batch of the specified broker
+  SubscriberEntry(
+      final Subscriber subscriber,
+      final TopicMatcher topicMatcher,
+      final SubscriberOptions subscriberOptions,
+      final BrokerInstrumentation instrumentation,
+      final Broker broker) {
+    this.conflator = subscriberOptions.getConflationInterval()
+        .map(conflationInterval -> new NotificationConflator(
+            conflationInterval,
+            subscriberOptions.getTicker(),
+            subscriberOptions.getConflationScheduler().orElse(null),
+            () -> broker.runInBatch(this::flushIfIntervalElapsed)))
+        .orElse(null);
+    this.instrumentation = instrumentation;
+    this.notificationQueue = subscriberOptions.getExecutor()
+        .map(executor -> new NotificationQueue(
+            executor,
+            subscriberOptions.getQueueCapacity().orElse(Integer.MAX_VALUE),
+            subscriberOptions.getOverflowPolicy(),
+            this::deliverTopicsChanged,
+            subscriber,
+            instrumentation))
+        .orElse(null);
     this.subscriber = subscriber;
     this.topicMatcher = topicMatcher;
   }
 
+  private void deliverTopicsChanged(final Set<Topic<?>> topics) {
+    if (registered) {
+      final long startTime = instrumentation.notificationStarted(subscriber);
+      subscriber.topicsChanged(topics);
+      instrumentation.notificationCompleted(subscriber, topics, startTime);
+    }
+  }
+
+  private void dispatchTopicsChanged(final Set<Topic<?>> topics) {
+    final NotificationQueue notificationQueue = this.notificationQueue;
+    if (notificationQueue != null) {
+      notificationQueue.enqueue(topics);
+    } else {
+      deliverTopicsChanged(topics);
+    }
+  }
+
+  // returns the publisher entries that changed since the previous call to this
+  // method, or empty if this is the first call, in which case the caller must
+  // read all matching publisher entries
+  synchronized Optional<Collection<PublisherEntry>> drainChangedPublisherEntries() {
+    final @Nullable Set<PublisherEntry> changedPublisherEntries = this.changedPublisherEntries;
+    this.changedPublisherEntries = new LinkedHashSet<>();
+    return Optional.ofNullable(changedPublisherEntries);
+  }
+
+  // delivers the pending conflated notification, if any, regardless of the
+  // conflation interval
+  void flush() {
+    final @Nullable NotificationConflator conflator = this.conflator;
+    if (conflator != null) {
+      final @Nullable Set<Topic<?>> topics = conflator.flush();
+      if (topics != null) {
+        dispatchTopicsChanged(topics);
+      }
+    }
+  }
+
+  private void flushIfIntervalElapsed() {
+    final @Nullable NotificationConflator conflator = this.conflator;
+    assert conflator != null;
+    final @Nullable Set<Topic<?>> topics = conflator.flushIfIntervalElapsed();
+    if (topics != null) {
+      dispatchTopicsChanged(topics);
+    }
+  }
+
+  Optional<Set<String>> getNameFilters() {
+    return topicMatcher.getNameFilters();
+  }
+
+  PropagationScheduler.@Nullable Node getPropagationNode() {
+    return propagationNode;
+  }
+
   boolean matches(final Topic<?> topic) {
     return topicMatcher.matches(topic);
   }
 
   void notifySubscriberTopicsChanged(final Set<Topic<?>> topics) {
-    subscriber.topicsChanged(topics);
+    final @Nullable NotificationConflator conflator = this.conflator;
+    if (conflator != null) {
+      final @Nullable Set<Topic<?>> conflatedTopics = conflator.conflate(topics);
+      if (conflatedTopics != null) {
+        dispatchTopicsChanged(conflatedTopics);
+      }
+    } else {
+      dispatchTopicsChanged(topics);
+    }
+  }
+
+  void publisherEntryChanged(final PublisherEntry publisherEntry) {
+    if (changedPublisherEntries != null) {
+      synchronized (this) {
+        final Set<PublisherEntry> changedPublisherEntries = this.changedPublisherEntries;
+        if (changedPublisherEntries != null) {
+          changedPublisherEntries.add(publisherEntry);
+        }
+      }
+    }
+  }
+
+  void setPropagationNode(final PropagationScheduler.Node propagationNode) {
+    this.propagationNode = propagationNode;
+  }
+
+  void unregister() {
+    registered = false;
+    instrumentation.subscriberUnregistered(subscriber);
   }
 }
@@ -0,0 +1,119 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+
+// indexes subscribers in a trie keyed by the segments of the name filters of
+// their topic matchers, so the candidate subscribers for a topic are found by
+// walking the segments of its name rather than by testing every subscriber;
+// subscribers whose matchers have no name filters are tested individually
+@ThreadSafe
+final class SubscriberIndex {
+  private static final Splitter NAME_SEGMENT_SPLITTER = Splitter.on(TopicMatcher.NAME_SEGMENT_SEPARATOR);
+
+  @GuardedBy("this")
+  private final Node root = new Node();
+  @GuardedBy("this")
+  private final Set<SubscriberEntry> unindexedSubscriberEntries = new LinkedHashSet<>();
+
+  synchronized void addSubscriberEntry(final SubscriberEntry subscriberEntry) {
+    subscriberEntry.getNameFilters().ifPresentOrElse(
+        nameFilters -> nameFilters.forEach(nameFilter -> root.add(splitName(nameFilter), 0, subscriberEntry)),
+        () -> unindexedSubscriberEntries.add(subscriberEntry));
+  }
+
+  // the candidates are verified against the topic matchers, so a name that
+  // happens to contain a wildcard segment is harmless
+  synchronized ImmutableList<SubscriberEntry> getSubscriberEntries(final Topic<?> topic) {
+    final Set<SubscriberEntry> candidateSubscriberEntries = new LinkedHashSet<>();
+    root.collect(splitName(topic.getName()), 0, candidateSubscriberEntries);
+    candidateSubscriberEntries.addAll(unindexedSubscriberEntries);
+    return candidateSubscriberEntries.stream()
+        .filter(subscriberEntry -> subscriberEntry.matches(topic))
+        .collect(toImmutableList());
+  }
+
+  synchronized void removeSubscriberEntry(final SubscriberEntry subscriberEntry) {
+    subscriberEntry.getNameFilters().ifPresentOrElse(
+        nameFilters -> nameFilters.forEach(nameFilter -> root.remove(splitName(nameFilter), 0, subscriberEntry)),
+        () -> unindexedSubscriberEntries.remove(subscriberEntry));
+  }
+
+  private static List<String> splitName(final String name) {
+    return NAME_SEGMENT_SPLITTER.splitToList(name);
+  }
+
+  private static final class Node {
+    // keyed by segment; a single-level wildcard is keyed by the wildcard itself
+    final Map<String, Node> children = new HashMap<>();
+    // subscribers whose name filters end with a multi-level wildcard here
+    final Set<SubscriberEntry> multiLevelWildcardSubscriberEntries = new LinkedHashSet<>();
+    // subscribers whose name filters end here
+    final Set<SubscriberEntry> subscriberEntries = new LinkedHashSet<>();
+
+    void add(final List<String> segments, final int index, final SubscriberEntry subscriberEntry) {
+      if (index == segments.size()) {
+        subscriberEntries.add(subscriberEntry);
+      } else if (segments.get(index).equals(TopicMatcher.MULTI_LEVEL_WILDCARD)) {
+        multiLevelWildcardSubscriberEntries.add(subscriberEntry);
+      } else {
+        children.computeIfAbsent(segments.get(index), segment -> new Node()).add(segments, index + 1, subscriberEntry);
+      }
+    }
+
+    void collect(final List<String> segments, final int index, final Set<SubscriberEntry> collectedSubscriberEntries) {
+      collectedSubscriberEntries.addAll(multiLevelWildcardSubscriberEntries);
+      if (index == segments.size()) {
+        collectedSubscriberEntries.addAll(subscriberEntries);
+      } else {
+        final String segment = segments.get(index);
+        final @Nullable Node child = children.get(segment);
+        if (child != null) {
+          child.collect(segments, index + 1, collectedSubscriberEntries);
+        }
+        final @Nullable Node singleLevelWildcardChild = children.get(TopicMatcher.SINGLE_LEVEL_WILDCARD);
+        if ((singleLevelWildcardChild != null) && (singleLevelWildcardChild != child)) {
+          singleLevelWildcardChild.collect(segments, index + 1, collectedSubscriberEntries);
+        }
+      }
+    }
+
+    boolean isEmpty() {
+      return children.isEmpty() && multiLevelWildcardSubscriberEntries.isEmpty() && subscriberEntries.isEmpty();
+    }
+
+    // empty nodes are pruned so that the trie does not grow with subscriber churn
+    void remove(final List<String> segments, final int index, final SubscriberEntry subscriberEntry) {
+      if (index == segments.size()) {
+        subscriberEntries.remove(subscriberEntry);
+      } else if (segments.get(index).equals(TopicMatcher.MULTI_LEVEL_WILDCARD)) {
+        multiLevelWildcardSubscriberEntries.remove(subscriberEntry);
+      } else {
+        final String segment = segments.get(index);
+        final @Nullable Node child = children.get(segment);
+        if (child != null) {
+          child.remove(segments, index + 1, subscriberEntry);
+          if (child.isEmpty()) {
+            children.remove(segment);
+          }
+        }
+      }
+    }
+  }
+}
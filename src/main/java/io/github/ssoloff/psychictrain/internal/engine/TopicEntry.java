@@ -0,0 +1,129 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicHistory;
+
+final class TopicEntry {
+  // a list rather than a set so that it may be iterated by index without allocating
+  private final List<PublisherEntry> publisherEntries = new ArrayList<>();
+  // computed upon the first notification for this topic; null until then
+  private @Nullable ImmutableList<SubscriberEntry> subscriberEntries;
+  // null unless the topic retains history
+  private @Nullable TopicHistoryBuffer historyBuffer;
+  private final Topic<?> topic;
+  // the set passed to subscribers notified of a change to this topic alone;
+  // shared across notifications so that publishing does not allocate
+  private final Set<Topic<?>> topics;
+  private final List<PublisherEntry> unmodifiablePublisherEntries = Collections.unmodifiableList(publisherEntries);
+
+  TopicEntry(final Topic<?> topic) {
+    this.topic = topic;
+    this.topics = ImmutableSet.of(topic);
+  }
+
+  void addPublisherEntry(final PublisherEntry publisherEntry) {
+    assert publisherEntry.matches(topic);
+    checkArgument(
+        !publisherEntry.isDerived() || (historyBuffer == null),
+        "topic '%s' retains history, so it cannot be derived",
+        topic.getName());
+
+    publisherEntries.add(publisherEntry);
+  }
+
+  void addSubscriberEntryIfMatches(final SubscriberEntry subscriberEntry) {
+    final ImmutableList<SubscriberEntry> subscriberEntries = this.subscriberEntries;
+    if ((subscriberEntries != null) && subscriberEntry.matches(topic)) {
+      this.subscriberEntries = ImmutableList.<SubscriberEntry>builderWithExpectedSize(subscriberEntries.size() + 1)
+          .addAll(subscriberEntries)
+          .add(subscriberEntry)
+          .build();
+    }
+  }
+
+  List<PublisherEntry> getPublisherEntries() {
+    return unmodifiablePublisherEntries;
+  }
+
+  // the returned list is an immutable snapshot, so it may be safely iterated while
+  // subscribers are registered or unregistered in response to a notification
+  List<SubscriberEntry> getSubscriberEntries(final SubscriberIndex subscriberIndex) {
+    ImmutableList<SubscriberEntry> subscriberEntries = this.subscriberEntries;
+    if (subscriberEntries == null) {
+      subscriberEntries = subscriberIndex.getSubscriberEntries(topic);
+      this.subscriberEntries = subscriberEntries;
+    }
+    return subscriberEntries;
+  }
+
+  // throws an IllegalArgumentException if the specified history is retained and
+  // either the topic already retains a different history or the topic is
+  // derived; the value of a derived topic is computed when read rather than
+  // published, so there are no publications of which to retain a history
+  void checkCanRetainHistory(final TopicHistory history) {
+    if (!history.isRetained()) {
+      return;
+    }
+
+    final @Nullable TopicHistoryBuffer historyBuffer = this.historyBuffer;
+    checkArgument(
+        (historyBuffer != null)
+            ? historyBuffer.getHistory().equals(history)
+            : publisherEntries.stream().noneMatch(PublisherEntry::isDerived),
+        "topic '%s' is derived or already retains a different history",
+        topic.getName());
+  }
+
+  @Nullable TopicHistoryBuffer getHistoryBuffer() {
+    return historyBuffer;
+  }
+
+  Topic<?> getTopic() {
+    return topic;
+  }
+
+  Set<Topic<?>> getTopics() {
+    return topics;
+  }
+
+  boolean hasPublisherEntries() {
+    return !publisherEntries.isEmpty();
+  }
+
+  void removePublisherEntry(final PublisherEntry publisherEntry) {
+    publisherEntries.remove(publisherEntry);
+  }
+
+  void removeSubscriberEntry(final SubscriberEntry subscriberEntry) {
+    final ImmutableList<SubscriberEntry> subscriberEntries = this.subscriberEntries;
+    if ((subscriberEntries != null) && subscriberEntries.contains(subscriberEntry)) {
+      this.subscriberEntries = subscriberEntries.stream()
+          .filter(otherSubscriberEntry -> otherSubscriberEntry != subscriberEntry)
+          .collect(toImmutableList());
+    }
+  }
+
+  // the topic retains the specified history from now on, unless it is not
+  // retained; throws an IllegalArgumentException if the topic cannot retain it
+  // (see checkCanRetainHistory)
+  void retainHistory(final TopicHistory history) {
+    checkCanRetainHistory(history);
+
+    if (history.isRetained() && (historyBuffer == null)) {
+      historyBuffer = new TopicHistoryBuffer(topic, history);
+    }
+  }
+}
@@ -0,0 +1,265 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+import io.github.ssoloff.psychictrain.api.engine.Broker;
+import io.github.ssoloff.psychictrain.api.engine.Subscriber;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberContext;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberOptions;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberToken;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+
+// A Flow.Publisher of the values of the topics matched by a topic matcher.
+//
+// Each flow subscriber is backed by a broker subscriber of its own. When a
+// matched topic changes, its subscription takes a snapshot of the values of the
+// topic and emits one event per value as the flow subscriber requests them. The
+// pending snapshot of a topic that changes again before it has been emitted is
+// replaced by the latest one, so a slow flow subscriber holds at most one
+// snapshot per matched topic and, like a broker subscriber, observes the latest
+// values rather than every change.
+//
+// Events are taken from the pending snapshots in batches of up to the
+// outstanding demand with one acquisition of the subscription lock, and emitted
+// outside the lock by whichever thread finds the subscription idle, so a flow
+// subscriber is never signalled concurrently.
+//
+// subscribe() registers the broker subscriber, so for a broker that is not
+// thread-safe it must be called on the thread that owns the broker. A
+// subscription may be cancelled from any thread. The broker subscriber is
+// unregistered on cancellation if the broker is thread-safe or the subscription
+// is cancelled on the thread that subscribed; otherwise it is unregistered at
+// the next tick of a broker in tick mode or the next time it is notified,
+// whichever comes first.
+@Immutable
+final class TopicFlowPublisher implements Flow.Publisher<TopicValue<?>> {
+  // the most events emitted per acquisition of the subscription lock
+  private static final int MAX_BATCH_SIZE = 256;
+
+  private static final Logger logger = Logger.getLogger(TopicFlowPublisher.class.getName());
+
+  private final Broker broker;
+  private final SubscriberOptions subscriberOptions;
+  private final TopicMatcher topicMatcher;
+
+  TopicFlowPublisher(final Broker broker, final TopicMatcher topicMatcher) {
+    this(broker, topicMatcher, SubscriberOptions.defaults());
+  }
+
+  TopicFlowPublisher(final Broker broker, final TopicMatcher topicMatcher, final SubscriberOptions subscriberOptions) {
+    this.broker = broker;
+    this.subscriberOptions = subscriberOptions;
+    this.topicMatcher = topicMatcher;
+  }
+
+  @Override
+  public void subscribe(final Flow.Subscriber<? super TopicValue<?>> subscriber) {
+    checkNotNull(subscriber, "subscriber must not be null");
+
+    final TopicSubscription subscription = new TopicSubscription(broker, subscriber);
+    subscriber.onSubscribe(subscription);
+    if (!subscription.cancelled) {
+      subscription.setBrokerSubscriberToken(broker.registerSubscriber(
+          topicMatcher,
+          context -> new BrokerSubscriber(context, subscription),
+          subscriberOptions));
+    }
+  }
+
+  private static final class BrokerSubscriber implements Subscriber {
+    private final SubscriberContext context;
+    private final TopicSubscription subscription;
+
+    BrokerSubscriber(final SubscriberContext context, final TopicSubscription subscription) {
+      this.context = context;
+      this.subscription = subscription;
+    }
+
+    private <@NonNull T> void offerValuesForTopic(final Topic<T> topic) {
+      subscription.offer(topic, context.getValuesForTopic(topic));
+    }
+
+    @Override
+    public void topicsChanged(final Set<Topic<?>> topics) {
+      if (subscription.cancelled) {
+        subscription.unregisterBrokerSubscriber();
+        return;
+      }
+
+      for (final Topic<?> topic : topics) {
+        offerValuesForTopic(topic);
+      }
+      subscription.drain();
+    }
+  }
+
+  @ThreadSafe
+  private static final class TopicSubscription implements Flow.Subscription {
+    // the events taken from the pending snapshots by the draining thread
+    private final List<TopicValue<?>> batch = new ArrayList<>();
+    private final Broker broker;
+    private final AtomicReference<@Nullable SubscriberToken<BrokerSubscriber>> brokerSubscriberToken =
+        new AtomicReference<>();
+    // the thread that owns the broker if it is not thread-safe
+    private final Thread brokerThread = Thread.currentThread();
+    volatile boolean cancelled;
+    // Long.MAX_VALUE if unbounded
+    private final AtomicLong demand = new AtomicLong();
+    // the number of drain requests made since the draining thread last found
+    // nothing more to do; the thread that raises it from zero drains
+    private final AtomicInteger drainRequestCount = new AtomicInteger();
+    private volatile @Nullable Throwable error;
+    @GuardedBy("this")
+    private final Map<Topic<?>, Deque<TopicValue<?>>> pendingValuesByTopic = new LinkedHashMap<>();
+    private final Flow.Subscriber<? super TopicValue<?>> subscriber;
+
+    TopicSubscription(final Broker broker, final Flow.Subscriber<? super TopicValue<?>> subscriber) {
+      this.broker = broker;
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      synchronized (this) {
+        pendingValuesByTopic.clear();
+      }
+
+      // the broker subscriber is released as soon as the broker can be called
+      // (3.13)
+      if ((broker instanceof ConcurrentBroker) || (Thread.currentThread() == brokerThread)) {
+        unregisterBrokerSubscriber();
+      } else if ((broker instanceof DefaultBroker) && ((DefaultBroker) broker).isTickMode()) {
+        ((DefaultBroker) broker).runOnNextTick(this::unregisterBrokerSubscriber);
+      }
+    }
+
+    void drain() {
+      if (drainRequestCount.getAndIncrement() != 0) {
+        return;
+      }
+
+      int handledDrainRequestCount = 1;
+      do {
+        emitBatches();
+        handledDrainRequestCount = drainRequestCount.addAndGet(-handledDrainRequestCount);
+      } while (handledDrainRequestCount != 0);
+    }
+
+    private void emitBatches() {
+      while (!cancelled) {
+        final @Nullable Throwable error = this.error;
+        if (error != null) {
+          cancel();
+          subscriber.onError(error);
+          return;
+        }
+
+        final long requestedCount = demand.get();
+        if ((requestedCount == 0L) || !takeBatch((int) Math.min(requestedCount, MAX_BATCH_SIZE))) {
+          return;
+        }
+
+        try {
+          for (int i = 0, size = batch.size(); (i < size) && !cancelled; ++i) {
+            subscriber.onNext(batch.get(i));
+          }
+        } catch (final RuntimeException e) {
+          // a flow subscriber must not throw; it is treated as having cancelled
+          logger.log(Level.WARNING, "flow subscriber failed to process event", e);
+          cancel();
+          return;
+        } finally {
+          final int emittedCount = batch.size();
+          batch.clear();
+          demand.accumulateAndGet(
+              emittedCount,
+              (count, decrement) -> (count == Long.MAX_VALUE) ? count : (count - decrement));
+        }
+      }
+    }
+
+    <@NonNull T> void offer(final Topic<T> topic, final Iterable<T> values) {
+      final Deque<TopicValue<?>> pendingValues = new ArrayDeque<>();
+      for (final T value : values) {
+        pendingValues.add(TopicValue.of(topic, value));
+      }
+
+      synchronized (this) {
+        // the topic is moved to the end, after the topics that changed before it
+        pendingValuesByTopic.remove(topic);
+        if (!pendingValues.isEmpty() && !cancelled) {
+          pendingValuesByTopic.put(topic, pendingValues);
+        }
+      }
+    }
+
+    @Override
+    public void request(final long count) {
+      if (count <= 0L) {
+        error = new IllegalArgumentException("requested count must be positive (3.9) but was " + count);
+      } else {
+        demand.accumulateAndGet(count, (requestedCount, increment) -> {
+          final long sum = requestedCount + increment;
+          return (sum < 0L) ? Long.MAX_VALUE : sum;
+        });
+      }
+      drain();
+    }
+
+    void setBrokerSubscriberToken(final SubscriberToken<BrokerSubscriber> brokerSubscriberToken) {
+      this.brokerSubscriberToken.set(brokerSubscriberToken);
+      // the subscription may have been cancelled while the broker subscriber was
+      // being registered
+      if (cancelled) {
+        unregisterBrokerSubscriber();
+      }
+    }
+
+    // returns false if no events are pending
+    private synchronized boolean takeBatch(final int maxBatchSize) {
+      final Iterator<Deque<TopicValue<?>>> iterator = pendingValuesByTopic.values().iterator();
+      while (iterator.hasNext() && (batch.size() < maxBatchSize)) {
+        final Deque<TopicValue<?>> pendingValues = iterator.next();
+        while (!pendingValues.isEmpty() && (batch.size() < maxBatchSize)) {
+          batch.add(pendingValues.removeFirst());
+        }
+        if (pendingValues.isEmpty()) {
+          iterator.remove();
+        }
+      }
+      return !batch.isEmpty();
+    }
+
+    void unregisterBrokerSubscriber() {
+      final @Nullable SubscriberToken<BrokerSubscriber> brokerSubscriberToken =
+          this.brokerSubscriberToken.getAndSet(null);
+      if (brokerSubscriberToken != null) {
+        brokerSubscriberToken.unregister();
+      }
+    }
+  }
+}
@@ -0,0 +1,173 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+import io.github.ssoloff.psychictrain.api.engine.Broker;
+import io.github.ssoloff.psychictrain.api.engine.Publisher;
+import io.github.ssoloff.psychictrain.api.engine.PublisherContext;
+import io.github.ssoloff.psychictrain.api.engine.PublisherToken;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+
+// A Flow.Subscriber that publishes the elements of a flow to a topic through a
+// broker publisher.
+//
+// Elements are received on any thread into a buffer of batchSize elements, and
+// published by poll() in a single batch of the broker, after which as many
+// elements are requested as were published. No more elements are ever
+// requested than fit in the buffer, so the flow is paced by the thread that
+// polls: a flow that produces faster than it is polled waits for demand rather
+// than filling the heap.
+//
+// The constructor registers the broker publisher, and poll() and close() use
+// the broker, so for a broker that is not thread-safe they must be called on
+// the thread that owns the broker. The broker publisher is unregistered, which
+// removes its value, by the first poll after the flow completes or fails, or
+// when the subscriber is closed.
+@ThreadSafe
+final class TopicFlowSubscriber<@NonNull T> implements Flow.Subscriber<T>, Closeable {
+  private static final Logger logger = Logger.getLogger(TopicFlowSubscriber.class.getName());
+
+  // the elements taken from the buffer by the polling thread
+  private final List<T> batch;
+  private final int batchSize;
+  private final Broker broker;
+  private final BlockingQueue<T> buffer;
+  private volatile boolean closed;
+  // set when the flow completes or fails
+  private volatile boolean done;
+  // retained so that polling does not allocate
+  private final Runnable publishAction = this::publishBatch;
+  private final PublisherToken<FlowPublisher> publisherToken;
+  // confined to the polling thread
+  private boolean publisherUnregistered;
+  private volatile Flow.@Nullable Subscription subscription;
+
+  TopicFlowSubscriber(final Broker broker, final Topic<T> topic, final int batchSize) {
+    checkArgument(batchSize > 0, "batch size must be positive");
+
+    this.batch = new ArrayList<>(batchSize);
+    this.batchSize = batchSize;
+    this.broker = broker;
+    this.buffer = new ArrayBlockingQueue<>(batchSize);
+    this.publisherToken = broker.registerPublisher(topic, FlowPublisher::new);
+  }
+
+  // cancels the subscription to the flow and unregisters the broker publisher
+  @Override
+  public void close() {
+    closed = true;
+    final Flow.@Nullable Subscription subscription = this.subscription;
+    if (subscription != null) {
+      subscription.cancel();
+    }
+    unregisterPublisher();
+  }
+
+  @Override
+  public void onComplete() {
+    done = true;
+  }
+
+  @Override
+  public void onError(final Throwable throwable) {
+    checkNotNull(throwable, "throwable must not be null");
+
+    logger.log(Level.WARNING, "flow published to topic failed", throwable);
+    done = true;
+  }
+
+  @Override
+  public void onNext(final T element) {
+    checkNotNull(element, "element must not be null");
+
+    if (!buffer.offer(element)) {
+      logger.warning("flow published more elements than were requested; subscription cancelled");
+      final Flow.@Nullable Subscription subscription = this.subscription;
+      if (subscription != null) {
+        subscription.cancel();
+      }
+      done = true;
+    }
+  }
+
+  @Override
+  public void onSubscribe(final Flow.Subscription subscription) {
+    checkNotNull(subscription, "subscription must not be null");
+
+    // a subscriber may only be subscribed to one flow (2.5)
+    synchronized (this) {
+      if ((this.subscription != null) || closed) {
+        subscription.cancel();
+        return;
+      }
+      this.subscription = subscription;
+    }
+    subscription.request(batchSize);
+  }
+
+  // publishes the elements received since the previous poll in a single batch
+  // and returns the number of elements published
+  int poll() {
+    if (publisherUnregistered) {
+      return 0;
+    }
+
+    // the elements of a flow are all received before it completes
+    final boolean done = this.done;
+    int publishedCount = 0;
+    if (!buffer.isEmpty()) {
+      try {
+        broker.runInBatch(publishAction);
+      } finally {
+        publishedCount = batch.size();
+        batch.clear();
+      }
+    }
+
+    final Flow.@Nullable Subscription subscription = this.subscription;
+    if (done) {
+      unregisterPublisher();
+    } else if ((publishedCount > 0) && (subscription != null)) {
+      subscription.request(publishedCount);
+    }
+    return publishedCount;
+  }
+
+  private void publishBatch() {
+    buffer.drainTo(batch);
+    final PublisherContext context = publisherToken.getPublisher().context;
+    for (int i = 0, size = batch.size(); i < size; ++i) {
+      context.publish(batch.get(i));
+    }
+  }
+
+  private void unregisterPublisher() {
+    if (!publisherUnregistered) {
+      publisherUnregistered = true;
+      publisherToken.unregister();
+    }
+  }
+
+  private static final class FlowPublisher implements Publisher {
+    final PublisherContext context;
+
+    FlowPublisher(final PublisherContext context) {
+      this.context = context;
+    }
+  }
+}
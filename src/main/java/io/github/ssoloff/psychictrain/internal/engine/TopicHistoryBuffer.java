@@ -0,0 +1,314 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicHistory;
+import io.github.ssoloff.psychictrain.api.engine.WindowAggregate;
+
+// The history of a topic retained by a broker, held in ring buffers
+// preallocated to the capacity of the history and indexed by sequence %
+// capacity, where a sequence numbers each value recorded since the buffer was
+// created. The values of Double, Integer and Long topics are held unboxed.
+//
+// The aggregates of a numeric topic are maintained as values are recorded and
+// evicted so that reading them is O(1): the sum is updated by adding and
+// subtracting, and the min and max are the heads of two monotonic deques of
+// sequences (ascending and descending values, respectively), from whose tails
+// a recorded value first removes the sequences it supersedes. Each sequence is
+// added to and removed from each deque at most once, so recording is amortized
+// O(1). The sum is maintained with Neumaier's compensated summation, which
+// carries the low-order bits lost by each addition and subtraction in a
+// separate compensation, so that evicting a value much larger than those that
+// remain does not leave its rounding error in the sum; both are also reset
+// whenever the history empties.
+//
+// Values published more than the duration of the history ago are evicted
+// both when a value is recorded and when the history is read.
+@ThreadSafe
+final class TopicHistoryBuffer {
+  private static final byte DOUBLE_VALUE_KIND = 1;
+  private static final byte INT_VALUE_KIND = 2;
+  private static final byte LONG_VALUE_KIND = 3;
+  private static final byte NUMBER_VALUE_KIND = 4;
+  private static final byte OBJECT_VALUE_KIND = 5;
+
+  private final int capacity;
+  // Long.MAX_VALUE if values do not expire
+  private final long durationNanos;
+  // the first sequence in the window
+  @GuardedBy("this")
+  private long firstSequence;
+  private final TopicHistory history;
+  // the monotonic deques hold sequences in rings one longer than the capacity
+  // of the history, so that a full deque is distinct from an empty one; each
+  // deque is the range [head, tail) of its ring
+  @GuardedBy("this")
+  private final long[] maxSequences;
+  @GuardedBy("this")
+  private int maxSequencesHead;
+  @GuardedBy("this")
+  private int maxSequencesTail;
+  @GuardedBy("this")
+  private final long[] minSequences;
+  @GuardedBy("this")
+  private int minSequencesHead;
+  @GuardedBy("this")
+  private int minSequencesTail;
+  // the sequence of the next value to be recorded
+  @GuardedBy("this")
+  private long nextSequence;
+  // null unless the values are numeric
+  @GuardedBy("this")
+  private final double @Nullable [] numericValues;
+  // null unless the values are held unboxed
+  @GuardedBy("this")
+  private final long @Nullable [] primitiveValues;
+  @GuardedBy("this")
+  private double sum;
+  // the low-order bits lost from the sum, which are added to it when read
+  @GuardedBy("this")
+  private double sumCompensation;
+  private final Ticker ticker;
+  // null unless values expire
+  @GuardedBy("this")
+  private final long @Nullable [] timestamps;
+  private final byte valueKind;
+  // null if the values are held unboxed
+  @GuardedBy("this")
+  private final @Nullable Object @Nullable [] values;
+
+  TopicHistoryBuffer(final Topic<?> topic, final TopicHistory history) {
+    checkArgument(history.isRetained(), "history must be retained");
+
+    final int capacity = history.getCapacity();
+    final Optional<Long> durationNanos = history.getDuration().map(Duration::toNanos);
+    final Class<?> type = topic.getTypeToken().getRawType();
+    final byte valueKind;
+    if (type == Double.class) {
+      valueKind = DOUBLE_VALUE_KIND;
+    } else if (type == Integer.class) {
+      valueKind = INT_VALUE_KIND;
+    } else if (type == Long.class) {
+      valueKind = LONG_VALUE_KIND;
+    } else if (Number.class.isAssignableFrom(type)) {
+      valueKind = NUMBER_VALUE_KIND;
+    } else {
+      valueKind = OBJECT_VALUE_KIND;
+    }
+    final boolean numeric = valueKind != OBJECT_VALUE_KIND;
+    final boolean unboxed = (valueKind != NUMBER_VALUE_KIND) && numeric;
+
+    this.capacity = capacity;
+    this.durationNanos = durationNanos.orElse(Long.MAX_VALUE);
+    this.history = history;
+    this.maxSequences = numeric ? new long[capacity + 1] : new long[0];
+    this.minSequences = numeric ? new long[capacity + 1] : new long[0];
+    this.numericValues = numeric ? new double[capacity] : null;
+    this.primitiveValues = unboxed ? new long[capacity] : null;
+    this.ticker = history.getTicker();
+    this.timestamps = durationNanos.isPresent() ? new long[capacity] : null;
+    this.valueKind = valueKind;
+    this.values = unboxed ? null : new Object[capacity];
+  }
+
+  @GuardedBy("this")
+  private void addToSum(final double value) {
+    final double newSum = sum + value;
+    if (Math.abs(sum) >= Math.abs(value)) {
+      sumCompensation += (sum - newSum) + value;
+    } else {
+      sumCompensation += (value - newSum) + sum;
+    }
+    sum = newSum;
+  }
+
+  // returns the current time, which is only read if values expire
+  @GuardedBy("this")
+  private long evictExpiredValues() {
+    final long @Nullable [] timestamps = this.timestamps;
+    if (timestamps == null) {
+      return 0L;
+    }
+
+    final long now = ticker.read();
+    while ((firstSequence < nextSequence) && ((now - timestamps[index(firstSequence)]) > durationNanos)) {
+      evictFirstValue();
+    }
+    return now;
+  }
+
+  @GuardedBy("this")
+  private void evictFirstValue() {
+    final int index = index(firstSequence);
+    final double @Nullable [] numericValues = this.numericValues;
+    if (numericValues != null) {
+      if ((minSequencesHead != minSequencesTail) && (minSequences[minSequencesHead] == firstSequence)) {
+        minSequencesHead = nextDequeIndex(minSequencesHead);
+      }
+      if ((maxSequencesHead != maxSequencesTail) && (maxSequences[maxSequencesHead] == firstSequence)) {
+        maxSequencesHead = nextDequeIndex(maxSequencesHead);
+      }
+      addToSum(-numericValues[index]);
+    }
+    final @Nullable Object @Nullable [] values = this.values;
+    if (values != null) {
+      values[index] = null;
+    }
+    ++firstSequence;
+    if (firstSequence == nextSequence) {
+      sum = 0.0;
+      sumCompensation = 0.0;
+    }
+  }
+
+  synchronized WindowAggregate getAggregate() {
+    evictExpiredValues();
+
+    final double @Nullable [] numericValues = this.numericValues;
+    if ((numericValues == null) || (firstSequence == nextSequence)) {
+      return WindowAggregate.empty();
+    }
+    return WindowAggregate.of(
+        (int) (nextSequence - firstSequence),
+        sum + sumCompensation,
+        numericValues[index(minSequences[minSequencesHead])],
+        numericValues[index(maxSequences[maxSequencesHead])]);
+  }
+
+  TopicHistory getHistory() {
+    return history;
+  }
+
+  // returns the values in the order in which they were recorded
+  synchronized <@NonNull T> List<T> getValues() {
+    evictExpiredValues();
+
+    final ImmutableList.Builder<Object> valuesBuilder = ImmutableList.builderWithExpectedSize(
+        (int) (nextSequence - firstSequence));
+    for (long sequence = firstSequence; sequence < nextSequence; ++sequence) {
+      valuesBuilder.add(getValue(index(sequence)));
+    }
+    @SuppressWarnings("unchecked")
+    final List<T> typedValues = (List<T>) valuesBuilder.build();
+    return typedValues;
+  }
+
+  @GuardedBy("this")
+  private Object getValue(final int index) {
+    final long @Nullable [] primitiveValues = this.primitiveValues;
+    final @Nullable Object @Nullable [] values = this.values;
+    switch (valueKind) {
+      case DOUBLE_VALUE_KIND:
+        assert primitiveValues != null;
+        return Double.longBitsToDouble(primitiveValues[index]);
+
+      case INT_VALUE_KIND:
+        assert primitiveValues != null;
+        return (int) primitiveValues[index];
+
+      case LONG_VALUE_KIND:
+        assert primitiveValues != null;
+        return primitiveValues[index];
+
+      default:
+        assert values != null;
+        final @Nullable Object value = values[index];
+        assert value != null;
+        return value;
+    }
+  }
+
+  private int index(final long sequence) {
+    return (int) (sequence % capacity);
+  }
+
+  private int nextDequeIndex(final int index) {
+    return (index == capacity) ? 0 : (index + 1);
+  }
+
+  private int previousDequeIndex(final int index) {
+    return (index == 0) ? capacity : (index - 1);
+  }
+
+  // records the current value of the publisher entry, which must have one
+  synchronized void record(final PublisherEntry publisherEntry) {
+    final long now = evictExpiredValues();
+    if ((nextSequence - firstSequence) == capacity) {
+      evictFirstValue();
+    }
+
+    final int index = index(nextSequence);
+    final long @Nullable [] primitiveValues = this.primitiveValues;
+    final @Nullable Object @Nullable [] values = this.values;
+    final double numericValue;
+    switch (valueKind) {
+      case DOUBLE_VALUE_KIND:
+        assert primitiveValues != null;
+        numericValue = publisherEntry.getDoubleValue();
+        primitiveValues[index] = Double.doubleToRawLongBits(numericValue);
+        break;
+
+      case INT_VALUE_KIND:
+        assert primitiveValues != null;
+        primitiveValues[index] = publisherEntry.getIntValue();
+        numericValue = primitiveValues[index];
+        break;
+
+      case LONG_VALUE_KIND:
+        assert primitiveValues != null;
+        primitiveValues[index] = publisherEntry.getLongValue();
+        numericValue = primitiveValues[index];
+        break;
+
+      case NUMBER_VALUE_KIND:
+        assert values != null;
+        final Number number = publisherEntry.getValue();
+        values[index] = number;
+        numericValue = number.doubleValue();
+        break;
+
+      default:
+        assert values != null;
+        values[index] = publisherEntry.getValue();
+        numericValue = 0.0;
+        break;
+    }
+
+    final long @Nullable [] timestamps = this.timestamps;
+    if (timestamps != null) {
+      timestamps[index] = now;
+    }
+    final double @Nullable [] numericValues = this.numericValues;
+    if (numericValues != null) {
+      numericValues[index] = numericValue;
+      addToSum(numericValue);
+      while ((minSequencesHead != minSequencesTail)
+          && (numericValues[index(minSequences[previousDequeIndex(minSequencesTail)])] >= numericValue)) {
+        minSequencesTail = previousDequeIndex(minSequencesTail);
+      }
+      minSequences[minSequencesTail] = nextSequence;
+      minSequencesTail = nextDequeIndex(minSequencesTail);
+      while ((maxSequencesHead != maxSequencesTail)
+          && (numericValues[index(maxSequences[previousDequeIndex(maxSequencesTail)])] <= numericValue)) {
+        maxSequencesTail = previousDequeIndex(maxSequencesTail);
+      }
+      maxSequences[maxSequencesTail] = nextSequence;
+      maxSequencesTail = nextDequeIndex(maxSequencesTail);
+    }
+    ++nextSequence;
+  }
+}
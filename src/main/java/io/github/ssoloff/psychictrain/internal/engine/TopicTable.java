@@ -0,0 +1,147 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+
+// maps topics to values with an open-addressing hash table keyed by the id of
+// each topic, so a lookup neither hashes nor compares topics, and the table is
+// sized to the topics it holds rather than to the largest id in use
+//
+// Each slot of the hash table holds a topic and the index of its value in a
+// dense list of values. A value is removed by moving the last value into its
+// place, and a slot is removed by shifting the slots that follow it in its
+// probe sequence back, so removal is O(1) and leaves no tombstones. The table
+// holds its topics, so their ids cannot be reused while they are in the table.
+@NotThreadSafe
+final class TopicTable<@NonNull V> {
+  private static final int INITIAL_SLOT_COUNT = 16;
+
+  // in no particular order, for iteration
+  private final List<V> values = new ArrayList<>();
+  private final List<V> unmodifiableValues = Collections.unmodifiableList(values);
+  // the topics of the values, in the same order as the values
+  private final List<Topic<?>> topics = new ArrayList<>();
+  // the indexes of the values of the topics in the slots of the hash table
+  private int[] slotIndexes = new int[INITIAL_SLOT_COUNT];
+  // null for an empty slot
+  private @Nullable Topic<?>[] slotTopics = new Topic<?>[INITIAL_SLOT_COUNT];
+
+  V computeIfAbsent(final Topic<?> topic, final Function<Topic<?>, V> valueFactory) {
+    final int slot = findSlot(topic);
+    if (slotTopics[slot] != null) {
+      return values.get(slotIndexes[slot]);
+    }
+
+    final V newValue = valueFactory.apply(topic);
+    // the value factory may have modified this table
+    put(topic, newValue);
+    return newValue;
+  }
+
+  // returns the slot of the specified topic or, if it is not in this table, the
+  // empty slot at which it would be added
+  private int findSlot(final Topic<?> topic) {
+    final @Nullable Topic<?>[] slotTopics = this.slotTopics;
+    final int mask = slotTopics.length - 1;
+    for (int slot = getHomeSlot(topic, mask);; slot = (slot + 1) & mask) {
+      final @Nullable Topic<?> slotTopic = slotTopics[slot];
+      if ((slotTopic == null) || (slotTopic == topic)) {
+        return slot;
+      }
+    }
+  }
+
+  @Nullable V get(final Topic<?> topic) {
+    final int slot = findSlot(topic);
+    return (slotTopics[slot] != null) ? values.get(slotIndexes[slot]) : null;
+  }
+
+  private static int getHomeSlot(final Topic<?> topic, final int mask) {
+    // ids are assigned consecutively, so they are spread by a multiplicative
+    // hash before being masked
+    final int hash = topic.getId() * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  private void put(final Topic<?> topic, final V value) {
+    // the load factor is kept at or below one half
+    if ((values.size() + 1) * 2 > slotTopics.length) {
+      resize(slotTopics.length * 2);
+    }
+
+    final int slot = findSlot(topic);
+    assert slotTopics[slot] == null;
+    slotTopics[slot] = topic;
+    slotIndexes[slot] = values.size();
+    topics.add(topic);
+    values.add(value);
+  }
+
+  void remove(final Topic<?> topic) {
+    final int slot = findSlot(topic);
+    if (slotTopics[slot] == null) {
+      return;
+    }
+
+    final int index = slotIndexes[slot];
+    final int lastIndex = values.size() - 1;
+    if (index != lastIndex) {
+      final Topic<?> lastTopic = topics.get(lastIndex);
+      topics.set(index, lastTopic);
+      values.set(index, values.get(lastIndex));
+      slotIndexes[findSlot(lastTopic)] = index;
+    }
+    topics.remove(lastIndex);
+    values.remove(lastIndex);
+    removeSlot(slot);
+  }
+
+  // empties the specified slot and shifts back each slot that follows it in the
+  // same run of occupied slots and that would otherwise no longer be reachable
+  // from its home slot
+  private void removeSlot(final int slot) {
+    final @Nullable Topic<?>[] slotTopics = this.slotTopics;
+    final int mask = slotTopics.length - 1;
+    int emptySlot = slot;
+    for (int nextSlot = (slot + 1) & mask;; nextSlot = (nextSlot + 1) & mask) {
+      final @Nullable Topic<?> nextTopic = slotTopics[nextSlot];
+      if (nextTopic == null) {
+        break;
+      }
+
+      // the next topic may fill the empty slot unless its home slot lies
+      // cyclically after the empty slot and at or before the next slot
+      final int homeSlot = getHomeSlot(nextTopic, mask);
+      if (((nextSlot - homeSlot) & mask) >= ((nextSlot - emptySlot) & mask)) {
+        slotTopics[emptySlot] = nextTopic;
+        slotIndexes[emptySlot] = slotIndexes[nextSlot];
+        emptySlot = nextSlot;
+      }
+    }
+    slotTopics[emptySlot] = null;
+  }
+
+  private void resize(final int slotCount) {
+    slotTopics = new Topic<?>[slotCount];
+    slotIndexes = new int[slotCount];
+    for (int i = 0, size = topics.size(); i < size; ++i) {
+      final int slot = findSlot(topics.get(i));
+      slotTopics[slot] = topics.get(i);
+      slotIndexes[slot] = i;
+    }
+  }
+
+  Collection<V> values() {
+    return unmodifiableValues;
+  }
+}
@@ -0,0 +1,61 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import java.util.Objects;
+
+import javax.annotation.concurrent.Immutable;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.common.base.MoreObjects;
+
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+
+// a value of a topic, as emitted by a TopicFlowPublisher
+@Immutable
+final class TopicValue<@NonNull T> {
+  private final Topic<T> topic;
+  private final T value;
+
+  private TopicValue(final Topic<T> topic, final T value) {
+    this.topic = topic;
+    this.value = value;
+  }
+
+  @Override
+  public boolean equals(final @Nullable Object obj) {
+    if (obj == this) {
+      return true;
+    } else if (!(obj instanceof TopicValue)) {
+      return false;
+    }
+
+    final TopicValue<?> other = (TopicValue<?>) obj;
+    return Objects.equals(topic, other.topic) && Objects.equals(value, other.value);
+  }
+
+  Topic<T> getTopic() {
+    return topic;
+  }
+
+  T getValue() {
+    return value;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(topic, value);
+  }
+
+  static <@NonNull T> TopicValue<T> of(final Topic<T> topic, final T value) {
+    return new TopicValue<>(topic, value);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("topic", topic)
+        .add("value", value)
+        .toString();
+  }
+}
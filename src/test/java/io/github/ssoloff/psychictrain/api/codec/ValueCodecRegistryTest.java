@@ -0,0 +1,99 @@
+package io.github.ssoloff.psychictrain.api.codec;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.reflect.TypeToken;
+
+public final class ValueCodecRegistryTest {
+  private static <T> T roundTrip(final ValueCodec<T> codec, final T value) {
+    final ByteBuffer buffer = ByteBuffer.allocate(64);
+    codec.encode(value, buffer);
+    buffer.flip();
+    return codec.decode(buffer);
+  }
+
+  @SuppressWarnings("static-method")
+  @Test
+  public void shouldProvideDefaultCodecsThatRoundTripValues() {
+    final ValueCodecRegistry codecRegistry = ValueCodecRegistry.defaults();
+
+    assertThat(roundTrip(codecRegistry.getCodec(TypeToken.of(Boolean.class)).get(), true), is(true));
+    assertThat(roundTrip(codecRegistry.getCodec(TypeToken.of(Double.class)).get(), 42.0), is(42.0));
+    assertThat(roundTrip(codecRegistry.getCodec(TypeToken.of(Integer.class)).get(), 42), is(42));
+    assertThat(roundTrip(codecRegistry.getCodec(TypeToken.of(Long.class)).get(), 42L), is(42L));
+    assertThat(roundTrip(codecRegistry.getCodec(TypeToken.of(String.class)).get(), "foo"), is("foo"));
+  }
+
+  @SuppressWarnings("static-method")
+  @Test
+  public void shouldLookUpCodecByName() {
+    assertThat(ValueCodecRegistry.defaults().getCodec("int"), is(Optional.of(ValueCodecs.intCodec())));
+    assertThat(ValueCodecRegistry.empty().getCodec("int"), is(Optional.empty()));
+  }
+
+  @SuppressWarnings("static-method")
+  @Test
+  public void shouldReplaceCodecRegisteredForSameType() {
+    final ValueCodec<Integer> codec = new ValueCodec<Integer>() {
+      @Override
+      public Integer decode(final ByteBuffer buffer) {
+        return (int) buffer.getShort();
+      }
+
+      @Override
+      public void encode(final Integer value, final ByteBuffer buffer) {
+        buffer.putShort(value.shortValue());
+      }
+
+      @Override
+      public String getName() {
+        return "short-int";
+      }
+
+      @Override
+      public TypeToken<Integer> getTypeToken() {
+        return TypeToken.of(Integer.class);
+      }
+    };
+
+    final ValueCodecRegistry codecRegistry = ValueCodecRegistry.defaults().withCodec(codec);
+
+    assertThat(codecRegistry.getCodec(TypeToken.of(Integer.class)), is(Optional.of(codec)));
+    assertThat(codecRegistry.getCodec("int"), is(Optional.empty()));
+  }
+
+  @SuppressWarnings("static-method")
+  @Test
+  public void shouldThrowExceptionWhenCodecNameIsRegisteredForAnotherType() {
+    final ValueCodec<Long> codec = new ValueCodec<Long>() {
+      @Override
+      public Long decode(final ByteBuffer buffer) {
+        return buffer.getLong();
+      }
+
+      @Override
+      public void encode(final Long value, final ByteBuffer buffer) {
+        buffer.putLong(value);
+      }
+
+      @Override
+      public String getName() {
+        return "int";
+      }
+
+      @Override
+      public TypeToken<Long> getTypeToken() {
+        return TypeToken.of(Long.class);
+      }
+    };
+
+    assertThrows(IllegalArgumentException.class, () -> ValueCodecRegistry.defaults().withCodec(codec));
+  }
+}
@@ -1,38 +1,67 @@
 package io.github.ssoloff.psychictrain.api.engine;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.containsStringIgnoringCase;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.clearInvocations;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 import javax.inject.Inject;
 
 import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multimap;
+import com.google.common.reflect.TypeToken;
+import com.sun.management.ThreadMXBean;
 
+import io.github.ssoloff.psychictrain.api.metrics.MetricsRecorder;
+import io.github.ssoloff.psychictrain.api.metrics.MetricsSnapshot;
+import io.github.ssoloff.psychictrain.api.metrics.SubscriberMetrics;
 import io.github.ssoloff.psychictrain.internal.util.None;
 
 @ExtendWith(MockitoExtension.class)
@@ -40,8 +69,15 @@ public abstract class AbstractBrokerTestCase {
   private static final Topic<Integer> TOPIC_1 = Topic.of("topic1", Integer.class);
   private static final Topic<String> TOPIC_2 = Topic.of("topic2", String.class);
   private static final Topic<Double> TOPIC_3 = Topic.of("topic3", Double.class);
+  private static final Topic<Long> TOPIC_4 = Topic.of("topic4", Long.class);
+  private static final Topic<Integer> DERIVED_TOPIC_1 = Topic.of("derivedTopic1", Integer.class);
+  private static final Topic<Integer> DERIVED_TOPIC_2 = Topic.of("derivedTopic2", Integer.class);
+  private static final TopicHistory HISTORY = TopicHistory.ofLastValues(3);
+  private static final Topic<Integer> HISTORY_TOPIC_1 = Topic.of("historyTopic1", Integer.class);
+  private static final Topic<String> HISTORY_TOPIC_2 = Topic.of("historyTopic2", String.class);
 
-  private final Broker broker = createBroker();
+  private final MetricsRecorder metricsRecorder = new MetricsRecorder();
+  private final Broker broker = createBroker(metricsRecorder);
 
   @Inject
   @Mock
@@ -50,12 +86,19 @@ public abstract class AbstractBrokerTestCase {
   protected AbstractBrokerTestCase() {
   }
 
-  protected abstract Broker createBroker();
+  protected abstract Broker createBroker(BrokerInstrumentation instrumentation);
 
   private <@NonNull T> PublisherToken<FakePublisher<T>> registerPublisher(final Topic<T> topic) {
     return broker.registerPublisher(topic, FakePublisher.newFactory());
   }
 
+  private <@NonNull T> PublisherToken<FakePublisher<T>> registerPublisherWithHistory(final Topic<T> topic) {
+    return broker.registerPublisher(
+        topic,
+        FakePublisher.newFactory(),
+        PublisherOptions.defaults().withHistory(HISTORY));
+  }
+
   private SubscriberToken<FakeSubscriber> registerSubscriber(
       final Topic<?> topic1,
       final @NonNull Topic<?>... otherTopics) {
@@ -65,20 +108,1055 @@ public abstract class AbstractBrokerTestCase {
   }
 
   @Nested
-  public final class PublisherContextTest {
+  public final class AsynchronousSubscriberNotificationTest {
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    private SubscriberToken<FakeSubscriber> registerAsynchronousSubscriber(
+        final Topic<?> topic1,
+        final @NonNull Topic<?>... otherTopics) {
+      return broker.registerSubscriber(
+          TopicMatcher.forTopics(topic1, otherTopics),
+          FakeSubscriber.newFactory(topicsChangedConsumer),
+          SubscriberOptions.defaults().withExecutor(tasks::add));
+    }
+
+    private void runPendingTasks() {
+      for (@Nullable Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+        task.run();
+      }
+    }
+
+    @Test
+    public void shouldNotNotifySubscriberOnPublishingThread() {
+      final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
+      registerAsynchronousSubscriber(TOPIC_1);
+
+      publisherToken.getPublisher().publish(42);
+
+      verify(topicsChangedConsumer, never()).accept(any());
+    }
+
+    @Test
+    public void shouldNotifySubscriberInPublicationOrderWhenExecutorRuns() {
+      final PublisherToken<FakePublisher<Integer>> publisherToken1 = registerPublisher(TOPIC_1);
+      final PublisherToken<FakePublisher<String>> publisherToken2 = registerPublisher(TOPIC_2);
+      registerAsynchronousSubscriber(TOPIC_1, TOPIC_2);
+      runPendingTasks();
+      clearInvocations(new Object[] { topicsChangedConsumer });
+
+      publisherToken2.getPublisher().publish("foo");
+      publisherToken1.getPublisher().publish(42);
+      publisherToken2.getPublisher().publish("bar");
+      runPendingTasks();
+
+      final InOrder inOrder = inOrder(topicsChangedConsumer);
+      inOrder.verify(topicsChangedConsumer).accept(ImmutableSet.of(TOPIC_2));
+      inOrder.verify(topicsChangedConsumer).accept(ImmutableSet.of(TOPIC_1));
+      inOrder.verify(topicsChangedConsumer).accept(ImmutableSet.of(TOPIC_2));
+    }
+
+    @Test
+    public void shouldNotNotifySubscriberUnregisteredBeforeExecutorRuns() {
+      final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
+      final SubscriberToken<FakeSubscriber> subscriberToken = registerAsynchronousSubscriber(TOPIC_1);
+
+      publisherToken.getPublisher().publish(42);
+      subscriberToken.unregister();
+      runPendingTasks();
+
+      verify(topicsChangedConsumer, never()).accept(any());
+    }
+
+    @Test
+    public void shouldContinueNotifyingSubscriberAfterSubscriberFails() {
+      final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
+      registerAsynchronousSubscriber(TOPIC_1);
+      runPendingTasks();
+      doThrow(IllegalStateException.class).doNothing().when(topicsChangedConsumer).accept(any());
+
+      publisherToken.getPublisher().publish(42);
+      publisherToken.getPublisher().publish(2112);
+      runPendingTasks();
+
+      verify(topicsChangedConsumer, times(3)).accept(ImmutableSet.of(TOPIC_1));
+    }
+  }
+
+  @Nested
+  public final class BoundedSubscriberNotificationTest {
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    private SubscriberToken<FakeSubscriber> registerBoundedSubscriber(
+        final int queueCapacity,
+        final OverflowPolicy overflowPolicy) {
+      final SubscriberToken<FakeSubscriber> subscriberToken = broker.registerSubscriber(
+          TopicMatcher.forTopics(TOPIC_1, TOPIC_2),
+          FakeSubscriber.newFactory(topicsChangedConsumer),
+          SubscriberOptions.defaults().withExecutor(tasks::add).withQueueCapacity(queueCapacity, overflowPolicy));
+      runPendingTasks();
+      clearInvocations(new Object[] { topicsChangedConsumer });
+      return subscriberToken;
+    }
+
+    private void runPendingTasks() {
+      for (@Nullable Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+        task.run();
+      }
+    }
+
+    @Test
+    public void shouldDiscardArrivingNotificationWhenQueueFullAndPolicyIsDropNewest() {
+      final PublisherToken<FakePublisher<Integer>> publisherToken1 = registerPublisher(TOPIC_1);
+      final PublisherToken<FakePublisher<String>> publisherToken2 = registerPublisher(TOPIC_2);
+      registerBoundedSubscriber(2, OverflowPolicy.DROP_NEWEST);
+
+      publisherToken2.getPublisher().publish("foo");
+      publisherToken1.getPublisher().publish(42);
+      publisherToken2.getPublisher().publish("bar");
+      runPendingTasks();
+
+      final InOrder inOrder = inOrder(topicsChangedConsumer);
+      inOrder.verify(topicsChangedConsumer).accept(ImmutableSet.of(TOPIC_2));
+      inOrder.verify(topicsChangedConsumer).accept(ImmutableSet.of(TOPIC_1));
+      verifyNoMoreInteractions(topicsChangedConsumer);
+    }
+
+    @Test
+    public void shouldDiscardOldestNotificationWhenQueueFullAndPolicyIsDropOldest() {
+      final PublisherToken<FakePublisher<Integer>> publisherToken1 = registerPublisher(TOPIC_1);
+      final PublisherToken<FakePublisher<String>> publisherToken2 = registerPublisher(TOPIC_2);
+      registerBoundedSubscriber(2, OverflowPolicy.DROP_OLDEST);
+
+      publisherToken2.getPublisher().publish("foo");
+      publisherToken1.getPublisher().publish(42);
+      publisherToken2.getPublisher().publish("bar");
+      runPendingTasks();
+
+      final InOrder inOrder = inOrder(topicsChangedConsumer);
+      inOrder.verify(topicsChangedConsumer).accept(ImmutableSet.of(TOPIC_1));
+      inOrder.verify(topicsChangedConsumer).accept(ImmutableSet.of(TOPIC_2));
+      verifyNoMoreInteractions(topicsChangedConsumer);
+    }
+
+    @Test
+    public void shouldCollapseQueuedNotificationsWhenQueueFullAndPolicyIsCollapse() {
+      final PublisherToken<FakePublisher<Integer>> publisherToken1 = registerPublisher(TOPIC_1);
+      final PublisherToken<FakePublisher<String>> publisherToken2 = registerPublisher(TOPIC_2);
+      registerBoundedSubscriber(2, OverflowPolicy.COLLAPSE);
+
+      publisherToken2.getPublisher().publish("foo");
+      publisherToken1.getPublisher().publish(42);
+      publisherToken2.getPublisher().publish("bar");
+      runPendingTasks();
+
+      verify(topicsChangedConsumer).accept(ImmutableSet.of(TOPIC_1, TOPIC_2));
+      verifyNoMoreInteractions(topicsChangedConsumer);
+    }
+
+    @Test
+    public void shouldReportDroppedNotificationsAndMaxQueueDepth() {
+      final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
+      final FakeSubscriber subscriber = registerBoundedSubscriber(1, OverflowPolicy.DROP_NEWEST).getSubscriber();
+      metricsRecorder.snapshot();
+
+      publisherToken.getPublisher().publish(42);
+      publisherToken.getPublisher().publish(2112);
+      publisherToken.getPublisher().publish(-1);
+
+      final SubscriberMetrics subscriberMetrics = metricsRecorder.snapshot().getSubscriberMetrics().get(subscriber);
+      assertThat(subscriberMetrics.getDroppedNotificationCount(), is(2L));
+      assertThat(subscriberMetrics.getMaxQueueDepth(), is(1));
+    }
+  }
+
+  @Nested
+  public final class ConflatedSubscriberNotificationTest {
+    private static final long CONFLATION_INTERVAL_NANOS = 1_000L;
+
+    private long now;
+    private final Ticker ticker = new Ticker() {
+      @Override
+      public long read() {
+        return now;
+      }
+    };
+
+    private SubscriberToken<FakeSubscriber> registerConflatedSubscriber(
+        final Topic<?> topic1,
+        final @NonNull Topic<?>... otherTopics) {
+      return broker.registerSubscriber(
+          TopicMatcher.forTopics(topic1, otherTopics),
+          FakeSubscriber.newFactory(topicsChangedConsumer),
+          SubscriberOptions.defaults()
+              .withConflationInterval(Duration.ofNanos(CONFLATION_INTERVAL_NANOS))
+              .withTicker(ticker));
+    }
+
+    private SubscriberToken<FakeSubscriber> registerConflatedSubscriber(
+        final ScheduledExecutorService scheduler,
+        final Topic<?> topic1,
+        final @NonNull Topic<?>... otherTopics) {
+      return broker.registerSubscriber(
+          TopicMatcher.forTopics(topic1, otherTopics),
+          FakeSubscriber.newFactory(topicsChangedConsumer),
+          SubscriberOptions.defaults()
+              .withConflationInterval(Duration.ofNanos(CONFLATION_INTERVAL_NANOS), scheduler)
+              .withTicker(ticker));
+    }
+
+    @Test
+    public void shouldNotifySubscriberOfFirstChangeImmediately() {
+      registerPublisher(TOPIC_1);
+
+      registerConflatedSubscriber(TOPIC_1);
+
+      verify(topicsChangedConsumer).accept(ImmutableSet.of(TOPIC_1));
+    }
+
+    @Test
+    public void shouldNotNotifySubscriberOfChangesWithinConflationInterval() {
+      final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
+      registerConflatedSubscriber(TOPIC_1);
+      clearInvocations(new Object[] { topicsChangedConsumer });
+
+      now += CONFLATION_INTERVAL_NANOS - 1L;
+      publisherToken.getPublisher().publish(42);
+      publisherToken.getPublisher().publish(2112);
+
+      verify(topicsChangedConsumer, never()).accept(any());
+    }
+
+    @Test
+    public void shouldNotifySubscriberOnceOfAllConflatedChangesAfterConflationIntervalElapses() {
+      final PublisherToken<FakePublisher<Integer>> publisherToken1 = registerPublisher(TOPIC_1);
+      final PublisherToken<FakePublisher<String>> publisherToken2 = registerPublisher(TOPIC_2);
+      final SubscriberToken<FakeSubscriber> subscriberToken = registerConflatedSubscriber(TOPIC_1, TOPIC_2);
+      clearInvocations(new Object[] { topicsChangedConsumer });
+      final List<Collection<?>> observedValues = new ArrayList<>();
+      doAnswer(invocation -> observedValues.add(
+          subscriberToken.getSubscriber().getContext().getValuesForTopic(TOPIC_1)))
+              .when(topicsChangedConsumer).accept(any());
+
+      publisherToken1.getPublisher().publish(42);
+      publisherToken2.getPublisher().publish("foo");
+      now += CONFLATION_INTERVAL_NANOS;
+      publisherToken1.getPublisher().publish(2112);
+
+      verify(topicsChangedConsumer).accept(ImmutableSet.of(TOPIC_1, TOPIC_2));
+      assertThat(observedValues, contains(contains(2112)));
+    }
+
+    @Test
+    public void shouldNotifySubscriberOfConflatedChangesWhenFlushed() {
+      final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
+      final SubscriberToken<FakeSubscriber> subscriberToken = registerConflatedSubscriber(TOPIC_1);
+      clearInvocations(new Object[] { topicsChangedConsumer });
+      publisherToken.getPublisher().publish(42);
+
+      subscriberToken.flush();
+      subscriberToken.flush();
+
+      verify(topicsChangedConsumer).accept(ImmutableSet.of(TOPIC_1));
+    }
+
+    @Test
+    public void shouldNotNotifySubscriberWhenFlushedWithoutConflatedChanges() {
+      registerPublisher(TOPIC_1);
+      final SubscriberToken<FakeSubscriber> subscriberToken = registerConflatedSubscriber(TOPIC_1);
+      clearInvocations(new Object[] { topicsChangedConsumer });
+
+      subscriberToken.flush();
+
+      verify(topicsChangedConsumer, never()).accept(any());
+    }
+
+    @Test
+    public void shouldNotNotifySubscriberOfConflatedChangesWhenConflationIntervalElapsesWithoutScheduler() {
+      final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
+      registerConflatedSubscriber(TOPIC_1);
+      clearInvocations(new Object[] { topicsChangedConsumer });
+      publisherToken.getPublisher().publish(42);
+
+      now += CONFLATION_INTERVAL_NANOS;
+
+      verify(topicsChangedConsumer, never()).accept(any());
+    }
+
+    @Test
+    public void shouldNotifySubscriberOfConflatedChangesWhenConflationIntervalElapsesWithScheduler() {
+      final ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+      final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
+      registerConflatedSubscriber(scheduler, TOPIC_1);
+      clearInvocations(new Object[] { topicsChangedConsumer });
+      now += 1L;
+      publisherToken.getPublisher().publish(42);
+      publisherToken.getPublisher().publish(2112);
+      final ArgumentCaptor<Runnable> deadlineActionCaptor = ArgumentCaptor.forClass(Runnable.class);
+      verify(scheduler).schedule(
+          deadlineActionCaptor.capture(),
+          eq(CONFLATION_INTERVAL_NANOS - 1L),
+          eq(TimeUnit.NANOSECONDS));
+      verify(topicsChangedConsumer, never()).accept(any());
+
+      now += CONFLATION_INTERVAL_NANOS;
+      deadlineActionCaptor.getValue().run();
+
+      verify(topicsChangedConsumer).accept(ImmutableSet.of(TOPIC_1));
+    }
+
+    @Test
+    public void shouldRescheduleDeadlineWhenConflationIntervalHasNotElapsed() {
+      final ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+      final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
+      registerConflatedSubscriber(scheduler, TOPIC_1);
+      clearInvocations(new Object[] { topicsChangedConsumer });
+      publisherToken.getPublisher().publish(42);
+      final ArgumentCaptor<Runnable> deadlineActionCaptor = ArgumentCaptor.forClass(Runnable.class);
+      verify(scheduler).schedule(
+          deadlineActionCaptor.capture(),
+          eq(CONFLATION_INTERVAL_NANOS),
+          eq(TimeUnit.NANOSECONDS));
+
+      now += CONFLATION_INTERVAL_NANOS - 10L;
+      deadlineActionCaptor.getValue().run();
+
+      verify(topicsChangedConsumer, never()).accept(any());
+      verify(scheduler).schedule(any(Runnable.class), eq(10L), eq(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void shouldNotNotifyUnregisteredSubscriberWhenFlushed() {
+      final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
+      final SubscriberToken<FakeSubscriber> subscriberToken = registerConflatedSubscriber(TOPIC_1);
+      clearInvocations(new Object[] { topicsChangedConsumer });
+      publisherToken.getPublisher().publish(42);
+
+      subscriberToken.unregister();
+      subscriberToken.flush();
+
+      verify(topicsChangedConsumer, never()).accept(any());
+    }
+  }
+
+  @Nested
+  public final class DerivedTopicTest {
+    private final AtomicInteger computationCount = new AtomicInteger();
+
+    // the sum of the values of TOPIC_1, or no value if it has none
+    private DerivedTopicToken registerSumOfTopic1() {
+      return broker.registerDerivedTopic(DERIVED_TOPIC_1, TopicMatcher.forTopic(TOPIC_1), inputContext -> {
+        computationCount.incrementAndGet();
+        final Collection<Integer> values = inputContext.getValuesForTopic(TOPIC_1);
+        return values.isEmpty() ? null : values.stream().mapToInt(Integer::intValue).sum();
+      });
+    }
+
+    private Collection<Integer> getValuesForTopic(final Topic<Integer> topic) {
+      return registerSubscriber(topic).getSubscriber().getContext().getValuesForTopic(topic);
+    }
+
+    @Test
+    public void shouldNotComputeValueUntilRead() {
+      final FakePublisher<Integer> publisher = registerPublisher(TOPIC_1).getPublisher();
+      registerSumOfTopic1();
+      publisher.publish(1);
+      publisher.publish(2);
+      assertThat(computationCount.get(), is(0));
+
+      assertThat(getValuesForTopic(DERIVED_TOPIC_1), contains(2));
+      assertThat(computationCount.get(), is(1));
+    }
+
+    @Test
+    public void shouldMemoizeValueUntilInputChanges() {
+      final FakePublisher<Integer> publisher1 = registerPublisher(TOPIC_1).getPublisher();
+      final FakePublisher<Integer> publisher2 = registerPublisher(TOPIC_1).getPublisher();
+      registerSumOfTopic1();
+      publisher1.publish(1);
+      publisher2.publish(2);
+      final SubscriberContext subscriberContext = registerSubscriber(DERIVED_TOPIC_1).getSubscriber().getContext();
+
+      assertThat(subscriberContext.getValuesForTopic(DERIVED_TOPIC_1), contains(3));
+      assertThat(subscriberContext.getValuesForTopic(DERIVED_TOPIC_1), contains(3));
+      assertThat(computationCount.get(), is(1));
+
+      publisher2.publish(40);
+
+      assertThat(subscriberContext.getValuesForTopic(DERIVED_TOPIC_1), contains(41));
+      assertThat(computationCount.get(), is(2));
+    }
+
+    @Test
+    public void shouldNotifySubscribersWithoutComputingValueWhenInputChanges() {
+      final FakePublisher<Integer> publisher = registerPublisher(TOPIC_1).getPublisher();
+      registerSumOfTopic1();
+      registerSubscriber(DERIVED_TOPIC_1);
+      clearInvocations(new Object[] { topicsChangedConsumer });
+
+      publisher.publish(42);
+
+      verify(topicsChangedConsumer).accept(ImmutableSet.of(DERIVED_TOPIC_1));
+      assertThat(computationCount.get(), is(0));
+    }
+
+    @Test
+    public void shouldHaveNoValueWhenFunctionReturnsNull() {
+      registerSumOfTopic1();
+
+      assertThat(getValuesForTopic(DERIVED_TOPIC_1), is(empty()));
+    }
+
+    @Test
+    public void shouldComputeDerivedTopicOfDerivedTopic() {
+      final FakePublisher<Integer> publisher = registerPublisher(TOPIC_1).getPublisher();
+      registerSumOfTopic1();
+      broker.registerDerivedTopic(
+          DERIVED_TOPIC_2,
+          TopicMatcher.forTopic(DERIVED_TOPIC_1),
+          inputContext -> inputContext.getValuesForTopic(DERIVED_TOPIC_1).stream()
+              .map(value -> value * 2)
+              .findFirst()
+              .orElse(null));
+      publisher.publish(21);
+
+      assertThat(getValuesForTopic(DERIVED_TOPIC_2), contains(42));
+    }
+
+    @Test
+    public void shouldRemoveValueWhenUnregistered() {
+      registerPublisher(TOPIC_1).getPublisher().publish(42);
+      final DerivedTopicToken derivedTopicToken = registerSumOfTopic1();
+      final SubscriberContext subscriberContext = registerSubscriber(DERIVED_TOPIC_1).getSubscriber().getContext();
+      assertThat(subscriberContext.getValuesForTopic(DERIVED_TOPIC_1), contains(42));
+
+      derivedTopicToken.unregister();
+
+      assertThat(subscriberContext.getValuesForTopic(DERIVED_TOPIC_1), is(empty()));
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenTopicRetainsHistory() {
+      final FakePublisher<Integer> publisher = registerPublisherWithHistory(DERIVED_TOPIC_1).getPublisher();
+      publisher.publish(1);
+
+      assertThrows(IllegalArgumentException.class, () -> registerSumOfTopic1());
+
+      publisher.publish(2);
+      final SubscriberContext subscriberContext = registerSubscriber(DERIVED_TOPIC_1).getSubscriber().getContext();
+      assertThat(subscriberContext.getHistoryForTopic(DERIVED_TOPIC_1), contains(1, 2));
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenPublisherSpecifiesHistory() {
+      registerSumOfTopic1();
+
+      assertThrows(IllegalArgumentException.class, () -> registerPublisherWithHistory(DERIVED_TOPIC_1));
+    }
+  }
+
+  @Nested
+  public final class InstrumentationTest {
+    @Test
+    public void shouldReportRegistrySizes() {
+      registerPublisher(TOPIC_1);
+      registerPublisher(TOPIC_1);
+      registerPublisher(TOPIC_2).unregister();
+      registerPublisher(TOPIC_3);
+      registerSubscriber(TOPIC_1);
+      registerSubscriber(TOPIC_2).unregister();
+
+      final MetricsSnapshot metricsSnapshot = metricsRecorder.snapshot();
+
+      assertThat(metricsSnapshot.getPublisherCount(), is(3));
+      assertThat(metricsSnapshot.getTopicCount(), is(2));
+      assertThat(metricsSnapshot.getSubscriberCount(), is(1));
+    }
+
+    @Test
+    public void shouldReportPublicationCountsAndCascadeDepths() {
+      final PublisherToken<FakePublisher<Integer>> publisherToken1 = registerPublisher(TOPIC_1);
+      final PublisherToken<FakePublisher<String>> publisherToken2 = registerPublisher(TOPIC_2);
+      registerSubscriber(TOPIC_1);
+      doAnswer(invocation -> {
+        publisherToken2.getPublisher().publish("foo");
+        return None.INSTANCE;
+      }).when(topicsChangedConsumer).accept(any());
+
+      publisherToken1.getPublisher().publish(42);
+      publisherToken1.getPublisher().publish(2112);
+
+      final MetricsSnapshot metricsSnapshot = metricsRecorder.snapshot();
+      assertThat(metricsSnapshot.getTopicMetrics().get(TOPIC_1).getPublicationCount(), is(2L));
+      assertThat(metricsSnapshot.getTopicMetrics().get(TOPIC_2).getPublicationCount(), is(2L));
+      assertThat(metricsSnapshot.getCascadeDepths().getCount(), is(4L));
+      assertThat(metricsSnapshot.getCascadeDepths().getMaxValue(), is(2L));
+    }
+
+    @Test
+    public void shouldReportSubscriberNotificationCounts() {
+      final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
+      final FakeSubscriber subscriber = registerSubscriber(TOPIC_1).getSubscriber();
+
+      publisherToken.getPublisher().publish(42);
+      publisherToken.getPublisher().publish(2112);
+
+      final MetricsSnapshot metricsSnapshot = metricsRecorder.snapshot();
+      assertThat(metricsSnapshot.getSubscriberMetrics().get(subscriber).getNotificationCount(), is(3L));
+    }
+  }
+
+  @Nested
+  public final class PublishAllocationTest {
+    private static final int PUBLICATION_COUNT = 10_000;
+
+    private final Broker noOpBroker = createBroker(BrokerInstrumentation.noOp());
+    private final ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private long getAllocatedBytes() {
+      return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private long measureAllocatedBytes(final Runnable action) {
+      final long startAllocatedBytes = getAllocatedBytes();
+      action.run();
+      return getAllocatedBytes() - startAllocatedBytes;
+    }
+
+    private void publishAll(final FakePublisher<Integer> publisher, final Integer[] values) {
+      for (final Integer value : values) {
+        publisher.publish(value);
+      }
+    }
+
+    @Test
+    public void shouldNotAllocateWhenPublishingInSteadyState() {
+      assumeTrue(threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled());
+      final AtomicInteger notificationCount = new AtomicInteger();
+      final FakePublisher<Integer> publisher = noOpBroker.registerPublisher(TOPIC_1, FakePublisher.<Integer>newFactory())
+          .getPublisher();
+      noOpBroker.registerSubscriber(
+          TopicMatcher.forTopic(TOPIC_1),
+          FakeSubscriber.newFactory(topics -> notificationCount.incrementAndGet()));
+      noOpBroker.registerSubscriber(
+          TopicMatcher.forTopic(TOPIC_2),
+          FakeSubscriber.newFactory(topics -> notificationCount.incrementAndGet()));
+      final Integer[] values = IntStream.range(0, PUBLICATION_COUNT).boxed().toArray(Integer[]::new);
+      publishAll(publisher, values);
+
+      final long allocatedBytes = measureAllocatedBytes(() -> publishAll(publisher, values));
+
+      // tolerate incidental allocations (e.g. by the JIT or the measurement
+      // itself) that are not attributable to each publication
+      assertThat(allocatedBytes / PUBLICATION_COUNT, is(0L));
+      assertThat(notificationCount.get(), is(2 * PUBLICATION_COUNT + 1));
+    }
+
+    @Test
+    public void shouldNotAllocateWhenPublishingAndReadingIntValuesInSteadyState() {
+      assumeTrue(threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled());
+      final PublisherContext publisherContext = noOpBroker
+          .registerPublisher(TOPIC_1, FakePublisher.<Integer>newFactory())
+          .getPublisher()
+          .getContext();
+      final SubscriberContext subscriberContext = noOpBroker
+          .registerSubscriber(TopicMatcher.forTopic(TOPIC_1), FakeSubscriber.newFactory(topics -> {
+            // do nothing
+          }))
+          .getSubscriber()
+          .getContext();
+      final AtomicLong sum = new AtomicLong();
+      final IntConsumer consumer = sum::addAndGet;
+      final Runnable publishAndReadAll = () -> {
+        for (int i = 0; i < PUBLICATION_COUNT; ++i) {
+          publisherContext.publishInt(i);
+          subscriberContext.forEachIntValueForTopic(TOPIC_1, consumer);
+        }
+      };
+      publishAndReadAll.run();
+
+      final long allocatedBytes = measureAllocatedBytes(publishAndReadAll);
+
+      assertThat(allocatedBytes / PUBLICATION_COUNT, is(0L));
+      assertThat(sum.get(), is(2L * ((long) PUBLICATION_COUNT * (PUBLICATION_COUNT - 1) / 2)));
+    }
+  }
+
+  @Nested
+  public final class PublisherContextTest {
+    @Nested
+    public final class PublishDoubleTest {
+      @Test
+      public void shouldPublishValueWithoutBoxing() {
+        registerPublisher(TOPIC_3).getPublisher().getContext().publishDouble(3.14);
+
+        assertThat(registerSubscriber(TOPIC_3).getSubscriber().getContext().getValuesForTopic(TOPIC_3), contains(3.14));
+      }
+
+      @Test
+      public void shouldThrowExceptionWhenTopicTypeIsNotDouble() {
+        final PublisherContext publisherContext = registerPublisher(TOPIC_1).getPublisher().getContext();
+
+        assertThrows(ClassCastException.class, () -> publisherContext.publishDouble(3.14));
+      }
+    }
+
+    @Nested
+    public final class PublishIntTest {
+      @Test
+      public void shouldPublishValueWithoutBoxing() {
+        registerPublisher(TOPIC_1).getPublisher().getContext().publishInt(42);
+
+        assertThat(registerSubscriber(TOPIC_1).getSubscriber().getContext().getValuesForTopic(TOPIC_1), contains(42));
+      }
+
+      @Test
+      public void shouldThrowExceptionWhenTopicTypeIsNotInteger() {
+        final PublisherContext publisherContext = registerPublisher(TOPIC_4).getPublisher().getContext();
+
+        assertThrows(ClassCastException.class, () -> publisherContext.publishInt(42));
+      }
+
+      @Test
+      public void shouldNotifySubscribers() {
+        final PublisherContext publisherContext = registerPublisher(TOPIC_1).getPublisher().getContext();
+        registerSubscriber(TOPIC_1);
+        clearInvocations(new Object[] { topicsChangedConsumer });
+
+        publisherContext.publishInt(42);
+
+        verify(topicsChangedConsumer).accept(ImmutableSet.of(TOPIC_1));
+      }
+    }
+
+    @Nested
+    public final class PublishLongTest {
+      @Test
+      public void shouldPublishValueWithoutBoxing() {
+        registerPublisher(TOPIC_4).getPublisher().getContext().publishLong(2112L);
+
+        assertThat(registerSubscriber(TOPIC_4).getSubscriber().getContext().getValuesForTopic(TOPIC_4), contains(2112L));
+      }
+
+      @Test
+      public void shouldThrowExceptionWhenTopicTypeIsNotLong() {
+        final PublisherContext publisherContext = registerPublisher(TOPIC_1).getPublisher().getContext();
+
+        assertThrows(ClassCastException.class, () -> publisherContext.publishLong(2112L));
+      }
+    }
+
+    @Nested
+    public final class PublishTest {
+      @Test
+      public void shouldThrowExceptionWhenValueTypeDoesNotMatchTopicType() {
+        final PublisherContext publisherContext = registerPublisher(TOPIC_1).getPublisher().getContext();
+
+        assertThrows(ClassCastException.class, () -> publisherContext.publish("notAnInteger"));
+      }
+    }
+  }
+
+  @Nested
+  public final class RunInBatchTest {
+    @Test
+    public void shouldNotifySubscriberOnceOfAllTopicsChangedInBatch() {
+      final PublisherToken<FakePublisher<Integer>> publisherToken1 = registerPublisher(TOPIC_1);
+      final PublisherToken<FakePublisher<String>> publisherToken2 = registerPublisher(TOPIC_2);
+      registerSubscriber(TOPIC_1, TOPIC_2, TOPIC_3);
+      clearInvocations(new Object[] { topicsChangedConsumer });
+
+      broker.runInBatch(() -> {
+        publisherToken1.getPublisher().publish(42);
+        publisherToken2.getPublisher().publish("foo");
+        publisherToken1.getPublisher().publish(2112);
+      });
+
+      verify(topicsChangedConsumer).accept(ImmutableSet.of(TOPIC_1, TOPIC_2));
+    }
+
+    @Test
+    public void shouldNotNotifySubscriberUntilBatchCompletes() {
+      final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
+      final SubscriberToken<FakeSubscriber> subscriberToken = registerSubscriber(TOPIC_1);
+      clearInvocations(new Object[] { topicsChangedConsumer });
+
+      broker.runInBatch(() -> {
+        publisherToken.getPublisher().publish(42);
+
+        verify(topicsChangedConsumer, never()).accept(any());
+        assertThat(subscriberToken.getSubscriber().getContext().getValuesForTopic(TOPIC_1), contains(42));
+      });
+
+      verify(topicsChangedConsumer).accept(ImmutableSet.of(TOPIC_1));
+    }
+
+    @Test
+    public void shouldNotNotifySubscriberUntilOutermostBatchCompletes() {
+      final PublisherToken<FakePublisher<Integer>> publisherToken1 = registerPublisher(TOPIC_1);
+      final PublisherToken<FakePublisher<String>> publisherToken2 = registerPublisher(TOPIC_2);
+      registerSubscriber(TOPIC_1, TOPIC_2);
+      clearInvocations(new Object[] { topicsChangedConsumer });
+
+      broker.runInBatch(() -> {
+        broker.runInBatch(() -> publisherToken1.getPublisher().publish(42));
+
+        verify(topicsChangedConsumer, never()).accept(any());
+
+        publisherToken2.getPublisher().publish("foo");
+      });
+
+      verify(topicsChangedConsumer).accept(ImmutableSet.of(TOPIC_1, TOPIC_2));
+    }
+
+    @Test
+    public void shouldNotifySubscriberWhenBatchCompletesAbruptly() {
+      final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
+      registerSubscriber(TOPIC_1);
+      clearInvocations(new Object[] { topicsChangedConsumer });
+
+      assertThrows(IllegalArgumentException.class, () -> broker.runInBatch(() -> {
+        publisherToken.getPublisher().publish(42);
+        throw new IllegalArgumentException();
+      }));
+
+      verify(topicsChangedConsumer).accept(ImmutableSet.of(TOPIC_1));
+    }
+
+    @Test
+    public void shouldNotNotifySubscriberInLaterBatchWhenOtherSubscriberFailed() {
+      broker.registerSubscriber(TopicMatcher.forTopic(TOPIC_1), FakeSubscriber.newFactory(topics -> {
+        throw new IllegalStateException();
+      }));
+      registerSubscriber(TOPIC_2);
+      final PublisherToken<FakePublisher<Integer>> publisherToken1 = registerPublisher(TOPIC_1);
+      final PublisherToken<FakePublisher<String>> publisherToken2 = registerPublisher(TOPIC_2);
+      assertThrows(IllegalStateException.class, () -> broker.runInBatch(() -> {
+        publisherToken1.getPublisher().publish(42);
+        publisherToken2.getPublisher().publish("foo");
+      }));
+      clearInvocations(new Object[] { topicsChangedConsumer });
+
+      broker.runInBatch(() -> registerPublisher(TOPIC_3));
+
+      verify(topicsChangedConsumer, never()).accept(any());
+    }
+
+    @Test
+    public void shouldNotNotifySubscriberUnregisteredDuringBatch() {
+      final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
+      final SubscriberToken<FakeSubscriber> subscriberToken = registerSubscriber(TOPIC_1);
+      clearInvocations(new Object[] { topicsChangedConsumer });
+
+      broker.runInBatch(() -> {
+        publisherToken.getPublisher().publish(42);
+        subscriberToken.unregister();
+      });
+
+      verify(topicsChangedConsumer, never()).accept(any());
+    }
+  }
+
+  @Nested
+  public final class SubscriberContextTest {
     @Nested
-    public final class PublishTest {
+    public final class ForEachDoubleValueForTopicTest {
       @Test
-      public void shouldThrowExceptionWhenValueTypeDoesNotMatchTopicType() {
-        final PublisherContext publisherContext = registerPublisher(TOPIC_1).getPublisher().getContext();
+      public void shouldPassPrimitiveAndBoxedValuesToConsumer() {
+        registerPublisher(TOPIC_3).getPublisher().getContext().publishDouble(3.14);
+        registerPublisher(TOPIC_3).getPublisher().publish(2.72);
+        registerPublisher(TOPIC_3);
+        final List<Double> values = new ArrayList<>();
 
-        assertThrows(ClassCastException.class, () -> publisherContext.publish("notAnInteger"));
+        registerSubscriber(TOPIC_3).getSubscriber().getContext().forEachDoubleValueForTopic(TOPIC_3, values::add);
+
+        assertThat(values, containsInAnyOrder(3.14, 2.72));
+      }
+    }
+
+    @Nested
+    public final class ForEachIntValueForTopicTest {
+      @Test
+      public void shouldPassPrimitiveAndBoxedValuesToConsumer() {
+        registerPublisher(TOPIC_1).getPublisher().getContext().publishInt(42);
+        registerPublisher(TOPIC_1).getPublisher().publish(2112);
+        registerPublisher(TOPIC_1);
+        final List<Integer> values = new ArrayList<>();
+
+        registerSubscriber(TOPIC_1).getSubscriber().getContext().forEachIntValueForTopic(TOPIC_1, values::add);
+
+        assertThat(values, containsInAnyOrder(42, 2112));
+      }
+
+      @Test
+      public void shouldNotPassValuesPublishedByUnregisteredPublishers() {
+        registerPublisher(TOPIC_1).getPublisher().getContext().publishInt(42);
+        final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
+        publisherToken.getPublisher().getContext().publishInt(2112);
+        publisherToken.unregister();
+        final List<Integer> values = new ArrayList<>();
+
+        registerSubscriber(TOPIC_1).getSubscriber().getContext().forEachIntValueForTopic(TOPIC_1, values::add);
+
+        assertThat(values, contains(42));
+      }
+
+      @Test
+      public void shouldNotCallConsumerWhenTopicHasNoPublishers() {
+        final List<Integer> values = new ArrayList<>();
+
+        registerSubscriber(TOPIC_1).getSubscriber().getContext().forEachIntValueForTopic(TOPIC_1, values::add);
+
+        assertThat(values, is(empty()));
+      }
+    }
+
+    @Nested
+    public final class ForEachLongValueForTopicTest {
+      @Test
+      public void shouldPassPrimitiveAndBoxedValuesToConsumer() {
+        registerPublisher(TOPIC_4).getPublisher().getContext().publishLong(42L);
+        registerPublisher(TOPIC_4).getPublisher().publish(2112L);
+        registerPublisher(TOPIC_4);
+        final List<Long> values = new ArrayList<>();
+
+        registerSubscriber(TOPIC_4).getSubscriber().getContext().forEachLongValueForTopic(TOPIC_4, values::add);
+
+        assertThat(values, containsInAnyOrder(42L, 2112L));
+      }
+    }
+
+    @Nested
+    public final class GetChangedValuesForMatchingTopicsTest {
+      private SubscriberContext registerSubscriberAndGetContext(
+          final Topic<?> topic1,
+          final @NonNull Topic<?>... otherTopics) {
+        return registerSubscriber(topic1, otherTopics)
+            .getSubscriber()
+            .getContext();
+      }
+
+      @Test
+      public void shouldReturnImmutableCollection() {
+        final SubscriberContext subscriberContext = registerSubscriberAndGetContext(TOPIC_1, TOPIC_2);
+        subscriberContext.getChangedValuesForMatchingTopics();
+
+        final Multimap<Topic<?>, ?> valuesByTopic = subscriberContext.getChangedValuesForMatchingTopics();
+
+        assertThrows(UnsupportedOperationException.class, () -> valuesByTopic.clear());
+      }
+
+      @Test
+      public void shouldReturnAllPublishedValuesOnFirstCall() {
+        registerPublisher(TOPIC_1).getPublisher().publish(42);
+        registerPublisher(TOPIC_2).getPublisher().publish("foo");
+        registerPublisher(TOPIC_3).getPublisher().publish(3.14);
+        final SubscriberContext subscriberContext = registerSubscriberAndGetContext(TOPIC_1, TOPIC_2);
+
+        final Multimap<Topic<?>, ?> valuesByTopic = subscriberContext.getChangedValuesForMatchingTopics();
+
+        assertThat(valuesByTopic.keySet(), hasSize(2));
+        assertThat(valuesByTopic.get(TOPIC_1), contains(42));
+        assertThat(valuesByTopic.get(TOPIC_2), contains("foo"));
+      }
+
+      @Test
+      public void shouldReturnEmptyCollectionWhenNothingHasChangedSinceLastCall() {
+        registerPublisher(TOPIC_1).getPublisher().publish(42);
+        final SubscriberContext subscriberContext = registerSubscriberAndGetContext(TOPIC_1);
+        subscriberContext.getChangedValuesForMatchingTopics();
+
+        final Multimap<Topic<?>, ?> valuesByTopic = subscriberContext.getChangedValuesForMatchingTopics();
+
+        assertThat(valuesByTopic.keySet(), is(empty()));
+      }
+
+      @Test
+      public void shouldReturnOnlyValuesPublishedSinceLastCall() {
+        final FakePublisher<Integer> publisher1 = registerPublisher(TOPIC_1).getPublisher();
+        publisher1.publish(42);
+        final FakePublisher<Integer> publisher2 = registerPublisher(TOPIC_1).getPublisher();
+        publisher2.publish(2112);
+        final SubscriberContext subscriberContext = registerSubscriberAndGetContext(TOPIC_1);
+        subscriberContext.getChangedValuesForMatchingTopics();
+
+        publisher2.publish(5150);
+        final Multimap<Topic<?>, ?> valuesByTopic = subscriberContext.getChangedValuesForMatchingTopics();
+
+        assertThat(valuesByTopic.get(TOPIC_1), contains(5150));
+      }
+
+      @Test
+      public void shouldReturnLatestValueOnceWhenPublisherHasPublishedMultipleTimesSinceLastCall() {
+        final FakePublisher<Integer> publisher = registerPublisher(TOPIC_1).getPublisher();
+        final SubscriberContext subscriberContext = registerSubscriberAndGetContext(TOPIC_1);
+        subscriberContext.getChangedValuesForMatchingTopics();
+
+        publisher.publish(42);
+        publisher.publish(2112);
+        final Multimap<Topic<?>, ?> valuesByTopic = subscriberContext.getChangedValuesForMatchingTopics();
+
+        assertThat(valuesByTopic.get(TOPIC_1), contains(2112));
+      }
+
+      @Test
+      public void shouldNotReturnValuesPublishedToNonMatchingTopics() {
+        final FakePublisher<String> publisher = registerPublisher(TOPIC_2).getPublisher();
+        final SubscriberContext subscriberContext = registerSubscriberAndGetContext(TOPIC_1);
+        subscriberContext.getChangedValuesForMatchingTopics();
+
+        publisher.publish("foo");
+        final Multimap<Topic<?>, ?> valuesByTopic = subscriberContext.getChangedValuesForMatchingTopics();
+
+        assertThat(valuesByTopic.keySet(), is(empty()));
+      }
+
+      @Test
+      public void shouldNotReturnValuesPublishedByPublishersUnregisteredSinceLastCall() {
+        final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
+        final SubscriberContext subscriberContext = registerSubscriberAndGetContext(TOPIC_1);
+        subscriberContext.getChangedValuesForMatchingTopics();
+
+        publisherToken.getPublisher().publish(42);
+        publisherToken.unregister();
+        final Multimap<Topic<?>, ?> valuesByTopic = subscriberContext.getChangedValuesForMatchingTopics();
+
+        assertThat(valuesByTopic.keySet(), is(empty()));
+      }
+    }
+
+    @Nested
+    public final class GetHistoryAggregateForTopicTest {
+      @Test
+      public void shouldReturnAggregatesOfValuesInHistory() {
+        final PublisherContext publisherContext = registerPublisherWithHistory(HISTORY_TOPIC_1)
+            .getPublisher()
+            .getContext();
+        publisherContext.publishInt(100);
+        publisherContext.publishInt(4);
+        publisherContext.publishInt(-2);
+        publisherContext.publishInt(7);
+
+        final WindowAggregate aggregate = registerSubscriber(HISTORY_TOPIC_1)
+            .getSubscriber()
+            .getContext()
+            .getHistoryAggregateForTopic(HISTORY_TOPIC_1);
+
+        assertThat(aggregate.getCount(), is(3));
+        assertThat(aggregate.getSum(), is(9.0));
+        assertThat(aggregate.getMin(), is(-2.0));
+        assertThat(aggregate.getMax(), is(7.0));
+        assertThat(aggregate.getMean(), is(3.0));
+      }
+
+      @Test
+      public void shouldReturnEmptyAggregateWhenTopicHasNoPublishers() {
+        final WindowAggregate aggregate = registerSubscriber(HISTORY_TOPIC_1)
+            .getSubscriber()
+            .getContext()
+            .getHistoryAggregateForTopic(HISTORY_TOPIC_1);
+
+        assertThat(aggregate, is(WindowAggregate.empty()));
+      }
+    }
+
+    @Nested
+    public final class GetHistoryForTopicTest {
+      private <@NonNull T> List<T> getHistoryForTopic(final Topic<T> topic) {
+        return registerSubscriber(topic).getSubscriber().getContext().getHistoryForTopic(topic);
+      }
+
+      @Test
+      public void shouldReturnValuesOfAllPublishersInOrderPublished() {
+        final FakePublisher<Integer> publisher1 = registerPublisherWithHistory(HISTORY_TOPIC_1).getPublisher();
+        final FakePublisher<Integer> publisher2 = registerPublisherWithHistory(HISTORY_TOPIC_1).getPublisher();
+        publisher1.publish(1);
+        publisher2.getContext().publishInt(2);
+        publisher1.getContext().publishInt(3);
+
+        assertThat(getHistoryForTopic(HISTORY_TOPIC_1), contains(1, 2, 3));
+      }
+
+      @Test
+      public void shouldEvictOldestValuesWhenHistoryIsFull() {
+        final FakePublisher<String> publisher = registerPublisherWithHistory(HISTORY_TOPIC_2).getPublisher();
+        publisher.publish("a");
+        publisher.publish("b");
+        publisher.publish("c");
+        publisher.publish("d");
+        publisher.publish("e");
+
+        assertThat(getHistoryForTopic(HISTORY_TOPIC_2), contains("c", "d", "e"));
+      }
+
+      @Test
+      public void shouldReturnEmptyCollectionWhenTopicHasNoPublishers() {
+        assertThat(getHistoryForTopic(HISTORY_TOPIC_1), is(empty()));
+      }
+
+      @Test
+      public void shouldDiscardHistoryWhenLastPublisherIsUnregistered() {
+        final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisherWithHistory(HISTORY_TOPIC_1);
+        publisherToken.getPublisher().publish(42);
+        publisherToken.unregister();
+        registerPublisherWithHistory(HISTORY_TOPIC_1);
+
+        assertThat(getHistoryForTopic(HISTORY_TOPIC_1), is(empty()));
+      }
+
+      @Test
+      public void shouldRetainHistoryWhenPublisherOtherThanLastIsUnregistered() {
+        final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisherWithHistory(HISTORY_TOPIC_1);
+        registerPublisherWithHistory(HISTORY_TOPIC_1);
+        publisherToken.getPublisher().publish(42);
+        publisherToken.unregister();
+
+        assertThat(getHistoryForTopic(HISTORY_TOPIC_1), contains(42));
+      }
+
+      @Test
+      public void shouldAllowDifferentHistoryWhenLastPublisherIsUnregistered() {
+        registerPublisherWithHistory(HISTORY_TOPIC_1).unregister();
+        final FakePublisher<Integer> publisher = broker.<FakePublisher<Integer>>registerPublisher(
+            HISTORY_TOPIC_1,
+            FakePublisher.newFactory(),
+            PublisherOptions.defaults().withHistory(TopicHistory.ofLastValues(1))).getPublisher();
+        publisher.publish(1);
+        publisher.publish(2);
+
+        assertThat(getHistoryForTopic(HISTORY_TOPIC_1), contains(2));
+      }
+
+      @Test
+      public void shouldReturnEmptyCollectionWhenNoPublisherSpecifiesHistory() {
+        registerPublisher(TOPIC_1).getPublisher().publish(42);
+
+        assertThat(getHistoryForTopic(TOPIC_1), is(empty()));
+      }
+
+      @Test
+      public void shouldRetainHistoryWhenOtherPublishersDoNotSpecifyHistory() {
+        final FakePublisher<Integer> publisher1 = registerPublisher(HISTORY_TOPIC_1).getPublisher();
+        publisher1.publish(1);
+        final FakePublisher<Integer> publisher2 = registerPublisherWithHistory(HISTORY_TOPIC_1).getPublisher();
+        publisher2.publish(2);
+        publisher1.publish(3);
+
+        assertThat(getHistoryForTopic(HISTORY_TOPIC_1), contains(2, 3));
+      }
+
+      @Test
+      public void shouldThrowExceptionWhenPublisherSpecifiesDifferentHistory() {
+        registerPublisherWithHistory(HISTORY_TOPIC_1);
+
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> broker.registerPublisher(
+                HISTORY_TOPIC_1,
+                FakePublisher.newFactory(),
+                PublisherOptions.defaults().withHistory(TopicHistory.ofLastValues(4))));
       }
     }
-  }
 
-  @Nested
-  public final class SubscriberContextTest {
     @Nested
     public final class GetValuesForMatchingTopicsTest {
       private Multimap<Topic<?>, ?> getValuesForMatchingTopics(
@@ -123,6 +1201,22 @@ public abstract class AbstractBrokerTestCase {
         assertThat(valuesByTopic.get(TOPIC_2), hasSize(1));
         assertThat(valuesByTopic.get(TOPIC_2), containsInAnyOrder("foo"));
       }
+
+      @Test
+      public void shouldNotReturnValuesPublishedByUnregisteredPublishers() {
+        registerPublisher(TOPIC_1).getPublisher().publish(42);
+        final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
+        publisherToken.getPublisher().publish(2112);
+        final PublisherToken<FakePublisher<String>> otherPublisherToken = registerPublisher(TOPIC_2);
+        otherPublisherToken.getPublisher().publish("foo");
+        publisherToken.unregister();
+        otherPublisherToken.unregister();
+
+        final Multimap<Topic<?>, ?> valuesByTopic = getValuesForMatchingTopics(TOPIC_1, TOPIC_2);
+
+        assertThat(valuesByTopic.keySet(), hasSize(1));
+        assertThat(valuesByTopic.get(TOPIC_1), containsInAnyOrder(42));
+      }
     }
 
     @Nested
@@ -160,6 +1254,29 @@ public abstract class AbstractBrokerTestCase {
         assertThat(topic1Values, hasSize(2));
         assertThat(topic1Values, containsInAnyOrder(42, 2112));
       }
+
+      @Test
+      public void shouldNotReturnValuesPublishedByUnregisteredPublishers() {
+        registerPublisher(TOPIC_1).getPublisher().publish(42);
+        final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
+        publisherToken.getPublisher().publish(2112);
+        publisherToken.unregister();
+
+        final Collection<?> topic1Values = getValuesForTopic(TOPIC_1);
+
+        assertThat(topic1Values, contains(42));
+      }
+
+      @Test
+      public void shouldReturnEmptyCollectionWhenAllPublishersHaveBeenUnregistered() {
+        final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
+        publisherToken.getPublisher().publish(42);
+        publisherToken.unregister();
+
+        final Collection<?> topic1Values = getValuesForTopic(TOPIC_1);
+
+        assertThat(topic1Values, is(empty()));
+      }
     }
   }
 
@@ -220,6 +1337,42 @@ public abstract class AbstractBrokerTestCase {
       verify(topicsChangedConsumer, never()).accept(any());
     }
 
+    @Test
+    public void shouldNotifySubscriberWithNameFilterOfMatchingTopicsOnly() {
+      final Topic<Integer> matchingTopic1 = Topic.of("world.entity.1.position", Integer.class);
+      final Topic<Integer> matchingTopic2 = Topic.of("world.entity.2.position", Integer.class);
+      final Topic<Integer> nonmatchingTopic = Topic.of("world.entity.1.velocity", Integer.class);
+      final PublisherToken<FakePublisher<Integer>> publisherToken1 = registerPublisher(matchingTopic1);
+      final PublisherToken<FakePublisher<Integer>> publisherToken2 = registerPublisher(matchingTopic2);
+      final PublisherToken<FakePublisher<Integer>> publisherToken3 = registerPublisher(nonmatchingTopic);
+      broker.registerSubscriber(
+          TopicMatcher.forTopicsMatchingFilter("world.+.+.position", TypeToken.of(Integer.class)),
+          FakeSubscriber.newFactory(topicsChangedConsumer));
+      clearInvocations(new Object[] { topicsChangedConsumer });
+
+      publisherToken1.getPublisher().publish(1);
+      publisherToken2.getPublisher().publish(2);
+      publisherToken3.getPublisher().publish(3);
+
+      verify(topicsChangedConsumer).accept(ImmutableSet.of(matchingTopic1));
+      verify(topicsChangedConsumer).accept(ImmutableSet.of(matchingTopic2));
+      verify(topicsChangedConsumer, never()).accept(ImmutableSet.of(nonmatchingTopic));
+    }
+
+    @Test
+    public void shouldNotNotifySubscriberWithNameFilterAfterItIsUnregistered() {
+      final Topic<Integer> topic = Topic.of("world.entity.1.position", Integer.class);
+      final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(topic);
+      broker.registerSubscriber(
+          TopicMatcher.forTopicsMatchingFilter("world.#", TypeToken.of(Integer.class)),
+          FakeSubscriber.newFactory(topicsChangedConsumer)).unregister();
+      clearInvocations(new Object[] { topicsChangedConsumer });
+
+      publisherToken.getPublisher().publish(1);
+
+      verify(topicsChangedConsumer, never()).accept(any());
+    }
+
     @Test
     public void shouldNotifySubscriberUponRegistrationWhenMatchingTopicIsCurrentlyPublished() {
       registerPublisher(TOPIC_1);
@@ -249,6 +1402,32 @@ public abstract class AbstractBrokerTestCase {
       thenSubscriberShouldBeNotifiedOfTopicChanges(TOPIC_1);
     }
 
+    @Test
+    public void shouldNotifySubscriberWhenMatchingTopicChangedAfterOtherSubscriberWasNotified() {
+      final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
+      broker.registerSubscriber(TopicMatcher.forTopic(TOPIC_1), FakeSubscriber.newFactory(topics -> {
+        // do nothing
+      }));
+      publisherToken.getPublisher().publish(42);
+      registerSubscriber(TOPIC_1);
+
+      when(() -> publisherToken.getPublisher().publish(2112));
+
+      thenSubscriberShouldBeNotifiedOfTopicChanges(TOPIC_1);
+    }
+
+    @Test
+    public void shouldNotifySubscriberWhenTopicMatchingPatternChanged() {
+      final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
+      broker.registerSubscriber(
+          TopicMatcher.forTopicsMatchingPattern(Pattern.compile("topic\\d"), TOPIC_1.getTypeToken()),
+          FakeSubscriber.newFactory(topicsChangedConsumer));
+
+      when(() -> publisherToken.getPublisher().publish(42));
+
+      thenSubscriberShouldBeNotifiedOfTopicChanges(TOPIC_1);
+    }
+
     @Test
     public void shouldNotNotifySubscriberWhenNonMatchingTopicChanged() {
       final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
@@ -323,6 +1502,20 @@ public abstract class AbstractBrokerTestCase {
       thenSubscriberShouldNotBeNotifiedOfAnyTopicChanges();
     }
 
+    @Test
+    public void shouldNotNotifyUnregisteredSubscriberWhenMatchingTopicChangedAfterSubscriberWasNotified() {
+      final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
+      final SubscriberToken<FakeSubscriber> subscriberToken = registerSubscriber(TOPIC_1);
+      publisherToken.getPublisher().publish(42);
+
+      when(() -> {
+        subscriberToken.unregister();
+        publisherToken.getPublisher().publish(2112);
+      });
+
+      thenSubscriberShouldNotBeNotifiedOfAnyTopicChanges();
+    }
+
     @Test
     public void shouldThrowExceptionWhenCyclePresent() {
       final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
@@ -2,6 +2,7 @@ package io.github.ssoloff.psychictrain.api.engine;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.util.regex.Pattern;
 
@@ -45,6 +46,56 @@ public final class TopicMatcherTest {
     }
   }
 
+  @Nested
+  public final class NameFilterTopicMatcherTest {
+    @Test
+    public void shouldMatchTopicWithSameNameAndSameTypeToken() {
+      final TopicMatcher topicMatcher = TopicMatcher.forTopicsMatchingFilter("a.b", typeToken);
+
+      assertThat(topicMatcher.matches(Topic.of("a.b", typeToken)), is(true));
+      assertThat(topicMatcher.matches(Topic.of("a.c", typeToken)), is(false));
+      assertThat(topicMatcher.matches(Topic.of("a.b.c", typeToken)), is(false));
+    }
+
+    @Test
+    public void shouldMatchExactlyOneSegmentWithSingleLevelWildcard() {
+      final TopicMatcher topicMatcher = TopicMatcher.forTopicsMatchingFilter("a.+.c", typeToken);
+
+      assertThat(topicMatcher.matches(Topic.of("a.b.c", typeToken)), is(true));
+      assertThat(topicMatcher.matches(Topic.of("a..c", typeToken)), is(true));
+      assertThat(topicMatcher.matches(Topic.of("a.c", typeToken)), is(false));
+      assertThat(topicMatcher.matches(Topic.of("a.b.b.c", typeToken)), is(false));
+    }
+
+    @Test
+    public void shouldMatchAnyNumberOfTrailingSegmentsWithMultiLevelWildcard() {
+      final TopicMatcher topicMatcher = TopicMatcher.forTopicsMatchingFilter("a.#", typeToken);
+
+      assertThat(topicMatcher.matches(Topic.of("a", typeToken)), is(true));
+      assertThat(topicMatcher.matches(Topic.of("a.b", typeToken)), is(true));
+      assertThat(topicMatcher.matches(Topic.of("a.b.c", typeToken)), is(true));
+      assertThat(topicMatcher.matches(Topic.of("b.a", typeToken)), is(false));
+    }
+
+    @Test
+    public void shouldNotMatchTopicWithMatchingNameButDifferentTypeToken() {
+      final TopicMatcher topicMatcher = TopicMatcher.forTopicsMatchingFilter("a.+", typeToken);
+
+      assertThat(topicMatcher.matches(Topic.of("a.b", otherTypeToken)), is(false));
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenMultiLevelWildcardIsNotLastSegment() {
+      assertThrows(IllegalArgumentException.class, () -> TopicMatcher.forTopicsMatchingFilter("a.#.b", typeToken));
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenWildcardDoesNotOccupyEntireSegment() {
+      assertThrows(IllegalArgumentException.class, () -> TopicMatcher.forTopicsMatchingFilter("a.b+", typeToken));
+      assertThrows(IllegalArgumentException.class, () -> TopicMatcher.forTopicsMatchingFilter("a.b#", typeToken));
+    }
+  }
+
   @Nested
   public final class NamePatternTopicMatcherTest {
     private final TopicMatcher topicMatcher = TopicMatcher.forTopicsMatchingPattern(
@@ -1,5 +1,13 @@
 package io.github.ssoloff.psychictrain.api.engine;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.lang.ref.WeakReference;
+
 import org.junit.jupiter.api.Test;
 
 import com.google.common.reflect.TypeToken;
@@ -12,6 +20,39 @@ public final class TopicTest {
   public void shouldBeEquatableAndHashable() {
     EqualsVerifier.forClass(Topic.class)
         .withPrefabValues(TypeToken.class, TypeToken.of(String.class), TypeToken.of(Integer.class))
+        .withCachedHashCode("cachedHashCode", "computeHashCode", Topic.of("name", String.class))
+        .withIgnoredFields("id")
         .verify();
   }
+
+  @SuppressWarnings("static-method")
+  @Test
+  public void shouldReturnSameInstanceForEqualTopics() {
+    final Topic<String> topic = Topic.of("name", String.class);
+
+    assertThat(Topic.of("name", TypeToken.of(String.class)), is(sameInstance(topic)));
+    assertThat(Topic.of("name", Integer.class), is(not(sameInstance(topic))));
+  }
+
+  @SuppressWarnings("static-method")
+  @Test
+  public void shouldAssignDistinctIdsToDistinctTopics() {
+    final Topic<String> topic = Topic.of("name", String.class);
+
+    assertThat(Topic.of("name", TypeToken.of(String.class)).getId(), is(topic.getId()));
+    assertThat(Topic.of("otherName", String.class).getId(), is(not(topic.getId())));
+  }
+
+  @SuppressWarnings("static-method")
+  @Test
+  public void shouldReleaseTopicThatIsNoLongerReferenced() throws Exception {
+    final WeakReference<Topic<String>> topicReference = new WeakReference<>(Topic.of("releasedName", String.class));
+
+    for (int i = 0; (i < 100) && (topicReference.get() != null); ++i) {
+      System.gc();
+      Thread.sleep(10L);
+    }
+
+    assertThat(topicReference.get(), is(nullValue()));
+  }
 }
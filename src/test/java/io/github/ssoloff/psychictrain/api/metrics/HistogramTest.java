@@ -0,0 +1,95 @@
+package io.github.ssoloff.psychictrain.api.metrics;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+public final class HistogramTest {
+  private final Histogram histogram = new Histogram();
+
+  @Nested
+  public final class BucketTest {
+    @SuppressWarnings("static-method")
+    @Test
+    public void shouldPlaceEachValueInBucketWhoseUpperBoundIsNotLessThanValue() {
+      for (long value = 0L; value < 100_000L; ++value) {
+        final int index = Histogram.getBucketIndex(value);
+        assertThat(Histogram.getBucketUpperBound(index), is(greaterThanOrEqualTo(value)));
+        if (index > 0) {
+          assertThat(Histogram.getBucketUpperBound(index - 1), is(lessThanOrEqualTo(value - 1L)));
+        }
+      }
+    }
+
+    @SuppressWarnings("static-method")
+    @Test
+    public void shouldPlaceMaxTrackableValueInLastBucket() {
+      assertThat(Histogram.getBucketIndex(Histogram.MAX_TRACKABLE_VALUE), is(Histogram.BUCKET_COUNT - 1));
+      assertThat(
+          Histogram.getBucketUpperBound(Histogram.BUCKET_COUNT - 1),
+          is(Histogram.MAX_TRACKABLE_VALUE));
+    }
+  }
+
+  @Nested
+  public final class RecordTest {
+    @Test
+    public void shouldThrowExceptionWhenValueIsNegative() {
+      assertThrows(IllegalArgumentException.class, () -> histogram.record(-1L));
+    }
+
+    @Test
+    public void shouldClampValueGreaterThanMaxTrackableValue() {
+      histogram.record(Long.MAX_VALUE);
+
+      assertThat(histogram.snapshot().getMaxValue(), is(Histogram.MAX_TRACKABLE_VALUE));
+    }
+  }
+
+  @Nested
+  public final class SnapshotTest {
+    @Test
+    public void shouldReturnEmptySnapshotWhenNoValuesHaveBeenRecorded() {
+      final HistogramSnapshot snapshot = histogram.snapshot();
+
+      assertThat(snapshot.getCount(), is(0L));
+      assertThat(snapshot.getMean(), is(0.0));
+      assertThat(snapshot.getValueAtPercentile(99.0), is(0L));
+    }
+
+    @Test
+    public void shouldReturnStatisticsOfRecordedValues() {
+      for (long value = 1L; value <= 10_000L; ++value) {
+        histogram.record(value * 1_000L);
+      }
+
+      final HistogramSnapshot snapshot = histogram.snapshot();
+
+      assertThat(snapshot.getCount(), is(10_000L));
+      assertThat(snapshot.getMaxValue(), is(10_000_000L));
+      assertThat(snapshot.getMean(), is(closeTo(5_000_500.0, 0.5)));
+      assertThat(snapshot.getValueAtPercentile(50.0), is(allOf(
+          greaterThanOrEqualTo(5_000_000L),
+          lessThanOrEqualTo(5_320_000L))));
+      assertThat(snapshot.getValueAtPercentile(99.0), is(allOf(
+          greaterThanOrEqualTo(9_900_000L),
+          lessThanOrEqualTo(10_000_000L))));
+      assertThat(snapshot.getValueAtPercentile(100.0), is(10_000_000L));
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenPercentileIsOutOfRange() {
+      final HistogramSnapshot snapshot = histogram.snapshot();
+
+      assertThrows(IllegalArgumentException.class, () -> snapshot.getValueAtPercentile(-1.0));
+      assertThrows(IllegalArgumentException.class, () -> snapshot.getValueAtPercentile(101.0));
+    }
+  }
+}
@@ -0,0 +1,136 @@
+package io.github.ssoloff.psychictrain.api.metrics;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableSet;
+
+import io.github.ssoloff.psychictrain.api.engine.Subscriber;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+
+public final class MetricsRecorderTest {
+  private static final Topic<Integer> TOPIC_1 = Topic.of("topic1", Integer.class);
+  private static final Topic<Integer> TOPIC_2 = Topic.of("topic2", Integer.class);
+
+  private final FakeTicker ticker = new FakeTicker();
+  private final MetricsRecorder metricsRecorder = new MetricsRecorder(ticker);
+
+  private void notify(final Subscriber subscriber, final long latencyNanos) {
+    final long startTime = metricsRecorder.notificationStarted(subscriber);
+    ticker.advance(latencyNanos);
+    metricsRecorder.notificationCompleted(subscriber, ImmutableSet.of(TOPIC_1), startTime);
+  }
+
+  private void publish(final Topic<?> topic, final int count) {
+    for (int i = 0; i < count; ++i) {
+      metricsRecorder.topicPublished(topic, 1);
+    }
+  }
+
+  @Test
+  public void shouldComputePublicationRatesSincePreviousSnapshot() {
+    metricsRecorder.publisherRegistered(TOPIC_1);
+    publish(TOPIC_1, 10);
+    ticker.advance(TimeUnit.SECONDS.toNanos(1L));
+    metricsRecorder.snapshot();
+    publish(TOPIC_1, 10);
+    ticker.advance(TimeUnit.SECONDS.toNanos(2L));
+
+    final TopicMetrics topicMetrics = metricsRecorder.snapshot().getTopicMetrics().get(TOPIC_1);
+
+    assertThat(topicMetrics.getPublicationCount(), is(20L));
+    assertThat(topicMetrics.getPublicationRate(), is(5.0));
+  }
+
+  @Test
+  public void shouldReportHottestTopicsInDescendingOrderOfPublicationRate() {
+    metricsRecorder.publisherRegistered(TOPIC_1);
+    metricsRecorder.publisherRegistered(TOPIC_2);
+    publish(TOPIC_1, 1);
+    publish(TOPIC_2, 2);
+    ticker.advance(1L);
+
+    assertThat(metricsRecorder.snapshot().getHottestTopics(2), contains(TOPIC_2, TOPIC_1));
+  }
+
+  @Test
+  public void shouldReportSlowestSubscribersInDescendingOrderOfLatency() {
+    final Subscriber subscriber1 = topics -> {
+      // do nothing
+    };
+    final Subscriber subscriber2 = topics -> {
+      // do nothing
+    };
+    metricsRecorder.subscriberRegistered(subscriber1);
+    metricsRecorder.subscriberRegistered(subscriber2);
+    notify(subscriber1, 1_000L);
+    notify(subscriber2, 1_000_000L);
+
+    final MetricsSnapshot metricsSnapshot = metricsRecorder.snapshot();
+
+    assertThat(metricsSnapshot.getSlowestSubscribers(1), contains(subscriber2));
+    assertThat(
+        metricsSnapshot.getSubscriberMetrics().get(subscriber2).getNotificationLatencies().getMaxValue(),
+        is(1_000_000L));
+  }
+
+  @Test
+  public void shouldDiscardTopicMetricsWhenLastPublisherIsUnregistered() {
+    metricsRecorder.publisherRegistered(TOPIC_1);
+    metricsRecorder.publisherRegistered(TOPIC_1);
+    publish(TOPIC_1, 1);
+
+    metricsRecorder.publisherUnregistered(TOPIC_1);
+    assertThat(metricsRecorder.snapshot().getTopicMetrics(), hasKey(TOPIC_1));
+    metricsRecorder.publisherUnregistered(TOPIC_1);
+    assertThat(metricsRecorder.snapshot().getTopicMetrics(), not(hasKey(TOPIC_1)));
+  }
+
+  @Test
+  public void shouldPassSnapshotToExporter() {
+    metricsRecorder.publisherRegistered(TOPIC_1);
+
+    metricsRecorder.export(metricsSnapshot -> assertThat(metricsSnapshot.getPublisherCount(), is(1)));
+  }
+
+  private static final class FakeTicker extends Ticker {
+    private long nanos;
+
+    void advance(final long nanos) {
+      this.nanos += nanos;
+    }
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+  }
+
+  @Test
+  public void shouldReportMaxQueueDepthSincePreviousSnapshotAndTotalDroppedNotifications() {
+    final Subscriber subscriber = topics -> {
+      // do nothing
+    };
+    metricsRecorder.subscriberRegistered(subscriber);
+    metricsRecorder.notificationEnqueued(subscriber, 1);
+    metricsRecorder.notificationEnqueued(subscriber, 3);
+    metricsRecorder.notificationEnqueued(subscriber, 2);
+    metricsRecorder.notificationDropped(subscriber, ImmutableSet.of(TOPIC_1));
+    metricsRecorder.snapshot();
+    metricsRecorder.notificationEnqueued(subscriber, 2);
+    metricsRecorder.notificationDropped(subscriber, ImmutableSet.of(TOPIC_1));
+
+    final SubscriberMetrics subscriberMetrics = metricsRecorder.snapshot().getSubscriberMetrics().get(subscriber);
+
+    assertThat(subscriberMetrics.getMaxQueueDepth(), is(2));
+    assertThat(subscriberMetrics.getDroppedNotificationCount(), is(2L));
+  }
+}
@@ -0,0 +1,242 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.base.Ticker;
+import com.google.common.reflect.TypeToken;
+
+import io.github.ssoloff.psychictrain.api.codec.ValueCodecRegistry;
+import io.github.ssoloff.psychictrain.api.engine.Broker;
+import io.github.ssoloff.psychictrain.api.engine.DerivedTopicFunction;
+import io.github.ssoloff.psychictrain.api.engine.DerivedTopicToken;
+import io.github.ssoloff.psychictrain.api.engine.BrokerInstrumentation;
+import io.github.ssoloff.psychictrain.api.engine.FakePublisher;
+import io.github.ssoloff.psychictrain.api.engine.FakeSubscriber;
+import io.github.ssoloff.psychictrain.api.engine.Publisher;
+import io.github.ssoloff.psychictrain.api.engine.PublisherFactory;
+import io.github.ssoloff.psychictrain.api.engine.PublisherOptions;
+import io.github.ssoloff.psychictrain.api.engine.PublisherToken;
+import io.github.ssoloff.psychictrain.api.engine.Subscriber;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberFactory;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberOptions;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberToken;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+
+public final class BrokerReplayerTest {
+  private static final Topic<Integer> TOPIC_1 = Topic.of("topic1", Integer.class);
+  private static final Topic<String> TOPIC_2 = Topic.of("topic2", String.class);
+  private static final Topic<Object> UNENCODABLE_TOPIC = Topic.of("unencodableTopic", Object.class);
+
+  private final ValueCodecRegistry codecRegistry = ValueCodecRegistry.defaults();
+  private final Path file;
+  private long now;
+  private final Ticker ticker = new Ticker() {
+    @Override
+    public long read() {
+      return now;
+    }
+  };
+
+  public BrokerReplayerTest() throws IOException {
+    file = Files.createTempFile("recording", ".bin");
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    Files.delete(file);
+  }
+
+  private static DefaultBroker newBroker() {
+    return new DefaultBroker(BrokerInstrumentation.noOp(), false);
+  }
+
+  private RecordingBroker openRecording() throws IOException {
+    return RecordingBroker.open(newBroker(), codecRegistry, file, ticker);
+  }
+
+  private static List<Object> observeValues(final Broker broker, final TopicMatcher topicMatcher) {
+    final List<Object> values = new ArrayList<>();
+    broker.registerSubscriber(topicMatcher, subscriberContext -> new Subscriber() {
+      @Override
+      public void topicsChanged(final Set<Topic<?>> topics) {
+        values.addAll(subscriberContext.getChangedValuesForMatchingTopics().values());
+      }
+    });
+    return values;
+  }
+
+  private static <T> PublisherToken<FakePublisher<T>> registerPublisher(final Broker broker, final Topic<T> topic) {
+    return broker.registerPublisher(topic, FakePublisher.newFactory());
+  }
+
+  private ReplayResult replay(final Broker broker, final double speedFactor) throws IOException {
+    return BrokerReplayer.load(file, codecRegistry).replay(broker, speedFactor);
+  }
+
+  @Test
+  public void shouldReplayRecordedPublications() throws IOException {
+    try (RecordingBroker recordingBroker = openRecording()) {
+      final FakePublisher<Integer> publisher1 = registerPublisher(recordingBroker, TOPIC_1).getPublisher();
+      final FakePublisher<String> publisher2 = registerPublisher(recordingBroker, TOPIC_2).getPublisher();
+      publisher1.getContext().publishInt(42);
+      publisher2.publish("foo");
+      publisher1.publish(2112);
+    }
+    final DefaultBroker broker = newBroker();
+    final List<Object> values = observeValues(broker, TopicMatcher.forTopics(TOPIC_1, TOPIC_2));
+
+    final ReplayResult replayResult = replay(broker, BrokerReplayer.AS_FAST_AS_POSSIBLE);
+
+    assertThat(values, contains(42, "foo", 2112));
+    assertThat(replayResult.getEventCount(), is(5));
+    assertThat(replayResult.getPublishLatency().getCount(), is(3L));
+  }
+
+  @Test
+  public void shouldReplaySubscribersWithTheTopicsTheyMatched() throws IOException {
+    final TopicMatcher topicMatcher = TopicMatcher.forTopicsMatchingFilter(
+        TopicMatcher.MULTI_LEVEL_WILDCARD,
+        TypeToken.of(Integer.class));
+    try (RecordingBroker recordingBroker = openRecording()) {
+      // registered before the topics are defined
+      recordingBroker.registerSubscriber(topicMatcher, FakeSubscriber.newFactory(topics -> {
+      }));
+      registerPublisher(recordingBroker, TOPIC_1);
+      registerPublisher(recordingBroker, TOPIC_2);
+      // registered after the topics are defined
+      recordingBroker.registerSubscriber(topicMatcher, FakeSubscriber.newFactory(topics -> {
+      }));
+    }
+    final DefaultBroker broker = newBroker();
+    final List<TopicMatcher> replayedTopicMatchers = new ArrayList<>();
+
+    replay(new Broker() {
+      @Override
+      public <@NonNull T> DerivedTopicToken registerDerivedTopic(
+          final Topic<T> topic,
+          final TopicMatcher inputTopicMatcher,
+          final DerivedTopicFunction<T> function) {
+        return broker.registerDerivedTopic(topic, inputTopicMatcher, function);
+      }
+
+      @Override
+      public <@NonNull P extends Publisher> PublisherToken<P> registerPublisher(
+          final Topic<?> topic,
+          final PublisherFactory<P> publisherFactory,
+          final PublisherOptions publisherOptions) {
+        return broker.registerPublisher(topic, publisherFactory, publisherOptions);
+      }
+
+      @Override
+      public <@NonNull S extends Subscriber> SubscriberToken<S> registerSubscriber(
+          final TopicMatcher topicMatcher,
+          final SubscriberFactory<S> subscriberFactory,
+          final SubscriberOptions subscriberOptions) {
+        replayedTopicMatchers.add(topicMatcher);
+        return broker.registerSubscriber(topicMatcher, subscriberFactory, subscriberOptions);
+      }
+
+      @Override
+      public void runInBatch(final Runnable action) {
+        broker.runInBatch(action);
+      }
+    }, BrokerReplayer.AS_FAST_AS_POSSIBLE);
+
+    assertThat(replayedTopicMatchers, hasSize(2));
+    for (final TopicMatcher replayedTopicMatcher : replayedTopicMatchers) {
+      assertThat(replayedTopicMatcher.matches(TOPIC_1), is(true));
+      assertThat(replayedTopicMatcher.matches(TOPIC_2), is(false));
+    }
+  }
+
+  @Test
+  public void shouldReplayEventsAtRecordedSpeedScaledBySpeedFactor() throws IOException {
+    try (RecordingBroker recordingBroker = openRecording()) {
+      final FakePublisher<Integer> publisher = registerPublisher(recordingBroker, TOPIC_1).getPublisher();
+      publisher.publish(42);
+      now += TimeUnit.MILLISECONDS.toNanos(200L);
+      publisher.publish(2112);
+    }
+
+    final Duration recordedSpeedElapsedTime = replay(newBroker(), BrokerReplayer.RECORDED_SPEED).getElapsedTime();
+    final Duration doubleSpeedElapsedTime = replay(newBroker(), 2.0).getElapsedTime();
+    final Duration fastestElapsedTime = replay(newBroker(), BrokerReplayer.AS_FAST_AS_POSSIBLE).getElapsedTime();
+
+    assertThat(recordedSpeedElapsedTime, is(greaterThanOrEqualTo(Duration.ofMillis(200L))));
+    assertThat(doubleSpeedElapsedTime, is(greaterThanOrEqualTo(Duration.ofMillis(100L))));
+    assertThat(doubleSpeedElapsedTime, is(lessThan(recordedSpeedElapsedTime)));
+    assertThat(fastestElapsedTime, is(lessThan(Duration.ofMillis(100L))));
+  }
+
+  @Test
+  public void shouldReplayPublicationLargerThanRecordingBuffer() throws IOException {
+    final String largeValue = Strings.repeat("x", 1024 * 1024);
+    try (RecordingBroker recordingBroker = openRecording()) {
+      registerPublisher(recordingBroker, TOPIC_2).getPublisher().publish(largeValue);
+    }
+    final DefaultBroker broker = newBroker();
+    final List<Object> values = observeValues(broker, TopicMatcher.forTopic(TOPIC_2));
+
+    replay(broker, BrokerReplayer.AS_FAST_AS_POSSIBLE);
+
+    assertThat(values, contains(largeValue));
+  }
+
+  @Test
+  public void shouldNotRecordPublisherOfTopicWithoutCodec() throws IOException {
+    try (RecordingBroker recordingBroker = openRecording()) {
+      final PublisherToken<FakePublisher<Object>> publisherToken = registerPublisher(
+          recordingBroker,
+          UNENCODABLE_TOPIC);
+      publisherToken.getPublisher().publish(new Object());
+      publisherToken.unregister();
+      registerPublisher(recordingBroker, TOPIC_1).getPublisher().publish(42);
+    }
+    final DefaultBroker broker = newBroker();
+    final List<Object> values = observeValues(broker, TopicMatcher.forTopic(TOPIC_1));
+
+    final ReplayResult replayResult = replay(broker, BrokerReplayer.AS_FAST_AS_POSSIBLE);
+
+    assertThat(values, contains(42));
+    assertThat(replayResult.getEventCount(), is(2));
+  }
+
+  @Test
+  public void shouldThrowExceptionWhenLoadingFileThatIsNotARecording() throws IOException {
+    Files.write(file, "not a recording".getBytes(StandardCharsets.UTF_8));
+
+    assertThrows(IOException.class, () -> BrokerReplayer.load(file, codecRegistry));
+  }
+
+  @Test
+  public void shouldThrowExceptionWhenSpeedFactorIsNotPositive() throws IOException {
+    try (RecordingBroker recordingBroker = openRecording()) {
+      registerPublisher(recordingBroker, TOPIC_1);
+    }
+    final BrokerReplayer replayer = BrokerReplayer.load(file, codecRegistry);
+
+    assertThrows(IllegalArgumentException.class, () -> replayer.replay(newBroker(), 0.0));
+  }
+}
@@ -0,0 +1,152 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+
+import io.github.ssoloff.psychictrain.api.codec.ValueCodecRegistry;
+import io.github.ssoloff.psychictrain.api.engine.FakePublisher;
+import io.github.ssoloff.psychictrain.api.engine.FakeSubscriber;
+import io.github.ssoloff.psychictrain.api.engine.PublisherToken;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberContext;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+import io.github.ssoloff.psychictrain.api.metrics.MetricsRecorder;
+
+public final class BrokerSnapshotsTest {
+  private static final Topic<Integer> TOPIC_1 = Topic.of("topic1", Integer.class);
+  private static final Topic<String> TOPIC_2 = Topic.of("topic2", String.class);
+  private static final Topic<Object> UNENCODABLE_TOPIC = Topic.of("unencodableTopic", Object.class);
+
+  private final ValueCodecRegistry codecRegistry = ValueCodecRegistry.defaults();
+
+  private static <T> FakePublisher<T> registerPublisher(final InternalBroker broker, final Topic<T> topic) {
+    return broker.registerPublisher(topic, FakePublisher.<T>newFactory()).getPublisher();
+  }
+
+  private List<PublisherToken<RestoredPublisher>> restore(final InternalBroker broker, final byte[] snapshot)
+      throws IOException {
+    return BrokerSnapshots.restore(broker, codecRegistry, Channels.newChannel(new ByteArrayInputStream(snapshot)));
+  }
+
+  private byte[] write(final InternalBroker broker) throws IOException {
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    BrokerSnapshots.write(broker, codecRegistry, Channels.newChannel(outputStream));
+    return outputStream.toByteArray();
+  }
+
+  @Test
+  public void shouldRestoreAllPublishedValues() throws IOException {
+    final DefaultBroker broker = new DefaultBroker();
+    registerPublisher(broker, TOPIC_1).publish(42);
+    registerPublisher(broker, TOPIC_1).publish(2112);
+    registerPublisher(broker, TOPIC_2).publish("foo");
+    final DefaultBroker restoredBroker = new DefaultBroker();
+    final SubscriberContext subscriberContext = restoredBroker
+        .registerSubscriber(TopicMatcher.forTopics(TOPIC_1, TOPIC_2), FakeSubscriber.newFactory(topics -> {
+          // do nothing
+        }))
+        .getSubscriber()
+        .getContext();
+
+    final List<PublisherToken<RestoredPublisher>> publisherTokens = restore(restoredBroker, write(broker));
+
+    assertThat(publisherTokens, hasSize(3));
+    assertThat(subscriberContext.getValuesForTopic(TOPIC_1), containsInAnyOrder(42, 2112));
+    assertThat(subscriberContext.getValuesForTopic(TOPIC_2), contains("foo"));
+  }
+
+  @Test
+  public void shouldNotifySubscriberOnceOfAllRestoredTopics() throws IOException {
+    final ConcurrentBroker broker = new ConcurrentBroker();
+    registerPublisher(broker, TOPIC_1).publish(42);
+    registerPublisher(broker, TOPIC_2).publish("foo");
+    final ConcurrentBroker restoredBroker = new ConcurrentBroker();
+    final List<Set<Topic<?>>> notifications = new ArrayList<>();
+    restoredBroker.registerSubscriber(
+        TopicMatcher.forTopics(TOPIC_1, TOPIC_2),
+        FakeSubscriber.newFactory(notifications::add));
+
+    restore(restoredBroker, write(broker));
+
+    final Set<Topic<?>> expectedTopics = ImmutableSet.of(TOPIC_1, TOPIC_2);
+    assertThat(notifications, contains(is(expectedTopics)));
+  }
+
+  @Test
+  public void shouldRestoreValueLargerThanBuffer() throws IOException {
+    final String value = Strings.repeat("x", 1024 * 1024);
+    final DefaultBroker broker = new DefaultBroker();
+    registerPublisher(broker, TOPIC_1).publish(42);
+    registerPublisher(broker, TOPIC_2).publish(value);
+    final DefaultBroker restoredBroker = new DefaultBroker();
+
+    restore(restoredBroker, write(broker));
+
+    final List<Object> restoredValues = new ArrayList<>();
+    restoredBroker.forEachValue((topic, restoredValue) -> restoredValues.add(restoredValue));
+    assertThat(restoredValues, containsInAnyOrder(42, value));
+  }
+
+  @Test
+  public void shouldNotWriteValuesOfTopicWithoutCodec() throws IOException {
+    final DefaultBroker broker = new DefaultBroker();
+    registerPublisher(broker, UNENCODABLE_TOPIC).publish(new Object());
+    final DefaultBroker restoredBroker = new DefaultBroker();
+
+    assertThat(restore(restoredBroker, write(broker)), is(empty()));
+  }
+
+  @Test
+  public void shouldThrowExceptionWhenRestoringSomethingOtherThanSnapshot() {
+    assertThrows(IOException.class, () -> restore(new DefaultBroker(), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }));
+  }
+
+  @Test
+  public void shouldThrowExceptionWhenSnapshotIsTruncated() throws IOException {
+    final DefaultBroker broker = new DefaultBroker();
+    registerPublisher(broker, TOPIC_2).publish("foo");
+    final byte[] snapshot = write(broker);
+    final byte[] truncatedSnapshot = new byte[snapshot.length - Integer.BYTES - 1];
+    System.arraycopy(snapshot, 0, truncatedSnapshot, 0, truncatedSnapshot.length);
+
+    assertThrows(IOException.class, () -> restore(new DefaultBroker(), truncatedSnapshot));
+  }
+
+  @Test
+  public void shouldUnregisterRestoredPublishersWhenSnapshotIsTruncatedAfterFirstRecord() throws IOException {
+    final DefaultBroker broker = new DefaultBroker();
+    registerPublisher(broker, TOPIC_1).publish(42);
+    registerPublisher(broker, TOPIC_2).publish("foo");
+    final byte[] snapshot = write(broker);
+    // truncated within the value of the second record
+    final byte[] truncatedSnapshot = new byte[snapshot.length - Integer.BYTES - 1];
+    System.arraycopy(snapshot, 0, truncatedSnapshot, 0, truncatedSnapshot.length);
+    final MetricsRecorder metricsRecorder = new MetricsRecorder();
+    final DefaultBroker restoredBroker = new DefaultBroker(metricsRecorder);
+
+    assertThrows(IOException.class, () -> restore(restoredBroker, truncatedSnapshot));
+
+    final List<Object> restoredValues = new ArrayList<>();
+    restoredBroker.forEachValue((topic, restoredValue) -> restoredValues.add(restoredValue));
+    assertThat(restoredValues, is(empty()));
+    assertThat(metricsRecorder.snapshot().getPublisherCount(), is(0));
+  }
+}
@@ -0,0 +1,12 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import io.github.ssoloff.psychictrain.api.engine.AbstractBrokerTestCase;
+import io.github.ssoloff.psychictrain.api.engine.Broker;
+import io.github.ssoloff.psychictrain.api.engine.BrokerInstrumentation;
+
+public final class ConcurrentBrokerAsBrokerTest extends AbstractBrokerTestCase {
+  @Override
+  protected Broker createBroker(final BrokerInstrumentation instrumentation) {
+    return new ConcurrentBroker(instrumentation);
+  }
+}
@@ -0,0 +1,328 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.reflect.TypeToken;
+
+import io.github.ssoloff.psychictrain.api.engine.FakePublisher;
+import io.github.ssoloff.psychictrain.api.engine.FakeSubscriber;
+import io.github.ssoloff.psychictrain.api.engine.PublisherContext;
+import io.github.ssoloff.psychictrain.api.engine.PublisherToken;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberContext;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberOptions;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberToken;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+
+public final class ConcurrentBrokerTest {
+  private static final int THREAD_COUNT = 8;
+  private static final int ITERATION_COUNT = 2_000;
+
+  private final ConcurrentBroker broker = new ConcurrentBroker();
+  private final ExecutorService executorService = Executors.newFixedThreadPool(THREAD_COUNT);
+
+  @AfterEach
+  public void shutdownExecutorService() throws Exception {
+    executorService.shutdownNow();
+    executorService.awaitTermination(10L, TimeUnit.SECONDS);
+  }
+
+  private Collection<Integer> getValuesForTopic(final Topic<Integer> topic) {
+    return broker.registerSubscriber(TopicMatcher.forTopic(topic), FakeSubscriber.newFactory(topics -> {
+      // do nothing
+    }))
+        .getSubscriber()
+        .getContext()
+        .getValuesForTopic(topic);
+  }
+
+  private static Topic<Integer> newTopic(final int index) {
+    return Topic.of("topic" + index, Integer.class);
+  }
+
+  private void runConcurrently(final Callable<?> task) throws Exception {
+    final CyclicBarrier barrier = new CyclicBarrier(THREAD_COUNT);
+    final List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < THREAD_COUNT; ++i) {
+      futures.add(executorService.submit(() -> {
+        barrier.await();
+        return task.call();
+      }));
+    }
+    for (final Future<?> future : futures) {
+      future.get(30L, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void shouldNotDeferNotificationsOfPublicationsMadeByOtherThreadsDuringBatch() throws Exception {
+    final Topic<Integer> topic = newTopic(0);
+    final AtomicInteger notificationCount = new AtomicInteger();
+    broker.registerSubscriber(
+        TopicMatcher.forTopic(topic),
+        FakeSubscriber.newFactory(topics -> notificationCount.incrementAndGet()));
+    final FakePublisher<Integer> publisher = broker
+        .registerPublisher(topic, FakePublisher.<Integer>newFactory())
+        .getPublisher();
+
+    broker.runInBatch(() -> {
+      try {
+        executorService.submit(() -> publisher.publish(42)).get(30L, TimeUnit.SECONDS);
+      } catch (final Exception e) {
+        throw new AssertionError(e);
+      }
+
+      assertThat(notificationCount.get(), is(1));
+    });
+  }
+
+  @Test
+  public void shouldNotifySubscribersOfEveryPublicationWhenPublishingConcurrentlyToDifferentTopics() throws Exception {
+    final List<AtomicInteger> notificationCounts = IntStream.range(0, THREAD_COUNT)
+        .mapToObj(index -> {
+          final AtomicInteger notificationCount = new AtomicInteger();
+          broker.registerSubscriber(
+              TopicMatcher.forTopic(newTopic(index)),
+              FakeSubscriber.newFactory(topics -> notificationCount.incrementAndGet()));
+          return notificationCount;
+        })
+        .collect(Collectors.toList());
+    final AtomicInteger nextIndex = new AtomicInteger();
+
+    runConcurrently(() -> {
+      final int index = nextIndex.getAndIncrement();
+      final FakePublisher<Integer> publisher = broker
+          .registerPublisher(newTopic(index), FakePublisher.<Integer>newFactory())
+          .getPublisher();
+      for (int i = 0; i < ITERATION_COUNT; ++i) {
+        publisher.publish(i);
+      }
+      return null;
+    });
+
+    for (int index = 0; index < THREAD_COUNT; ++index) {
+      assertThat(notificationCounts.get(index).get(), is(ITERATION_COUNT));
+      assertThat(getValuesForTopic(newTopic(index)), containsInAnyOrder(ITERATION_COUNT - 1));
+    }
+  }
+
+  @Test
+  public void shouldNotifySubscribersOfEveryPublicationWhenPublishingConcurrentlyToSameTopic() throws Exception {
+    final Topic<Integer> topic = newTopic(0);
+    final AtomicInteger notificationCount = new AtomicInteger();
+    broker.registerSubscriber(
+        TopicMatcher.forTopic(topic),
+        FakeSubscriber.newFactory(topics -> notificationCount.incrementAndGet()));
+    final AtomicInteger nextIndex = new AtomicInteger();
+
+    runConcurrently(() -> {
+      final int index = nextIndex.getAndIncrement();
+      final FakePublisher<Integer> publisher = broker
+          .registerPublisher(topic, FakePublisher.<Integer>newFactory())
+          .getPublisher();
+      for (int i = 0; i < ITERATION_COUNT; ++i) {
+        publisher.publish(index);
+      }
+      return null;
+    });
+
+    assertThat(notificationCount.get(), is(THREAD_COUNT * ITERATION_COUNT));
+    assertThat(
+        getValuesForTopic(topic),
+        containsInAnyOrder(IntStream.range(0, THREAD_COUNT).boxed().toArray()));
+  }
+
+  @Test
+  public void shouldNotBlockPublisherWhileAsynchronousSubscriberIsBusy() throws Exception {
+    final Topic<Integer> topic = newTopic(0);
+    final CountDownLatch subscriberReleased = new CountDownLatch(1);
+    final AtomicInteger notificationCount = new AtomicInteger();
+    broker.registerSubscriber(
+        TopicMatcher.forTopic(topic),
+        FakeSubscriber.newFactory(topics -> {
+          try {
+            subscriberReleased.await(10L, TimeUnit.SECONDS);
+          } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          notificationCount.incrementAndGet();
+        }),
+        SubscriberOptions.defaults().withExecutor(executorService));
+    final FakePublisher<Integer> publisher = broker
+        .registerPublisher(topic, FakePublisher.<Integer>newFactory())
+        .getPublisher();
+
+    for (int i = 0; i < ITERATION_COUNT; ++i) {
+      publisher.publish(i);
+    }
+
+    assertThat(notificationCount.get(), is(0));
+    subscriberReleased.countDown();
+    executorService.shutdown();
+    executorService.awaitTermination(10L, TimeUnit.SECONDS);
+    assertThat(notificationCount.get(), is(ITERATION_COUNT));
+  }
+
+  @Test
+  public void shouldNeverNotifyAsynchronousSubscriberConcurrentlyWithItself() throws Exception {
+    final Topic<Integer> topic = newTopic(0);
+    final AtomicBoolean notifying = new AtomicBoolean();
+    final AtomicInteger notificationCount = new AtomicInteger();
+    final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+    final ExecutorService subscriberExecutorService = Executors.newFixedThreadPool(THREAD_COUNT);
+    try {
+      broker.registerSubscriber(
+          TopicMatcher.forTopic(topic),
+          FakeSubscriber.newFactory(topics -> {
+            if (!notifying.compareAndSet(false, true)) {
+              failures.add(new AssertionError("concurrent notification"));
+            }
+            notificationCount.incrementAndGet();
+            notifying.set(false);
+          }),
+          SubscriberOptions.defaults().withExecutor(subscriberExecutorService));
+
+      runConcurrently(() -> {
+        final FakePublisher<Integer> publisher = broker
+            .registerPublisher(topic, FakePublisher.<Integer>newFactory())
+            .getPublisher();
+        for (int i = 0; i < ITERATION_COUNT; ++i) {
+          publisher.publish(i);
+        }
+        return null;
+      });
+    } finally {
+      subscriberExecutorService.shutdown();
+      subscriberExecutorService.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+
+    assertThat(failures, is(empty()));
+    assertThat(notificationCount.get(), is(THREAD_COUNT * ITERATION_COUNT));
+  }
+
+  @Test
+  public void shouldNotDetectCycleWhenSameTopicIsPublishedConcurrentlyByDifferentThreads() throws Exception {
+    final Topic<Integer> topic = newTopic(0);
+    final CountDownLatch bothPublicationsInFlight = new CountDownLatch(2);
+    broker.registerSubscriber(TopicMatcher.forTopic(topic), FakeSubscriber.newFactory(topics -> {
+      bothPublicationsInFlight.countDown();
+      try {
+        bothPublicationsInFlight.await(10L, TimeUnit.SECONDS);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }));
+    final PublisherToken<FakePublisher<Integer>> publisherToken1 = broker.registerPublisher(
+        topic,
+        FakePublisher.newFactory());
+    final PublisherToken<FakePublisher<Integer>> publisherToken2 = broker.registerPublisher(
+        topic,
+        FakePublisher.newFactory());
+
+    final Future<?> future1 = executorService.submit(() -> publisherToken1.getPublisher().publish(1));
+    final Future<?> future2 = executorService.submit(() -> publisherToken2.getPublisher().publish(2));
+
+    future1.get(30L, TimeUnit.SECONDS);
+    future2.get(30L, TimeUnit.SECONDS);
+    assertThat(bothPublicationsInFlight.getCount(), is(0L));
+  }
+
+  @Test
+  public void shouldNeverReadPrimitiveValueTornBetweenPublicationsOfDifferentTypes() throws Exception {
+    final Topic<Number> topic = Topic.of("numberTopic", Number.class);
+    final PublisherContext publisherContext = broker
+        .registerPublisher(topic, FakePublisher.<Number>newFactory())
+        .getPublisher()
+        .getContext();
+    publisherContext.publishInt(1);
+    final SubscriberContext subscriberContext = broker
+        .registerSubscriber(TopicMatcher.forTopic(topic), FakeSubscriber.newFactory(topics -> {
+          // do nothing
+        }))
+        .getSubscriber()
+        .getContext();
+    final AtomicBoolean reading = new AtomicBoolean(true);
+    final Future<?> future = executorService.submit(() -> {
+      while (reading.get()) {
+        publisherContext.publishInt(1);
+        publisherContext.publishDouble(2.0);
+      }
+    });
+
+    try {
+      for (int i = 0; i < 50 * ITERATION_COUNT; ++i) {
+        final Number value = subscriberContext.getValuesForTopic(topic).iterator().next();
+        // a torn read pairs the kind of one publication with the bits of the other
+        assertThat(value.equals(1) || value.equals(2.0), is(true));
+      }
+    } finally {
+      reading.set(false);
+    }
+    future.get(30L, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void shouldRemainConsistentWhenRegisteringAndUnregisteringConcurrentlyWithPublications() throws Exception {
+    final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+    final AtomicInteger nextIndex = new AtomicInteger();
+
+    runConcurrently(() -> {
+      final int index = nextIndex.getAndIncrement();
+      for (int i = 0; i < ITERATION_COUNT; ++i) {
+        final Topic<Integer> topic = newTopic(i % THREAD_COUNT);
+        final SubscriberToken<FakeSubscriber> subscriberToken = broker.registerSubscriber(
+            TopicMatcher.forTopicsMatchingPattern(Pattern.compile("topic\\d+"), TypeToken.of(Integer.class)),
+            FakeSubscriber.newFactory(topics -> {
+              if (topics.isEmpty()) {
+                failures.add(new AssertionError("empty notification"));
+              }
+            }));
+        final PublisherToken<FakePublisher<Integer>> publisherToken = broker.registerPublisher(
+            topic,
+            FakePublisher.newFactory());
+        publisherToken.getPublisher().publish(index);
+        subscriberToken.getSubscriber().getContext().getValuesForMatchingTopics();
+        publisherToken.unregister();
+        subscriberToken.unregister();
+      }
+      return null;
+    });
+
+    assertThat(failures, is(empty()));
+    for (int index = 0; index < THREAD_COUNT; ++index) {
+      assertThat(getValuesForTopic(newTopic(index)), is(empty()));
+    }
+    assertThat(broker.registerSubscriber(
+        TopicMatcher.forTopicsMatchingPattern(Pattern.compile(".*"), TypeToken.of(Integer.class)),
+        FakeSubscriber.newFactory(topics -> failures.add(new AssertionError("unexpected notification"))))
+        .getSubscriber()
+        .getContext()
+        .getValuesForMatchingTopics()
+        .isEmpty(), is(true));
+    assertThat(failures, is(empty()));
+  }
+}
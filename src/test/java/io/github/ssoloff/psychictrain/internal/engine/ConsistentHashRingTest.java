@@ -0,0 +1,61 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public final class ConsistentHashRingTest {
+  private static final int NAME_COUNT = 10_000;
+
+  @Test
+  public void shouldAssignNameToSameNodeRegardlessOfNodeOrder() {
+    final ConsistentHashRing ring1 = new ConsistentHashRing(ImmutableList.of("node1", "node2", "node3"));
+    final ConsistentHashRing ring2 = new ConsistentHashRing(ImmutableList.of("node3", "node1", "node2"));
+
+    for (int i = 0; i < NAME_COUNT; ++i) {
+      assertThat(ring2.getNodeId("name" + i), is(ring1.getNodeId("name" + i)));
+    }
+  }
+
+  @Test
+  public void shouldAssignNamesToAllNodes() {
+    final ConsistentHashRing ring = new ConsistentHashRing(ImmutableList.of("node1", "node2", "node3", "node4"));
+    final Map<String, Integer> nameCountsByNodeId = new HashMap<>();
+
+    for (int i = 0; i < NAME_COUNT; ++i) {
+      nameCountsByNodeId.merge(ring.getNodeId("name" + i), 1, Integer::sum);
+    }
+
+    assertThat(nameCountsByNodeId.size(), is(4));
+    nameCountsByNodeId.values().forEach(nameCount -> assertThat(nameCount, is(greaterThan(NAME_COUNT / 8))));
+  }
+
+  @Test
+  public void shouldOnlyReassignNamesOfRemovedNode() {
+    final ConsistentHashRing ring1 = new ConsistentHashRing(ImmutableList.of("node1", "node2", "node3"));
+    final ConsistentHashRing ring2 = new ConsistentHashRing(ImmutableList.of("node1", "node3"));
+
+    for (int i = 0; i < NAME_COUNT; ++i) {
+      final String nodeId = ring1.getNodeId("name" + i);
+      if (!nodeId.equals("node2")) {
+        assertThat(ring2.getNodeId("name" + i), is(nodeId));
+      } else {
+        assertThat(ring2.getNodeId("name" + i), is(not("node2")));
+      }
+    }
+  }
+
+  @Test
+  public void shouldThrowExceptionWhenNodeIdsEmpty() {
+    assertThrows(IllegalArgumentException.class, () -> new ConsistentHashRing(ImmutableList.of()));
+  }
+}
@@ -2,10 +2,11 @@ package io.github.ssoloff.psychictrain.internal.engine;
 
 import io.github.ssoloff.psychictrain.api.engine.AbstractBrokerTestCase;
 import io.github.ssoloff.psychictrain.api.engine.Broker;
+import io.github.ssoloff.psychictrain.api.engine.BrokerInstrumentation;
 
 public final class DefaultBrokerAsBrokerTest extends AbstractBrokerTestCase {
   @Override
-  protected Broker createBroker() {
-    return new DefaultBroker();
+  protected Broker createBroker(final BrokerInstrumentation instrumentation) {
+    return new DefaultBroker(instrumentation);
   }
 }
@@ -0,0 +1,136 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsStringIgnoringCase;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.jupiter.api.Test;
+
+import io.github.ssoloff.psychictrain.api.engine.FakePublisher;
+import io.github.ssoloff.psychictrain.api.engine.FakeSubscriber;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberContext;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+
+public final class DefaultBrokerTest {
+  private static final Topic<Integer> LEFT_TOPIC = Topic.of("left", Integer.class);
+  private static final Topic<Integer> RIGHT_TOPIC = Topic.of("right", Integer.class);
+  private static final Topic<Integer> SOURCE_TOPIC = Topic.of("source", Integer.class);
+  private static final Topic<Integer> TRIGGER_TOPIC = Topic.of("trigger", Integer.class);
+
+  private final DefaultBroker broker = new DefaultBroker();
+  private final SubscriberContext subscriberContext = broker
+      .registerSubscriber(TopicMatcher.forTopic(SOURCE_TOPIC), FakeSubscriber.newFactory(topics -> {
+        // do nothing
+      }))
+      .getSubscriber()
+      .getContext();
+
+  private @Nullable Integer getValue(final Topic<Integer> topic) {
+    return subscriberContext.getValuesForTopic(topic).stream().findFirst().orElse(null);
+  }
+
+  private FakePublisher<Integer> registerPublisher(final Topic<Integer> topic) {
+    return broker.registerPublisher(topic, FakePublisher.<Integer>newFactory()).getPublisher();
+  }
+
+  // registers a subscriber that publishes a value derived from the value of
+  // another topic whenever that topic changes
+  private void registerDerivedTopic(
+      final Topic<Integer> topic,
+      final Topic<Integer> sourceTopic,
+      final IntUnaryOperator operator) {
+    final FakePublisher<Integer> publisher = registerPublisher(topic);
+    broker.registerSubscriber(TopicMatcher.forTopic(sourceTopic), FakeSubscriber.newFactory(topics -> {
+      final @Nullable Integer sourceValue = getValue(sourceTopic);
+      if (sourceValue != null) {
+        publisher.publish(operator.applyAsInt(sourceValue));
+      }
+    }));
+  }
+
+  @Test
+  public void shouldNotifySubscriberOnceAfterAllUpstreamSubscribersHaveSettledWhenDependenciesHaveBeenLearned() {
+    final FakePublisher<Integer> sourcePublisher = registerPublisher(SOURCE_TOPIC);
+    final List<String> observations = new ArrayList<>();
+    // registered before the subscribers it depends on so that it would be
+    // notified first were it not for the learned ranks
+    broker.registerSubscriber(
+        TopicMatcher.forTopics(SOURCE_TOPIC, LEFT_TOPIC, RIGHT_TOPIC),
+        FakeSubscriber.newFactory(topics -> observations.add(
+            getValue(SOURCE_TOPIC) + ":" + getValue(LEFT_TOPIC) + ":" + getValue(RIGHT_TOPIC))));
+    registerDerivedTopic(LEFT_TOPIC, SOURCE_TOPIC, value -> value + 1);
+    registerDerivedTopic(RIGHT_TOPIC, SOURCE_TOPIC, value -> value * 2);
+    sourcePublisher.publish(1);
+    observations.clear();
+
+    sourcePublisher.publish(2);
+
+    assertThat(observations, contains("2:3:4"));
+  }
+
+  @Test
+  public void shouldNotifySubscribersOfPublicationMadeBySubscriberAfterItReturns() {
+    final FakePublisher<Integer> sourcePublisher = registerPublisher(SOURCE_TOPIC);
+    final FakePublisher<Integer> leftPublisher = registerPublisher(LEFT_TOPIC);
+    final List<String> events = new ArrayList<>();
+    broker.registerSubscriber(TopicMatcher.forTopic(SOURCE_TOPIC), FakeSubscriber.newFactory(topics -> {
+      leftPublisher.publish(42);
+      events.add("upstream returned");
+    }));
+    broker.registerSubscriber(
+        TopicMatcher.forTopic(LEFT_TOPIC),
+        FakeSubscriber.newFactory(topics -> events.add("downstream notified")));
+    events.clear();
+
+    sourcePublisher.publish(1);
+
+    assertThat(events, contains("upstream returned", "downstream notified"));
+  }
+
+  @Test
+  public void shouldNotThrowExceptionWhenDependencyLearnedInPreviousWaveWouldCompleteCycle() {
+    final FakePublisher<Integer> sourcePublisher = registerPublisher(SOURCE_TOPIC);
+    final FakePublisher<Integer> triggerPublisher = registerPublisher(TRIGGER_TOPIC);
+    final FakePublisher<Integer> leftPublisher = registerPublisher(LEFT_TOPIC);
+    final FakePublisher<Integer> rightPublisher = registerPublisher(RIGHT_TOPIC);
+    broker.registerSubscriber(TopicMatcher.forTopics(SOURCE_TOPIC, RIGHT_TOPIC), FakeSubscriber.newFactory(topics -> {
+      if (topics.contains(SOURCE_TOPIC)) {
+        leftPublisher.publish(1);
+      }
+    }));
+    broker.registerSubscriber(TopicMatcher.forTopics(LEFT_TOPIC, TRIGGER_TOPIC), FakeSubscriber.newFactory(topics -> {
+      if (topics.contains(TRIGGER_TOPIC)) {
+        rightPublisher.publish(2);
+      }
+    }));
+    sourcePublisher.publish(1);
+
+    triggerPublisher.publish(1);
+
+    assertThat(getValue(LEFT_TOPIC), is(1));
+    assertThat(getValue(RIGHT_TOPIC), is(2));
+  }
+
+  @Test
+  public void shouldThrowExceptionWhenCycleSpansMultipleSubscribers() {
+    final FakePublisher<Integer> sourcePublisher = registerPublisher(SOURCE_TOPIC);
+    registerDerivedTopic(LEFT_TOPIC, SOURCE_TOPIC, value -> value + 1);
+    registerDerivedTopic(SOURCE_TOPIC, LEFT_TOPIC, value -> value + 1);
+
+    final Exception e = assertThrows(IllegalStateException.class, () -> sourcePublisher.publish(1));
+    assertThat(e.getMessage(), containsStringIgnoringCase("cycle"));
+  }
+
+  @Test
+  public void shouldThrowExceptionWhenTickedOutsideOfTickMode() {
+    assertThrows(IllegalStateException.class, broker::tick);
+  }
+}
@@ -0,0 +1,163 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+import io.github.ssoloff.psychictrain.api.engine.BrokerInstrumentation;
+import io.github.ssoloff.psychictrain.api.engine.FakePublisher;
+import io.github.ssoloff.psychictrain.api.engine.FakeSubscriber;
+import io.github.ssoloff.psychictrain.api.engine.PublisherToken;
+import io.github.ssoloff.psychictrain.api.engine.PublisherOptions;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberContext;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicHistory;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+
+public final class DefaultBrokerTickModeTest {
+  private static final Topic<Integer> TOPIC_1 = Topic.of("topic1", Integer.class);
+  private static final Topic<String> TOPIC_2 = Topic.of("topic2", String.class);
+  private static final Topic<Integer> DERIVED_TOPIC = Topic.of("tickModeDerivedTopic", Integer.class);
+  private static final Topic<Integer> HISTORY_TOPIC = Topic.of("tickModeHistoryTopic", Integer.class);
+
+  private final DefaultBroker broker = new DefaultBroker(BrokerInstrumentation.noOp(), true);
+  private final List<Set<Topic<?>>> notifications = new ArrayList<>();
+  private final SubscriberContext subscriberContext = broker
+      .registerSubscriber(TopicMatcher.forTopics(TOPIC_1, TOPIC_2), FakeSubscriber.newFactory(notifications::add))
+      .getSubscriber()
+      .getContext();
+
+  private <T> PublisherToken<FakePublisher<T>> registerPublisher(final Topic<T> topic) {
+    return broker.registerPublisher(topic, FakePublisher.newFactory());
+  }
+
+  @Test
+  public void shouldNotExposePublishedValueUntilTick() {
+    final FakePublisher<Integer> publisher = registerPublisher(TOPIC_1).getPublisher();
+    publisher.publish(42);
+    broker.tick();
+
+    publisher.publish(2112);
+
+    assertThat(subscriberContext.getValuesForTopic(TOPIC_1), contains(42));
+    broker.tick();
+    assertThat(subscriberContext.getValuesForTopic(TOPIC_1), contains(2112));
+  }
+
+  @Test
+  public void shouldNotifySubscriberOnceOfAllTopicsChangedSinceThePreviousTick() {
+    final FakePublisher<Integer> publisher1 = registerPublisher(TOPIC_1).getPublisher();
+    final FakePublisher<String> publisher2 = registerPublisher(TOPIC_2).getPublisher();
+    notifications.clear();
+
+    publisher1.publish(42);
+    publisher2.publish("foo");
+    publisher1.publish(2112);
+
+    assertThat(notifications, empty());
+    broker.tick();
+    final Set<Topic<?>> expectedTopics = ImmutableSet.of(TOPIC_1, TOPIC_2);
+    assertThat(notifications, contains(is(expectedTopics)));
+    assertThat(subscriberContext.getValuesForTopic(TOPIC_1), contains(2112));
+  }
+
+  @Test
+  public void shouldNotNotifySubscriberWhenNothingWasPublishedSinceThePreviousTick() {
+    registerPublisher(TOPIC_1).getPublisher().publish(42);
+    broker.tick();
+    notifications.clear();
+
+    broker.tick();
+
+    assertThat(notifications, empty());
+  }
+
+  @Test
+  public void shouldDeferPublicationMadeBySubscriberDuringTickToTheNextTick() {
+    final FakePublisher<Integer> publisher = registerPublisher(TOPIC_1).getPublisher();
+    final List<Integer> observedValues = new ArrayList<>();
+    // a subscriber that feeds back into the topic it depends on
+    broker.registerSubscriber(TopicMatcher.forTopic(TOPIC_1), FakeSubscriber.newFactory(topics -> {
+      for (final int value : subscriberContext.getValuesForTopic(TOPIC_1)) {
+        observedValues.add(value);
+        publisher.publish(value + 1);
+      }
+    }));
+    publisher.publish(1);
+
+    broker.tick();
+    broker.tick();
+
+    assertThat(observedValues, contains(1, 2));
+    assertThat(subscriberContext.getValuesForTopic(TOPIC_1), contains(2));
+  }
+
+  @Test
+  public void shouldInvalidateDerivedTopicInTickThatCommitsItsInputs() {
+    final FakePublisher<Integer> publisher = registerPublisher(TOPIC_1).getPublisher();
+    broker.registerDerivedTopic(DERIVED_TOPIC, TopicMatcher.forTopic(TOPIC_1), inputContext -> inputContext
+        .getValuesForTopic(TOPIC_1).stream()
+        .map(value -> value * 10)
+        .findFirst()
+        .orElse(null));
+    final List<Integer> observedValues = new ArrayList<>();
+    final SubscriberContext derivedContext = broker
+        .registerSubscriber(TopicMatcher.forTopic(DERIVED_TOPIC), FakeSubscriber.newFactory(topics -> {}))
+        .getSubscriber()
+        .getContext();
+    broker.registerSubscriber(TopicMatcher.forTopic(DERIVED_TOPIC), FakeSubscriber.newFactory(
+        topics -> observedValues.addAll(derivedContext.getValuesForTopic(DERIVED_TOPIC))));
+    publisher.publish(1);
+    broker.tick();
+    broker.tick();
+    assertThat(derivedContext.getValuesForTopic(DERIVED_TOPIC), contains(10));
+
+    publisher.publish(2);
+    broker.tick();
+
+    assertThat(subscriberContext.getValuesForTopic(TOPIC_1), contains(2));
+    assertThat(derivedContext.getValuesForTopic(DERIVED_TOPIC), contains(20));
+    assertThat(observedValues, contains(10, 20));
+  }
+
+  @Test
+  public void shouldDiscardValuePublishedByPublisherUnregisteredBeforeTick() {
+    final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(TOPIC_1);
+    publisherToken.getPublisher().publish(42);
+    publisherToken.unregister();
+    notifications.clear();
+
+    broker.tick();
+
+    assertThat(notifications, empty());
+    assertThat(subscriberContext.getValuesForTopic(TOPIC_1), empty());
+  }
+
+  @Test
+  public void shouldRecordOnlyCommittedValuesInHistory() {
+    final FakePublisher<Integer> publisher = broker
+        .registerPublisher(
+            HISTORY_TOPIC,
+            FakePublisher.<Integer>newFactory(),
+            PublisherOptions.defaults().withHistory(TopicHistory.ofLastValues(10)))
+        .getPublisher();
+    publisher.publish(1);
+    publisher.publish(2);
+    assertThat(subscriberContext.getHistoryForTopic(HISTORY_TOPIC), is(empty()));
+
+    broker.tick();
+    publisher.publish(3);
+    broker.tick();
+
+    assertThat(subscriberContext.getHistoryForTopic(HISTORY_TOPIC), contains(2, 3));
+  }
+}
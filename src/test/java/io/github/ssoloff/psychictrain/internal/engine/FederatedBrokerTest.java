@@ -0,0 +1,271 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.base.Strings;
+
+import io.github.ssoloff.psychictrain.api.codec.ValueCodecRegistry;
+import io.github.ssoloff.psychictrain.api.engine.BrokerInstrumentation;
+import io.github.ssoloff.psychictrain.api.engine.FakePublisher;
+import io.github.ssoloff.psychictrain.api.engine.FakeSubscriber;
+import io.github.ssoloff.psychictrain.api.engine.PublisherToken;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+
+public final class FederatedBrokerTest {
+  private static final String[] NODE_IDS = { "node1", "node2", "node3" };
+  private static final long TIMEOUT_IN_NANOSECONDS = TimeUnit.SECONDS.toNanos(10L);
+
+  private final Map<String, InetSocketAddress> addressesByNodeId = new LinkedHashMap<>();
+  private final List<FederatedBroker> nodes = new ArrayList<>();
+  private final Map<String, FederatedBroker> nodesById = new HashMap<>();
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    for (final String nodeId : NODE_IDS) {
+      final FederatedBroker node = openNode(nodeId, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+      nodes.add(node);
+      nodesById.put(nodeId, node);
+      addressesByNodeId.put(nodeId, node.getAddress());
+    }
+    for (final String nodeId : NODE_IDS) {
+      joinNode(nodeId, getNode(nodeId));
+    }
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    for (final FederatedBroker node : nodes) {
+      node.close();
+    }
+  }
+
+  private FederatedBroker getNode(final String nodeId) {
+    return nodesById.get(nodeId);
+  }
+
+  private void joinNode(final String nodeId, final FederatedBroker node) throws IOException {
+    final Map<String, InetSocketAddress> otherAddressesByNodeId = new LinkedHashMap<>(addressesByNodeId);
+    otherAddressesByNodeId.remove(nodeId);
+    node.join(otherAddressesByNodeId);
+  }
+
+  private static FederatedBroker openNode(final String nodeId, final InetSocketAddress address) throws IOException {
+    return FederatedBroker.open(
+        nodeId,
+        new DefaultBroker(BrokerInstrumentation.noOp(), false),
+        ValueCodecRegistry.defaults(),
+        address);
+  }
+
+  private void pollUntil(final BooleanSupplier condition) throws IOException {
+    final long deadline = System.nanoTime() + TIMEOUT_IN_NANOSECONDS;
+    while (!condition.getAsBoolean()) {
+      assertThat("timed out waiting for condition", System.nanoTime() - deadline < 0L, is(true));
+      for (final FederatedBroker node : nodes) {
+        node.poll();
+      }
+    }
+  }
+
+  private static <T> FakePublisher<T> registerPublisher(final FederatedBroker node, final Topic<T> topic) {
+    return registerPublisherToken(node, topic).getPublisher();
+  }
+
+  private static <T> PublisherToken<FakePublisher<T>> registerPublisherToken(
+      final FederatedBroker node,
+      final Topic<T> topic) {
+    return node.registerPublisher(topic, FakePublisher.newFactory());
+  }
+
+  // closes the node, if it is still open, and replaces it with a new node that
+  // has no publishers or subscribers of its own
+  private FederatedBroker restartNode(final String nodeId) throws IOException {
+    final FederatedBroker oldNode = getNode(nodeId);
+    if (nodes.remove(oldNode)) {
+      oldNode.close();
+    }
+    final FederatedBroker node = openNode(nodeId, addressesByNodeId.get(nodeId));
+    joinNode(nodeId, node);
+    nodes.add(node);
+    nodesById.put(nodeId, node);
+    return node;
+  }
+
+  private static FakeSubscriber registerSubscriber(final FederatedBroker node, final Topic<?> topic) {
+    return node.registerSubscriber(TopicMatcher.forTopic(topic), FakeSubscriber.newFactory(topics -> {
+      // do nothing
+    })).getSubscriber();
+  }
+
+  private Topic<Integer> topicOwnedBy(final String ownerNodeId) {
+    return topicOwnedBy(ownerNodeId, "topic", Integer.class);
+  }
+
+  private <T> Topic<T> topicOwnedBy(final String ownerNodeId, final String namePrefix, final Class<T> type) {
+    for (int i = 0;; ++i) {
+      final Topic<T> topic = Topic.of(namePrefix + i, type);
+      if (nodes.get(0).getOwnerNodeId(topic).equals(ownerNodeId)) {
+        return topic;
+      }
+    }
+  }
+
+  @Test
+  public void shouldAssignEachTopicToSameOwnerOnEveryNode() {
+    for (int i = 0; i < 100; ++i) {
+      final Topic<Integer> topic = Topic.of("topic" + i, Integer.class);
+      final String ownerNodeId = nodes.get(0).getOwnerNodeId(topic);
+
+      for (final FederatedBroker node : nodes) {
+        assertThat(node.getOwnerNodeId(topic), is(ownerNodeId));
+      }
+    }
+  }
+
+  @Test
+  public void shouldDeliverValuePublishedOnOneNodeToSubscriberOnAnotherNode() throws IOException {
+    final Topic<Integer> topic = topicOwnedBy("node2");
+    final FakePublisher<Integer> publisher = registerPublisher(getNode("node1"), topic);
+    final FakeSubscriber subscriber = registerSubscriber(getNode("node3"), topic);
+
+    publisher.publish(42);
+
+    pollUntil(() -> subscriber.getContext().getValuesForTopic(topic).contains(42));
+    assertThat(subscriber.getContext().getValuesForTopic(topic), contains(42));
+  }
+
+  @Test
+  public void shouldDeliverValuePublishedOnOwnerToSubscriberOnAnotherNode() throws IOException {
+    final Topic<Integer> topic = topicOwnedBy("node1");
+    final FakePublisher<Integer> publisher = registerPublisher(getNode("node1"), topic);
+    final FakeSubscriber subscriber = registerSubscriber(getNode("node2"), topic);
+
+    publisher.publish(2112);
+
+    pollUntil(() -> subscriber.getContext().getValuesForTopic(topic).contains(2112));
+    assertThat(subscriber.getContext().getValuesForTopic(topic), contains(2112));
+  }
+
+  @Test
+  public void shouldDeliverValuesOfAllPublishersOfTopic() throws IOException {
+    final Topic<Integer> topic = topicOwnedBy("node3");
+    final FakePublisher<Integer> publisher1 = registerPublisher(getNode("node1"), topic);
+    final FakePublisher<Integer> publisher2 = registerPublisher(getNode("node2"), topic);
+    final FakeSubscriber subscriber = registerSubscriber(getNode("node1"), topic);
+
+    publisher1.publish(1);
+    publisher2.publish(2);
+
+    pollUntil(() -> subscriber.getContext().getValuesForTopic(topic).size() == 2);
+    assertThat(subscriber.getContext().getValuesForTopic(topic), contains(1, 2));
+  }
+
+  @Test
+  public void shouldRemoveValueOfPublisherWhenUnregistered() throws IOException {
+    final Topic<Integer> topic = topicOwnedBy("node2");
+    final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisherToken(getNode("node1"), topic);
+    final FakeSubscriber subscriber = registerSubscriber(getNode("node3"), topic);
+    publisherToken.getPublisher().publish(42);
+    pollUntil(() -> !subscriber.getContext().getValuesForTopic(topic).isEmpty());
+
+    publisherToken.unregister();
+
+    pollUntil(() -> subscriber.getContext().getValuesForTopic(topic).isEmpty());
+    assertThat(subscriber.getContext().getValuesForTopic(topic), is(empty()));
+  }
+
+  @Test
+  public void shouldDiscardPublicationsOfRemotePublisherAfterUnregistered() throws IOException {
+    final Topic<Integer> topic = topicOwnedBy("node2");
+    final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisherToken(getNode("node1"), topic);
+    final FakePublisher<Integer> otherPublisher = registerPublisher(getNode("node1"), topic);
+    final FakeSubscriber subscriber = registerSubscriber(getNode("node2"), topic);
+    publisherToken.getPublisher().publish(42);
+    pollUntil(() -> !subscriber.getContext().getValuesForTopic(topic).isEmpty());
+
+    publisherToken.unregister();
+    publisherToken.getPublisher().publish(84);
+    otherPublisher.publish(2112);
+
+    pollUntil(() -> subscriber.getContext().getValuesForTopic(topic).contains(2112));
+    assertThat(subscriber.getContext().getValuesForTopic(topic), contains(2112));
+  }
+
+  @Test
+  public void shouldRestorePublishersAndInterestWhenOwnerRestarts() throws IOException {
+    final Topic<Integer> topic = topicOwnedBy("node2");
+    registerPublisher(getNode("node1"), topic).publish(42);
+    final FakeSubscriber subscriber = registerSubscriber(getNode("node3"), topic);
+    pollUntil(() -> !subscriber.getContext().getValuesForTopic(topic).isEmpty());
+
+    restartNode("node2");
+
+    pollUntil(() -> subscriber.getContext().getValuesForTopic(topic).isEmpty());
+    pollUntil(() -> !subscriber.getContext().getValuesForTopic(topic).isEmpty());
+    assertThat(subscriber.getContext().getValuesForTopic(topic), contains(42));
+  }
+
+  @Test
+  public void shouldReconnectWhenMessagesToNodeOverflowOutputBuffer() throws IOException {
+    final Topic<String> topic = topicOwnedBy("node2", "stringTopic", String.class);
+    final FederatedBroker owner = getNode("node2");
+    nodes.remove(owner);
+    owner.close();
+    final FakePublisher<String> publisher = registerPublisher(getNode("node1"), topic);
+    final String value = Strings.repeat("x", 1024);
+    for (int i = 0; i <= FederationConnection.MAX_BUFFER_SIZE / value.length(); ++i) {
+      publisher.publish(value);
+    }
+    publisher.publish("latest");
+    getNode("node1").poll();
+
+    final FakeSubscriber subscriber = registerSubscriber(restartNode("node2"), topic);
+
+    pollUntil(() -> !subscriber.getContext().getValuesForTopic(topic).isEmpty());
+    assertThat(subscriber.getContext().getValuesForTopic(topic), contains("latest"));
+  }
+
+  @Test
+  public void shouldRemoveValuesOfTopicsOwnedByNodeWhenClosed() throws IOException {
+    final Topic<Integer> topic = topicOwnedBy("node2");
+    final FakePublisher<Integer> publisher = registerPublisher(getNode("node2"), topic);
+    final FakeSubscriber subscriber = registerSubscriber(getNode("node1"), topic);
+    publisher.publish(42);
+    pollUntil(() -> !subscriber.getContext().getValuesForTopic(topic).isEmpty());
+    assertThat(subscriber.getContext().getValuesForTopic(topic), is(not(empty())));
+
+    final FederatedBroker owner = getNode("node2");
+    nodes.remove(owner);
+    owner.close();
+
+    pollUntil(() -> subscriber.getContext().getValuesForTopic(topic).isEmpty());
+  }
+
+  @Test
+  public void shouldThrowExceptionWhenRegisteringPublisherOfRemoteTopicWithoutCodec() {
+    final Topic<Object> topic = Topic.of(topicOwnedBy("node2").getName(), Object.class);
+
+    assertThrows(IllegalArgumentException.class, () -> registerPublisher(getNode("node1"), topic));
+  }
+}
@@ -0,0 +1,86 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import io.github.ssoloff.psychictrain.api.engine.BrokerInstrumentation;
+import io.github.ssoloff.psychictrain.api.engine.OverflowPolicy;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+
+public final class NotificationQueueTest {
+  private static final Set<Topic<?>> TOPICS_1 = ImmutableSet.of(Topic.of("topic1", Integer.class));
+  private static final Set<Topic<?>> TOPICS_2 = ImmutableSet.of(Topic.of("topic2", Integer.class));
+
+  private final List<Set<Topic<?>>> deliveredTopics = new CopyOnWriteArrayList<>();
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+  private NotificationQueue newNotificationQueue(final int capacity, final OverflowPolicy overflowPolicy) {
+    return new NotificationQueue(
+        tasks::add,
+        capacity,
+        overflowPolicy,
+        deliveredTopics::add,
+        topics -> {
+          // do nothing
+        },
+        BrokerInstrumentation.noOp());
+  }
+
+  private void runPendingTasks() {
+    for (@Nullable Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+      task.run();
+    }
+  }
+
+  @Test
+  public void shouldBlockPublisherWhenQueueFullAndPolicyIsBlockUntilSubscriberTakesNotification() throws Exception {
+    final NotificationQueue notificationQueue = newNotificationQueue(1, OverflowPolicy.BLOCK);
+    notificationQueue.enqueue(TOPICS_1);
+
+    final CompletableFuture<Void> publisher = CompletableFuture.runAsync(() -> notificationQueue.enqueue(TOPICS_2));
+    try {
+      publisher.get(100L, TimeUnit.MILLISECONDS);
+      throw new AssertionError("publisher was not blocked");
+    } catch (final TimeoutException e) {
+      // expected
+    }
+
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+    while (!publisher.isDone() || !tasks.isEmpty()) {
+      assertThat("timed out waiting for publisher", System.nanoTime() - deadline < 0L, is(true));
+      runPendingTasks();
+    }
+    publisher.get();
+    final List<Set<Topic<?>>> expectedTopics = ImmutableList.of(TOPICS_1, TOPICS_2);
+    assertThat(deliveredTopics, is(expectedTopics));
+  }
+
+  @Test
+  public void shouldDropNotificationWhenPublisherInterruptedWhileBlocked() {
+    final NotificationQueue notificationQueue = newNotificationQueue(1, OverflowPolicy.BLOCK);
+    notificationQueue.enqueue(TOPICS_1);
+
+    Thread.currentThread().interrupt();
+    notificationQueue.enqueue(TOPICS_2);
+
+    assertThat(Thread.interrupted(), is(true));
+    runPendingTasks();
+    final List<Set<Topic<?>>> expectedTopics = ImmutableList.of(TOPICS_1);
+    assertThat(deliveredTopics, is(expectedTopics));
+  }
+}
@@ -0,0 +1,82 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import io.github.ssoloff.psychictrain.api.engine.BrokerInstrumentation;
+import io.github.ssoloff.psychictrain.api.engine.Subscriber;
+import io.github.ssoloff.psychictrain.api.engine.SubscriberOptions;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+
+public final class PropagationSchedulerTest {
+  private static final Topic<Integer> TOPIC_1 = Topic.of("schedulerTopic1", Integer.class);
+  private static final Topic<Integer> TOPIC_2 = Topic.of("schedulerTopic2", Integer.class);
+  private static final Topic<Integer> TOPIC_3 = Topic.of("schedulerTopic3", Integer.class);
+
+  private final DefaultBroker broker = new DefaultBroker();
+  private boolean oddWave;
+  private Map<Topic<?>, List<SubscriberEntry>> subscriberEntriesByTopic = Map.of();
+  private final PropagationScheduler scheduler = new PropagationScheduler(
+      topic -> subscriberEntriesByTopic.getOrDefault(topic, ImmutableList.of()));
+
+  private SubscriberEntry newSubscriberEntry(final Subscriber subscriber, final TopicMatcher topicMatcher) {
+    final SubscriberEntry subscriberEntry = new SubscriberEntry(
+        subscriber,
+        topicMatcher,
+        SubscriberOptions.defaults(),
+        BrokerInstrumentation.noOp(),
+        broker);
+    scheduler.subscriberEntryAdded(subscriberEntry, ImmutableSet.of());
+    return subscriberEntry;
+  }
+
+  // publishes the topic as the broker does: the dependency is learned before
+  // the subscribers of the topic are scheduled
+  private void publish(final Topic<?> topic) {
+    final List<SubscriberEntry> subscriberEntries = subscriberEntriesByTopic.getOrDefault(topic, ImmutableList.of());
+    scheduler.learnPublication(topic, subscriberEntries);
+    scheduler.topicChanged(topic, ImmutableSet.of(topic), subscriberEntries);
+  }
+
+  @Test
+  public void shouldBoundRanksWhenDependenciesAlternateBetweenWaves() {
+    // in odd waves, the first subscriber publishes TOPIC_2 when TOPIC_1
+    // changes; in even waves, the second publishes TOPIC_1 when TOPIC_3
+    // changes, so the two are ranked above each other in alternate waves
+    final SubscriberEntry subscriberEntry1 = newSubscriberEntry(
+        topics -> {
+          if (oddWave) {
+            publish(TOPIC_2);
+          }
+        },
+        TopicMatcher.forTopic(TOPIC_1));
+    final SubscriberEntry subscriberEntry2 = newSubscriberEntry(
+        topics -> {
+          if (topics.contains(TOPIC_3)) {
+            publish(TOPIC_1);
+          }
+        },
+        TopicMatcher.forTopics(TOPIC_2, TOPIC_3));
+    subscriberEntriesByTopic = Map.of(
+        TOPIC_1, ImmutableList.of(subscriberEntry1),
+        TOPIC_2, ImmutableList.of(subscriberEntry2),
+        TOPIC_3, ImmutableList.of(subscriberEntry2));
+
+    for (int i = 0; i < 20_000; ++i) {
+      oddWave = (i % 2) == 0;
+      publish(oddWave ? TOPIC_1 : TOPIC_3);
+    }
+
+    assertThat(scheduler.getRankCount(), is(lessThanOrEqualTo(5)));
+  }
+}
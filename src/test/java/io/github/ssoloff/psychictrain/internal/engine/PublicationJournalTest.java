@@ -0,0 +1,251 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.sun.management.ThreadMXBean;
+
+import io.github.ssoloff.psychictrain.api.codec.ValueCodecRegistry;
+import io.github.ssoloff.psychictrain.api.engine.BrokerInstrumentation;
+import io.github.ssoloff.psychictrain.api.engine.FakePublisher;
+import io.github.ssoloff.psychictrain.api.engine.PublisherContext;
+import io.github.ssoloff.psychictrain.api.engine.PublisherToken;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+
+public final class PublicationJournalTest {
+  private static final Topic<Integer> TOPIC_1 = Topic.of("topic1", Integer.class);
+  private static final Topic<String> TOPIC_2 = Topic.of("topic2", String.class);
+  private static final Topic<Object> UNENCODABLE_TOPIC = Topic.of("unencodableTopic", Object.class);
+
+  private final ValueCodecRegistry codecRegistry = ValueCodecRegistry.defaults();
+  private final Path directory;
+  private final ScheduledExecutorService syncExecutor = Executors.newSingleThreadScheduledExecutor();
+
+  public PublicationJournalTest() throws IOException {
+    directory = Files.createTempDirectory("journal");
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    syncExecutor.shutdownNow();
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (final Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  private static <T> void append(final PublicationJournal journal, final Topic<T> topic, final Object value) {
+    final PublisherEntry publisherEntry = new PublisherEntry(topic);
+    publisherEntry.setValue(value);
+    journal.appendValues(topic, ImmutableList.of(publisherEntry));
+  }
+
+  private List<Path> getSegmentFiles() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.collect(Collectors.toList());
+    }
+  }
+
+  private PublicationJournal openJournal(final int segmentSize) throws IOException {
+    return PublicationJournal.open(directory, codecRegistry, segmentSize, Duration.ofMillis(10L), syncExecutor);
+  }
+
+  private static <T> PublisherToken<FakePublisher<T>> registerPublisher(final DefaultBroker broker, final Topic<T> topic) {
+    return broker.registerPublisher(topic, FakePublisher.newFactory());
+  }
+
+  private ListMultimap<Topic<?>, Object> recover() throws IOException {
+    return PublicationJournal.recover(directory, codecRegistry);
+  }
+
+  @Test
+  public void shouldRecoverLatestValueOfEachPublishedTopic() throws IOException {
+    try (PublicationJournal journal = openJournal(4096)) {
+      final DefaultBroker broker = new DefaultBroker(BrokerInstrumentation.noOp(), false, journal);
+      final FakePublisher<Integer> publisher1 = registerPublisher(broker, TOPIC_1).getPublisher();
+      final FakePublisher<String> publisher2 = registerPublisher(broker, TOPIC_2).getPublisher();
+      publisher1.publish(42);
+      publisher2.publish("foo");
+      publisher1.getContext().publishInt(2112);
+    }
+
+    final ListMultimap<Topic<?>, Object> valuesByTopic = recover();
+
+    assertThat(valuesByTopic.size(), is(2));
+    assertThat(valuesByTopic.get(TOPIC_1), contains(2112));
+    assertThat(valuesByTopic.get(TOPIC_2), contains("foo"));
+  }
+
+  @Test
+  public void shouldRecoverValuesOfAllPublishersOfTopic() throws IOException {
+    try (PublicationJournal journal = openJournal(4096)) {
+      final DefaultBroker broker = new DefaultBroker(BrokerInstrumentation.noOp(), false, journal);
+      final FakePublisher<Integer> publisher1 = registerPublisher(broker, TOPIC_1).getPublisher();
+      final FakePublisher<Integer> publisher2 = registerPublisher(broker, TOPIC_1).getPublisher();
+      publisher1.publish(42);
+      publisher2.publish(2112);
+      publisher1.publish(84);
+    }
+
+    assertThat(recover().get(TOPIC_1), containsInAnyOrder(84, 2112));
+  }
+
+  @Test
+  public void shouldNotRecoverValueOfUnregisteredPublisherOfTopicWithOtherPublishers() throws IOException {
+    try (PublicationJournal journal = openJournal(4096)) {
+      final DefaultBroker broker = new DefaultBroker(BrokerInstrumentation.noOp(), false, journal);
+      final PublisherToken<FakePublisher<Integer>> publisherToken1 = registerPublisher(broker, TOPIC_1);
+      final FakePublisher<Integer> publisher2 = registerPublisher(broker, TOPIC_1).getPublisher();
+      publisherToken1.getPublisher().publish(42);
+      publisher2.publish(2112);
+      publisherToken1.unregister();
+    }
+
+    assertThat(recover().get(TOPIC_1), contains(2112));
+  }
+
+  @Test
+  public void shouldNotRecoverValueOfTopicWhoseLastPublisherWasUnregistered() throws IOException {
+    try (PublicationJournal journal = openJournal(4096)) {
+      final DefaultBroker broker = new DefaultBroker(BrokerInstrumentation.noOp(), false, journal);
+      final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisher(broker, TOPIC_1);
+      registerPublisher(broker, TOPIC_2).getPublisher().publish("foo");
+      publisherToken.getPublisher().publish(42);
+      publisherToken.unregister();
+    }
+
+    final ListMultimap<Topic<?>, Object> valuesByTopic = recover();
+
+    assertThat(valuesByTopic.containsKey(TOPIC_1), is(false));
+    assertThat(valuesByTopic.get(TOPIC_2), contains("foo"));
+  }
+
+  @Test
+  public void shouldDeleteSegmentsSupersededByCheckpointWhenSegmentsRoll() throws IOException {
+    try (PublicationJournal journal = openJournal(128)) {
+      final DefaultBroker broker = new DefaultBroker(BrokerInstrumentation.noOp(), false, journal);
+      registerPublisher(broker, TOPIC_2).getPublisher().publish("foo");
+      final FakePublisher<Integer> publisher = registerPublisher(broker, TOPIC_1).getPublisher();
+      for (int i = 0; i < 100; ++i) {
+        publisher.publish(i);
+      }
+    }
+
+    final ListMultimap<Topic<?>, Object> valuesByTopic = recover();
+
+    assertThat(getSegmentFiles(), hasSize(1));
+    assertThat(valuesByTopic.get(TOPIC_1), contains(99));
+    assertThat(valuesByTopic.get(TOPIC_2), contains("foo"));
+  }
+
+  @Test
+  public void shouldAppendToExistingJournalWhenReopened() throws IOException {
+    try (PublicationJournal journal = openJournal(4096)) {
+      append(journal, TOPIC_1, 42);
+      append(journal, TOPIC_2, "foo");
+    }
+    try (PublicationJournal journal = openJournal(4096)) {
+      append(journal, TOPIC_1, 2112);
+    }
+
+    final ListMultimap<Topic<?>, Object> valuesByTopic = recover();
+
+    assertThat(valuesByTopic.get(TOPIC_1), contains(2112));
+    assertThat(valuesByTopic.get(TOPIC_2), contains("foo"));
+  }
+
+  @Test
+  public void shouldCompactExistingSegmentsWhenReopened() throws IOException {
+    try (PublicationJournal journal = openJournal(64)) {
+      for (int i = 0; i < 10; ++i) {
+        append(journal, TOPIC_1, i);
+      }
+    }
+
+    openJournal(64).close();
+
+    assertThat(getSegmentFiles(), hasSize(1));
+    assertThat(recover().get(TOPIC_1), contains(9));
+  }
+
+  @Test
+  public void shouldSkipRecordWhoseChecksumDoesNotMatch() throws IOException {
+    try (PublicationJournal journal = openJournal(4096)) {
+      append(journal, TOPIC_1, 42);
+      append(journal, TOPIC_2, "foo");
+    }
+    final Path segmentFile = getSegmentFiles().get(0);
+    final byte[] segment = Files.readAllBytes(segmentFile);
+    // the last byte of the value of the first record
+    segment[28] ^= 1;
+    Files.write(segmentFile, segment);
+
+    final ListMultimap<Topic<?>, Object> valuesByTopic = recover();
+
+    assertThat(valuesByTopic.containsKey(TOPIC_1), is(false));
+    assertThat(valuesByTopic.get(TOPIC_2), contains("foo"));
+  }
+
+  @Test
+  public void shouldNotJournalValuesOfTopicWithoutCodec() throws IOException {
+    try (PublicationJournal journal = openJournal(4096)) {
+      append(journal, UNENCODABLE_TOPIC, new Object());
+      append(journal, TOPIC_1, 42);
+    }
+
+    assertThat(recover().size(), is(1));
+  }
+
+  @Test
+  public void shouldThrowExceptionWhenRecordIsLargerThanSegment() throws IOException {
+    try (PublicationJournal journal = openJournal(32)) {
+      assertThrows(IllegalArgumentException.class, () -> append(journal, TOPIC_2, "a value that cannot fit"));
+    }
+  }
+
+  @Test
+  public void shouldNotAllocateWhenJournalingPrimitiveValuesInSteadyState() throws IOException {
+    final ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled());
+    final int publicationCount = 10_000;
+    try (PublicationJournal journal = openJournal(1024 * 1024)) {
+      final DefaultBroker broker = new DefaultBroker(BrokerInstrumentation.noOp(), false, journal);
+      final PublisherContext publisherContext = registerPublisher(broker, TOPIC_1).getPublisher().getContext();
+      for (int i = 0; i < publicationCount; ++i) {
+        publisherContext.publishInt(i);
+      }
+
+      final long startAllocatedBytes = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+      for (int i = 0; i < publicationCount; ++i) {
+        publisherContext.publishInt(i);
+      }
+      final long allocatedBytes = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId())
+          - startAllocatedBytes;
+
+      assertThat(allocatedBytes / publicationCount, is(0L));
+    }
+  }
+}
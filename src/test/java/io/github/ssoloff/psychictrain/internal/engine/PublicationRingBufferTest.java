@@ -0,0 +1,173 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.reflect.TypeToken;
+
+import io.github.ssoloff.psychictrain.api.engine.BrokerInstrumentation;
+import io.github.ssoloff.psychictrain.api.engine.FakePublisher;
+import io.github.ssoloff.psychictrain.api.engine.FakeSubscriber;
+import io.github.ssoloff.psychictrain.api.engine.PublisherContext;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+
+public final class PublicationRingBufferTest {
+  private static final Topic<Double> DOUBLE_TOPIC = Topic.of("doubleTopic", Double.class);
+  private static final Topic<Integer> INT_TOPIC = Topic.of("intTopic", Integer.class);
+  private static final Topic<Long> LONG_TOPIC = Topic.of("longTopic", Long.class);
+  private static final Topic<String> STRING_TOPIC = Topic.of("stringTopic", String.class);
+
+  private final DefaultBroker broker = new DefaultBroker(BrokerInstrumentation.noOp(), false);
+  private final List<Set<Topic<?>>> notifications = new ArrayList<>();
+
+  private FakeSubscriber registerSubscriber(final TopicMatcher topicMatcher) {
+    final FakeSubscriber subscriber = broker
+        .registerSubscriber(topicMatcher, FakeSubscriber.newFactory(notifications::add))
+        .getSubscriber();
+    notifications.clear();
+    return subscriber;
+  }
+
+  @Test
+  public void shouldThrowExceptionWhenCapacityIsNotPowerOfTwo() {
+    assertThrows(IllegalArgumentException.class, () -> new PublicationRingBuffer(broker, 0));
+    assertThrows(IllegalArgumentException.class, () -> new PublicationRingBuffer(broker, 12));
+  }
+
+  @Test
+  public void shouldNotPublishUntilDrained() {
+    final PublicationRingBuffer ring = new PublicationRingBuffer(broker, 8);
+    final FakePublisher<Integer> publisher = ring.registerPublisher(INT_TOPIC, FakePublisher.<Integer>newFactory())
+        .getPublisher();
+    final FakeSubscriber subscriber = registerSubscriber(TopicMatcher.forTopic(INT_TOPIC));
+
+    publisher.publish(42);
+
+    assertThat(notifications, is(empty()));
+    assertThat(ring.drain(), is(1));
+    assertThat(subscriber.getContext().getValuesForTopic(INT_TOPIC), contains(42));
+    assertThat(ring.drain(), is(0));
+  }
+
+  @Test
+  public void shouldPublishAllDrainedPublicationsInOneBatch() {
+    final PublicationRingBuffer ring = new PublicationRingBuffer(broker, 8);
+    final PublisherContext doubleContext = ring.registerPublisher(DOUBLE_TOPIC, FakePublisher.<Double>newFactory())
+        .getPublisher()
+        .getContext();
+    final PublisherContext intContext = ring.registerPublisher(INT_TOPIC, FakePublisher.<Integer>newFactory())
+        .getPublisher()
+        .getContext();
+    final PublisherContext longContext = ring.registerPublisher(LONG_TOPIC, FakePublisher.<Long>newFactory())
+        .getPublisher()
+        .getContext();
+    final PublisherContext stringContext = ring.registerPublisher(STRING_TOPIC, FakePublisher.<String>newFactory())
+        .getPublisher()
+        .getContext();
+    final FakeSubscriber subscriber = registerSubscriber(
+        TopicMatcher.forTopics(DOUBLE_TOPIC, INT_TOPIC, LONG_TOPIC, STRING_TOPIC));
+
+    doubleContext.publishDouble(-1.5);
+    intContext.publishInt(1);
+    intContext.publishInt(2);
+    longContext.publishLong(Long.MAX_VALUE);
+    stringContext.publish("foo");
+
+    assertThat(ring.drain(), is(5));
+    final Set<Topic<?>> expectedTopics = ImmutableSet.of(DOUBLE_TOPIC, INT_TOPIC, LONG_TOPIC, STRING_TOPIC);
+    assertThat(notifications, contains(is(expectedTopics)));
+    assertThat(subscriber.getContext().getValuesForTopic(DOUBLE_TOPIC), contains(-1.5));
+    assertThat(subscriber.getContext().getValuesForTopic(INT_TOPIC), contains(2));
+    assertThat(subscriber.getContext().getValuesForTopic(LONG_TOPIC), contains(Long.MAX_VALUE));
+    assertThat(subscriber.getContext().getValuesForTopic(STRING_TOPIC), contains("foo"));
+  }
+
+  @Test
+  public void shouldDrainPublicationsOfManyProducersInOrderWhenRingWraps() throws Exception {
+    final int producerCount = 4;
+    final int publicationCount = 10_000;
+    final PublicationRingBuffer ring = new PublicationRingBuffer(broker, 16);
+    final List<Topic<Integer>> topics = new ArrayList<>();
+    final List<PublisherContext> contexts = new ArrayList<>();
+    for (int i = 0; i < producerCount; ++i) {
+      final Topic<Integer> topic = Topic.of("topic" + i, Integer.class);
+      topics.add(topic);
+      contexts.add(ring.registerPublisher(topic, FakePublisher.<Integer>newFactory()).getPublisher().getContext());
+    }
+    final List<Integer> lastValues = new ArrayList<>();
+    boolean outOfOrder = false;
+    final FakeSubscriber subscriber = registerSubscriber(
+        TopicMatcher.forTopicsMatchingPattern(Pattern.compile("topic\\d+"), TypeToken.of(Integer.class)));
+    for (int i = 0; i < producerCount; ++i) {
+      lastValues.add(-1);
+    }
+
+    // the producers run on threads of their own, rather than on the common
+    // pool, whose parallelism depends on the machine
+    final ExecutorService executorService = Executors.newFixedThreadPool(producerCount);
+    int drainedCount = 0;
+    try {
+      final List<Future<?>> producers = new ArrayList<>();
+      for (int i = 0; i < producerCount; ++i) {
+        final PublisherContext context = contexts.get(i);
+        producers.add(executorService.submit(() -> {
+          for (int value = 0; value < publicationCount; ++value) {
+            context.publishInt(value);
+          }
+        }));
+      }
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30L);
+      while (drainedCount < producerCount * publicationCount) {
+        assertThat("timed out draining publications", System.nanoTime() - deadline < 0L, is(true));
+        final int count = ring.drain();
+        if (count == 0) {
+          // a producer that failed would otherwise be reported as a timeout
+          if (producers.stream().allMatch(Future::isDone)) {
+            break;
+          }
+          // the producers may be waiting for this thread on a machine with few
+          // processors
+          Thread.yield();
+          continue;
+        }
+
+        drainedCount += count;
+        for (int i = 0; i < producerCount; ++i) {
+          for (final int value : subscriber.getContext().getValuesForTopic(topics.get(i))) {
+            if (value < lastValues.get(i)) {
+              outOfOrder = true;
+            }
+            lastValues.set(i, value);
+          }
+        }
+      }
+      for (final Future<?> producer : producers) {
+        producer.get(10L, TimeUnit.SECONDS);
+      }
+    } finally {
+      executorService.shutdownNow();
+    }
+
+    assertThat(drainedCount, is(producerCount * publicationCount));
+    assertThat(outOfOrder, is(false));
+    for (final Topic<Integer> topic : topics) {
+      assertThat(subscriber.getContext().getValuesForTopic(topic), contains(publicationCount - 1));
+    }
+  }
+}
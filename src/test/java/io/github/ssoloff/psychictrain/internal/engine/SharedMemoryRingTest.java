@@ -0,0 +1,378 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import io.github.ssoloff.psychictrain.api.codec.ValueCodecRegistry;
+import io.github.ssoloff.psychictrain.api.engine.Broker;
+import io.github.ssoloff.psychictrain.api.engine.BrokerInstrumentation;
+import io.github.ssoloff.psychictrain.api.engine.FakePublisher;
+import io.github.ssoloff.psychictrain.api.engine.FakeSubscriber;
+import io.github.ssoloff.psychictrain.api.engine.PublisherToken;
+import io.github.ssoloff.psychictrain.api.engine.Subscriber;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+
+public final class SharedMemoryRingTest {
+  private static final Topic<Integer> TOPIC_1 = Topic.of("topic1", Integer.class);
+  private static final Topic<String> TOPIC_2 = Topic.of("topic2", String.class);
+  private static final List<Topic<?>> TOPICS = ImmutableList.of(TOPIC_1, TOPIC_2);
+
+  private final ValueCodecRegistry codecRegistry = ValueCodecRegistry.defaults();
+  private final Path file;
+
+  public SharedMemoryRingTest() throws IOException {
+    file = Files.createTempFile("ring", ".shm");
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    Files.delete(file);
+  }
+
+  private SharedMemoryRing createRing(final int slotCount, final int slotSize) throws IOException {
+    return SharedMemoryRing.create(file, TOPICS, codecRegistry, slotCount, slotSize);
+  }
+
+  private static DefaultBroker newBroker() {
+    return new DefaultBroker(BrokerInstrumentation.noOp(), false);
+  }
+
+  private SharedMemoryExporter openExporter(final Broker broker) throws IOException {
+    return SharedMemoryExporter.open(broker, file, TOPICS, codecRegistry, 8, 64);
+  }
+
+  private SharedMemoryImporter openImporter(final Broker broker) throws IOException {
+    return SharedMemoryImporter.open(broker, file, TOPICS, codecRegistry);
+  }
+
+  private static List<Object> read(final SharedMemoryRing.Cursor cursor) {
+    final List<Object> values = new ArrayList<>();
+    cursor.read((topicIndex, topicValues) -> values.addAll(topicValues));
+    return values;
+  }
+
+  private static <T> FakePublisher<T> registerPublisher(final Broker broker, final Topic<T> topic) {
+    return registerPublisherToken(broker, topic).getPublisher();
+  }
+
+  private static <T> PublisherToken<FakePublisher<T>> registerPublisherToken(
+      final Broker broker,
+      final Topic<T> topic) {
+    return broker.registerPublisher(topic, FakePublisher.newFactory());
+  }
+
+  private static boolean write(final SharedMemoryRing ring, final int topicIndex, final Object value) {
+    return ring.write(topicIndex, ImmutableList.of(value));
+  }
+
+  @Test
+  public void shouldReadValuesWrittenByWriterThroughAnotherMapping() throws IOException {
+    try (SharedMemoryRing writerRing = createRing(8, 64);
+        SharedMemoryRing readerRing = SharedMemoryRing.open(file, TOPICS, codecRegistry)) {
+      final SharedMemoryRing.Cursor cursor = readerRing.newCursor();
+      write(writerRing, 0, 42);
+      write(writerRing, 1, "foo");
+
+      assertThat(read(cursor), contains(42, "foo"));
+      assertThat(read(cursor), is(ImmutableList.of()));
+    }
+  }
+
+  @Test
+  public void shouldReadLatestValuesOfEachTopicWhenValuesWereOverwrittenBeforeTheyWereRead() throws IOException {
+    try (SharedMemoryRing ring = createRing(4, 64)) {
+      final SharedMemoryRing.Cursor cursor = ring.newCursor();
+      write(ring, 1, "foo");
+      for (int i = 0; i < 10; ++i) {
+        write(ring, 0, i);
+      }
+
+      assertThat(read(cursor), containsInAnyOrder("foo", 9));
+      assertThat(cursor.getGapCount(), is(1));
+
+      write(ring, 0, 10);
+      assertThat(read(cursor), contains(10));
+    }
+  }
+
+  @Test
+  public void shouldNotReadValuesOlderThanLatestValuesAlreadyRead() throws IOException {
+    try (SharedMemoryRing writerRing = createRing(4, 64);
+        SharedMemoryRing readerRing = SharedMemoryRing.open(file, TOPICS, codecRegistry)) {
+      for (int i = 0; i < 5; ++i) {
+        write(writerRing, 0, i);
+      }
+      final SharedMemoryRing.Cursor cursor = readerRing.newCursor();
+
+      assertThat(read(cursor), contains(4));
+      assertThat(read(cursor), is(empty()));
+    }
+  }
+
+  @Test
+  public void shouldNotWriteValueLargerThanSlot() throws IOException {
+    try (SharedMemoryRing ring = createRing(4, 32)) {
+      final SharedMemoryRing.Cursor cursor = ring.newCursor();
+
+      assertThat(write(ring, 1, Strings.repeat("x", 100)), is(false));
+      assertThat(write(ring, 1, "foo"), is(true));
+      assertThat(read(cursor), contains("foo"));
+    }
+  }
+
+  @Test
+  public void shouldReadAllValuesOfTopicWrittenTogether() throws IOException {
+    try (SharedMemoryRing ring = createRing(4, 64)) {
+      final SharedMemoryRing.Cursor cursor = ring.newCursor();
+      ring.write(0, ImmutableList.of(42, 2112));
+      ring.write(0, ImmutableList.of());
+
+      final List<List<Object>> values = new ArrayList<>();
+      cursor.read((topicIndex, topicValues) -> values.add(topicValues));
+
+      final List<List<Object>> expectedValues = ImmutableList.of(ImmutableList.of(42, 2112), ImmutableList.of());
+      assertThat(values, is(expectedValues));
+    }
+  }
+
+  @Test
+  public void shouldThrowExceptionWhenOpenedWithDifferentTopics() throws IOException {
+    createRing(4, 64).close();
+
+    assertThrows(
+        IOException.class,
+        () -> SharedMemoryRing.open(file, ImmutableList.of(TOPIC_2, TOPIC_1), codecRegistry));
+  }
+
+  @Test
+  public void shouldNotModifyReplacedRingExceptToMarkItReplaced() throws IOException {
+    try (SharedMemoryRing writerRing = createRing(8, 64);
+        SharedMemoryRing readerRing = SharedMemoryRing.open(file, TOPICS, codecRegistry)) {
+      final SharedMemoryRing.Cursor cursor = readerRing.newCursor();
+      write(writerRing, 0, 42);
+      assertThat(readerRing.isReplaced(), is(false));
+
+      try (SharedMemoryRing newWriterRing = createRing(4, 32)) {
+        assertThat(readerRing.isReplaced(), is(true));
+        assertThat(newWriterRing.isReplaced(), is(false));
+        assertThat(read(cursor), contains(42));
+      }
+    }
+  }
+
+  @Test
+  public void shouldPublishExportedValuesToImportingBrokerInOneBatchWhenPolled() throws IOException {
+    final DefaultBroker exportingBroker = newBroker();
+    final FakePublisher<Integer> publisher1 = registerPublisher(exportingBroker, TOPIC_1);
+    final FakePublisher<String> publisher2 = registerPublisher(exportingBroker, TOPIC_2);
+    publisher1.publish(42);
+    final DefaultBroker importingBroker = newBroker();
+    final List<Set<Topic<?>>> notifications = new ArrayList<>();
+    final FakeSubscriber subscriber = importingBroker
+        .registerSubscriber(TopicMatcher.forTopics(TOPIC_1, TOPIC_2), FakeSubscriber.newFactory(notifications::add))
+        .getSubscriber();
+    notifications.clear();
+
+    final SharedMemoryExporter exporter = openExporter(exportingBroker);
+    try (SharedMemoryImporter importer = openImporter(importingBroker)) {
+      publisher2.publish("foo");
+
+      // TOPIC_2 is exported first without values and then with its new value
+      assertThat(importer.poll(), is(3));
+      final Set<Topic<?>> expectedTopics = ImmutableSet.of(TOPIC_1, TOPIC_2);
+      assertThat(notifications, contains(is(expectedTopics)));
+      assertThat(subscriber.getContext().getValuesForTopic(TOPIC_1), contains(42));
+      assertThat(subscriber.getContext().getValuesForTopic(TOPIC_2), contains("foo"));
+      assertThat(importer.poll(), is(0));
+    } finally {
+      exporter.close();
+    }
+  }
+
+  @Test
+  public void shouldImportValuesOfAllPublishersOfExportedTopic() throws IOException {
+    final DefaultBroker exportingBroker = newBroker();
+    final PublisherToken<FakePublisher<Integer>> publisherToken1 = registerPublisherToken(exportingBroker, TOPIC_1);
+    final FakePublisher<Integer> publisher2 = registerPublisher(exportingBroker, TOPIC_1);
+    publisherToken1.getPublisher().publish(42);
+    publisher2.publish(2112);
+    final DefaultBroker importingBroker = newBroker();
+    final FakeSubscriber subscriber = importingBroker
+        .registerSubscriber(TopicMatcher.forTopic(TOPIC_1), FakeSubscriber.newFactory(topics -> {}))
+        .getSubscriber();
+
+    final SharedMemoryExporter exporter = openExporter(exportingBroker);
+    try (SharedMemoryImporter importer = openImporter(importingBroker)) {
+      importer.poll();
+      assertThat(subscriber.getContext().getValuesForTopic(TOPIC_1), containsInAnyOrder(42, 2112));
+
+      publisherToken1.unregister();
+      importer.poll();
+      assertThat(subscriber.getContext().getValuesForTopic(TOPIC_1), contains(2112));
+    } finally {
+      exporter.close();
+    }
+  }
+
+  @Test
+  public void shouldRemoveImportedValueWhenLastExportedPublisherIsUnregistered() throws IOException {
+    final DefaultBroker exportingBroker = newBroker();
+    final PublisherToken<FakePublisher<Integer>> publisherToken = registerPublisherToken(exportingBroker, TOPIC_1);
+    publisherToken.getPublisher().publish(42);
+    final DefaultBroker importingBroker = newBroker();
+    final FakeSubscriber subscriber = importingBroker
+        .registerSubscriber(TopicMatcher.forTopic(TOPIC_1), FakeSubscriber.newFactory(topics -> {}))
+        .getSubscriber();
+
+    final SharedMemoryExporter exporter = openExporter(exportingBroker);
+    try (SharedMemoryImporter importer = openImporter(importingBroker)) {
+      importer.poll();
+      assertThat(subscriber.getContext().getValuesForTopic(TOPIC_1), contains(42));
+
+      publisherToken.unregister();
+      importer.poll();
+      assertThat(subscriber.getContext().getValuesForTopic(TOPIC_1), is(empty()));
+    } finally {
+      exporter.close();
+    }
+  }
+
+  @Test
+  public void shouldImportValuesOfRingRecreatedByAnotherExporter() throws IOException {
+    final DefaultBroker exportingBroker = newBroker();
+    final FakePublisher<Integer> publisher1 = registerPublisher(exportingBroker, TOPIC_1);
+    final PublisherToken<FakePublisher<String>> publisherToken2 = registerPublisherToken(exportingBroker, TOPIC_2);
+    publisher1.publish(42);
+    publisherToken2.getPublisher().publish("foo");
+    final DefaultBroker importingBroker = newBroker();
+    final FakeSubscriber subscriber = importingBroker
+        .registerSubscriber(TopicMatcher.forTopics(TOPIC_1, TOPIC_2), FakeSubscriber.newFactory(topics -> {}))
+        .getSubscriber();
+
+    openExporter(exportingBroker).close();
+    try (SharedMemoryImporter importer = openImporter(importingBroker)) {
+      importer.poll();
+      publisher1.publish(2112);
+      publisherToken2.unregister();
+
+      final SharedMemoryExporter exporter = openExporter(exportingBroker);
+      try {
+        importer.poll();
+
+        assertThat(subscriber.getContext().getValuesForTopic(TOPIC_1), contains(2112));
+        assertThat(subscriber.getContext().getValuesForTopic(TOPIC_2), is(empty()));
+      } finally {
+        exporter.close();
+      }
+    }
+  }
+
+  @Test
+  public void shouldImportLatestValuesOfAllTopicsWhenOpenedAfterExporterLappedRing() throws IOException {
+    final DefaultBroker exportingBroker = newBroker();
+    final FakePublisher<Integer> publisher1 = registerPublisher(exportingBroker, TOPIC_1);
+    final FakePublisher<String> publisher2 = registerPublisher(exportingBroker, TOPIC_2);
+    publisher1.publish(42);
+    final DefaultBroker importingBroker = newBroker();
+    final FakeSubscriber subscriber = importingBroker
+        .registerSubscriber(TopicMatcher.forTopics(TOPIC_1, TOPIC_2), FakeSubscriber.newFactory(topics -> {}))
+        .getSubscriber();
+
+    final SharedMemoryExporter exporter = openExporter(exportingBroker);
+    try {
+      for (int i = 0; i < 20; ++i) {
+        publisher2.publish("value" + i);
+      }
+
+      try (SharedMemoryImporter importer = openImporter(importingBroker)) {
+        importer.poll();
+
+        assertThat(subscriber.getContext().getValuesForTopic(TOPIC_1), contains(42));
+        assertThat(subscriber.getContext().getValuesForTopic(TOPIC_2), contains("value19"));
+      }
+    } finally {
+      exporter.close();
+    }
+  }
+
+  @Test
+  public void shouldConvergeOnExportedValuesWhenExporterLapsImporter() throws IOException {
+    final DefaultBroker exportingBroker = newBroker();
+    final PublisherToken<FakePublisher<Integer>> publisherToken1 = registerPublisherToken(exportingBroker, TOPIC_1);
+    final FakePublisher<String> publisher2 = registerPublisher(exportingBroker, TOPIC_2);
+    publisherToken1.getPublisher().publish(42);
+    final DefaultBroker importingBroker = newBroker();
+    final FakeSubscriber subscriber = importingBroker
+        .registerSubscriber(TopicMatcher.forTopics(TOPIC_1, TOPIC_2), FakeSubscriber.newFactory(topics -> {}))
+        .getSubscriber();
+
+    final SharedMemoryExporter exporter = openExporter(exportingBroker);
+    try (SharedMemoryImporter importer = openImporter(importingBroker)) {
+      importer.poll();
+      assertThat(subscriber.getContext().getValuesForTopic(TOPIC_1), contains(42));
+
+      // the unregistration is overwritten in the ring before the importer polls
+      publisherToken1.unregister();
+      for (int i = 0; i < 20; ++i) {
+        publisher2.publish("value" + i);
+      }
+      importer.poll();
+
+      assertThat(subscriber.getContext().getValuesForTopic(TOPIC_1), is(empty()));
+      assertThat(subscriber.getContext().getValuesForTopic(TOPIC_2), contains("value19"));
+    } finally {
+      exporter.close();
+    }
+  }
+
+  @Test
+  public void shouldNotifyImportingSubscriberWhenPollingOnDedicatedThread() throws Exception {
+    final DefaultBroker exportingBroker = newBroker();
+    final FakePublisher<Integer> publisher = registerPublisher(exportingBroker, TOPIC_1);
+    final ConcurrentBroker importingBroker = new ConcurrentBroker();
+    final CountDownLatch valueImported = new CountDownLatch(1);
+    importingBroker.registerSubscriber(TopicMatcher.forTopic(TOPIC_1), subscriberContext -> new Subscriber() {
+      @Override
+      public void topicsChanged(final Set<Topic<?>> topics) {
+        if (subscriberContext.getValuesForTopic(TOPIC_1).contains(2112)) {
+          valueImported.countDown();
+        }
+      }
+    });
+
+    final SharedMemoryExporter exporter = openExporter(exportingBroker);
+    final SharedMemoryImporter importer = openImporter(importingBroker);
+    final CompletableFuture<Void> polling = CompletableFuture.runAsync(importer::pollUntilClosed);
+    try {
+      publisher.publish(2112);
+
+      assertThat(valueImported.await(10L, TimeUnit.SECONDS), is(true));
+    } finally {
+      importer.close();
+      polling.get(10L, TimeUnit.SECONDS);
+      exporter.close();
+    }
+  }
+}
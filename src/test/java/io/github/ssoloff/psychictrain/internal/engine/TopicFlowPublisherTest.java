@@ -0,0 +1,373 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import io.github.ssoloff.psychictrain.api.engine.BrokerInstrumentation;
+import io.github.ssoloff.psychictrain.api.engine.FakePublisher;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+
+// the nested tests are named after the rules of the Reactive Streams
+// specification for publishers and subscriptions that they verify
+public final class TopicFlowPublisherTest {
+  private static final Topic<Integer> TOPIC_1 = Topic.of("topic1", Integer.class);
+  private static final Topic<Integer> TOPIC_2 = Topic.of("topic2", Integer.class);
+
+  private final DefaultBroker broker = new DefaultBroker(BrokerInstrumentation.noOp(), false);
+  private final TopicFlowPublisher flowPublisher = new TopicFlowPublisher(
+      broker,
+      TopicMatcher.forTopics(TOPIC_1, TOPIC_2));
+
+  private FakePublisher<Integer> registerPublisher(final Topic<Integer> topic) {
+    return broker.<FakePublisher<Integer>>registerPublisher(topic, FakePublisher.newFactory()).getPublisher();
+  }
+
+  private RecordingSubscriber subscribe() {
+    final RecordingSubscriber subscriber = new RecordingSubscriber();
+    flowPublisher.subscribe(subscriber);
+    return subscriber;
+  }
+
+  @Nested
+  public final class BasicTest {
+    @Test
+    public void shouldEmitCurrentValuesOfMatchingTopicsOnSubscription() {
+      registerPublisher(TOPIC_1).publish(42);
+      final RecordingSubscriber subscriber = subscribe();
+
+      subscriber.request(Long.MAX_VALUE);
+
+      assertThat(subscriber.events, contains(TopicValue.of(TOPIC_1, 42)));
+    }
+
+    @Test
+    public void shouldEmitValuesOfTopicWhenChanged() {
+      final FakePublisher<Integer> publisher1 = registerPublisher(TOPIC_1);
+      final FakePublisher<Integer> publisher2 = registerPublisher(TOPIC_1);
+      final RecordingSubscriber subscriber = subscribe();
+      subscriber.request(Long.MAX_VALUE);
+
+      publisher1.publish(1);
+      publisher2.publish(2);
+
+      assertThat(subscriber.events, contains(TopicValue.of(TOPIC_1, 1), TopicValue.of(TOPIC_1, 1), TopicValue.of(TOPIC_1, 2)));
+    }
+
+    @Test
+    public void shouldReplacePendingValuesOfTopicWithLatestValues() {
+      final FakePublisher<Integer> publisher1 = registerPublisher(TOPIC_1);
+      final FakePublisher<Integer> publisher2 = registerPublisher(TOPIC_2);
+      final RecordingSubscriber subscriber = subscribe();
+
+      publisher1.publish(1);
+      publisher2.publish(2);
+      publisher1.publish(3);
+      subscriber.request(Long.MAX_VALUE);
+
+      assertThat(subscriber.events, contains(TopicValue.of(TOPIC_2, 2), TopicValue.of(TOPIC_1, 3)));
+    }
+
+    @Test
+    public void shouldUnregisterBrokerSubscriberWhenCancelledOnSubscribingThread() {
+      final BrokerInstrumentation instrumentation = mock(BrokerInstrumentation.class);
+      final DefaultBroker instrumentedBroker = new DefaultBroker(instrumentation, false);
+      final RecordingSubscriber subscriber = new RecordingSubscriber();
+      new TopicFlowPublisher(instrumentedBroker, TopicMatcher.forTopic(TOPIC_1)).subscribe(subscriber);
+
+      subscriber.cancel();
+
+      verify(instrumentation).subscriberUnregistered(any());
+    }
+
+    @Test
+    public void shouldUnregisterBrokerSubscriberWhenCancelledOnAnotherThread() throws Exception {
+      final BrokerInstrumentation instrumentation = mock(BrokerInstrumentation.class);
+      final ConcurrentBroker concurrentBroker = new ConcurrentBroker(instrumentation);
+      final RecordingSubscriber subscriber = new RecordingSubscriber();
+      new TopicFlowPublisher(concurrentBroker, TopicMatcher.forTopic(TOPIC_1)).subscribe(subscriber);
+
+      CompletableFuture.runAsync(subscriber::cancel).get(10L, TimeUnit.SECONDS);
+
+      verify(instrumentation).subscriberUnregistered(any());
+    }
+
+    @Test
+    public void shouldUnregisterBrokerSubscriberOnNextTickWhenCancelledOnAnotherThread() throws Exception {
+      final BrokerInstrumentation instrumentation = mock(BrokerInstrumentation.class);
+      final DefaultBroker instrumentedBroker = new DefaultBroker(instrumentation, true);
+      final RecordingSubscriber subscriber = new RecordingSubscriber();
+      new TopicFlowPublisher(instrumentedBroker, TopicMatcher.forTopic(TOPIC_1)).subscribe(subscriber);
+      CompletableFuture.runAsync(subscriber::cancel).get(10L, TimeUnit.SECONDS);
+      verify(instrumentation, never()).subscriberUnregistered(any());
+
+      instrumentedBroker.tick();
+
+      verify(instrumentation).subscriberUnregistered(any());
+    }
+
+    @Test
+    public void shouldUnregisterBrokerSubscriberWhenNotifiedAfterCancellationOnAnotherThread() throws Exception {
+      final BrokerInstrumentation instrumentation = mock(BrokerInstrumentation.class);
+      final DefaultBroker instrumentedBroker = new DefaultBroker(instrumentation, false);
+      final FakePublisher<Integer> publisher = instrumentedBroker
+          .<FakePublisher<Integer>>registerPublisher(TOPIC_1, FakePublisher.newFactory())
+          .getPublisher();
+      final RecordingSubscriber subscriber = new RecordingSubscriber();
+      new TopicFlowPublisher(instrumentedBroker, TopicMatcher.forTopic(TOPIC_1)).subscribe(subscriber);
+      CompletableFuture.runAsync(subscriber::cancel).get(10L, TimeUnit.SECONDS);
+      verify(instrumentation, never()).subscriberUnregistered(any());
+
+      publisher.publish(1);
+
+      verify(instrumentation).subscriberUnregistered(any());
+    }
+
+    @Test
+    public void shouldEmitValuesPublishedOnAnotherThreadToSubscriberRequestingOnAnotherThread() throws Exception {
+      final int publicationCount = 10_000;
+      final ConcurrentBroker concurrentBroker = new ConcurrentBroker();
+      final FakePublisher<Integer> publisher = concurrentBroker
+          .<FakePublisher<Integer>>registerPublisher(TOPIC_1, FakePublisher.newFactory())
+          .getPublisher();
+      final RecordingSubscriber subscriber = new RecordingSubscriber();
+      final CountDownLatch lastValueEmitted = new CountDownLatch(1);
+      subscriber.onEvent = event -> {
+        if (event.getValue().equals(publicationCount - 1)) {
+          lastValueEmitted.countDown();
+        }
+      };
+      new TopicFlowPublisher(concurrentBroker, TopicMatcher.forTopic(TOPIC_1)).subscribe(subscriber);
+
+      final CompletableFuture<Void> publishing = CompletableFuture.runAsync(() -> {
+        for (int i = 0; i < publicationCount; ++i) {
+          publisher.publish(i);
+        }
+      });
+      final CompletableFuture<Void> requesting = CompletableFuture.runAsync(() -> {
+        while (lastValueEmitted.getCount() > 0L) {
+          subscriber.request(1L);
+        }
+      });
+
+      assertThat(lastValueEmitted.await(10L, TimeUnit.SECONDS), is(true));
+      publishing.get(10L, TimeUnit.SECONDS);
+      requesting.get(10L, TimeUnit.SECONDS);
+      assertThat(subscriber.maxConcurrentSignalCount.get(), is(1));
+      int previousValue = -1;
+      for (final TopicValue<?> event : subscriber.events) {
+        assertThat((Integer) event.getValue() > previousValue, is(true));
+        previousValue = (Integer) event.getValue();
+      }
+    }
+  }
+
+  @Nested
+  public final class PublisherRulesTest {
+    @Test
+    public void rule_1_1_shouldNotEmitMoreEventsThanRequested() {
+      registerPublisher(TOPIC_1).publish(1);
+      registerPublisher(TOPIC_1).publish(2);
+      registerPublisher(TOPIC_2).publish(3);
+      final RecordingSubscriber subscriber = subscribe();
+
+      assertThat(subscriber.events, is(empty()));
+      subscriber.request(2L);
+      assertThat(subscriber.events.size(), is(2));
+      subscriber.request(1L);
+      assertThat(subscriber.events, containsInAnyOrder(
+          TopicValue.of(TOPIC_1, 1),
+          TopicValue.of(TOPIC_1, 2),
+          TopicValue.of(TOPIC_2, 3)));
+    }
+
+    @Test
+    public void rule_1_9_shouldCallOnSubscribeBeforeAnyOtherSignal() {
+      registerPublisher(TOPIC_1).publish(1);
+      final RecordingSubscriber subscriber = new RecordingSubscriber();
+      subscriber.requestOnSubscribe = Long.MAX_VALUE;
+
+      flowPublisher.subscribe(subscriber);
+
+      assertThat(subscriber.signalsBeforeOnSubscribe.get(), is(0));
+      assertThat(subscriber.events, contains(TopicValue.of(TOPIC_1, 1)));
+    }
+
+    @Test
+    public void rule_1_9_shouldThrowNullPointerExceptionWhenSubscriberIsNull() {
+      assertThrows(NullPointerException.class, () -> flowPublisher.subscribe(null));
+    }
+
+    @Test
+    public void rule_1_11_shouldSupportMultipleSubscribersWithIndependentDemand() {
+      registerPublisher(TOPIC_1).publish(1);
+      final RecordingSubscriber subscriber1 = subscribe();
+      final RecordingSubscriber subscriber2 = subscribe();
+
+      subscriber1.request(1L);
+
+      assertThat(subscriber1.events, contains(TopicValue.of(TOPIC_1, 1)));
+      assertThat(subscriber2.events, is(empty()));
+    }
+  }
+
+  @Nested
+  public final class SubscriptionRulesTest {
+    @Test
+    public void rule_3_3_shouldNotRecurseWhenRequestingFromOnNext() {
+      for (int i = 0; i < 1_000; ++i) {
+        registerPublisher(TOPIC_1).publish(i);
+      }
+      final RecordingSubscriber subscriber = new RecordingSubscriber();
+      final AtomicInteger depth = new AtomicInteger();
+      final AtomicInteger maxDepth = new AtomicInteger();
+      subscriber.onEvent = event -> {
+        maxDepth.accumulateAndGet(depth.incrementAndGet(), Math::max);
+        subscriber.request(1L);
+        depth.decrementAndGet();
+      };
+      flowPublisher.subscribe(subscriber);
+
+      subscriber.request(1L);
+
+      assertThat(subscriber.events.size(), is(1_000));
+      assertThat(maxDepth.get(), is(1));
+    }
+
+    @Test
+    public void rule_3_6_shouldNotEmitEventsAfterCancellation() {
+      final FakePublisher<Integer> publisher = registerPublisher(TOPIC_1);
+      final RecordingSubscriber subscriber = subscribe();
+      subscriber.request(Long.MAX_VALUE);
+      subscriber.events.clear();
+
+      subscriber.cancel();
+      publisher.publish(42);
+      subscriber.request(1L);
+
+      assertThat(subscriber.events, is(empty()));
+      assertThat(subscriber.error, is(nullValue()));
+    }
+
+    @Test
+    public void rule_3_9_shouldSignalOnErrorWhenRequestedCountIsNotPositive() {
+      final FakePublisher<Integer> publisher = registerPublisher(TOPIC_1);
+      final RecordingSubscriber subscriber = subscribe();
+
+      subscriber.request(0L);
+      publisher.publish(42);
+      subscriber.request(1L);
+
+      assertThat(subscriber.error, is(instanceOf(IllegalArgumentException.class)));
+      assertThat(subscriber.events, is(empty()));
+    }
+
+    @Test
+    public void rule_3_17_shouldTreatDemandOverflowingLongAsUnbounded() {
+      final FakePublisher<Integer> publisher = registerPublisher(TOPIC_1);
+      final RecordingSubscriber subscriber = subscribe();
+      subscriber.request(Long.MAX_VALUE - 1L);
+      subscriber.request(Long.MAX_VALUE - 1L);
+
+      for (int i = 0; i < 10; ++i) {
+        publisher.publish(i);
+      }
+
+      assertThat(subscriber.events.size(), is(10));
+      assertThat(subscriber.error, is(nullValue()));
+    }
+  }
+
+  private static final class RecordingSubscriber implements Flow.Subscriber<TopicValue<?>> {
+    private final AtomicInteger concurrentSignalCount = new AtomicInteger();
+    volatile @Nullable Throwable error;
+    final List<TopicValue<?>> events = new CopyOnWriteArrayList<>();
+    final AtomicInteger maxConcurrentSignalCount = new AtomicInteger();
+    volatile Consumer<TopicValue<?>> onEvent = event -> {
+      // do nothing
+    };
+    long requestOnSubscribe;
+    final AtomicInteger signalsBeforeOnSubscribe = new AtomicInteger();
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private volatile Flow.@Nullable Subscription subscription;
+
+    private void beginSignal() {
+      if (!subscribed.get()) {
+        signalsBeforeOnSubscribe.incrementAndGet();
+      }
+      maxConcurrentSignalCount.accumulateAndGet(concurrentSignalCount.incrementAndGet(), Math::max);
+    }
+
+    void cancel() {
+      getSubscription().cancel();
+    }
+
+    private void endSignal() {
+      concurrentSignalCount.decrementAndGet();
+    }
+
+    private Flow.Subscription getSubscription() {
+      final Flow.@Nullable Subscription subscription = this.subscription;
+      assert subscription != null;
+      return subscription;
+    }
+
+    @Override
+    public void onComplete() {
+      beginSignal();
+      endSignal();
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+      beginSignal();
+      error = throwable;
+      endSignal();
+    }
+
+    @Override
+    public void onNext(final TopicValue<?> event) {
+      beginSignal();
+      events.add(event);
+      onEvent.accept(event);
+      endSignal();
+    }
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription) {
+      this.subscription = subscription;
+      subscribed.set(true);
+      if (requestOnSubscribe > 0L) {
+        subscription.request(requestOnSubscribe);
+      }
+    }
+
+    void request(final long count) {
+      getSubscription().request(count);
+    }
+  }
+}
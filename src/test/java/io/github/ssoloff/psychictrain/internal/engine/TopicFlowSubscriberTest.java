@@ -0,0 +1,209 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import io.github.ssoloff.psychictrain.api.engine.BrokerInstrumentation;
+import io.github.ssoloff.psychictrain.api.engine.FakeSubscriber;
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicMatcher;
+
+// the nested tests are named after the rules of the Reactive Streams
+// specification for subscribers that they verify
+public final class TopicFlowSubscriberTest {
+  private static final int BATCH_SIZE = 4;
+  private static final Topic<Integer> TOPIC = Topic.of("topic", Integer.class);
+
+  private final DefaultBroker broker = new DefaultBroker(BrokerInstrumentation.noOp(), false);
+  private final AtomicInteger notificationCount = new AtomicInteger();
+  private final FakeSubscriber subscriber = broker
+      .registerSubscriber(
+          TopicMatcher.forTopic(TOPIC),
+          FakeSubscriber.newFactory(topics -> notificationCount.incrementAndGet()))
+      .getSubscriber();
+  private final Flow.Subscription subscription = mock(Flow.Subscription.class);
+  private final TopicFlowSubscriber<Integer> flowSubscriber = new TopicFlowSubscriber<>(broker, TOPIC, BATCH_SIZE);
+
+  @AfterEach
+  public void tearDown() {
+    flowSubscriber.close();
+  }
+
+  private List<Integer> getValues() {
+    return new ArrayList<>(subscriber.getContext().getValuesForTopic(TOPIC));
+  }
+
+  @Nested
+  public final class BasicTest {
+    @Test
+    public void shouldRequestBatchSizeElementsOnSubscription() {
+      flowSubscriber.onSubscribe(subscription);
+
+      verify(subscription).request(BATCH_SIZE);
+    }
+
+    @Test
+    public void shouldPublishElementsReceivedSincePreviousPollWhenPolled() {
+      flowSubscriber.onSubscribe(subscription);
+      flowSubscriber.onNext(1);
+      flowSubscriber.onNext(2);
+      assertThat(getValues(), is(empty()));
+
+      assertThat(flowSubscriber.poll(), is(2));
+
+      assertThat(getValues(), contains(2));
+    }
+
+    @Test
+    public void shouldPublishElementsReceivedSincePreviousPollInSingleBatch() {
+      flowSubscriber.onSubscribe(subscription);
+      flowSubscriber.onNext(1);
+      flowSubscriber.onNext(2);
+      flowSubscriber.onNext(3);
+      notificationCount.set(0);
+
+      flowSubscriber.poll();
+
+      assertThat(notificationCount.get(), is(1));
+    }
+
+    @Test
+    public void shouldRequestAsManyElementsAsWerePublishedWhenPolled() {
+      flowSubscriber.onSubscribe(subscription);
+      flowSubscriber.onNext(1);
+      flowSubscriber.onNext(2);
+      flowSubscriber.onNext(3);
+
+      flowSubscriber.poll();
+
+      verify(subscription).request(3L);
+    }
+
+    @Test
+    public void shouldNotRequestElementsWhenPolledWithoutReceivingElements() {
+      flowSubscriber.onSubscribe(subscription);
+
+      assertThat(flowSubscriber.poll(), is(0));
+
+      verify(subscription, never()).request(0L);
+    }
+
+    @Test
+    public void shouldCancelSubscriptionWhenMoreElementsReceivedThanRequested() {
+      flowSubscriber.onSubscribe(subscription);
+      for (int i = 0; i <= BATCH_SIZE; ++i) {
+        flowSubscriber.onNext(i);
+      }
+
+      verify(subscription).cancel();
+    }
+
+    @Test
+    public void shouldUnregisterPublisherWhenPolledAfterCompletion() {
+      flowSubscriber.onSubscribe(subscription);
+      flowSubscriber.onNext(1);
+      flowSubscriber.poll();
+      assertThat(getValues(), contains(1));
+
+      flowSubscriber.onComplete();
+      flowSubscriber.poll();
+
+      assertThat(getValues(), is(empty()));
+    }
+
+    @Test
+    public void shouldUnregisterPublisherWhenPolledAfterError() {
+      flowSubscriber.onSubscribe(subscription);
+      flowSubscriber.onNext(1);
+      flowSubscriber.poll();
+
+      flowSubscriber.onError(new RuntimeException());
+      flowSubscriber.poll();
+
+      assertThat(getValues(), is(empty()));
+    }
+
+    @Test
+    public void shouldCancelSubscriptionAndUnregisterPublisherWhenClosed() {
+      flowSubscriber.onSubscribe(subscription);
+      flowSubscriber.onNext(1);
+      flowSubscriber.poll();
+
+      flowSubscriber.close();
+
+      verify(subscription).cancel();
+      assertThat(getValues(), is(empty()));
+    }
+
+    @Test
+    public void shouldPublishElementsOfSubmissionPublisher() {
+      final SubmissionPublisher<Integer> publisher = new SubmissionPublisher<>();
+      publisher.subscribe(flowSubscriber);
+      for (int i = 0; i < 100; ++i) {
+        publisher.submit(i);
+      }
+      publisher.close();
+
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+      int publishedCount = 0;
+      while ((publishedCount < 100) && (System.nanoTime() < deadline)) {
+        publishedCount += flowSubscriber.poll();
+        if ((publishedCount > 0) && (publishedCount < 100)) {
+          assertThat(getValues(), contains(publishedCount - 1));
+        }
+      }
+
+      assertThat(publishedCount, is(100));
+    }
+  }
+
+  @Nested
+  public final class SubscriberRulesTest {
+    @Test
+    public void rule_2_5_shouldCancelSubscriptionWhenAlreadySubscribed() {
+      final Flow.Subscription otherSubscription = mock(Flow.Subscription.class);
+      flowSubscriber.onSubscribe(subscription);
+
+      flowSubscriber.onSubscribe(otherSubscription);
+
+      verify(otherSubscription).cancel();
+      verify(subscription, never()).cancel();
+    }
+
+    @Test
+    public void rule_2_13_shouldThrowNullPointerExceptionWhenElementIsNull() {
+      flowSubscriber.onSubscribe(subscription);
+
+      assertThrows(NullPointerException.class, () -> flowSubscriber.onNext(null));
+    }
+
+    @Test
+    public void rule_2_13_shouldThrowNullPointerExceptionWhenSubscriptionIsNull() {
+      assertThrows(NullPointerException.class, () -> flowSubscriber.onSubscribe(null));
+    }
+
+    @Test
+    public void rule_2_13_shouldThrowNullPointerExceptionWhenThrowableIsNull() {
+      flowSubscriber.onSubscribe(subscription);
+
+      assertThrows(NullPointerException.class, () -> flowSubscriber.onError(null));
+    }
+  }
+}
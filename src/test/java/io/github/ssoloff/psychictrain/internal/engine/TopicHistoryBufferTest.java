@@ -0,0 +1,143 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.base.Ticker;
+
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+import io.github.ssoloff.psychictrain.api.engine.TopicHistory;
+import io.github.ssoloff.psychictrain.api.engine.WindowAggregate;
+
+public final class TopicHistoryBufferTest {
+  private long now;
+  private final Ticker ticker = new Ticker() {
+    @Override
+    public long read() {
+      return now;
+    }
+  };
+
+  private static <@NonNull T> TopicHistoryBuffer newHistoryBuffer(final Class<T> type, final TopicHistory history) {
+    return new TopicHistoryBuffer(Topic.of("historyBufferTopic", type), history);
+  }
+
+  private static <@NonNull T> void record(final TopicHistoryBuffer historyBuffer, final Class<T> type, final T value) {
+    final PublisherEntry publisherEntry = new PublisherEntry(Topic.of("publisherTopic", type));
+    publisherEntry.setValue(value);
+    historyBuffer.record(publisherEntry);
+  }
+
+  private static void recordDouble(final TopicHistoryBuffer historyBuffer, final double value) {
+    final PublisherEntry publisherEntry = new PublisherEntry(Topic.of("publisherTopic", Double.class));
+    publisherEntry.setDoubleValue(value);
+    historyBuffer.record(publisherEntry);
+  }
+
+  @Test
+  public void shouldReturnLatestValuesOldestFirst() {
+    final TopicHistoryBuffer historyBuffer = newHistoryBuffer(String.class, TopicHistory.ofLastValues(2));
+
+    record(historyBuffer, String.class, "a");
+    record(historyBuffer, String.class, "b");
+    record(historyBuffer, String.class, "c");
+
+    assertThat(historyBuffer.getValues(), contains("b", "c"));
+    assertThat(historyBuffer.getAggregate(), is(WindowAggregate.empty()));
+  }
+
+  @Test
+  public void shouldEvictValuesOlderThanDuration() {
+    final TopicHistoryBuffer historyBuffer = newHistoryBuffer(
+        Double.class,
+        TopicHistory.ofLastDuration(Duration.ofNanos(10L), 100).withTicker(ticker));
+
+    recordDouble(historyBuffer, 1.0);
+    now = 5L;
+    recordDouble(historyBuffer, 2.0);
+    now = 11L;
+    recordDouble(historyBuffer, 3.0);
+
+    assertThat(historyBuffer.getValues(), contains(2.0, 3.0));
+    assertThat(historyBuffer.getAggregate(), is(WindowAggregate.of(2, 5.0, 2.0, 3.0)));
+
+    now = 30L;
+
+    assertThat(historyBuffer.getValues(), is(empty()));
+    assertThat(historyBuffer.getAggregate(), is(WindowAggregate.empty()));
+  }
+
+  @Test
+  public void shouldAggregateNumbersThatAreNotHeldUnboxed() {
+    final TopicHistoryBuffer historyBuffer = newHistoryBuffer(BigDecimal.class, TopicHistory.ofLastValues(3));
+
+    record(historyBuffer, BigDecimal.class, new BigDecimal("1.5"));
+    record(historyBuffer, BigDecimal.class, new BigDecimal("2.5"));
+
+    assertThat(historyBuffer.getValues(), contains(new BigDecimal("1.5"), new BigDecimal("2.5")));
+    assertThat(historyBuffer.getAggregate().getMean(), is(2.0));
+  }
+
+  @Test
+  public void shouldMaintainAggregatesOfSlidingWindow() {
+    final int capacity = 7;
+    final TopicHistoryBuffer historyBuffer = newHistoryBuffer(Integer.class, TopicHistory.ofLastValues(capacity));
+    final Deque<Integer> expectedValues = new ArrayDeque<>();
+    final Random random = new Random(42L);
+
+    for (int i = 0; i < 1_000; ++i) {
+      final int value = random.nextInt(20) - 10;
+      record(historyBuffer, Integer.class, value);
+      expectedValues.addLast(value);
+      if (expectedValues.size() > capacity) {
+        expectedValues.removeFirst();
+      }
+
+      final WindowAggregate aggregate = historyBuffer.getAggregate();
+      assertThat(aggregate.getCount(), is(expectedValues.size()));
+      assertThat(aggregate.getSum(), is(closeTo(expectedValues.stream().mapToInt(Integer::intValue).sum(), 1e-9)));
+      assertThat(aggregate.getMin(), is((double) expectedValues.stream().mapToInt(Integer::intValue).min().getAsInt()));
+      assertThat(aggregate.getMax(), is((double) expectedValues.stream().mapToInt(Integer::intValue).max().getAsInt()));
+    }
+  }
+
+  @Test
+  public void shouldNotLoseSmallValuesWhenLargeValueIsEvicted() {
+    final TopicHistoryBuffer historyBuffer = newHistoryBuffer(Double.class, TopicHistory.ofLastValues(3));
+
+    recordDouble(historyBuffer, 1e20);
+    recordDouble(historyBuffer, 1.0);
+    recordDouble(historyBuffer, 1.0);
+    recordDouble(historyBuffer, 1.0);
+    recordDouble(historyBuffer, 1.0);
+
+    assertThat(historyBuffer.getAggregate().getSum(), is(3.0));
+  }
+
+  @Test
+  public void shouldMaintainAggregatesOfMonotonicValues() {
+    final TopicHistoryBuffer historyBuffer = newHistoryBuffer(Integer.class, TopicHistory.ofLastValues(3));
+
+    for (int i = 1; i <= 10; ++i) {
+      record(historyBuffer, Integer.class, i);
+    }
+    assertThat(historyBuffer.getAggregate(), is(WindowAggregate.of(3, 27.0, 8.0, 10.0)));
+
+    for (int i = 9; i >= 1; --i) {
+      record(historyBuffer, Integer.class, i);
+    }
+    assertThat(historyBuffer.getAggregate(), is(WindowAggregate.of(3, 6.0, 1.0, 3.0)));
+  }
+}
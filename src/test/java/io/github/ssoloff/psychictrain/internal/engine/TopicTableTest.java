@@ -0,0 +1,76 @@
+package io.github.ssoloff.psychictrain.internal.engine;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.ssoloff.psychictrain.api.engine.Topic;
+
+public final class TopicTableTest {
+  private static final List<Topic<Integer>> TOPICS = newTopics(200);
+
+  private final TopicTable<String> topicTable = new TopicTable<>();
+
+  private static List<Topic<Integer>> newTopics(final int count) {
+    final List<Topic<Integer>> topics = new ArrayList<>(count);
+    for (int i = 0; i < count; ++i) {
+      topics.add(Topic.of("topicTableTopic" + i, Integer.class));
+    }
+    return topics;
+  }
+
+  @Test
+  public void shouldReturnValueComputedForTopic() {
+    topicTable.computeIfAbsent(TOPICS.get(0), topic -> "a");
+
+    assertThat(topicTable.computeIfAbsent(TOPICS.get(0), topic -> "b"), is("a"));
+    assertThat(topicTable.get(TOPICS.get(0)), is("a"));
+    assertThat(topicTable.get(TOPICS.get(1)), is(nullValue()));
+  }
+
+  @Test
+  public void shouldRetainOtherValuesWhenValueRemoved() {
+    topicTable.computeIfAbsent(TOPICS.get(0), topic -> "a");
+    topicTable.computeIfAbsent(TOPICS.get(1), topic -> "b");
+    topicTable.computeIfAbsent(TOPICS.get(2), topic -> "c");
+
+    topicTable.remove(TOPICS.get(0));
+
+    assertThat(topicTable.get(TOPICS.get(0)), is(nullValue()));
+    assertThat(topicTable.get(TOPICS.get(1)), is("b"));
+    assertThat(topicTable.get(TOPICS.get(2)), is("c"));
+    assertThat(topicTable.values(), containsInAnyOrder("b", "c"));
+  }
+
+  @Test
+  public void shouldBehaveAsMapWhenValuesAddedAndRemovedInRandomOrder() {
+    final Map<Topic<Integer>, String> expectedValuesByTopic = new HashMap<>();
+    final Random random = new Random(42L);
+
+    for (int i = 0; i < 10_000; ++i) {
+      final Topic<Integer> topic = TOPICS.get(random.nextInt(TOPICS.size()));
+      if (random.nextBoolean()) {
+        final String value = topic.getName();
+        topicTable.computeIfAbsent(topic, unused -> value);
+        expectedValuesByTopic.put(topic, value);
+      } else {
+        topicTable.remove(topic);
+        expectedValuesByTopic.remove(topic);
+      }
+
+      assertThat(topicTable.values(), containsInAnyOrder(expectedValuesByTopic.values().toArray()));
+    }
+    for (final Topic<Integer> topic : TOPICS) {
+      assertThat(topicTable.get(topic), is(expectedValuesByTopic.get(topic)));
+    }
+  }
+}